@@ -25,15 +25,72 @@ public abstract class AbstractInClause implements InClause {
     private final Object[] elements;
     private final boolean not;
     private final TableAliaser referenceIndices;
+    private final SqlBindParameters bindParameters;
 
     protected AbstractInClause(ColumnSpec columnSpec, Object[] elements, boolean not,
             TableAliaser referenceIndices) {
+        this(columnSpec, elements, not, referenceIndices, null);
+    }
+
+    /**
+     * Creates an IN clause that emits its elements as bind parameters. The
+     * elements are inlined as literals instead if there are more than
+     * {@link SqlBindParameters#MAX_IN_CLAUSE_PARAMETERS} of them, or if they
+     * would take the statement over
+     * {@link SqlBindParameters#MAX_STATEMENT_PARAMETERS}. Create the clause
+     * right before generating it, because what fits depends on the values
+     * that the statement has bound so far.
+     *
+     * @param columnSpec the column.
+     * @param elements the elements.
+     * @param not whether this is a <code>NOT IN</code> clause.
+     * @param referenceIndices the table aliases.
+     * @param bindParameters the bind parameters of the statement being
+     * generated, or <code>null</code> to inline the elements as literals.
+     */
+    protected AbstractInClause(ColumnSpec columnSpec, Object[] elements, boolean not,
+            TableAliaser referenceIndices, SqlBindParameters bindParameters) {
         this.columnSpec = columnSpec;
-        this.elements = elements;
+        Object[] boundElements = null;
+        if (bindParameters != null
+                && elements.length <= SqlBindParameters.MAX_IN_CLAUSE_PARAMETERS) {
+            boundElements = SqlBindParameters.padInClauseElements(elements);
+            if (!bindParameters.hasRoomFor(boundElements.length)) {
+                boundElements = bindParameters.hasRoomFor(elements.length)
+                        ? elements : null;
+            }
+        }
+        if (boundElements != null) {
+            this.bindParameters = bindParameters;
+            this.elements = boundElements;
+        } else {
+            this.bindParameters = null;
+            this.elements = elements;
+        }
         this.not = not;
         this.referenceIndices = referenceIndices;
     }
 
+    /**
+     * Gets the elements to put in the clause, padded if they will be emitted
+     * as bind parameters.
+     *
+     * @return the elements.
+     */
+    protected final Object[] getElements() {
+        return this.elements;
+    }
+
+    /**
+     * Generates an SQL-ready string for the given element.
+     *
+     * @param val an element.
+     * @return a placeholder or a literal.
+     */
+    protected final String prepareValue(Object val) {
+        return SqlGeneratorUtil.prepareValue(val, this.bindParameters);
+    }
+
     @Override
     public String generateClause() {
         StringBuilder result = new StringBuilder();
@@ -45,7 +102,7 @@ public abstract class AbstractInClause implements InClause {
         result.append(" IN (");
         for (int k = 0; k < elements.length; k++) {
             Object sqlCode = elements[k];
-            result.append(SqlGeneratorUtil.prepareValue(sqlCode));
+            result.append(prepareValue(sqlCode));
             if (k + 1 < elements.length) {
                 result.append(',');
             }
@@ -23,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.arp.javautil.arrays.Arrays;
 import org.arp.javautil.collections.Collections;
 import org.arp.javautil.sql.ConnectionSpec;
+import org.arp.javautil.sql.InvalidConnectionSpecArguments;
 import org.protempa.DataSourceReadException;
 import org.protempa.DataStreamingEventIterator;
 import org.protempa.UniqueIdPair;
@@ -35,7 +36,9 @@ import org.protempa.proposition.value.Unit;
 import org.protempa.proposition.value.UnitFactory;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -44,6 +47,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -51,7 +55,6 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,7 +68,17 @@ import org.protempa.ProtempaEvent;
 public abstract class AbstractSQLGenerator implements SQLGenerator {
 
     static final int FETCH_SIZE = 10000;
-    private static final int DEFAULT_QUERY_THREAD_COUNT = 4;
+    /**
+     * The least number of key ids' worth of data that each shard reads
+     * ahead, so that the shards are read in parallel. Key id stripes read at
+     * least their largest range ahead.
+     */
+    static final int SHARD_READ_AHEAD_BUFFER_SIZE = 16;
+    /**
+     * How many ranges of key ids each key id stripe gets. More ranges mean
+     * less read-ahead and longer where clauses.
+     */
+    static final int KEY_RANGES_PER_STRIPE = 32;
     private static final String READ_PROPOSITION_SQL = "select {0} from {1} {2}";
     private ConnectionSpec connectionSpec;
     private final Map<String, List<EntitySpec>> primitiveParameterSpecs;
@@ -77,13 +90,15 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
     private GranularityFactory granularities;
     private UnitFactory units;
     private RelationalDbDataSourceBackend backend;
-    private int queryThreadCount;
+    private final boolean bindParameters;
+    private volatile boolean keyStripesUnsupported;
 
     protected AbstractSQLGenerator() {
         this.primitiveParameterSpecs = new HashMap<>();
         this.eventSpecs = new HashMap<>();
         this.constantSpecs = new HashMap<>();
-        this.queryThreadCount = DEFAULT_QUERY_THREAD_COUNT;
+        this.bindParameters = Boolean.getBoolean(
+                SQLGenUtil.SYSTEM_PROPERTY_BIND_PARAMETERS);
     }
 
     @Override
@@ -101,10 +116,6 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
             this.granularities = relationalDatabaseSpec.getGranularities();
             this.units = relationalDatabaseSpec.getUnits();
             this.connectionSpec = connectionSpec;
-            Integer queryThreadCountSetting = backend.getQueryThreadCount();
-            if (queryThreadCountSetting != null) {
-                this.queryThreadCount = queryThreadCountSetting;
-            }
         } else {
             throw new IllegalArgumentException(
                     "relationalDatabaseSpec cannot be null");
@@ -150,6 +161,7 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
         private final Filter filters;
         private final Set<String> propIds;
         private final Set<String> keyIds;
+        private final KeyStripe keyStripe;
         private final EntitySpec entitySpec;
 
         public SQLExecutorCallable(EntitySpec entitySpec,
@@ -157,13 +169,15 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
                 Collection<EntitySpec> allEntitySpecs,
                 Filter filters,
                 Set<String> propIds,
-                Set<String> keyIds) {
+                Set<String> keyIds,
+                KeyStripe keyStripe) {
             this.entitySpec = entitySpec;
             this.allEntitySpecToResultProcessor = allEntitySpecToResultProcessor;
             this.allEntitySpecs = allEntitySpecs;
             this.filters = filters;
             this.propIds = propIds;
             this.keyIds = keyIds;
+            this.keyStripe = keyStripe;
         }
 
         @Override
@@ -176,16 +190,20 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
                             new Date(), 
                             this.entitySpec.getName()));
             Connection conn;
-            try {
-                conn = connectionSpec.getOrCreate();
-            } catch (SQLException ex) {
-                throw new DataSourceReadException(ex);
+            if (connectionSpec == null) {
+                conn = null;
+            } else {
+                try {
+                    conn = backend.getOrCreateStreamingConnection();
+                } catch (InvalidConnectionSpecArguments | SQLException ex) {
+                    throw new DataSourceReadException(ex);
+                }
             }
             return processEntitySpecStreaming(this.entitySpec,
                     allEntitySpecToResultProcessor,
                     allEntitySpecs, filters,
                     propIds,
-                    keyIds, new StreamingSQLExecutor(
+                    keyIds, keyStripe, new StreamingSQLExecutor(
                             conn, backendNameForMessages(),
                             backend.getQueryTimeout()));
         }
@@ -204,52 +222,216 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
                 = allEntitySpecToResultProcessor.keySet();
 
         final List<StreamingIteratorPair> itrs = new ArrayList<>();
-        ExecutorService executor = Executors.newFixedThreadPool(this.queryThreadCount);
+        ExecutorService executor = this.backend.getQueryExecutor();
         List<Future<List<StreamingIteratorPair>>> list = new ArrayList<>();
-        List<Connection> connections = new ArrayList<>();
+        Set<Connection> connections = new LinkedHashSet<>();
+        List<KeyShard> shards = keyShards(keyIds);
         for (EntitySpec entitySpec : entitySpecToPropIds.keySet()) {
-            list.add(executor.submit(new SQLExecutorCallable(entitySpec, allEntitySpecToResultProcessor, allEntitySpecs, filters, propIds, keyIds)));
+            for (KeyShard shard : shards) {
+                list.add(executor.submit(new SQLExecutorCallable(entitySpec, allEntitySpecToResultProcessor, allEntitySpecs, filters, propIds, shard.keyIds, shard.keyStripe)));
+            }
         }
 
+        DataSourceReadException exception = null;
         for (Future<List<StreamingIteratorPair>> future : list) {
             try {
-                itrs.addAll(future.get());
+                List<StreamingIteratorPair> pairs = future.get();
+                for (StreamingIteratorPair pair : pairs) {
+                    if (pair.getConnection() != null) {
+                        connections.add(pair.getConnection());
+                    }
+                }
+                itrs.addAll(pairs);
             } catch (InterruptedException ex) {
                 SQLGenUtil.logger().log(Level.FINER, "SQL generation thread interrupted", ex);
             } catch (ExecutionException ex) {
-                throw new DataSourceReadException(ex);
+                if (exception == null) {
+                    exception = new DataSourceReadException(ex);
+                }
+            }
+        }
+        if (exception != null) {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException ignore) {
+                    exception.addSuppressed(ignore);
+                }
             }
+            throw exception;
         }
-        executor.shutdown();
 
         List<DataStreamingEventIterator<Proposition>> events
                 = new ArrayList<>(
                         itrs.size());
         List<DataStreamingEventIterator<UniqueIdPair>> refs
                 = new ArrayList<>();
+        int readAheadBufferSize = this.backend.getReadAheadBufferSize();
+        if (shards.size() > 1) {
+            readAheadBufferSize = Math.max(readAheadBufferSize,
+                    SHARD_READ_AHEAD_BUFFER_SIZE);
+            for (KeyShard shard : shards) {
+                if (shard.keyStripe != null) {
+                    readAheadBufferSize = Math.max(readAheadBufferSize,
+                            shard.keyStripe.getMaxRangeSize());
+                }
+            }
+        }
         for (StreamingIteratorPair pair : itrs) {
-            events.add(pair.getProps());
+            if (readAheadBufferSize > 0) {
+                ReadAheadDataStreamingEventIterator<Proposition> readAhead
+                        = new ReadAheadDataStreamingEventIterator<>(
+                                pair.getProps(), readAheadBufferSize,
+                                pair.getEntitySpecName(), pair.getConnection());
+                readAhead.start();
+                events.add(readAhead);
+            } else {
+                events.add(pair.getProps());
+            }
             refs.addAll(pair.getRefs());
         }
         RelationalDbDataReadIterator streamingResults
-                = new RelationalDbDataReadIterator(refs, events, connections);
+                = new RelationalDbDataReadIterator(refs, events,
+                        new ArrayList<>(connections));
 
         return streamingResults;
 
     }
 
+    /**
+     * The key ids that one of the queries for an entity spec reads: either a
+     * subset of the key ids of interest or a stripe of key ids.
+     */
+    private static final class KeyShard {
+
+        private final Set<String> keyIds;
+        private final KeyStripe keyStripe;
+
+        KeyShard(Set<String> keyIds, KeyStripe keyStripe) {
+            this.keyIds = keyIds;
+            this.keyStripe = keyStripe;
+        }
+    }
+
+    /**
+     * Splits the key ids to read into the backend's
+     * {@link RelationalDbDataSourceBackend#getKeyShardCount() shard count}
+     * disjoint shards. The shards are interleaved: specific key ids are
+     * sorted and dealt out to the shards in turn, and otherwise the key id
+     * table is divided into ranges once per read, which are dealt out to
+     * {@link KeyStripe}s in turn. Because the results of the shards' queries
+     * are merged by key id, contiguous shards would be read one after
+     * another. The key id table is not divided if the database cannot
+     * compute the ranges, and after the first such failure it is not tried
+     * again.
+     *
+     * @param keyIds the key ids of interest, if any.
+     * @return the shards.
+     */
+    private List<KeyShard> keyShards(Set<String> keyIds) {
+        int shardCount = this.backend.getKeyShardCount();
+        if (shardCount > 1 && this.connectionSpec != null) {
+            List<KeyShard> result = new ArrayList<>(shardCount);
+            if (keyIds != null && !keyIds.isEmpty()) {
+                for (Set<String> shardKeyIds : KeyStripe.split(keyIds, shardCount)) {
+                    result.add(new KeyShard(shardKeyIds, null));
+                }
+                return result;
+            } else if (!this.keyStripesUnsupported) {
+                List<KeyStripe> stripes = readKeyStripes(shardCount);
+                if (stripes != null && stripes.size() > 1) {
+                    for (KeyStripe stripe : stripes) {
+                        result.add(new KeyShard(keyIds, stripe));
+                    }
+                    SQLGenUtil.logger().log(Level.FINE,
+                            "Reading {0} key id stripes", stripes.size());
+                    return result;
+                }
+            }
+        }
+        return java.util.Collections.singletonList(new KeyShard(keyIds, null));
+    }
+
+    /**
+     * Divides the key id table into ranges with one query and deals them out
+     * to stripes.
+     *
+     * @param stripeCount the number of stripes.
+     * @return the stripes, or <code>null</code> if the key id table is not
+     * configured or the database could not compute the ranges.
+     */
+    private List<KeyStripe> readKeyStripes(int stripeCount) {
+        String query = getKeyRangesQuery(stripeCount * KEY_RANGES_PER_STRIPE);
+        if (query == null) {
+            return null;
+        }
+        Logger logger = SQLGenUtil.logger();
+        logger.log(Level.FINE, "Data source backend {0} is computing key id ranges: {1}",
+                new Object[]{backendNameForMessages(), query});
+        try (Connection con = this.backend.getOrCreateConnection();
+                Statement stmt = con.createStatement();
+                ResultSet resultSet = stmt.executeQuery(query)) {
+            List<String> firstKeyIds = new ArrayList<>();
+            List<Integer> rangeSizes = new ArrayList<>();
+            while (resultSet.next()) {
+                firstKeyIds.add(resultSet.getString(1));
+                rangeSizes.add(resultSet.getInt(2));
+            }
+            return KeyStripe.stripes(firstKeyIds, rangeSizes, stripeCount);
+        } catch (InvalidConnectionSpecArguments | SQLException ex) {
+            this.keyStripesUnsupported = true;
+            logger.log(Level.WARNING,
+                    "Data source backend {0} could not compute key id ranges; reading all key ids with one query per entity spec",
+                    backendNameForMessages());
+            logger.log(Level.FINE, "Error computing key id ranges", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a query that divides the key id table into ranges of about the
+     * same number of key ids. It must return one row per range in key id
+     * order, with the range's first key id in the first column and its
+     * number of key ids in the second. The key id table is the key loader
+     * table when the backend is in key set mode, and its key id column must
+     * sort the same way as the key id columns of the entity specs. The
+     * default implementation uses the standard <code>NTILE</code> window
+     * function. Override this method for databases that lack window
+     * functions.
+     *
+     * @param rangeCount the maximum number of ranges.
+     * @return a query, or <code>null</code> if the key id table is not
+     * configured.
+     */
+    protected String getKeyRangesQuery(int rangeCount) {
+        String table = this.backend.getKeyLoaderKeyIdTable();
+        String column = this.backend.getKeyLoaderKeyIdColumn();
+        if (table == null || column == null) {
+            return null;
+        }
+        String schema = this.backend.getKeyLoaderKeyIdSchema();
+        if (schema != null) {
+            table = schema + '.' + table;
+        }
+        return "SELECT MIN(k), COUNT(*) FROM (SELECT " + column + " k, NTILE("
+                + rangeCount + ") OVER (ORDER BY " + column + ") t FROM "
+                + table + " WHERE " + column + " IS NOT NULL) s GROUP BY t ORDER BY t";
+    }
+
     private class StreamingIteratorPair {
 
         private final DataStreamingEventIterator<Proposition> props;
         private final List<? extends DataStreamingEventIterator<UniqueIdPair>> refs;
         private final Connection connection;
+        private final String entitySpecName;
 
         StreamingIteratorPair(DataStreamingEventIterator<Proposition> props,
                 List<? extends DataStreamingEventIterator<UniqueIdPair>> refs,
-                Connection connection) {
+                Connection connection, String entitySpecName) {
             this.props = props;
             this.refs = refs;
             this.connection = connection;
+            this.entitySpecName = entitySpecName;
         }
 
         public DataStreamingEventIterator<Proposition> getProps() {
@@ -264,12 +446,16 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
             return connection;
         }
 
+        public String getEntitySpecName() {
+            return entitySpecName;
+        }
+
     }
 
     private List<StreamingIteratorPair> processEntitySpecStreaming(EntitySpec entitySpec,
             Map<EntitySpec, SQLGenResultProcessorFactory> allEntitySpecToResultProcessor,
             Collection<EntitySpec> allEntitySpecs, Filter filters,
-            Set<String> propIds, Set<String> keyIds,
+            Set<String> propIds, Set<String> keyIds, KeyStripe keyStripe,
             StreamingSQLExecutor executor)
             throws DataSourceReadException {
         List<StreamingIteratorPair> result = new ArrayList<>();
@@ -301,7 +487,7 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
 
         for (Set<Filter> filterSet : partitions) {
             generateAndExecuteSelectStreaming(entitySpec, propIds, filterSet,
-                    applicableEntitySpecs, inboundRefSpecs, keyIds,
+                    applicableEntitySpecs, inboundRefSpecs, keyIds, keyStripe,
                     SQLOrderBy.ASCENDING,
                     resultProcessor, executor, true);
             DataStreamingEventIterator<Proposition> results
@@ -309,7 +495,8 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
             List<DataStreamingEventIterator<UniqueIdPair>> refResults
                     = java.util.Collections.singletonList(resultProcessor
                             .getInboundReferenceResults());
-            result.add(new StreamingIteratorPair(results, refResults, executor.getConnection()));
+            result.add(new StreamingIteratorPair(results, refResults,
+                    executor.getConnection(), entitySpec.getName()));
         }
 
         logDoneProcessing(logger, entitySpec);
@@ -531,6 +718,7 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
             Set<String> propIds, Set<Filter> filtersCopy,
             List<EntitySpec> entitySpecsCopy, 
             LinkedHashMap<String, ReferenceSpec> inboundRefSpecs, Set<String> keyIds,
+            KeyStripe keyStripe,
             SQLOrderBy order, StreamingResultProcessor<P> resultProcessor,
             StreamingSQLExecutor executor,
             boolean wrapKeyId) throws DataSourceReadException {
@@ -544,10 +732,26 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
                     new Object[]{backendNameForMessages, entitySpecName});
         }
 
-        String query = getSelectStatement(entitySpec,
+        SelectStatement selectStatement = getSelectStatement(entitySpec,
                 entitySpecsCopy, inboundRefSpecs, filtersCopy, propIds,
                 keyIds, order,
-                resultProcessor, wrapKeyId).generateStatement();
+                resultProcessor, wrapKeyId);
+        if (keyStripe != null) {
+            if (!(selectStatement instanceof AbstractSelectStatement)) {
+                throw new DataSourceReadException("SQL generator "
+                        + getClass().getName()
+                        + " does not support key sharding");
+            }
+            ((AbstractSelectStatement) selectStatement).setKeyStripe(keyStripe);
+        }
+        SqlBindParameters params = null;
+        if (this.bindParameters
+                && selectStatement instanceof AbstractSelectStatement) {
+            params = new SqlBindParameters();
+            ((AbstractSelectStatement) selectStatement)
+                    .setBindParameters(params);
+        }
+        String query = selectStatement.generateStatement();
 
         if (logger.isLoggable(Level.FINE)) {
             logger.log(
@@ -555,8 +759,15 @@ public abstract class AbstractSQLGenerator implements SQLGenerator {
                     "Data source backend {0} generated the following query for {1}: {2}",
                     new Object[]{backendNameForMessages, entitySpecName,
                         query});
+            if (params != null) {
+                logger.log(Level.FINE,
+                        "Data source backend {0} is binding the following parameters for {1}: {2}",
+                        new Object[]{backendNameForMessages, entitySpecName,
+                            params.getValues()});
+            }
         }
-        executor.executeSelect(entitySpecName, query, resultProcessor);
+        executor.executeSelect(entitySpecName, query, params,
+                resultProcessor);
     }
 
     private static void removeNonApplicableEntitySpecs(EntitySpec entitySpec,
@@ -39,6 +39,8 @@ public abstract class AbstractSelectStatement implements SelectStatement {
     private final SQLOrderBy order;
     private final SQLGenResultProcessor resultProcessor;
     private final boolean wrapKeyId;
+    private SqlBindParameters bindParameters;
+    private KeyStripe keyStripe;
 
     protected AbstractSelectStatement(EntitySpec entitySpec,
             List<EntitySpec> entitySpecs,
@@ -65,13 +67,35 @@ public abstract class AbstractSelectStatement implements SelectStatement {
         return resultProcessor;
     }
 
+    /**
+     * Sets the bind parameters into which {@link #generateStatement() }
+     * collects the values of the where clause. The generated statement then
+     * has <code>?</code> placeholders in place of those values.
+     *
+     * @param bindParameters the bind parameters, or <code>null</code> to
+     * inline values as literals (the default).
+     */
+    void setBindParameters(SqlBindParameters bindParameters) {
+        this.bindParameters = bindParameters;
+    }
+
+    /**
+     * Restricts the statement to a stripe of key ids.
+     *
+     * @param keyStripe the key stripe, or <code>null</code> for all key ids
+     * (the default).
+     */
+    void setKeyStripe(KeyStripe keyStripe) {
+        this.keyStripe = keyStripe;
+    }
+
     protected abstract SelectClause getSelectClause(ColumnSpecInfo info,
             TableAliaser referenceIndices, EntitySpec entitySpec, boolean wrapKeyId);
 
     protected abstract FromClause getFromClause(List<ColumnSpec> columnSpecs,
             TableAliaser referenceIndices);
 
-    protected abstract WhereClause getWhereClause(Set<String> propIds,
+    protected abstract AbstractWhereClause getWhereClause(Set<String> propIds,
             ColumnSpecInfo info, List<EntitySpec> entitySpecs,
             Set<Filter> filters, TableAliaser referenceIndices,
             Set<String> keyIds, SQLOrderBy order,
@@ -99,9 +123,11 @@ public abstract class AbstractSelectStatement implements SelectStatement {
                 }
             }
         }
-        WhereClause where = getWhereClause(propIds, info, esCopy,
+        AbstractWhereClause where = getWhereClause(propIds, info, esCopy,
                 this.filters, referenceIndices, this.keyIds, this.order,
                 this.resultProcessor, select);
+        where.setBindParameters(this.bindParameters);
+        where.setKeyStripe(this.keyStripe);
 
         return select.generateClause() + 
                 " " + from.generateClause() + 
@@ -51,6 +51,8 @@ public abstract class AbstractWhereClause implements WhereClause {
     private final SQLOrderBy order;
     private final SQLGenResultProcessor resultProcessor;
     private final SelectClause selectClause;
+    private SqlBindParameters bindParameters;
+    private KeyStripe keyStripe;
 
     protected AbstractWhereClause(Set<String> propIds, ColumnSpecInfo info,
             List<EntitySpec> entitySpecs, Set<Filter> filters,
@@ -104,6 +106,38 @@ public abstract class AbstractWhereClause implements WhereClause {
         return selectClause;
     }
 
+    /**
+     * Gets the bind parameters that values in this where clause are
+     * collected into.
+     *
+     * @return the bind parameters, or <code>null</code> if values are
+     * inlined as literals.
+     */
+    protected SqlBindParameters getBindParameters() {
+        return bindParameters;
+    }
+
+    /**
+     * Sets the bind parameters to collect values into when the clause is
+     * generated.
+     *
+     * @param bindParameters the bind parameters, or <code>null</code> to
+     * inline values as literals (the default).
+     */
+    void setBindParameters(SqlBindParameters bindParameters) {
+        this.bindParameters = bindParameters;
+    }
+
+    /**
+     * Restricts the clause to a stripe of key ids.
+     *
+     * @param keyStripe the key stripe, or <code>null</code> for all key ids
+     * (the default).
+     */
+    void setKeyStripe(KeyStripe keyStripe) {
+        this.keyStripe = keyStripe;
+    }
+
     @Override
     public abstract InClause getInClause(ColumnSpec columnSpec,
             Object[] elements, boolean not);
@@ -193,6 +227,15 @@ public abstract class AbstractWhereClause implements WhereClause {
             wherePart.append(getInClause(keySpec, keyIds.toArray(), false)
                     .generateClause());
         }
+        if (this.keyStripe != null) {
+            if (wherePart.length() > 0) {
+                wherePart.append(" AND ");
+            }
+            ColumnSpec keySpec = info.getColumnSpecs().get(0).getColumnSpec();
+            wherePart.append(this.keyStripe.generateClause(
+                    this.referenceIndices.generateColumnReference(keySpec),
+                    this.bindParameters));
+        }
     }
 
     private String processForWhereClause(EntitySpec entitySpec,
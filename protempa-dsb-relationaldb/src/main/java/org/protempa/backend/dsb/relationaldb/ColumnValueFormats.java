@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Protempa Relational Database Data Source Backend
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import org.protempa.proposition.value.NumberValue;
+import org.protempa.proposition.value.Value;
+import org.protempa.proposition.value.ValueType;
+
+/**
+ * Chooses how to read a value from a column once per result set rather than
+ * per row. Number values in integer and decimal columns are read with
+ * {@link ResultSet#getLong(int) } and
+ * {@link ResultSet#getBigDecimal(int) } instead of being formatted as a
+ * string by the driver and parsed back. All other values are read as
+ * strings and parsed by their {@link ValueType}, as before.
+ *
+ * @author Andrew Post
+ */
+final class ColumnValueFormats {
+
+    private ColumnValueFormats() {
+    }
+
+    /**
+     * Gets the format for a column without mappings.
+     *
+     * @param valueType the value type to read. Cannot be <code>null</code>.
+     * @param colType the column's {@link Types JDBC type}.
+     * @return a format. Guaranteed not <code>null</code>.
+     */
+    static JDBCValueFormat forColumn(ValueType valueType, int colType) {
+        if (valueType == ValueType.NUMBERVALUE) {
+            switch (colType) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    return LongNumberValueFormat.INSTANCE;
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return BigDecimalNumberValueFormat.INSTANCE;
+                default:
+                    break;
+            }
+        }
+        return new StringValueFormat(valueType, null);
+    }
+
+    /**
+     * Gets the format for a column whose values may map to proposition ids.
+     *
+     * @param valueType the value type to read. Cannot be <code>null</code>.
+     * @param columnSpec the column. Its mapped values are replaced by their
+     * proposition ids before parsing.
+     * @param colType the column's {@link Types JDBC type}.
+     * @return a format. Guaranteed not <code>null</code>.
+     */
+    static JDBCValueFormat forColumn(ValueType valueType,
+            ColumnSpec columnSpec, int colType) {
+        if (columnSpec.getMappings() != null) {
+            return new StringValueFormat(valueType, columnSpec);
+        } else {
+            return forColumn(valueType, colType);
+        }
+    }
+
+    private static final class StringValueFormat implements JDBCValueFormat {
+
+        private final ValueType valueType;
+        private final ColumnSpec columnSpec;
+
+        StringValueFormat(ValueType valueType, ColumnSpec columnSpec) {
+            this.valueType = valueType;
+            this.columnSpec = columnSpec;
+        }
+
+        @Override
+        public Value toValue(ResultSet resultSet, int columnIndex,
+                int columnType) throws SQLException {
+            String valAsString = resultSet.getString(columnIndex);
+            if (this.columnSpec != null) {
+                String propId = this.columnSpec.getTarget(valAsString);
+                if (propId != null) {
+                    valAsString = propId;
+                }
+            }
+            return this.valueType.parse(valAsString);
+        }
+    }
+
+    private static final class LongNumberValueFormat implements JDBCValueFormat {
+
+        static final LongNumberValueFormat INSTANCE = new LongNumberValueFormat();
+
+        @Override
+        public Value toValue(ResultSet resultSet, int columnIndex,
+                int columnType) throws SQLException {
+            long val = resultSet.getLong(columnIndex);
+            if (resultSet.wasNull()) {
+                return null;
+            }
+            return NumberValue.getInstance(val);
+        }
+    }
+
+    private static final class BigDecimalNumberValueFormat
+            implements JDBCValueFormat {
+
+        static final BigDecimalNumberValueFormat INSTANCE
+                = new BigDecimalNumberValueFormat();
+
+        @Override
+        public Value toValue(ResultSet resultSet, int columnIndex,
+                int columnType) throws SQLException {
+            BigDecimal val = resultSet.getBigDecimal(columnIndex);
+            if (val == null) {
+                return null;
+            }
+            return NumberValue.getInstance(val);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * #%L
+ * Protempa Relational Database Data Source Backend
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.arp.javautil.sql.ConnectionSpec;
+
+/**
+ * A bounded pool of database connections for one data source backend.
+ * Connections are borrowed with {@link #getOrCreate() } and returned by
+ * closing them. At most <code>maxSize</code> connections are pooled. A
+ * borrower that finds them all in use waits up to <code>maxWaitMillis</code>
+ * and then gets an unpooled connection that is closed when it is returned,
+ * so that a query that holds more connections than the pool allows slows
+ * down rather than deadlocks. Borrowers that hold a connection until a
+ * caller finishes reading, like streaming reads, use
+ * {@link #getOrCreateWithoutWaiting() } instead, which falls back to an
+ * unpooled connection right away.
+ *
+ * Idle connections are validated before they are handed out, and they are
+ * closed once they have been idle for longer than
+ * <code>idleTimeoutMillis</code>, both when connections are borrowed or
+ * returned and periodically in the background, so that an idle backend does
+ * not keep connections open. Returned connections are rolled back, the
+ * statements that the borrower left open are closed along with their result
+ * sets, and the connections' auto-commit, read-only and transaction isolation
+ * settings are restored to what they were when the connection was created,
+ * so that nothing is carried over to the next borrower.
+ *
+ * @author Andrew Post
+ */
+final class ConnectionPool {
+
+    private static final Logger LOGGER = SQLGenUtil.logger();
+
+    /**
+     * The least time between background evictions of idle connections.
+     */
+    static final long MIN_EVICTION_PERIOD_MILLIS = 100L;
+
+    /**
+     * How many statements a borrowed connection tracks before it forgets the
+     * ones that the borrower closed.
+     */
+    private static final int STATEMENT_PRUNE_SIZE = 64;
+
+    private static final ScheduledThreadPoolExecutor EVICTOR;
+
+    static {
+        EVICTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Connection pool evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        EVICTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private final ConnectionSpec connectionSpec;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long maxWaitMillis;
+    private final int validationTimeoutSeconds;
+    private final Semaphore permits;
+    private final Deque<PhysicalConnection> idle;
+    private final ScheduledFuture<?> eviction;
+    private boolean closed;
+
+    ConnectionPool(ConnectionSpec connectionSpec, int maxSize,
+            long idleTimeoutMillis, long maxWaitMillis,
+            int validationTimeoutSeconds) {
+        assert connectionSpec != null : "connectionSpec cannot be null";
+        assert maxSize > 0 : "maxSize must be positive";
+        this.connectionSpec = connectionSpec;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle = new ArrayDeque<>(maxSize);
+        long evictionPeriod = Math.max(MIN_EVICTION_PERIOD_MILLIS,
+                idleTimeoutMillis / 2);
+        this.eviction = EVICTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionPool.this) {
+                    if (!closed) {
+                        evictIdleConnections();
+                    }
+                }
+            }
+        }, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Gets the number of idle connections in the pool.
+     *
+     * @return the number of idle connections.
+     */
+    synchronized int getIdleCount() {
+        return this.idle.size();
+    }
+
+    /**
+     * Borrows a connection, waiting up to <code>maxWaitMillis</code> for a
+     * pooled connection to be returned if they are all in use. Close it to
+     * return it to the pool.
+     *
+     * @return a connection.
+     * @throws SQLException if a connection could not be created, or the pool
+     * has been closed.
+     */
+    Connection getOrCreate() throws SQLException {
+        boolean acquired;
+        try {
+            acquired = this.permits.tryAcquire(this.maxWaitMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", ex);
+        }
+        if (!acquired) {
+            LOGGER.log(Level.WARNING,
+                    "All {0} pooled connections are in use; opening an unpooled connection",
+                    this.maxSize);
+            return this.connectionSpec.getOrCreate();
+        }
+        return borrow();
+    }
+
+    /**
+     * Borrows a pooled connection if one is available, and otherwise opens
+     * an unpooled connection without waiting. For borrowers that may hold
+     * many connections at once for a long time, which would otherwise wait
+     * for each other. Close the connection to return it.
+     *
+     * @return a connection.
+     * @throws SQLException if a connection could not be created, or the pool
+     * has been closed.
+     */
+    Connection getOrCreateWithoutWaiting() throws SQLException {
+        if (!this.permits.tryAcquire()) {
+            LOGGER.log(Level.FINE,
+                    "All {0} pooled connections are in use; opening an unpooled connection",
+                    this.maxSize);
+            return this.connectionSpec.getOrCreate();
+        }
+        return borrow();
+    }
+
+    /**
+     * Hands out an idle connection or a new one. Must be called with a
+     * permit, which is released if this fails.
+     */
+    private Connection borrow() throws SQLException {
+        try {
+            PhysicalConnection connection = pollValidIdleConnection();
+            if (connection == null) {
+                connection = new PhysicalConnection(
+                        this.connectionSpec.getOrCreate());
+            }
+            return pooledConnection(connection);
+        } catch (SQLException | RuntimeException ex) {
+            this.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the idle connections and stops pooling. Connections that are
+     * borrowed when the pool is closed are closed when they are returned.
+     */
+    void close() {
+        this.eviction.cancel(false);
+        Deque<PhysicalConnection> toClose;
+        synchronized (this) {
+            this.closed = true;
+            toClose = new ArrayDeque<>(this.idle);
+            this.idle.clear();
+        }
+        for (PhysicalConnection idleConnection : toClose) {
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private PhysicalConnection pollValidIdleConnection() throws SQLException {
+        while (true) {
+            PhysicalConnection idleConnection;
+            synchronized (this) {
+                if (this.closed) {
+                    throw new SQLException("The connection pool is closed");
+                }
+                evictIdleConnections();
+                idleConnection = this.idle.pollFirst();
+            }
+            if (idleConnection == null) {
+                return null;
+            }
+            Connection connection = idleConnection.connection;
+            if (isValid(connection)) {
+                return idleConnection;
+            }
+            LOGGER.log(Level.FINE, "Discarding an invalid pooled connection");
+            closeQuietly(connection);
+        }
+    }
+
+    private void release(PhysicalConnection physicalConnection) {
+        Connection connection = physicalConnection.connection;
+        try {
+            boolean reusable = false;
+            try {
+                if (!connection.isClosed()) {
+                    physicalConnection.reset();
+                    reusable = true;
+                }
+            } catch (SQLException ex) {
+                LOGGER.log(Level.FINE, "Discarding a pooled connection that could not be reset", ex);
+            }
+            if (reusable) {
+                synchronized (this) {
+                    if (!this.closed) {
+                        physicalConnection.returned = System.currentTimeMillis();
+                        this.idle.addFirst(physicalConnection);
+                        evictIdleConnections();
+                        return;
+                    }
+                }
+            }
+            closeQuietly(connection);
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Closes connections that have been idle for too long. The least
+     * recently returned connections are at the end of the deque. Must be
+     * called while holding this pool's lock.
+     */
+    private void evictIdleConnections() {
+        long cutoff = System.currentTimeMillis() - this.idleTimeoutMillis;
+        for (Iterator<PhysicalConnection> itr = this.idle.descendingIterator();
+                itr.hasNext();) {
+            PhysicalConnection idleConnection = itr.next();
+            if (idleConnection.returned >= cutoff) {
+                break;
+            }
+            itr.remove();
+            LOGGER.log(Level.FINE, "Closing an idle pooled connection");
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(this.validationTimeoutSeconds);
+        } catch (SQLException | AbstractMethodError ex) {
+            return false;
+        }
+    }
+
+    private static boolean isClosed(Statement statement) {
+        try {
+            return statement.isClosed();
+        } catch (SQLException | AbstractMethodError ex) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    private Connection pooledConnection(PhysicalConnection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new PooledConnectionHandler(connection));
+    }
+
+    /**
+     * A connection that the pool created, with the settings that it had
+     * when it was created, the statements that its current borrower created,
+     * and, while it is idle, when it was returned.
+     */
+    private static final class PhysicalConnection {
+
+        private final Connection connection;
+        private final boolean autoCommit;
+        private final boolean readOnly;
+        private final int transactionIsolation;
+        private final List<Statement> statements;
+        private long returned;
+
+        PhysicalConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.statements = new ArrayList<>();
+            try {
+                this.autoCommit = connection.getAutoCommit();
+                this.readOnly = connection.isReadOnly();
+                this.transactionIsolation = connection.getTransactionIsolation();
+            } catch (SQLException ex) {
+                closeQuietly(connection);
+                throw ex;
+            }
+        }
+
+        /**
+         * Remembers a statement to close when the connection is returned.
+         *
+         * @param statement a statement created from the connection.
+         */
+        void track(Statement statement) {
+            synchronized (this.statements) {
+                if (this.statements.size() >= STATEMENT_PRUNE_SIZE) {
+                    for (Iterator<Statement> itr = this.statements.iterator();
+                            itr.hasNext();) {
+                        if (isClosed(itr.next())) {
+                            itr.remove();
+                        }
+                    }
+                }
+                this.statements.add(statement);
+            }
+        }
+
+        /**
+         * Closes the statements that the borrower left open, which closes
+         * their result sets, then rolls back any open transaction and
+         * restores the connection's original settings.
+         *
+         * @throws SQLException if the connection could not be reset.
+         */
+        void reset() throws SQLException {
+            synchronized (this.statements) {
+                for (Statement statement : this.statements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException ex) {
+                        LOGGER.log(Level.FINE, "Could not close a statement that a borrower left open", ex);
+                    }
+                }
+                this.statements.clear();
+            }
+            if (!this.connection.getAutoCommit()) {
+                this.connection.rollback();
+            }
+            if (this.connection.getAutoCommit() != this.autoCommit) {
+                this.connection.setAutoCommit(this.autoCommit);
+            }
+            if (this.connection.isReadOnly() != this.readOnly) {
+                this.connection.setReadOnly(this.readOnly);
+            }
+            if (this.connection.getTransactionIsolation()
+                    != this.transactionIsolation) {
+                this.connection.setTransactionIsolation(
+                        this.transactionIsolation);
+            }
+        }
+    }
+
+    /**
+     * Delegates to a physical connection until the connection is closed,
+     * which returns the physical connection to the pool.
+     */
+    private final class PooledConnectionHandler implements InvocationHandler {
+
+        private volatile PhysicalConnection connection;
+
+        PooledConnectionHandler(PhysicalConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method,
+                Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    PhysicalConnection c;
+                    synchronized (this) {
+                        c = this.connection;
+                        this.connection = null;
+                    }
+                    if (c != null) {
+                        release(c);
+                    }
+                    return null;
+                case "isClosed":
+                    c = this.connection;
+                    return c == null || c.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    c = this.connection;
+                    return "Pooled " + (c != null ? c.connection : null);
+                default:
+                    c = this.connection;
+                    if (c == null) {
+                        throw new SQLException("Connection is closed");
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(c.connection, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                    if (result instanceof Statement) {
+                        c.track((Statement) result);
+                    }
+                    return result;
+            }
+        }
+    }
+}
@@ -116,6 +116,10 @@ class ConstantStreamingResultProcessor extends StreamingMainResultProcessor<Cons
                         return;
                     }
                 }
+                if (!queryPropIds.contains(propId)) {
+                    this.getReferenceIterator().addUniqueIds(kId, null);
+                    return;
+                }
             } else {
                 i++;
             }
@@ -26,4 +26,10 @@ class DefaultInClause extends AbstractInClause {
         super(columnSpec, elements, not, referenceIndices);
     }
 
+    public DefaultInClause(ColumnSpec columnSpec, Object[] elements,
+            boolean not, TableAliaser referenceIndices,
+            SqlBindParameters bindParameters) {
+        super(columnSpec, elements, not, referenceIndices, bindParameters);
+    }
+
 }
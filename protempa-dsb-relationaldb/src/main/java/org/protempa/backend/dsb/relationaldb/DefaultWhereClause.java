@@ -39,7 +39,7 @@ public final class DefaultWhereClause extends AbstractWhereClause {
     public InClause getInClause(ColumnSpec columnSpec, Object[] elements,
             boolean not) {
         return new DefaultInClause(columnSpec, elements, not,
-                getReferenceIndices());
+                getReferenceIndices(), getBindParameters());
     }
 
     @Override
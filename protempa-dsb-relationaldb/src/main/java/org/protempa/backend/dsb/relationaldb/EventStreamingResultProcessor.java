@@ -127,6 +127,10 @@ class EventStreamingResultProcessor extends StreamingMainResultProcessor<Event>
                         return;
                     }
                 }
+                if (!queryPropIds.contains(propId)) {
+                    this.getReferenceIterator().addUniqueIds(kId, null);
+                    return;
+                }
             } else {
                 i++;
             }
@@ -138,12 +142,13 @@ class EventStreamingResultProcessor extends StreamingMainResultProcessor<Event>
                 Long d = null;
                 try {
                     d = positionParser.toPosition(resultSet, i, columnTypes[i - 1]);
-                    i++;
                 } catch (SQLException e) {
                     logger.log(
                             Level.WARNING,
                             "Could not parse timestamp. Leaving the start time/timestamp unset.",
                             e);
+                } finally {
+                    i++;
                 }
                 interval = intervalFactory.getInstance(d, gran);
             } else {
@@ -40,7 +40,8 @@ import java.util.logging.Logger;
 /**
  * Iterates over the references. This does not entirely adhere to the
  * {@link java.util.Iterator} contract, because it relies on another class to
- * populate it while iteration is occurring.
+ * populate it while iteration is occurring. The other class may populate it
+ * from a different thread when reading ahead, so access is synchronized.
  *
  * @author Michel Mansour
  */
@@ -72,7 +73,7 @@ final class InboundReferenceResultSetIterator implements
         this.dataStreamingEventQueue = new LinkedList<>();
     }
 
-    void resultSetComplete() {
+    synchronized void resultSetComplete() {
         this.end = true;
         createDataStreamingEvent();
     }
@@ -82,12 +83,12 @@ final class InboundReferenceResultSetIterator implements
     }
 
     @Override
-    public boolean hasNext() throws DataSourceReadException {
+    public synchronized boolean hasNext() throws DataSourceReadException {
         return !isDone();
     }
 
     @Override
-    public DataStreamingEvent<UniqueIdPair> next() throws DataSourceReadException {
+    public synchronized DataStreamingEvent<UniqueIdPair> next() throws DataSourceReadException {
         if (LOGGER.isLoggable(Level.FINEST)) {
             if (!this.nextInvoked) {
                 this.nextInvoked = true;
@@ -173,7 +174,7 @@ final class InboundReferenceResultSetIterator implements
         this.keyId = keyId;
     }
 
-    void addUniqueIds(String keyId, UniqueIdPair[] uniqueIds) {
+    synchronized void addUniqueIds(String keyId, UniqueIdPair[] uniqueIds) {
         if (LOGGER.isLoggable(Level.FINEST)) {
             if (!this.addUniqueIdsInvoked) {
                 this.addUniqueIdsInvoked = true;
@@ -221,7 +222,7 @@ final class InboundReferenceResultSetIterator implements
     }
 
     @Override
-    public void close() throws DataSourceReadException {
+    public synchronized void close() throws DataSourceReadException {
         this.referenceUniqueIds.clear();
         this.referenceUniqueIds = null;
         if (!this.dataStreamingEventQueue.isEmpty()) {
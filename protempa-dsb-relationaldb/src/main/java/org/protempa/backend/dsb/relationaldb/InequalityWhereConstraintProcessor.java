@@ -36,7 +36,7 @@ class InequalityWhereConstraintProcessor extends WhereConstraintProcessor {
         result.append(getReferenceIndices().generateColumnReferenceWithOp(
                 getColumnSpec()));
         result.append(getConstraint().getSqlOperator());
-        result.append(SqlGeneratorUtil.prepareValue(getSqlCodes()[0]));
+        result.append(prepareValue(getSqlCodes()[0]));
 
         return result.toString();
     }
@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Protempa Relational Database Data Source Backend
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Every <i>n</i>th range of key ids of the key id table in key id order,
+ * starting with the range at a given position. The ranges are computed once
+ * per read, and the stripes of the same count are disjoint and together
+ * cover all key ids. Consecutive ranges belong to different stripes, so
+ * when the results of one query per stripe are merged by key id and each
+ * query reads at least a range ahead, all of the queries are read from at
+ * about the same pace. Each query's constraint is a disjunction of key id
+ * ranges, which databases can read with index range scans.
+ *
+ * @author Andrew Post
+ */
+final class KeyStripe {
+
+    private final int index;
+    private final int count;
+    private final List<String> lowerBounds;
+    private final List<String> upperBounds;
+    private int maxRangeSize;
+
+    private KeyStripe(int index, int count) {
+        this.index = index;
+        this.count = count;
+        this.lowerBounds = new ArrayList<>();
+        this.upperBounds = new ArrayList<>();
+    }
+
+    /**
+     * Deals ranges of key ids out to stripes in turn.
+     *
+     * @param firstKeyIds the first key id of each range, in key id order.
+     * @param rangeSizes the number of key ids in each range.
+     * @param count the number of stripes.
+     * @return <code>count</code> stripes, or fewer if there are fewer ranges.
+     * The first range has no lower bound and the last range has no upper
+     * bound, so key ids that are not in the key id table still belong to a
+     * stripe.
+     */
+    static List<KeyStripe> stripes(List<String> firstKeyIds,
+            List<Integer> rangeSizes, int count) {
+        assert firstKeyIds.size() == rangeSizes.size() :
+                "firstKeyIds and rangeSizes must have the same size";
+        int ranges = firstKeyIds.size();
+        int n = Math.min(count, ranges);
+        List<KeyStripe> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(new KeyStripe(i, n));
+        }
+        for (int j = 0; j < ranges; j++) {
+            String lowerBound = j > 0 ? firstKeyIds.get(j) : null;
+            String upperBound = j < ranges - 1 ? firstKeyIds.get(j + 1) : null;
+            result.get(j % n).addRange(lowerBound, upperBound,
+                    rangeSizes.get(j));
+        }
+        return result;
+    }
+
+    private void addRange(String lowerBound, String upperBound, int size) {
+        this.lowerBounds.add(lowerBound);
+        this.upperBounds.add(upperBound);
+        this.maxRangeSize = Math.max(this.maxRangeSize, size);
+    }
+
+    int getIndex() {
+        return this.index;
+    }
+
+    int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the number of key ids in the largest of this stripe's ranges,
+     * which is how far ahead each stripe's query must read for all of the
+     * queries to be read at the same time.
+     *
+     * @return a number of key ids.
+     */
+    int getMaxRangeSize() {
+        return this.maxRangeSize;
+    }
+
+    /**
+     * Splits key ids the same way: the key ids are sorted, and every
+     * <i>n</i>th one goes into the same subset.
+     *
+     * @param keyIds the key ids.
+     * @param count the number of subsets.
+     * @return <code>count</code> subsets, or fewer if there are fewer key
+     * ids.
+     */
+    static List<Set<String>> split(Collection<String> keyIds, int count) {
+        List<String> sortedKeyIds = new ArrayList<>(keyIds);
+        Collections.sort(sortedKeyIds);
+        int n = Math.min(count, sortedKeyIds.size());
+        List<Set<String>> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(new HashSet<String>());
+        }
+        for (int i = 0, size = sortedKeyIds.size(); i < size; i++) {
+            result.get(i % n).add(sortedKeyIds.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Generates the constraint for a where clause.
+     *
+     * @param columnReference the key id column.
+     * @param bindParameters where to record the range bounds if they are to
+     * be bound rather than inlined, or <code>null</code>.
+     * @return the constraint.
+     */
+    String generateClause(String columnReference,
+            SqlBindParameters bindParameters) {
+        StringBuilder result = new StringBuilder();
+        result.append('(');
+        for (int j = 0, n = this.lowerBounds.size(); j < n; j++) {
+            if (j > 0) {
+                result.append(" OR ");
+            }
+            String lowerBound = this.lowerBounds.get(j);
+            String upperBound = this.upperBounds.get(j);
+            if (lowerBound != null && upperBound != null) {
+                result.append('(');
+            }
+            if (lowerBound != null) {
+                result.append(columnReference).append(" >= ")
+                        .append(SqlGeneratorUtil.prepareValue(lowerBound,
+                                bindParameters));
+            }
+            if (lowerBound != null && upperBound != null) {
+                result.append(" AND ");
+            }
+            if (upperBound != null) {
+                result.append(columnReference).append(" < ")
+                        .append(SqlGeneratorUtil.prepareValue(upperBound,
+                                bindParameters));
+            }
+            if (lowerBound != null && upperBound != null) {
+                result.append(')');
+            } else if (lowerBound == null && upperBound == null) {
+                result.append(columnReference).append(" IS NOT NULL");
+            }
+        }
+        result.append(')');
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "stripe " + this.index + " of " + this.count;
+    }
+}
@@ -40,7 +40,7 @@ final class LikeWhereConstraintProcessor extends WhereConstraintProcessor {
             result.append(getReferenceIndices().generateColumnReferenceWithOp(
                     getColumnSpec()));
             result.append(" LIKE ");
-            result.append(SqlGeneratorUtil.prepareValue(getSqlCodes()[i]));
+            result.append(prepareValue(getSqlCodes()[i]));
             if (i + 1 < getSqlCodes().length) {
                 result.append(" OR ");
             }
@@ -41,7 +41,7 @@ final class NotEqualToWhereConstraintProcessor extends WhereConstraintProcessor
             result.append(' ');
             result.append(getConstraint().getSqlOperator());
             result.append(' ');
-            result.append(SqlGeneratorUtil.prepareValue(getSqlCodes()[0]));
+            result.append(prepareValue(getSqlCodes()[0]));
         }
 
         return result.toString();
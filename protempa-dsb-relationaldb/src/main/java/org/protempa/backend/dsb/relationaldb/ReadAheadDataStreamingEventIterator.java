@@ -0,0 +1,217 @@
+/*
+ * #%L
+ * Protempa Relational Database Data Source Backend
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.protempa.DataSourceReadException;
+import org.protempa.DataStreamingEvent;
+import org.protempa.DataStreamingEventIterator;
+
+/**
+ * Reads ahead of its consumer. A worker thread iterates over another
+ * {@link DataStreamingEventIterator}, so that reading and decoding the
+ * result set happen on the worker, and puts the events in a bounded buffer
+ * from which this iterator returns them. The worker stops when the buffer
+ * is full and resumes when it has room.
+ *
+ * Workers that read from the same database connection take turns, using the
+ * lock that is passed into the constructor, because JDBC drivers do not
+ * generally support using a connection from multiple threads at once.
+ *
+ * Call {@link #start() } before iterating. {@link #close() } stops the
+ * worker and then closes the wrapped iterator.
+ *
+ * @author Andrew Post
+ */
+final class ReadAheadDataStreamingEventIterator<E>
+        implements DataStreamingEventIterator<E> {
+
+    private static final Logger LOGGER = SQLGenUtil.logger();
+
+    /**
+     * How long the worker waits for room in the buffer before checking
+     * whether this iterator was closed.
+     */
+    private static final long OFFER_TIMEOUT_MILLIS = 100L;
+
+    private static final DataStreamingEvent<?> END
+            = new DataStreamingEvent<>("", Collections.emptyList());
+
+    private final DataStreamingEventIterator<E> itr;
+    private final BlockingQueue<DataStreamingEvent<?>> buffer;
+    private final Object lock;
+    private final Thread worker;
+    private volatile boolean closed;
+    private volatile Throwable exception;
+    private DataStreamingEvent<E> next;
+    private boolean end;
+
+    /**
+     * Creates the iterator.
+     *
+     * @param itr the iterator to read ahead of. Cannot be <code>null</code>.
+     * @param bufferSize the maximum number of events to read ahead. Must be
+     * positive.
+     * @param name a name for the worker thread.
+     * @param lock held while reading from the wrapped iterator. If
+     * <code>null</code>, this iterator is used as the lock.
+     */
+    ReadAheadDataStreamingEventIterator(DataStreamingEventIterator<E> itr,
+            int bufferSize, String name, Object lock) {
+        assert itr != null : "itr cannot be null";
+        assert bufferSize > 0 : "bufferSize must be positive";
+        this.itr = itr;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.lock = lock != null ? lock : this;
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        }, "Read-ahead for " + name);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Starts reading ahead.
+     */
+    void start() {
+        this.worker.start();
+    }
+
+    @Override
+    public boolean hasNext() throws DataSourceReadException {
+        if (this.next == null && !this.end) {
+            DataStreamingEvent<?> event;
+            try {
+                event = this.buffer.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new DataSourceReadException(
+                        "Interrupted while reading ahead", ex);
+            }
+            if (event == END) {
+                this.end = true;
+                Throwable t = this.exception;
+                if (t instanceof DataSourceReadException) {
+                    throw (DataSourceReadException) t;
+                } else if (t != null) {
+                    throw new DataSourceReadException(
+                            "Error while reading ahead", t);
+                }
+            } else {
+                @SuppressWarnings("unchecked")
+                DataStreamingEvent<E> e = (DataStreamingEvent<E>) event;
+                this.next = e;
+            }
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public DataStreamingEvent<E> next() throws DataSourceReadException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DataStreamingEvent<E> result = this.next;
+        this.next = null;
+        return result;
+    }
+
+    /**
+     * Stops the worker, waiting for it to finish the event that it is
+     * reading, and closes the wrapped iterator.
+     *
+     * @throws DataSourceReadException if an error occurred closing the
+     * wrapped iterator.
+     */
+    @Override
+    public void close() throws DataSourceReadException {
+        this.closed = true;
+        this.buffer.clear();
+        this.worker.interrupt();
+        boolean interrupted = false;
+        while (this.worker.isAlive()) {
+            try {
+                this.worker.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        this.itr.close();
+    }
+
+    private void readAhead() {
+        try {
+            while (!this.closed) {
+                DataStreamingEvent<E> event;
+                synchronized (this.lock) {
+                    if (!this.itr.hasNext()) {
+                        break;
+                    }
+                    event = this.itr.next();
+                }
+                if (!offer(event)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            if (!this.closed) {
+                this.exception = ex;
+            }
+        } catch (DataSourceReadException | RuntimeException | Error ex) {
+            LOGGER.log(Level.FINE, "Error while reading ahead", ex);
+            this.exception = ex;
+        } finally {
+            try {
+                offer(END);
+            } catch (InterruptedException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Puts an event in the buffer, waiting for room until this iterator is
+     * closed.
+     *
+     * @param event the event.
+     * @return whether the event was put in the buffer.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private boolean offer(DataStreamingEvent<?> event)
+            throws InterruptedException {
+        while (!this.closed) {
+            if (this.buffer.offer(event, OFFER_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
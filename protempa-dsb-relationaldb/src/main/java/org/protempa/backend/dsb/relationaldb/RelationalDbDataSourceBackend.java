@@ -24,6 +24,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -32,6 +33,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -100,6 +105,14 @@ public abstract class RelationalDbDataSourceBackend
 
     private static final DataValidationEvent[] EMPTY_VALIDATION_EVENT_ARRAY
             = new DataValidationEvent[0];
+    private static final int MAX_WRITE_KEYS_BATCH_SIZE = 1000;
+    private static final int DEFAULT_WRITE_KEYS_BATCH_SIZE = MAX_WRITE_KEYS_BATCH_SIZE;
+    private static final int DEFAULT_WRITE_KEYS_COMMIT_SIZE = 10000;
+    private static final int DEFAULT_QUERY_THREAD_COUNT = 4;
+    private static final int DEFAULT_CONNECTION_POOL_MAX_SIZE = 8;
+    private static final int DEFAULT_CONNECTION_POOL_IDLE_TIMEOUT = 300;
+    private static final int DEFAULT_CONNECTION_POOL_MAX_WAIT = 10;
+    private static final int CONNECTION_VALIDATION_TIMEOUT = 5;
     private DatabaseAPI databaseAPI;
     private String databaseId;
     protected String username;
@@ -119,9 +132,24 @@ public abstract class RelationalDbDataSourceBackend
     private FromBackendRelationalDatabaseSpecBuilder relationalDatabaseSpecBuilder;
     private MappingsFactory mappingsFactory;
     private Integer queryThreadCount;
+    private int writeKeysBatchSize;
+    private int writeKeysCommitSize;
+    private int connectionPoolMaxSize;
+    private int connectionPoolIdleTimeout;
+    private int connectionPoolMaxWait;
+    private int readAheadBufferSize;
+    private int keyShardCount;
+    private ConnectionPool connectionPool;
+    private ExecutorService queryExecutor;
 
     public RelationalDbDataSourceBackend() {
         this.databaseAPI = DatabaseAPI.DRIVERMANAGER;
+        this.writeKeysBatchSize = DEFAULT_WRITE_KEYS_BATCH_SIZE;
+        this.writeKeysCommitSize = DEFAULT_WRITE_KEYS_COMMIT_SIZE;
+        this.connectionPoolMaxSize = DEFAULT_CONNECTION_POOL_MAX_SIZE;
+        this.connectionPoolIdleTimeout = DEFAULT_CONNECTION_POOL_IDLE_TIMEOUT;
+        this.connectionPoolMaxWait = DEFAULT_CONNECTION_POOL_MAX_WAIT;
+        this.keyShardCount = 1;
 
         this.dryRun
                 = Boolean.getBoolean(SQLGenUtil.SYSTEM_PROPERTY_SKIP_EXECUTION);
@@ -197,11 +225,153 @@ public abstract class RelationalDbDataSourceBackend
         return queryThreadCount;
     }
 
+    /**
+     * Sets the number of threads that query the database in parallel. The
+     * threads are shared by all of this backend's reads. The default is 4.
+     * Takes effect the next time the backend is initialized.
+     *
+     * @param queryThreadCount the number of threads, or <code>null</code> to
+     * use the default.
+     */
     @BackendProperty
     public void setQueryThreadCount(Integer queryThreadCount) {
+        if (queryThreadCount != null && queryThreadCount < 1) {
+            throw new IllegalArgumentException("invalid queryThreadCount: " + queryThreadCount);
+        }
         this.queryThreadCount = queryThreadCount;
     }
 
+    public int getKeyShardCount() {
+        return this.keyShardCount;
+    }
+
+    /**
+     * Sets into how many shards to split the key ids when reading data. Each
+     * entity spec is then read with one query per shard, and the queries run
+     * in parallel, each with its own connection and its own read-ahead
+     * thread. The shards are interleaved so that they are read at about the
+     * same pace: specific key ids are dealt out to the shards in turn, and
+     * otherwise the key id table is divided into ranges once per read, which
+     * requires window function support, and the ranges are dealt out to the
+     * shards in turn. Each shard then reads at least one range ahead. The
+     * default is 1, which reads each entity spec with one query.
+     *
+     * @param keyShardCount the number of shards, or <code>null</code> to
+     * use the default.
+     */
+    @BackendProperty
+    public void setKeyShardCount(Integer keyShardCount) {
+        if (keyShardCount == null) {
+            this.keyShardCount = 1;
+        } else if (keyShardCount < 1) {
+            throw new IllegalArgumentException("invalid keyShardCount: " + keyShardCount);
+        } else {
+            this.keyShardCount = keyShardCount;
+        }
+    }
+
+    public int getReadAheadBufferSize() {
+        return this.readAheadBufferSize;
+    }
+
+    /**
+     * Sets how many key ids' worth of data to read ahead from each entity
+     * spec's result set. When positive, each result set is read and decoded
+     * into propositions by its own thread, and only merging the results by
+     * key id is left to the thread that consumes them. <code>0</code> (the
+     * default) reads all result sets on the consuming thread, unless the key
+     * ids are split into {@link #setKeyShardCount(java.lang.Integer) shards},
+     * which read ahead at least as far as they need to be read in parallel.
+     *
+     * @param readAheadBufferSize the number of key ids to read ahead, or
+     * <code>null</code> to turn read-ahead off.
+     */
+    @BackendProperty
+    public void setReadAheadBufferSize(Integer readAheadBufferSize) {
+        if (readAheadBufferSize == null) {
+            this.readAheadBufferSize = 0;
+        } else if (readAheadBufferSize < 0) {
+            throw new IllegalArgumentException("invalid readAheadBufferSize: " + readAheadBufferSize);
+        } else {
+            this.readAheadBufferSize = readAheadBufferSize;
+        }
+    }
+
+    public int getConnectionPoolMaxSize() {
+        return this.connectionPoolMaxSize;
+    }
+
+    /**
+     * Sets the most database connections that this backend keeps open. When
+     * they are all in use, a caller waits up to the
+     * {@link #setConnectionPoolMaxWait(java.lang.Integer) max wait} for one
+     * and then gets an extra unpooled connection. Streaming reads do not
+     * wait; they get an unpooled connection right away. <code>0</code> turns
+     * pooling off so that every caller gets a new connection. The default is
+     * 8.
+     *
+     * @param connectionPoolMaxSize the maximum pool size, or
+     * <code>null</code> to use the default.
+     */
+    @BackendProperty
+    public void setConnectionPoolMaxSize(Integer connectionPoolMaxSize) {
+        if (connectionPoolMaxSize == null) {
+            this.connectionPoolMaxSize = DEFAULT_CONNECTION_POOL_MAX_SIZE;
+        } else if (connectionPoolMaxSize < 0) {
+            throw new IllegalArgumentException("invalid connectionPoolMaxSize: " + connectionPoolMaxSize);
+        } else {
+            this.connectionPoolMaxSize = connectionPoolMaxSize;
+        }
+        resetConnections();
+    }
+
+    public int getConnectionPoolIdleTimeout() {
+        return this.connectionPoolIdleTimeout;
+    }
+
+    /**
+     * Sets how long a pooled connection may stay unused before it is closed.
+     * The default is 300 seconds.
+     *
+     * @param seconds the idle timeout in seconds, or <code>null</code> to
+     * use the default.
+     */
+    @BackendProperty
+    public void setConnectionPoolIdleTimeout(Integer seconds) {
+        if (seconds == null) {
+            this.connectionPoolIdleTimeout = DEFAULT_CONNECTION_POOL_IDLE_TIMEOUT;
+        } else if (seconds < 0) {
+            throw new IllegalArgumentException("invalid seconds: " + seconds);
+        } else {
+            this.connectionPoolIdleTimeout = seconds;
+        }
+        resetConnections();
+    }
+
+    public int getConnectionPoolMaxWait() {
+        return this.connectionPoolMaxWait;
+    }
+
+    /**
+     * Sets how long to wait for a pooled connection when they are all in use
+     * before opening an unpooled one. Streaming reads never wait. The default
+     * is 10 seconds.
+     *
+     * @param seconds the maximum wait in seconds, or <code>null</code> to use
+     * the default.
+     */
+    @BackendProperty
+    public void setConnectionPoolMaxWait(Integer seconds) {
+        if (seconds == null) {
+            this.connectionPoolMaxWait = DEFAULT_CONNECTION_POOL_MAX_WAIT;
+        } else if (seconds < 0) {
+            throw new IllegalArgumentException("invalid seconds: " + seconds);
+        } else {
+            this.connectionPoolMaxWait = seconds;
+        }
+        resetConnections();
+    }
+
     public String getKeyLoaderKeyIdTable() {
         if (this.keyLoaderKeyIdTable != null) {
             return this.keyLoaderKeyIdTable;
@@ -241,6 +411,54 @@ public abstract class RelationalDbDataSourceBackend
         this.keyLoaderKeyIdJoinKey = keyLoaderKeyIdJoinKey;
     }
 
+    public int getWriteKeysBatchSize() {
+        return this.writeKeysBatchSize;
+    }
+
+    /**
+     * Sets how many key ids to insert with each statement when writing a key
+     * set. The default and maximum is 1000, the most that Oracle allows in an
+     * <code>IN</code> clause.
+     *
+     * @param writeKeysBatchSize the batch size, or <code>null</code> to use
+     * the default.
+     * @throws IllegalArgumentException if the batch size is less than 1 or
+     * greater than 1000.
+     */
+    @BackendProperty
+    public void setWriteKeysBatchSize(Integer writeKeysBatchSize) {
+        if (writeKeysBatchSize == null) {
+            this.writeKeysBatchSize = DEFAULT_WRITE_KEYS_BATCH_SIZE;
+        } else if (writeKeysBatchSize < 1
+                || writeKeysBatchSize > MAX_WRITE_KEYS_BATCH_SIZE) {
+            throw new IllegalArgumentException("invalid writeKeysBatchSize: " + writeKeysBatchSize);
+        } else {
+            this.writeKeysBatchSize = writeKeysBatchSize;
+        }
+    }
+
+    public int getWriteKeysCommitSize() {
+        return this.writeKeysCommitSize;
+    }
+
+    /**
+     * Sets about how many key ids to write between commits when writing a
+     * key set. The default is 10000.
+     *
+     * @param writeKeysCommitSize the commit size, or <code>null</code> to use
+     * the default.
+     */
+    @BackendProperty
+    public void setWriteKeysCommitSize(Integer writeKeysCommitSize) {
+        if (writeKeysCommitSize == null) {
+            this.writeKeysCommitSize = DEFAULT_WRITE_KEYS_COMMIT_SIZE;
+        } else if (writeKeysCommitSize < 1) {
+            throw new IllegalArgumentException("invalid writeKeysCommitSize: " + writeKeysCommitSize);
+        } else {
+            this.writeKeysCommitSize = writeKeysCommitSize;
+        }
+    }
+
     public String getKeyFile() {
         return keyFile;
     }
@@ -304,7 +522,7 @@ public abstract class RelationalDbDataSourceBackend
      * @param databaseAPI a {@link DatabaseAPI}.
      */
     public void setDatabaseAPI(DatabaseAPI databaseAPI) {
-        this.sqlGenerator = null;
+        resetConnections();
         if (databaseAPI == null) {
             databaseAPI = DatabaseAPI.DRIVERMANAGER;
         }
@@ -340,7 +558,7 @@ public abstract class RelationalDbDataSourceBackend
      */
     @BackendProperty
     public void setDatabaseId(String databaseId) {
-        this.sqlGenerator = null;
+        resetConnections();
         this.databaseId = databaseId;
     }
 
@@ -388,7 +606,7 @@ public abstract class RelationalDbDataSourceBackend
      */
     @BackendProperty
     public void setUsername(String user) {
-        this.sqlGenerator = null;
+        resetConnections();
         this.username = user;
     }
 
@@ -408,7 +626,7 @@ public abstract class RelationalDbDataSourceBackend
      */
     @BackendProperty
     public void setPassword(String password) {
-        this.sqlGenerator = null;
+        resetConnections();
         this.password = password;
     }
 
@@ -452,9 +670,7 @@ public abstract class RelationalDbDataSourceBackend
     public void deleteAllKeys() throws DataSourceWriteException {
         if (isInKeySetMode()) {
             try {
-                ConnectionSpec connectionSpecInstance
-                        = getConnectionSpecInstance();
-                try (Connection con = connectionSpecInstance.getOrCreate()) {
+                try (Connection con = getOrCreateConnection()) {
                     try (Statement stmt = con.createStatement()) {
                         StringBuilder stmtBuilder = new StringBuilder();
                         stmtBuilder.append("DELETE FROM ");
@@ -502,69 +718,225 @@ public abstract class RelationalDbDataSourceBackend
 
     @Override
     public void writeKeys(Set<String> keyIds) throws DataSourceWriteException {
-        if (isInKeySetMode() && keyIds != null) {
-            for (String keyId : keyIds) {
-                writeKeys(keyId);
+        if (isInKeySetMode() && keyIds != null && !keyIds.isEmpty()) {
+            try {
+                try (Connection con = getOrCreateConnection()) {
+                    try {
+                        writeKeys(con, keyIds);
+                    } catch (SQLException ex) {
+                        try {
+                            con.rollback();
+                        } catch (SQLException ignore) {
+                            ex.addSuppressed(ignore);
+                        }
+                        throw ex;
+                    }
+                }
+            } catch (InvalidConnectionSpecArguments | SQLException ex) {
+                throw new DataSourceWriteException("Could not write key ids in data source backend " + nameForErrors(), ex);
             }
         }
     }
 
-    private void writeKeys(String keyId) throws DataSourceWriteException {
-        final int batchSize = 1000;
-        int commitSize = 10000;
+    /**
+     * Writes key ids on one connection. Each statement inserts up to
+     * {@link #getWriteKeysBatchSize() } keys, the statements are sent to the
+     * database in JDBC batches, and the transaction is committed about every
+     * {@link #getWriteKeysCommitSize() } keys and at the end. If the key ids
+     * span more than one transaction, each batch first reads which of its key
+     * ids are already in the key table, and those are not written again.
+     * Then, if writing fails after a commit, only the key ids that this call
+     * committed are deleted again, so that the key table is as it was before
+     * the call. If deleting them fails too, the key table is left partially
+     * written and must be cleared with {@link #deleteAllKeys() }.
+     *
+     * @param con a connection with auto-commit off.
+     * @param keyIds the key ids to write.
+     * @throws SQLException if an error occurred writing the key ids.
+     */
+    private void writeKeys(Connection con, Set<String> keyIds)
+            throws SQLException {
+        int batchSize = getWriteKeysBatchSize();
+        int commitSize = Math.max(getWriteKeysCommitSize(), batchSize);
+        long start = System.currentTimeMillis();
+        int written = 0;
+        int uncommitted = 0;
+        List<String> subKeyIds = new ArrayList<>(batchSize);
+        Set<String> existing = keyIds.size() > commitSize
+                ? new HashSet<String>() : null;
+        String stmt = buildWriteKeysInsertStmt(batchSize);
+        SQLGenUtil.logger().log(Level.FINER, "Statement for writing keys: {0}", stmt);
         try {
-            ConnectionSpec connectionSpecInstance
-                    = getConnectionSpecInstance();
-
-            try (Connection con = connectionSpecInstance.getOrCreate()) {
-                try {
-                    int i = 0;
-                    List<String> subKeyIds = new ArrayList<>(batchSize);
-                    String stmt = buildWriteKeysInsertStmt(batchSize);
-                    SQLGenUtil.logger().log(Level.FINER, "Statement for writing keys: {0}", stmt);
-                    try (PreparedStatement prepareStatement = con.prepareStatement(stmt)) {
-                        subKeyIds.add(keyId);
-                        if (++i % batchSize == 0) {
-                            for (int j = 0, n = subKeyIds.size(); j < n; j++) {
-                                prepareStatement.setObject(j + 1, subKeyIds.get(j));
-                            }
-                            prepareStatement.execute();
+            try (PreparedStatement prepareStatement = con.prepareStatement(stmt);
+                    PreparedStatement existingStatement = existing != null
+                            ? con.prepareStatement(buildReadKeysStmt(batchSize))
+                            : null) {
+                boolean batched = false;
+                for (String keyId : keyIds) {
+                    subKeyIds.add(keyId);
+                    if (subKeyIds.size() == batchSize) {
+                        if (existing != null) {
+                            removeExistingKeys(existingStatement, subKeyIds,
+                                    existing);
                         }
-                        if (i >= commitSize) {
-                            con.commit();
-                            commitSize = 0;
+                        if (!subKeyIds.isEmpty()) {
+                            int last = subKeyIds.size() - 1;
+                            for (int j = 0; j < batchSize; j++) {
+                                prepareStatement.setObject(j + 1,
+                                        subKeyIds.get(Math.min(j, last)));
+                            }
+                            prepareStatement.addBatch();
+                            batched = true;
                         }
-                    }
-                    if (!subKeyIds.isEmpty()) {
-                        stmt = buildWriteKeysInsertStmt(subKeyIds.size());
-                        SQLGenUtil.logger().log(Level.FINER, "Statement for writing keys: {0}", stmt);
-                        i = 0;
-                        try (PreparedStatement prepareStatement = con.prepareStatement(stmt)) {
-                            for (String subKeyId : subKeyIds) {
-                                prepareStatement.setObject(++i, subKeyId);
+                        uncommitted += batchSize;
+                        subKeyIds.clear();
+                        if (uncommitted >= commitSize) {
+                            if (batched) {
+                                prepareStatement.executeBatch();
+                                batched = false;
                             }
-                            prepareStatement.execute();
+                            con.commit();
+                            written += uncommitted;
+                            uncommitted = 0;
                         }
                     }
-                    if (i >= commitSize) {
-                        con.commit();
-                        commitSize = 0;
+                }
+                if (batched) {
+                    prepareStatement.executeBatch();
+                }
+            }
+            if (!subKeyIds.isEmpty()) {
+                stmt = buildWriteKeysInsertStmt(subKeyIds.size());
+                SQLGenUtil.logger().log(Level.FINER, "Statement for writing keys: {0}", stmt);
+                try (PreparedStatement prepareStatement = con.prepareStatement(stmt)) {
+                    int i = 0;
+                    for (String subKeyId : subKeyIds) {
+                        prepareStatement.setObject(++i, subKeyId);
                     }
-                } catch (SQLException ex) {
-                    if (commitSize > 0) {
-                        try {
-                            con.rollback();
-                        } catch (SQLException ignore) {
-                            ex.addSuppressed(ignore);
-                        }
+                    prepareStatement.execute();
+                }
+            }
+            con.commit();
+        } catch (SQLException ex) {
+            if (written > 0) {
+                try {
+                    con.rollback();
+                    deleteKeys(con, keyIds, written, existing, batchSize);
+                    con.commit();
+                } catch (SQLException deleteEx) {
+                    ex.addSuppressed(deleteEx);
+                    SQLGenUtil.logger().log(Level.SEVERE,
+                            "Could not delete the {0} key ids that were written before an error; delete all keys before writing keys again",
+                            written);
+                }
+            }
+            throw ex;
+        }
+        written += uncommitted + subKeyIds.size();
+        Logger logger = SQLGenUtil.logger();
+        if (logger.isLoggable(Level.FINE)) {
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+            logger.log(Level.FINE, "Wrote {0} key ids in {1} ms ({2} keys/s)",
+                    new Object[]{written, elapsed, written * 1000L / elapsed});
+        }
+    }
+
+    /**
+     * Removes the key ids that are already in the key table from a batch.
+     *
+     * @param stmt a statement from {@link #buildReadKeysStmt(int) } for the
+     * batch's size.
+     * @param subKeyIds the batch.
+     * @param existing where to add the key ids that are already in the key
+     * table.
+     * @throws SQLException if an error occurred reading the key table.
+     */
+    private static void removeExistingKeys(PreparedStatement stmt,
+            List<String> subKeyIds, Set<String> existing) throws SQLException {
+        for (int j = 0, n = subKeyIds.size(); j < n; j++) {
+            stmt.setObject(j + 1, subKeyIds.get(j));
+        }
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            while (resultSet.next()) {
+                String keyId = resultSet.getString(1);
+                if (subKeyIds.remove(keyId)) {
+                    existing.add(keyId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the first key ids of a set, in batches, without committing.
+     *
+     * @param con a connection with auto-commit off.
+     * @param keyIds the key ids.
+     * @param count how many of the key ids to delete, in the set's iteration
+     * order.
+     * @param existing key ids not to delete because they were in the key
+     * table before they were written, or <code>null</code>.
+     * @param batchSize the most key ids to delete with each statement.
+     * @throws SQLException if an error occurred deleting the key ids.
+     */
+    private void deleteKeys(Connection con, Set<String> keyIds, int count,
+            Set<String> existing, int batchSize) throws SQLException {
+        List<String> subKeyIds = new ArrayList<>(batchSize);
+        int remaining = count;
+        for (Iterator<String> itr = keyIds.iterator();
+                remaining > 0 && itr.hasNext(); remaining--) {
+            String keyId = itr.next();
+            if (existing == null || !existing.contains(keyId)) {
+                subKeyIds.add(keyId);
+            }
+            if (!subKeyIds.isEmpty()
+                    && (subKeyIds.size() == batchSize || remaining == 1)) {
+                try (PreparedStatement prepareStatement = con.prepareStatement(
+                        buildDeleteKeysStmt(subKeyIds.size()))) {
+                    int i = 0;
+                    for (String subKeyId : subKeyIds) {
+                        prepareStatement.setObject(++i, subKeyId);
                     }
+                    prepareStatement.execute();
                 }
+                subKeyIds.clear();
             }
-        } catch (InvalidConnectionSpecArguments | SQLException ex) {
-            throw new DataSourceWriteException("Could not write key ids in data source backend " + nameForErrors(), ex);
         }
     }
 
+    private String buildReadKeysStmt(int size) {
+        StringBuilder stmtBuilder = new StringBuilder();
+        stmtBuilder.append("SELECT ");
+        stmtBuilder.append(getKeyLoaderKeyIdColumn());
+        stmtBuilder.append(" FROM ");
+        if (getKeyLoaderKeyIdSchema() != null) {
+            stmtBuilder.append(getKeyLoaderKeyIdSchema());
+            stmtBuilder.append('.');
+        }
+        stmtBuilder.append(getKeyLoaderKeyIdTable());
+        stmtBuilder.append(" WHERE ");
+        stmtBuilder.append(getKeyLoaderKeyIdColumn());
+        stmtBuilder.append(" IN (");
+        stmtBuilder.append(StringUtils.join(Collections.nCopies(size, "?"), ','));
+        stmtBuilder.append(')');
+        return stmtBuilder.toString();
+    }
+
+    private String buildDeleteKeysStmt(int size) {
+        StringBuilder stmtBuilder = new StringBuilder();
+        stmtBuilder.append("DELETE FROM ");
+        if (getKeyLoaderKeyIdSchema() != null) {
+            stmtBuilder.append(getKeyLoaderKeyIdSchema());
+            stmtBuilder.append('.');
+        }
+        stmtBuilder.append(getKeyLoaderKeyIdTable());
+        stmtBuilder.append(" WHERE ");
+        stmtBuilder.append(getKeyLoaderKeyIdColumn());
+        stmtBuilder.append(" IN (");
+        stmtBuilder.append(StringUtils.join(Collections.nCopies(size, "?"), ','));
+        stmtBuilder.append(')');
+        return stmtBuilder.toString();
+    }
+
     private String buildWriteKeysInsertStmt(int size) {
         StringBuilder stmtBuilder = new StringBuilder();
         stmtBuilder.append("INSERT INTO ");
@@ -671,7 +1043,13 @@ public abstract class RelationalDbDataSourceBackend
 
     @Override
     public void close() throws BackendCloseException {
-        this.sqlGenerator = null;
+        resetConnections();
+        synchronized (this) {
+            if (this.queryExecutor != null) {
+                this.queryExecutor.shutdown();
+                this.queryExecutor = null;
+            }
+        }
         if (this.mappingsFactory != null) {
             try {
                 this.mappingsFactory.closeAll();
@@ -681,6 +1059,103 @@ public abstract class RelationalDbDataSourceBackend
         }
     }
 
+    /**
+     * Gets a database connection from this backend's connection pool, or a
+     * new connection if pooling is turned off. Close the connection to
+     * return it.
+     *
+     * @return a connection.
+     * @throws InvalidConnectionSpecArguments if the connection settings are
+     * invalid.
+     * @throws SQLException if a connection could not be created.
+     */
+    Connection getOrCreateConnection()
+            throws InvalidConnectionSpecArguments, SQLException {
+        return getOrCreateConnection(true);
+    }
+
+    /**
+     * Gets a database connection for a streaming read, which holds it until
+     * the caller finishes reading. If all pooled connections are in use, a
+     * new unpooled connection is returned right away rather than after
+     * waiting for one, because a streaming read holds a connection per
+     * entity spec and key shard and would otherwise wait on itself. Close the
+     * connection to return it.
+     *
+     * @return a connection.
+     * @throws InvalidConnectionSpecArguments if the connection settings are
+     * invalid.
+     * @throws SQLException if a connection could not be created.
+     */
+    Connection getOrCreateStreamingConnection()
+            throws InvalidConnectionSpecArguments, SQLException {
+        return getOrCreateConnection(false);
+    }
+
+    private Connection getOrCreateConnection(boolean wait)
+            throws InvalidConnectionSpecArguments, SQLException {
+        ConnectionPool pool;
+        synchronized (this) {
+            if (this.connectionPoolMaxSize == 0) {
+                pool = null;
+            } else {
+                if (this.connectionPool == null) {
+                    this.connectionPool = new ConnectionPool(
+                            getConnectionSpecInstance(),
+                            this.connectionPoolMaxSize,
+                            this.connectionPoolIdleTimeout * 1000L,
+                            this.connectionPoolMaxWait * 1000L,
+                            CONNECTION_VALIDATION_TIMEOUT);
+                }
+                pool = this.connectionPool;
+            }
+        }
+        if (pool != null) {
+            return wait ? pool.getOrCreate() : pool.getOrCreateWithoutWaiting();
+        } else {
+            return getConnectionSpecInstance().getOrCreate();
+        }
+    }
+
+    /**
+     * Gets the thread pool that queries the database. It is created on first
+     * use and shut down when this backend is closed.
+     *
+     * @return an executor service.
+     */
+    synchronized ExecutorService getQueryExecutor() {
+        if (this.queryExecutor == null) {
+            final int count = this.queryThreadCount != null
+                    ? this.queryThreadCount : DEFAULT_QUERY_THREAD_COUNT;
+            final String name = nameForErrors();
+            this.queryExecutor = Executors.newFixedThreadPool(count,
+                    new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Query thread "
+                            + threadNumber.incrementAndGet() + " for " + name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return this.queryExecutor;
+    }
+
+    private void resetConnections() {
+        this.sqlGenerator = null;
+        ConnectionPool pool;
+        synchronized (this) {
+            pool = this.connectionPool;
+            this.connectionPool = null;
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
     protected ConnectionSpec getConnectionSpecInstance()
             throws InvalidConnectionSpecArguments {
         return this.databaseAPI.newConnectionSpecInstance(
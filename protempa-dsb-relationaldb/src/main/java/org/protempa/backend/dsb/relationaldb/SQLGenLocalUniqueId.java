@@ -24,22 +24,49 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.protempa.proposition.LocalUniqueId;
 
+/**
+ * The local unique id of propositions that are retrieved by SQL generation.
+ * Its entity spec name is stored as an index into a table of interned names,
+ * and database ids that are plain decimal integers are stored as longs
+ * rather than strings. Instances are immutable.
+ */
 final class SQLGenLocalUniqueId implements LocalUniqueId {
 
     private static final long serialVersionUID = 3956023315666447630L;
 
-    private static final Object NEXT_NUMERICAL_ID_LOCK = new Object();
-    private static int NEXT_NUMERICAL_ID = 0;
+    private static final AtomicInteger NEXT_NUMERICAL_ID = new AtomicInteger();
+
+    private static final ConcurrentMap<String, Integer> ENTITY_SPEC_INDICES
+            = new ConcurrentHashMap<>();
+    private static volatile String[] ENTITY_SPEC_NAMES = new String[0];
+
+    /**
+     * Returned by {@link #parseDecimal(java.lang.String) } for strings that
+     * are not a decimal integer of at most 18 significant digits.
+     */
+    private static final long NOT_DECIMAL = Long.MIN_VALUE;
+
+    private static final long MAX_INT_MAGNITUDE = -(long) Integer.MIN_VALUE;
 
-    private String entitySpecName;
+    private int entitySpecIndex;
+
+    /*
+     * Exactly one of the following holds the database ids: packedDbIds if
+     * there are multiple ids that are all in canonical decimal form, dbIds if
+     * any id is not, and packedDbId if there is one id in canonical decimal
+     * form.
+     */
+    private long packedDbId;
+    private long[] packedDbIds;
     private String[] dbIds;
-    private String id;
-    private volatile int hashCode;
+
     private int numericalId;
 
     SQLGenLocalUniqueId(String entitySpecName, String[] dbIds, int[] maxWidths) {
@@ -47,61 +74,71 @@ final class SQLGenLocalUniqueId implements LocalUniqueId {
         assert dbIds != null : "dbIds cannot be null";
         assert !ArrayUtils.contains(dbIds, null) :
                 "dbIds cannot contain a null element";
+        assert maxWidths == null || dbIds.length == maxWidths.length :
+                "maxWidths, if not null, must have the same number of values as dbIds";
 
-        //The entity spec name is already interned, so don't bother redoing it.
-        this.entitySpecName = entitySpecName;
+        this.entitySpecIndex = entitySpecIndex(entitySpecName);
+        init(dbIds, maxWidths);
+    }
 
-        this.dbIds = dbIds.clone();
-        if (this.dbIds.length == 1) {
-            try {
-                this.numericalId = Integer.parseInt(this.dbIds[0]);
-            } catch (NumberFormatException ex) {
-                synchronized (NEXT_NUMERICAL_ID_LOCK) {
-                    this.numericalId = NEXT_NUMERICAL_ID++;
-                }
+    private void init(String[] ids, int[] maxWidths) {
+        long[] packed = new long[ids.length];
+        boolean allPacked = true;
+        for (int i = 0; i < ids.length; i++) {
+            long value = parseDecimal(ids[i]);
+            if (value == NOT_DECIMAL || !isCanonical(ids[i], value)) {
+                allPacked = false;
+                break;
             }
+            packed[i] = value;
+        }
+        if (!allPacked) {
+            this.dbIds = ids.clone();
+        } else if (packed.length == 1) {
+            this.packedDbId = packed[0];
         } else {
-            if (maxWidths == null) {
-                synchronized (NEXT_NUMERICAL_ID_LOCK) {
-                    this.numericalId = NEXT_NUMERICAL_ID++;
-                }
-            } else {
-                assert dbIds.length == maxWidths.length : "maxWidths, if not null, must have the same number of values as dbIds";
-                StringBuilder db = new StringBuilder();
-                try {
-                    for (int i = 0; i < this.dbIds.length; i++) {
-                        if (i == 0) {
-                            db.append(this.dbIds[i]);
-                        } else {
-                            db.append(StringUtils.leftPad(this.dbIds[i], maxWidths[i], '0'));
-                        }
-                    }
-                    this.numericalId = Integer.parseInt(db.toString());
-                } catch (NumberFormatException ex) {
-                    synchronized (NEXT_NUMERICAL_ID_LOCK) {
-                        this.numericalId = NEXT_NUMERICAL_ID++;
-                    }
-                }
-            }
+            this.packedDbIds = packed;
         }
+        this.numericalId = numericalId(ids, maxWidths);
+    }
+
+    String getEntitySpecName() {
+        return ENTITY_SPEC_NAMES[this.entitySpecIndex];
     }
 
     String[] getDbIds() {
-        return this.dbIds.clone();
+        if (this.dbIds != null) {
+            return this.dbIds.clone();
+        } else if (this.packedDbIds != null) {
+            String[] result = new String[this.packedDbIds.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = Long.toString(this.packedDbIds[i]);
+            }
+            return result;
+        } else {
+            return new String[]{Long.toString(this.packedDbId)};
+        }
     }
 
     @Override
     public String getId() {
-        if (this.id == null) {
-            StringBuilder builder = new StringBuilder();
-            builder.append(entitySpecName);
-            for (String dbId : dbIds) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(getEntitySpecName());
+        if (this.dbIds != null) {
+            for (String dbId : this.dbIds) {
+                builder.append('^');
+                builder.append(dbId);
+            }
+        } else if (this.packedDbIds != null) {
+            for (long dbId : this.packedDbIds) {
                 builder.append('^');
                 builder.append(dbId);
             }
-            this.id = builder.toString();
+        } else {
+            builder.append('^');
+            builder.append(this.packedDbId);
         }
-        return this.id;
+        return builder.toString();
     }
 
     @Override
@@ -111,6 +148,9 @@ final class SQLGenLocalUniqueId implements LocalUniqueId {
 
     @Override
     public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -118,7 +158,13 @@ final class SQLGenLocalUniqueId implements LocalUniqueId {
             return false;
         }
         final SQLGenLocalUniqueId other = (SQLGenLocalUniqueId) obj;
-        if (!this.entitySpecName.equals(other.entitySpecName)) {
+        if (this.entitySpecIndex != other.entitySpecIndex) {
+            return false;
+        }
+        if (this.packedDbId != other.packedDbId) {
+            return false;
+        }
+        if (!Arrays.equals(this.packedDbIds, other.packedDbIds)) {
             return false;
         }
         if (!Arrays.equals(this.dbIds, other.dbIds)) {
@@ -129,61 +175,203 @@ final class SQLGenLocalUniqueId implements LocalUniqueId {
 
     @Override
     public int hashCode() {
-        if (this.hashCode == 0) {
-            int hash = 3;
-            hash = 53 * hash + this.entitySpecName.hashCode();
+        int hash = 3;
+        hash = 53 * hash + this.entitySpecIndex;
+        if (this.dbIds != null) {
             hash = 53 * hash + Arrays.hashCode(this.dbIds);
-            this.hashCode = hash;
+        } else if (this.packedDbIds != null) {
+            hash = 53 * hash + Arrays.hashCode(this.packedDbIds);
+        } else {
+            hash = 53 * hash
+                    + (int) (this.packedDbId ^ (this.packedDbId >>> 32));
         }
-        return this.hashCode;
+        return hash;
     }
 
+    /**
+     * Returns this instance, which is immutable, so that
+     * {@link org.protempa.proposition.UniqueId} does not allocate a copy of
+     * it for every proposition.
+     *
+     * @return this instance.
+     */
     @Override
     public LocalUniqueId clone() {
-        try {
-            return (SQLGenLocalUniqueId) super.clone();
-        } catch (CloneNotSupportedException ex) {
-            throw new AssertionError("Never reached!");
-        }
+        return this;
     }
 
     @Override
     public String toString() {
-        return ToStringBuilder.reflectionToString(this);
+        return new ToStringBuilder(this)
+                .append("entitySpecName", getEntitySpecName())
+                .append("dbIds", getDbIds())
+                .append("numericalId", this.numericalId)
+                .toString();
+    }
+
+    private static int entitySpecIndex(String entitySpecName) {
+        Integer index = ENTITY_SPEC_INDICES.get(entitySpecName);
+        if (index == null) {
+            index = registerEntitySpecName(entitySpecName);
+        }
+        return index;
+    }
+
+    private static synchronized int registerEntitySpecName(
+            String entitySpecName) {
+        Integer index = ENTITY_SPEC_INDICES.get(entitySpecName);
+        if (index == null) {
+            String[] names = ENTITY_SPEC_NAMES;
+            index = names.length;
+            names = Arrays.copyOf(names, index + 1);
+            names[index] = entitySpecName;
+            ENTITY_SPEC_NAMES = names;
+            ENTITY_SPEC_INDICES.put(entitySpecName, index);
+        }
+        return index;
+    }
+
+    /**
+     * Computes the same numerical id as parsing the first database id
+     * followed by the zero-padded remaining ids as an int, without
+     * allocating or throwing. Ids that cannot be parsed get the next value
+     * of a counter.
+     */
+    private static int numericalId(String[] ids, int[] maxWidths) {
+        if (ids.length == 0 || (ids.length != 1 && maxWidths == null)) {
+            return NEXT_NUMERICAL_ID.getAndIncrement();
+        }
+        long first = parseDecimal(ids[0]);
+        if (first == NOT_DECIMAL) {
+            return NEXT_NUMERICAL_ID.getAndIncrement();
+        }
+        boolean negative = ids[0].charAt(0) == '-';
+        long magnitude = Math.abs(first);
+        if (magnitude > MAX_INT_MAGNITUDE) {
+            return NEXT_NUMERICAL_ID.getAndIncrement();
+        }
+        for (int i = 1; i < ids.length; i++) {
+            String id = ids[i];
+            long part = 0;
+            if (!id.isEmpty()) {
+                char c = id.charAt(0);
+                if (c < '0' || c > '9') {
+                    return NEXT_NUMERICAL_ID.getAndIncrement();
+                }
+                part = parseDecimal(id);
+                if (part == NOT_DECIMAL) {
+                    return NEXT_NUMERICAL_ID.getAndIncrement();
+                }
+            }
+            if (magnitude != 0) {
+                int width = Math.max(maxWidths[i], id.length());
+                for (int j = 0; j < width; j++) {
+                    magnitude *= 10;
+                    if (magnitude > MAX_INT_MAGNITUDE) {
+                        return NEXT_NUMERICAL_ID.getAndIncrement();
+                    }
+                }
+            }
+            magnitude += part;
+            if (magnitude > MAX_INT_MAGNITUDE) {
+                return NEXT_NUMERICAL_ID.getAndIncrement();
+            }
+        }
+        long value = negative ? -magnitude : magnitude;
+        if (value > Integer.MAX_VALUE) {
+            return NEXT_NUMERICAL_ID.getAndIncrement();
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses an optionally signed decimal integer.
+     *
+     * @param str a string.
+     * @return the integer, or {@link #NOT_DECIMAL} if the string is not a
+     * decimal integer with at most 18 significant digits.
+     */
+    private static long parseDecimal(String str) {
+        int len = str.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0) {
+            char c = str.charAt(0);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+        }
+        if (i == len) {
+            return NOT_DECIMAL;
+        }
+        long result = 0;
+        int digits = 0;
+        for (; i < len; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_DECIMAL;
+            }
+            if (result != 0 || c != '0') {
+                if (++digits > 18) {
+                    return NOT_DECIMAL;
+                }
+                result = result * 10 + (c - '0');
+            }
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Returns whether {@link Long#toString(long) } of a parsed value gives
+     * back the string it was parsed from, so that the string need not be
+     * kept.
+     */
+    private static boolean isCanonical(String str, long value) {
+        char c = str.charAt(0);
+        if (c == '+') {
+            return false;
+        } else if (c == '-') {
+            return value != 0 && str.charAt(1) != '0';
+        } else {
+            return c != '0' || str.length() == 1;
+        }
     }
 
     private void writeObject(ObjectOutputStream s) throws IOException {
-        s.writeObject(this.entitySpecName);
-        s.writeInt(this.dbIds.length);
-        for (String dbId : this.dbIds) {
+        s.writeObject(getEntitySpecName());
+        String[] ids = getDbIds();
+        s.writeInt(ids.length);
+        for (String dbId : ids) {
             s.writeObject(dbId);
         }
     }
 
     private void readObject(ObjectInputStream s) throws IOException,
             ClassNotFoundException {
-        this.entitySpecName = (String) s.readObject();
-        if (this.entitySpecName == null) {
+        String entitySpecName = (String) s.readObject();
+        if (entitySpecName == null) {
             throw new InvalidObjectException(
                     "name cannot be null. Can't restore");
         }
 
         // We intern entity spec names elsewhere, so let's do it here too.
-        this.entitySpecName = this.entitySpecName.intern();
+        this.entitySpecIndex = entitySpecIndex(entitySpecName.intern());
 
         int dbIdsLen = s.readInt();
         if (dbIdsLen < 0) {
             throw new InvalidObjectException("dbIds length invalid ("
                     + dbIdsLen + "). Can't restore");
         }
-        this.dbIds = new String[dbIdsLen];
+        String[] ids = new String[dbIdsLen];
         for (int i = 0; i < dbIdsLen; i++) {
             String dbId = (String) s.readObject();
             if (dbId == null) {
                 throw new InvalidObjectException(
                         "dbIds cannot contain a null value. Can't restore");
             }
-            this.dbIds[i] = dbId;
+            ids[i] = dbId;
         }
+        init(ids, null);
     }
 }
@@ -36,6 +36,9 @@ class SQLGenUtil {
     static final String SYSTEM_PROPERTY_FORCE_SQL_GENERATOR =
             "protempa.dsb.relationaldatabase.sqlgenerator";
 
+    static final String SYSTEM_PROPERTY_BIND_PARAMETERS =
+            "protempa.dsb.relationaldatabase.bindparameters";
+
     private SQLGenUtil() {
     }
 
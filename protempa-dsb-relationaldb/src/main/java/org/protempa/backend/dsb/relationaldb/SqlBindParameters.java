@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * Protempa Commons Backend Provider
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Collects the values of a generated SQL statement that are to be bound to
+ * <code>?</code> placeholders rather than inlined as literals. Values are
+ * recorded in the order in which they appear in the statement text, so
+ * clauses must be generated in that order.
+ *
+ * @author Andrew Post
+ */
+public final class SqlBindParameters {
+
+    /**
+     * IN clauses with more elements than this are inlined as literals, which
+     * keeps us well below the bind parameter limits of the supported
+     * databases.
+     */
+    static final int MAX_IN_CLAUSE_PARAMETERS = 8192;
+
+    /**
+     * The most values to bind to one statement, which is the limit of the
+     * PostgreSQL JDBC driver and below those of the other supported
+     * databases. IN clauses that would exceed it are inlined as literals, and
+     * so are any other values once it is reached.
+     */
+    static final int MAX_STATEMENT_PARAMETERS = 32767;
+
+    private final List<Object> values;
+
+    public SqlBindParameters() {
+        this.values = new ArrayList<>();
+    }
+
+    /**
+     * Records a value and returns the placeholder to append to the SQL
+     * statement. Nulls are inlined because <code>IS ?</code> is not valid
+     * SQL, and so are values beyond {@link #MAX_STATEMENT_PARAMETERS}.
+     *
+     * @param val the value.
+     * @return a <tt>String</tt> ready to be appended to an SQL statement.
+     */
+    public String prepareValue(Object val) {
+        if (val == null || this.values.size() >= MAX_STATEMENT_PARAMETERS) {
+            return SqlGeneratorUtil.prepareValue(val);
+        }
+        if (val instanceof Boolean) {
+            this.values.add(((Boolean) val).booleanValue() ? 1 : 0);
+        } else if (val instanceof Date && !(val instanceof Timestamp)) {
+            this.values.add(new Timestamp(((Date) val).getTime()));
+        } else {
+            this.values.add(val);
+        }
+        return "?";
+    }
+
+    /**
+     * Pads the elements of an IN clause to the next power of two by repeating
+     * the last element, so that the number of distinct statement texts the
+     * database has to parse grows logarithmically rather than linearly with
+     * the number of key ids. Repeated elements do not change the semantics
+     * of <code>IN</code> or <code>NOT IN</code>.
+     *
+     * @param elements the elements of the IN clause.
+     * @return the padded elements, or the given array if no padding is
+     * needed.
+     */
+    static Object[] padInClauseElements(Object[] elements) {
+        int n = elements.length;
+        if (n == 0) {
+            return elements;
+        }
+        int bucket = Integer.highestOneBit(n);
+        if (bucket < n) {
+            bucket <<= 1;
+        }
+        if (bucket == n || bucket > MAX_IN_CLAUSE_PARAMETERS) {
+            return elements;
+        }
+        Object[] result = new Object[bucket];
+        System.arraycopy(elements, 0, result, 0, n);
+        java.util.Arrays.fill(result, n, bucket, elements[n - 1]);
+        return result;
+    }
+
+    /**
+     * Checks whether more values can be bound to the statement without
+     * exceeding {@link #MAX_STATEMENT_PARAMETERS}.
+     *
+     * @param count the number of values.
+     * @return whether they can be bound.
+     */
+    boolean hasRoomFor(int count) {
+        return this.values.size() + count <= MAX_STATEMENT_PARAMETERS;
+    }
+
+    /**
+     * Gets the recorded values in statement order.
+     *
+     * @return an unmodifiable {@link List} of values.
+     */
+    public List<Object> getValues() {
+        return Collections.unmodifiableList(this.values);
+    }
+
+    /**
+     * Binds the recorded values to a prepared statement.
+     *
+     * @param stmt a {@link PreparedStatement} created from the statement
+     * text that was generated along with these parameters.
+     * @throws SQLException if an error occurred binding a value.
+     */
+    void bind(PreparedStatement stmt) throws SQLException {
+        for (int i = 0, n = this.values.size(); i < n; i++) {
+            stmt.setObject(i + 1, this.values.get(i));
+        }
+    }
+}
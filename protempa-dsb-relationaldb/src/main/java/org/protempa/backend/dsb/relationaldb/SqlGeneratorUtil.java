@@ -61,4 +61,23 @@ public final class SqlGeneratorUtil {
         }
         return result.toString();
     }
+
+    /**
+     * Generates an SQL-ready string for the given value, either a
+     * placeholder if bind parameters are being collected or a literal
+     * otherwise.
+     *
+     * @param val the value to prepare
+     * @param bindParameters the bind parameters of the statement being
+     * generated, or <code>null</code> to inline the value as a literal.
+     * @return a <tt>String</tt> ready to be appended to an SQL statement
+     */
+    public static String prepareValue(Object val,
+            SqlBindParameters bindParameters) {
+        if (bindParameters != null) {
+            return bindParameters.prepareValue(val);
+        } else {
+            return prepareValue(val);
+        }
+    }
 }
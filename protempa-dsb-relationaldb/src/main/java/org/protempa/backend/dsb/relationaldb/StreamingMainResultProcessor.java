@@ -24,7 +24,6 @@ import org.protempa.UniqueIdPair;
 import org.protempa.proposition.Proposition;
 import org.protempa.proposition.UniqueId;
 import org.protempa.proposition.value.Value;
-import org.protempa.proposition.value.ValueType;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -35,11 +34,12 @@ import java.util.Map;
 
 abstract class StreamingMainResultProcessor<P extends Proposition>
         extends AbstractResultProcessor implements StreamingResultProcessor<P> {
-    private final ColumnSpec[] lastColumnSpecs;
     private final PropertySpec[] propertySpecs;
     private final LinkedHashMap<String, ReferenceSpec> inboundRefSpecs;
     private final Map<String, ReferenceSpec> bidirectionalRefSpecs;
     private Statement statement;
+    private volatile PropertyValuesPlan propertyValuesPlan;
+    private String[][] referringUniqueIdsBuffers;
     
     protected StreamingMainResultProcessor(
             RelationalDbDataSourceBackend backend,
@@ -51,7 +51,6 @@ abstract class StreamingMainResultProcessor<P extends Proposition>
         this.propertySpecs = getEntitySpec().getPropertySpecs();
         this.inboundRefSpecs = inboundRefSpecs;
         this.bidirectionalRefSpecs = bidirectionalRefSpecs;
-        this.lastColumnSpecs = new ColumnSpec[this.propertySpecs.length];
     }
 
     protected static String sqlCodeToPropositionId(ColumnSpec codeSpec,
@@ -61,44 +60,67 @@ abstract class StreamingMainResultProcessor<P extends Proposition>
 
     protected int extractPropertyValues(ResultSet resultSet, int i, 
             Value[] propertyValues, int[] colTypes) throws SQLException {
-        for (int j = 0; j < this.propertySpecs.length; j++) {
-            PropertySpec propertySpec = this.propertySpecs[j];
-            ValueType valueType = propertySpec.getValueType();
-            JDBCValueFormat valueFormat = propertySpec.getJDBCValueFormat();
-            Value value;
-            if (valueFormat != null) {
-                value = valueFormat.toValue(resultSet, i, colTypes[i - 1]);
-            } else {
-                ColumnSpec columnSpec = this.lastColumnSpecs[j];
-                if (columnSpec == null) {
-                    ColumnSpec cs = propertySpec.getCodeSpec();
-                    List<ColumnSpec> codeSpecL = cs.asList();
-                    columnSpec = codeSpecL.get(codeSpecL.size() - 1);
-                    this.lastColumnSpecs[j] = columnSpec;
-                }
-                String valAsString = resultSet.getString(i);
-                String propId = columnSpec.getTarget(valAsString);
-                if (propId != null) {
-                    valAsString = propId;
-                }
-                value = valueType.parse(valAsString);
-            }
+        PropertyValuesPlan plan = this.propertyValuesPlan;
+        if (plan == null || plan.firstColumn != i) {
+            plan = new PropertyValuesPlan(this.propertySpecs, i, colTypes);
+            this.propertyValuesPlan = plan;
+        }
+        JDBCValueFormat[] formats = plan.formats;
+        for (int j = 0; j < formats.length; j++) {
+            propertyValues[j] = formats[j].toValue(resultSet, i, colTypes[i - 1]);
             i++;
-            propertyValues[j] = value;
         }
         return i;
     }
 
+    /**
+     * How to read each property's value, decided from the column types of
+     * the first row. Rows of the same entity spec have their property values
+     * in the same columns, so the plan is reused across rows and result sets.
+     */
+    private static final class PropertyValuesPlan {
+
+        private final int firstColumn;
+        private final JDBCValueFormat[] formats;
+
+        PropertyValuesPlan(PropertySpec[] propertySpecs, int firstColumn,
+                int[] colTypes) {
+            this.firstColumn = firstColumn;
+            this.formats = new JDBCValueFormat[propertySpecs.length];
+            for (int j = 0; j < propertySpecs.length; j++) {
+                PropertySpec propertySpec = propertySpecs[j];
+                JDBCValueFormat valueFormat = propertySpec.getJDBCValueFormat();
+                if (valueFormat == null) {
+                    List<ColumnSpec> codeSpecL = propertySpec.getCodeSpec().asList();
+                    valueFormat = ColumnValueFormats.forColumn(
+                            propertySpec.getValueType(),
+                            codeSpecL.get(codeSpecL.size() - 1),
+                            colTypes[firstColumn + j - 1]);
+                }
+                this.formats[j] = valueFormat;
+            }
+        }
+    }
+
     protected int extractReferenceUniqueIdPairs(
             ResultSet resultSet, UniqueId referredToUniqueId,
             UniqueIdPair[] uniqueIdPairs, int i) throws SQLException {
+        if (this.referringUniqueIdsBuffers == null) {
+            this.referringUniqueIdsBuffers = new String[inboundRefSpecs.size()][];
+        }
         int j = 0;
+        int k = 0;
         for (Map.Entry<String, ReferenceSpec> entry : inboundRefSpecs
                 .entrySet()) {
             String referringEntityName = entry.getKey();
             ReferenceSpec refSpec = entry.getValue();
-            String[] referringUniqueIds = new String[refSpec.getReferringEntitySpec()
-                    .getUniqueIdSpecs().length];
+            String[] referringUniqueIds = this.referringUniqueIdsBuffers[k];
+            if (referringUniqueIds == null) {
+                referringUniqueIds = new String[refSpec.getReferringEntitySpec()
+                        .getUniqueIdSpecs().length];
+                this.referringUniqueIdsBuffers[k] = referringUniqueIds;
+            }
+            k++;
             i = readUniqueIds(referringUniqueIds, resultSet, i);
             UniqueId referringUniqueId = generateUniqueId(referringEntityName,
                     referringUniqueIds);
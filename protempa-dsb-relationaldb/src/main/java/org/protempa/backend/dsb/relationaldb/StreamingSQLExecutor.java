@@ -20,6 +20,7 @@
 package org.protempa.backend.dsb.relationaldb;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -49,6 +50,30 @@ public class StreamingSQLExecutor {
     void executeSelect(String entitySpecName, String query,
             StreamingResultProcessor<?> resultProcessor)
             throws DataSourceReadException {
+        executeSelect(entitySpecName, query, null, resultProcessor);
+    }
+
+    /**
+     * Executes a query, as a prepared statement if it has bind parameters.
+     * Prepared statements are not reused by this executor because the
+     * result processor closes them once their results are consumed, which
+     * may be after the next query has been executed. Reuse across queries
+     * happens in the database's and driver's statement caches, which bind
+     * parameters make effective by keeping the statement text stable.
+     *
+     * @param entitySpecName the name of the entity spec being queried, for
+     * messages.
+     * @param query the query.
+     * @param bindParameters the values for the query's placeholders, or
+     * <code>null</code> if the query has none.
+     * @param resultProcessor the result processor.
+     * @throws DataSourceReadException if an error occurred executing the
+     * query.
+     */
+    void executeSelect(String entitySpecName, String query,
+            SqlBindParameters bindParameters,
+            StreamingResultProcessor<?> resultProcessor)
+            throws DataSourceReadException {
         Logger logger = SQLGenUtil.logger();
         if (this.connection == null) {
             if (logger.isLoggable(Level.INFO)) {
@@ -66,9 +91,20 @@ public class StreamingSQLExecutor {
             }
 
             try {
-                Statement stmt = connection.createStatement();
-                stmt.setFetchSize(AbstractSQLGenerator.FETCH_SIZE);
-                ResultSet resultSet = stmt.executeQuery(query);
+                Statement stmt;
+                ResultSet resultSet;
+                if (bindParameters != null) {
+                    PreparedStatement pstmt
+                            = connection.prepareStatement(query);
+                    stmt = pstmt;
+                    pstmt.setFetchSize(AbstractSQLGenerator.FETCH_SIZE);
+                    bindParameters.bind(pstmt);
+                    resultSet = pstmt.executeQuery();
+                } else {
+                    stmt = connection.createStatement();
+                    stmt.setFetchSize(AbstractSQLGenerator.FETCH_SIZE);
+                    resultSet = stmt.executeQuery(query);
+                }
                 logger.log(Level.FINE, "Database query execution for {0} has returned", entitySpecName);
                 resultProcessor.setStatement(stmt);
                 resultProcessor.process(resultSet);
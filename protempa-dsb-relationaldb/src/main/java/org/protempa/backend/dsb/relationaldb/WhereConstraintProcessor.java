@@ -83,5 +83,16 @@ abstract class WhereConstraintProcessor {
         return referenceIndices;
     }
 
+    protected String prepareValue(Object val) {
+        SqlBindParameters bindParameters;
+        if (whereClause instanceof AbstractWhereClause) {
+            bindParameters
+                    = ((AbstractWhereClause) whereClause).getBindParameters();
+        } else {
+            bindParameters = null;
+        }
+        return SqlGeneratorUtil.prepareValue(val, bindParameters);
+    }
+
     protected abstract String processConstraint();
 }
@@ -21,23 +21,22 @@ package org.protempa.backend.dsb.relationaldb.oracle;
 
 import org.protempa.backend.dsb.relationaldb.AbstractInClause;
 import org.protempa.backend.dsb.relationaldb.ColumnSpec;
-import org.protempa.backend.dsb.relationaldb.SqlGeneratorUtil;
+import org.protempa.backend.dsb.relationaldb.SqlBindParameters;
 import org.protempa.backend.dsb.relationaldb.TableAliaser;
 
 
 final class Ojdbc6OracleInClause extends AbstractInClause {
     
     private final ColumnSpec columnSpec;
-    private final Object[] elements;
     private final boolean not;
     private final TableAliaser referenceIndices;
     
     Ojdbc6OracleInClause(ColumnSpec columnSpec, Object[] elements,
-            boolean not, TableAliaser referenceIndices) {
-        super(columnSpec, elements, not, referenceIndices);
+            boolean not, TableAliaser referenceIndices,
+            SqlBindParameters bindParameters) {
+        super(columnSpec, elements, not, referenceIndices, bindParameters);
         
         this.columnSpec = columnSpec;
-        this.elements = elements;
         this.not = not;
         this.referenceIndices = referenceIndices;
     }
@@ -54,9 +53,10 @@ final class Ojdbc6OracleInClause extends AbstractInClause {
             wherePart.append(" NOT");
         }
         wherePart.append(" IN (");
+        Object[] elements = getElements();
         for (int k = 0; k < elements.length; k++) {
             Object val = elements[k];
-            wherePart.append(SqlGeneratorUtil.prepareValue(val));
+            wherePart.append(prepareValue(val));
             if (k + 1 < elements.length) {
                 if ((k + 1) % 1000 == 0) {
                     wherePart.append(") OR ");
@@ -25,6 +25,7 @@ import org.protempa.backend.dsb.filter.Filter;
 import java.util.List;
 import java.util.Set;
 import org.protempa.backend.dsb.relationaldb.AbstractSelectStatement;
+import org.protempa.backend.dsb.relationaldb.AbstractWhereClause;
 import org.protempa.backend.dsb.relationaldb.ColumnSpec;
 import org.protempa.backend.dsb.relationaldb.ColumnSpecInfo;
 import org.protempa.backend.dsb.relationaldb.EntitySpec;
@@ -34,7 +35,6 @@ import org.protempa.backend.dsb.relationaldb.SQLGenResultProcessor;
 import org.protempa.backend.dsb.relationaldb.SQLOrderBy;
 import org.protempa.backend.dsb.relationaldb.SelectClause;
 import org.protempa.backend.dsb.relationaldb.TableAliaser;
-import org.protempa.backend.dsb.relationaldb.WhereClause;
 
 class Ojdbc6OracleSelectStatement extends AbstractSelectStatement {
 
@@ -80,7 +80,7 @@ class Ojdbc6OracleSelectStatement extends AbstractSelectStatement {
      * org.protempa.bp.commons.dsb.relationaldb.SQLGenResultProcessor)
      */
     @Override
-    protected WhereClause getWhereClause(Set<String> propIds, ColumnSpecInfo info,
+    protected AbstractWhereClause getWhereClause(Set<String> propIds, ColumnSpecInfo info,
             List<EntitySpec> entitySpecs, Set<Filter> filters,
             TableAliaser referenceIndices, Set<String> keyIds,
             SQLOrderBy order, SQLGenResultProcessor resultProcessor, SelectClause selectClause) {
@@ -49,7 +49,8 @@ final class Ojdbc6OracleWhereClause extends AbstractWhereClause {
     @Override
     public InClause getInClause(ColumnSpec columnSpec, Object[] elements,
             boolean not) {
-        return new Ojdbc6OracleInClause(columnSpec, elements, not, getReferenceIndices());
+        return new Ojdbc6OracleInClause(columnSpec, elements, not,
+                getReferenceIndices(), getBindParameters());
     }
 
     @Override
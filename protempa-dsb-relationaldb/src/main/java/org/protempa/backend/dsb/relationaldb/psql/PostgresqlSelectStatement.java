@@ -25,6 +25,7 @@ import org.protempa.backend.dsb.filter.Filter;
 import java.util.List;
 import java.util.Set;
 import org.protempa.backend.dsb.relationaldb.AbstractSelectStatement;
+import org.protempa.backend.dsb.relationaldb.AbstractWhereClause;
 import org.protempa.backend.dsb.relationaldb.ColumnSpec;
 import org.protempa.backend.dsb.relationaldb.ColumnSpecInfo;
 import org.protempa.backend.dsb.relationaldb.DefaultFromClause;
@@ -36,7 +37,6 @@ import org.protempa.backend.dsb.relationaldb.SQLGenResultProcessor;
 import org.protempa.backend.dsb.relationaldb.SQLOrderBy;
 import org.protempa.backend.dsb.relationaldb.SelectClause;
 import org.protempa.backend.dsb.relationaldb.TableAliaser;
-import org.protempa.backend.dsb.relationaldb.WhereClause;
 
 final class PostgresqlSelectStatement extends AbstractSelectStatement {
 
@@ -65,7 +65,7 @@ final class PostgresqlSelectStatement extends AbstractSelectStatement {
     }
 
     @Override
-    protected WhereClause getWhereClause(Set<String> propIds, ColumnSpecInfo info,
+    protected AbstractWhereClause getWhereClause(Set<String> propIds, ColumnSpecInfo info,
             List<EntitySpec> entitySpecs, Set<Filter> filters,
             TableAliaser referenceIndices, Set<String> keyIds,
             SQLOrderBy order, SQLGenResultProcessor resultProcessor,
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Protempa Commons Backend Provider
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Types;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+import org.protempa.proposition.value.ValueType;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class ColumnValueFormatsTest {
+
+    /**
+     * A one-column result set row holding a number, or <code>null</code>.
+     */
+    private static ResultSet row(final BigDecimal value) {
+        return (ResultSet) Proxy.newProxyInstance(
+                ColumnValueFormatsTest.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getString":
+                        return value != null ? value.toPlainString() : null;
+                    case "getLong":
+                        return value != null ? value.longValue() : 0L;
+                    case "getBigDecimal":
+                        return value;
+                    case "wasNull":
+                        return value == null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testIntegerColumnMatchesStringParsing() throws Exception {
+        ResultSet rs = row(new BigDecimal("42"));
+        assertEquals(ValueType.NUMBERVALUE.parse("42"),
+                ColumnValueFormats.forColumn(ValueType.NUMBERVALUE, Types.INTEGER)
+                .toValue(rs, 1, Types.INTEGER));
+    }
+
+    @Test
+    public void testDecimalColumnMatchesStringParsing() throws Exception {
+        ResultSet rs = row(new BigDecimal("4.20"));
+        assertEquals(ValueType.NUMBERVALUE.parse("4.20"),
+                ColumnValueFormats.forColumn(ValueType.NUMBERVALUE, Types.DECIMAL)
+                .toValue(rs, 1, Types.DECIMAL));
+    }
+
+    @Test
+    public void testNullNumber() throws Exception {
+        ResultSet rs = row(null);
+        assertNull(ColumnValueFormats.forColumn(ValueType.NUMBERVALUE, Types.BIGINT)
+                .toValue(rs, 1, Types.BIGINT));
+        assertNull(ColumnValueFormats.forColumn(ValueType.NUMBERVALUE, Types.NUMERIC)
+                .toValue(rs, 1, Types.NUMERIC));
+    }
+
+    @Test
+    public void testOtherValueTypesAreParsedFromStrings() throws Exception {
+        ResultSet rs = row(new BigDecimal("7"));
+        assertEquals(ValueType.NOMINALVALUE.parse("7"),
+                ColumnValueFormats.forColumn(ValueType.NOMINALVALUE, Types.INTEGER)
+                .toValue(rs, 1, Types.INTEGER));
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * #%L
+ * Protempa Commons Backend Provider
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.arp.javautil.sql.ConnectionSpec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class ConnectionPoolTest {
+
+    private static class FakeConnection implements InvocationHandler {
+
+        boolean closed;
+        boolean valid = true;
+        int rollbacks;
+        boolean autoCommit;
+        boolean readOnly;
+        int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+        final List<FakeStatement> statements = new ArrayList<>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "close":
+                    this.closed = true;
+                    return null;
+                case "isClosed":
+                    return this.closed;
+                case "isValid":
+                    return this.valid;
+                case "getAutoCommit":
+                    return this.autoCommit;
+                case "setAutoCommit":
+                    this.autoCommit = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    return this.readOnly;
+                case "setReadOnly":
+                    this.readOnly = (Boolean) args[0];
+                    return null;
+                case "getTransactionIsolation":
+                    return this.transactionIsolation;
+                case "setTransactionIsolation":
+                    this.transactionIsolation = (Integer) args[0];
+                    return null;
+                case "rollback":
+                    this.rollbacks++;
+                    return null;
+                case "createStatement":
+                case "prepareStatement":
+                    FakeStatement fake = new FakeStatement();
+                    this.statements.add(fake);
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[]{method.getReturnType()}, fake);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static class FakeStatement implements InvocationHandler {
+
+        int closes;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "close":
+                    this.closes++;
+                    return null;
+                case "isClosed":
+                    return this.closes > 0;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static class FakeConnectionSpec implements InvocationHandler {
+
+        final List<FakeConnection> created = new ArrayList<>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getOrCreate")) {
+                FakeConnection fake = new FakeConnection();
+                this.created.add(fake);
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[]{Connection.class}, fake);
+            }
+            return null;
+        }
+
+        ConnectionSpec newConnectionSpec() {
+            return (ConnectionSpec) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[]{ConnectionSpec.class}, this);
+        }
+    }
+
+    @Test
+    public void testReturnedConnectionIsReused() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                2, 60000, 0, 1);
+        Connection con = pool.getOrCreate();
+        con.close();
+        assertTrue(con.isClosed());
+        pool.getOrCreate().close();
+        assertEquals(1, spec.created.size());
+        assertFalse(spec.created.get(0).closed);
+        assertEquals(2, spec.created.get(0).rollbacks);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testReturnedConnectionSettingsAreRestored() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                2, 60000, 0, 1);
+        Connection con = pool.getOrCreate();
+        con.setAutoCommit(true);
+        con.setReadOnly(true);
+        con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        con.close();
+        FakeConnection fake = spec.created.get(0);
+        assertFalse(fake.closed);
+        assertFalse(fake.autoCommit);
+        assertFalse(fake.readOnly);
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED,
+                fake.transactionIsolation);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testInvalidConnectionIsDiscarded() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                2, 60000, 0, 1);
+        pool.getOrCreate().close();
+        spec.created.get(0).valid = false;
+        pool.getOrCreate().close();
+        assertEquals(2, spec.created.size());
+        assertTrue(spec.created.get(0).closed);
+    }
+
+    @Test
+    public void testOverflowConnectionIsNotPooled() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                1, 60000, 0, 1);
+        Connection con1 = pool.getOrCreate();
+        Connection con2 = pool.getOrCreate();
+        con2.close();
+        assertTrue(spec.created.get(1).closed);
+        con1.close();
+        assertFalse(spec.created.get(0).closed);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testWithoutWaitingOpensUnpooledConnectionRightAway()
+            throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                1, 60000, 60000, 1);
+        Connection con1 = pool.getOrCreateWithoutWaiting();
+        long start = System.currentTimeMillis();
+        Connection con2 = pool.getOrCreateWithoutWaiting();
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        con2.close();
+        assertTrue(spec.created.get(1).closed);
+        con1.close();
+        assertEquals(1, pool.getIdleCount());
+        pool.getOrCreateWithoutWaiting().close();
+        assertEquals(2, spec.created.size());
+        assertFalse(spec.created.get(0).closed);
+    }
+
+    @Test
+    public void testIdleConnectionIsEvicted() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                2, 0, 0, 1);
+        pool.getOrCreate().close();
+        Thread.sleep(5);
+        pool.getOrCreate().close();
+        assertEquals(2, spec.created.size());
+        assertTrue(spec.created.get(0).closed);
+    }
+
+    @Test
+    public void testCloseClosesIdleConnections() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                2, 60000, 0, 1);
+        Connection con = pool.getOrCreate();
+        pool.getOrCreate().close();
+        pool.close();
+        assertTrue(spec.created.get(1).closed);
+        con.close();
+        assertTrue(spec.created.get(0).closed);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testIdleConnectionIsEvictedInBackground() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                2, 1, 0, 1);
+        try {
+            pool.getOrCreate().close();
+            long deadline = System.currentTimeMillis()
+                    + 50 * ConnectionPool.MIN_EVICTION_PERIOD_MILLIS;
+            while (!spec.created.get(0).closed
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(spec.created.get(0).closed);
+            assertEquals(0, pool.getIdleCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testOpenStatementsAreClosedOnReturn() throws Exception {
+        FakeConnectionSpec spec = new FakeConnectionSpec();
+        ConnectionPool pool = new ConnectionPool(spec.newConnectionSpec(),
+                2, 60000, 0, 1);
+        try {
+            Connection con = pool.getOrCreate();
+            Statement closedByBorrower = con.createStatement();
+            con.prepareStatement("SELECT 1");
+            closedByBorrower.close();
+            con.close();
+            FakeConnection fake = spec.created.get(0);
+            assertFalse(fake.closed);
+            assertEquals(2, fake.statements.size());
+            for (FakeStatement statement : fake.statements) {
+                assertTrue(statement.closes > 0);
+            }
+            Connection again = pool.getOrCreate();
+            again.createStatement();
+            again.close();
+            assertEquals(1, fake.statements.get(1).closes);
+            assertEquals(1, fake.statements.get(2).closes);
+        } finally {
+            pool.close();
+        }
+    }
+}
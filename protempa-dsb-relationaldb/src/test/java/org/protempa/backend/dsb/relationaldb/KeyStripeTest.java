@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Protempa Commons Backend Provider
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.protempa.DataSourceReadException;
+import org.protempa.DataStreamingEvent;
+import org.protempa.DataStreamingEventIterator;
+import org.protempa.UniqueIdPair;
+import org.protempa.proposition.Proposition;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class KeyStripeTest {
+
+    /**
+     * Returns a shard's key ids. Before returning the <i>k</i>th one, waits
+     * until every shard has returned at least <i>k - 1 - slack</i>, so
+     * reading fails unless all of the shards are read at the same time.
+     */
+    private static class ShardIterator
+            implements DataStreamingEventIterator<Proposition> {
+
+        private final List<String> keyIds;
+        private final int shard;
+        private final int[] returned;
+        private final int slack;
+        private int i;
+
+        ShardIterator(Set<String> keyIds, int shard, int[] returned,
+                int slack) {
+            this.keyIds = new ArrayList<>(keyIds);
+            Collections.sort(this.keyIds);
+            this.shard = shard;
+            this.returned = returned;
+            this.slack = slack;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.i < this.keyIds.size();
+        }
+
+        @Override
+        public DataStreamingEvent<Proposition> next()
+                throws DataSourceReadException {
+            synchronized (this.returned) {
+                long deadline = System.currentTimeMillis() + 10000;
+                while (min(this.returned) < this.i - this.slack) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new DataSourceReadException("shard "
+                                + this.shard + " was read alone");
+                    }
+                    try {
+                        this.returned.wait(wait);
+                    } catch (InterruptedException ex) {
+                        throw new DataSourceReadException(ex);
+                    }
+                }
+                this.returned[this.shard]++;
+                this.returned.notifyAll();
+            }
+            return new DataStreamingEvent<>(this.keyIds.get(this.i++),
+                    Collections.<Proposition>emptyList());
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private static int min(int[] values) {
+            int result = Integer.MAX_VALUE;
+            for (int value : values) {
+                result = Math.min(result, value);
+            }
+            return result;
+        }
+    }
+
+    @Test
+    public void testSplitInterleavesKeyIds() {
+        List<Set<String>> shards = KeyStripe.split(
+                Arrays.asList("f", "b", "e", "a", "d", "c", "g"), 3);
+        assertEquals(3, shards.size());
+        assertEquals(new HashSet<>(Arrays.asList("a", "d", "g")), shards.get(0));
+        assertEquals(new HashSet<>(Arrays.asList("b", "e")), shards.get(1));
+        assertEquals(new HashSet<>(Arrays.asList("c", "f")), shards.get(2));
+    }
+
+    @Test
+    public void testSplitFewerKeyIdsThanShards() {
+        List<Set<String>> shards = KeyStripe.split(Arrays.asList("b", "a"), 4);
+        assertEquals(2, shards.size());
+        assertEquals(Collections.singleton("a"), shards.get(0));
+        assertEquals(Collections.singleton("b"), shards.get(1));
+    }
+
+    @Test
+    public void testStripesDealOutRanges() {
+        List<KeyStripe> stripes = KeyStripe.stripes(
+                Arrays.asList("a", "c", "e", "g"), Arrays.asList(2, 3, 2, 1), 2);
+        assertEquals(2, stripes.size());
+        assertEquals("(a1.key < 'c' OR (a1.key >= 'e' AND a1.key < 'g'))",
+                stripes.get(0).generateClause("a1.key", null));
+        assertEquals("((a1.key >= 'c' AND a1.key < 'e') OR a1.key >= 'g')",
+                stripes.get(1).generateClause("a1.key", null));
+        assertEquals(2, stripes.get(0).getMaxRangeSize());
+        assertEquals(3, stripes.get(1).getMaxRangeSize());
+        assertEquals("stripe 1 of 2", stripes.get(1).toString());
+    }
+
+    @Test
+    public void testStripesFewerRangesThanStripes() {
+        List<KeyStripe> stripes = KeyStripe.stripes(
+                Arrays.asList("a", "c"), Arrays.asList(2, 1), 4);
+        assertEquals(2, stripes.size());
+        assertEquals("(a1.key < 'c')",
+                stripes.get(0).generateClause("a1.key", null));
+        assertEquals("(a1.key >= 'c')",
+                stripes.get(1).generateClause("a1.key", null));
+    }
+
+    @Test
+    public void testGenerateClauseWithBindParameters() {
+        List<KeyStripe> stripes = KeyStripe.stripes(
+                Arrays.asList("a", "c", "e"), Arrays.asList(2, 2, 2), 1);
+        SqlBindParameters bindParameters = new SqlBindParameters();
+        assertEquals("(a1.key < ? OR (a1.key >= ? AND a1.key < ?) OR a1.key >= ?)",
+                stripes.get(0).generateClause("a1.key", bindParameters));
+        assertEquals(Arrays.<Object>asList("c", "c", "e", "e"),
+                bindParameters.getValues());
+    }
+
+    @Test
+    public void testShardsAreReadAtTheSameTime() throws Exception {
+        List<String> keyIds = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            keyIds.add(String.format("key%02d", i));
+        }
+        List<Set<String>> shards = KeyStripe.split(keyIds, 3);
+        int[] returned = new int[shards.size()];
+        List<DataStreamingEventIterator<Proposition>> itrs = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            ReadAheadDataStreamingEventIterator<Proposition> readAhead
+                    = new ReadAheadDataStreamingEventIterator<>(
+                            new ShardIterator(shards.get(i), i, returned, 0),
+                            1, "shard " + i, null);
+            readAhead.start();
+            itrs.add(readAhead);
+        }
+        RelationalDbDataReadIterator itr = new RelationalDbDataReadIterator(
+                Collections.<DataStreamingEventIterator<UniqueIdPair>>emptyList(),
+                itrs, Collections.<java.sql.Connection>emptyList());
+        List<String> actual = new ArrayList<>();
+        try {
+            while (itr.hasNext()) {
+                actual.add(itr.next().getKeyId());
+            }
+        } finally {
+            itr.close();
+        }
+        assertEquals(keyIds, actual);
+    }
+
+    @Test
+    public void testStripesAreReadAtTheSameTime() throws Exception {
+        List<String> keyIds = new ArrayList<>();
+        List<String> firstKeyIds = new ArrayList<>();
+        List<Integer> rangeSizes = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            keyIds.add(String.format("key%02d", i));
+            if (i % 2 == 0) {
+                firstKeyIds.add(keyIds.get(i));
+                rangeSizes.add(2);
+            }
+        }
+        List<KeyStripe> stripes = KeyStripe.stripes(firstKeyIds, rangeSizes, 3);
+        int[] returned = new int[stripes.size()];
+        List<DataStreamingEventIterator<Proposition>> itrs = new ArrayList<>();
+        for (KeyStripe stripe : stripes) {
+            Set<String> stripeKeyIds = new HashSet<>();
+            for (int i = 0; i < keyIds.size(); i++) {
+                if (i / 2 % stripes.size() == stripe.getIndex()) {
+                    stripeKeyIds.add(keyIds.get(i));
+                }
+            }
+            ReadAheadDataStreamingEventIterator<Proposition> readAhead
+                    = new ReadAheadDataStreamingEventIterator<>(
+                            new ShardIterator(stripeKeyIds, stripe.getIndex(),
+                                    returned, stripe.getMaxRangeSize()),
+                            stripe.getMaxRangeSize(), stripe.toString(), null);
+            readAhead.start();
+            itrs.add(readAhead);
+        }
+        RelationalDbDataReadIterator itr = new RelationalDbDataReadIterator(
+                Collections.<DataStreamingEventIterator<UniqueIdPair>>emptyList(),
+                itrs, Collections.<java.sql.Connection>emptyList());
+        List<String> actual = new ArrayList<>();
+        try {
+            while (itr.hasNext()) {
+                actual.add(itr.next().getKeyId());
+            }
+        } finally {
+            itr.close();
+        }
+        assertEquals(keyIds, actual);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Protempa Commons Backend Provider
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.protempa.DataSourceReadException;
+import org.protempa.DataStreamingEvent;
+import org.protempa.DataStreamingEventIterator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class ReadAheadDataStreamingEventIteratorTest {
+
+    private static class KeyIterator
+            implements DataStreamingEventIterator<String> {
+
+        private final int size;
+        private final int failAt;
+        private int i;
+        volatile boolean closed;
+
+        KeyIterator(int size, int failAt) {
+            this.size = size;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public boolean hasNext() throws DataSourceReadException {
+            if (this.i == this.failAt) {
+                throw new DataSourceReadException("failed at " + this.i);
+            }
+            return this.i < this.size;
+        }
+
+        @Override
+        public DataStreamingEvent<String> next() {
+            String keyId = "key" + this.i++;
+            return new DataStreamingEvent<>(keyId,
+                    Collections.singletonList(keyId));
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    @Test
+    public void testReturnsEventsInOrder() throws Exception {
+        KeyIterator keys = new KeyIterator(100, -1);
+        ReadAheadDataStreamingEventIterator<String> itr
+                = new ReadAheadDataStreamingEventIterator<>(keys, 3, "test", null);
+        itr.start();
+        List<String> keyIds = new ArrayList<>();
+        while (itr.hasNext()) {
+            keyIds.add(itr.next().getKeyId());
+        }
+        itr.close();
+        assertEquals(100, keyIds.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("key" + i, keyIds.get(i));
+        }
+        assertTrue(keys.closed);
+    }
+
+    @Test
+    public void testRethrowsReadError() throws Exception {
+        KeyIterator keys = new KeyIterator(100, 5);
+        ReadAheadDataStreamingEventIterator<String> itr
+                = new ReadAheadDataStreamingEventIterator<>(keys, 3, "test", null);
+        itr.start();
+        int count = 0;
+        try {
+            while (itr.hasNext()) {
+                itr.next();
+                count++;
+            }
+            fail("expected a DataSourceReadException");
+        } catch (DataSourceReadException ex) {
+            assertEquals(5, count);
+        } finally {
+            itr.close();
+        }
+    }
+
+    @Test
+    public void testCloseStopsReadingAhead() throws Exception {
+        KeyIterator keys = new KeyIterator(100, -1);
+        ReadAheadDataStreamingEventIterator<String> itr
+                = new ReadAheadDataStreamingEventIterator<>(keys, 3, "test", null);
+        itr.start();
+        assertTrue(itr.hasNext());
+        itr.next();
+        itr.close();
+        assertTrue(keys.closed);
+        assertFalse(keys.i >= 100);
+    }
+}
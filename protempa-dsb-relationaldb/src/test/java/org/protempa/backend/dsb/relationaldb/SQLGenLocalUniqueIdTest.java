@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Protempa Commons Backend Provider
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class SQLGenLocalUniqueIdTest {
+
+    @Test
+    public void testNumericIdsKeepTheirStringForm() {
+        String[] dbIds = {"-12", "007", "+3", "123456789012345678901", "x"};
+        for (String dbId : dbIds) {
+            SQLGenLocalUniqueId uid = new SQLGenLocalUniqueId("Encounter",
+                    new String[]{dbId}, null);
+            assertArrayEquals(new String[]{dbId}, uid.getDbIds());
+            assertEquals("Encounter^" + dbId, uid.getId());
+        }
+    }
+
+    @Test
+    public void testEqualsDistinguishesLeadingZeros() {
+        SQLGenLocalUniqueId uid1 = new SQLGenLocalUniqueId("Encounter",
+                new String[]{"7"}, null);
+        SQLGenLocalUniqueId uid2 = new SQLGenLocalUniqueId("Encounter",
+                new String[]{"07"}, null);
+        assertFalse(uid1.equals(uid2));
+        assertEquals(7, uid1.getNumericalId());
+        assertEquals(7, uid2.getNumericalId());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        SQLGenLocalUniqueId uid1 = new SQLGenLocalUniqueId("Lab",
+                new String[]{"12", "abc"}, null);
+        SQLGenLocalUniqueId uid2 = new SQLGenLocalUniqueId("Lab",
+                new String[]{"12", "abc"}, null);
+        assertEquals(uid1, uid2);
+        assertEquals(uid1.hashCode(), uid2.hashCode());
+        assertFalse(uid1.equals(new SQLGenLocalUniqueId("Vital",
+                new String[]{"12", "abc"}, null)));
+    }
+
+    @Test
+    public void testNumericalIdOfCompositeIds() {
+        SQLGenLocalUniqueId uid = new SQLGenLocalUniqueId("Lab",
+                new String[]{"-12", "5", "34"}, new int[]{0, 3, 2});
+        assertEquals(-1200534, uid.getNumericalId());
+    }
+
+    @Test
+    public void testNumericalIdOfOverflowingIdsIsUnique() {
+        SQLGenLocalUniqueId uid1 = new SQLGenLocalUniqueId("Lab",
+                new String[]{"123456", "7"}, new int[]{0, 6});
+        SQLGenLocalUniqueId uid2 = new SQLGenLocalUniqueId("Lab",
+                new String[]{"2147483648"}, null);
+        assertTrue(uid1.getNumericalId() != uid2.getNumericalId());
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        SQLGenLocalUniqueId uid = new SQLGenLocalUniqueId("Encounter",
+                new String[]{"42", "a"}, null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(uid);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            SQLGenLocalUniqueId restored = (SQLGenLocalUniqueId) in.readObject();
+            assertEquals(uid, restored);
+            assertEquals("Encounter^42^a", restored.getId());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * #%L
+ * Protempa Commons Backend Provider
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.backend.dsb.relationaldb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.protempa.proposition.Proposition;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class SqlBindParametersTest {
+
+    @Test
+    public void testPrepareValueBoolean() {
+        SqlBindParameters params = new SqlBindParameters();
+        assertEquals("?", params.prepareValue(Boolean.TRUE));
+        assertEquals("?", params.prepareValue(Boolean.FALSE));
+        assertEquals(Arrays.<Object>asList(1, 0), params.getValues());
+    }
+
+    @Test
+    public void testPrepareValueDate() {
+        SqlBindParameters params = new SqlBindParameters();
+        Date date = new Date(1000L);
+        Timestamp timestamp = new Timestamp(2000L);
+        params.prepareValue(date);
+        params.prepareValue(timestamp);
+        List<Object> values = params.getValues();
+        assertEquals(Timestamp.class, values.get(0).getClass());
+        assertEquals(1000L, ((Timestamp) values.get(0)).getTime());
+        assertSame(timestamp, values.get(1));
+    }
+
+    @Test
+    public void testPrepareValueNullIsInlined() {
+        SqlBindParameters params = new SqlBindParameters();
+        assertEquals("null", params.prepareValue(null));
+        assertTrue(params.getValues().isEmpty());
+    }
+
+    @Test
+    public void testPrepareValueKeepsStatementOrder() {
+        SqlBindParameters params = new SqlBindParameters();
+        params.prepareValue("a");
+        params.prepareValue(null);
+        params.prepareValue(3);
+        assertEquals(Arrays.<Object>asList("a", 3), params.getValues());
+    }
+
+    @Test
+    public void testPadInClauseElements() {
+        Object[] empty = new Object[0];
+        assertSame(empty, SqlBindParameters.padInClauseElements(empty));
+        Object[] four = {"a", "b", "c", "d"};
+        assertSame(four, SqlBindParameters.padInClauseElements(four));
+        assertArrayEquals(new Object[]{"a", "b", "c", "c"},
+                SqlBindParameters.padInClauseElements(
+                        new Object[]{"a", "b", "c"}));
+        assertArrayEquals(new Object[]{"a", "b", "c", "d", "e", "e", "e", "e"},
+                SqlBindParameters.padInClauseElements(
+                        new Object[]{"a", "b", "c", "d", "e"}));
+    }
+
+    @Test
+    public void testPadInClauseElementsAboveMaximum() {
+        Object[] elements
+                = new Object[SqlBindParameters.MAX_IN_CLAUSE_PARAMETERS + 1];
+        Arrays.fill(elements, "a");
+        assertSame(elements, SqlBindParameters.padInClauseElements(elements));
+    }
+
+    @Test
+    public void testPrepareValueInlinedBeyondStatementMaximum() {
+        SqlBindParameters params = new SqlBindParameters();
+        for (int i = 0; i < SqlBindParameters.MAX_STATEMENT_PARAMETERS; i++) {
+            assertEquals("?", params.prepareValue(i));
+        }
+        assertFalse(params.hasRoomFor(1));
+        assertEquals("'x'", params.prepareValue("x"));
+        assertEquals(SqlBindParameters.MAX_STATEMENT_PARAMETERS,
+                params.getValues().size());
+    }
+
+    @Test
+    public void testInClausesShareStatementMaximum() {
+        SqlBindParameters params = new SqlBindParameters();
+        TableAliaser aliaser = new TableAliaser(Arrays.asList(
+                new IntColumnSpecWrapper(new ColumnSpec("k"))));
+        Object[] elements = new Object[5000];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = i;
+        }
+        int bound = 0;
+        while (params.hasRoomFor(SqlBindParameters.MAX_IN_CLAUSE_PARAMETERS)) {
+            assertTrue(new DefaultInClause(new ColumnSpec("k"), elements,
+                    false, aliaser, params).generateClause().contains("?"));
+            bound += SqlBindParameters.MAX_IN_CLAUSE_PARAMETERS;
+        }
+        assertEquals(bound, params.getValues().size());
+        assertTrue(new DefaultInClause(new ColumnSpec("k"), elements,
+                false, aliaser, params).generateClause().contains("?"));
+        assertEquals(bound + elements.length, params.getValues().size());
+        String literals = new DefaultInClause(new ColumnSpec("k"), elements,
+                false, aliaser, params).generateClause();
+        assertFalse(literals.contains("?"));
+        assertTrue(literals.startsWith("k IN (0,1,"));
+        assertEquals(bound + elements.length, params.getValues().size());
+    }
+
+    @Test
+    public void testExecuteSelectBindsPreparedStatement() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        final ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+        final PreparedStatement stmt = (PreparedStatement) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "setObject":
+                        calls.add("setObject " + args[0] + " " + args[1]);
+                        return null;
+                    case "executeQuery":
+                        calls.add("executeQuery " + (args == null ? 0 : args.length));
+                        return resultSet;
+                    default:
+                        return null;
+                }
+            }
+        });
+        Connection connection = (Connection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                calls.add(method.getName() + " " + Arrays.toString(args));
+                if (method.getName().equals("prepareStatement")) {
+                    return stmt;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        SqlBindParameters params = new SqlBindParameters();
+        String sql = "SELECT a FROM t WHERE k IN ("
+                + params.prepareValue("x") + ',' + params.prepareValue(true)
+                + ')';
+        final List<Object> processed = new ArrayList<>();
+        new StreamingSQLExecutor(connection, "test", null).executeSelect(
+                "entity", sql, params, new StreamingResultProcessor<Proposition>() {
+            private Statement statement;
+
+            @Override
+            public void setStatement(Statement statement) {
+                this.statement = statement;
+            }
+
+            @Override
+            public Statement getStatement() {
+                return this.statement;
+            }
+
+            @Override
+            public void setCasePresent(boolean casePresent) {
+            }
+
+            @Override
+            public boolean isCasePresent() {
+                return false;
+            }
+
+            @Override
+            public EntitySpec getEntitySpec() {
+                return null;
+            }
+
+            @Override
+            public void process(ResultSet resultSet) {
+                processed.add(this.statement);
+                processed.add(resultSet);
+            }
+        });
+        assertEquals(Arrays.asList(
+                "prepareStatement [SELECT a FROM t WHERE k IN (?,?)]",
+                "setObject 1 x", "setObject 2 1", "executeQuery 0"), calls);
+        assertEquals(2, processed.size());
+        assertSame(stmt, processed.get(0));
+        assertSame(resultSet, processed.get(1));
+    }
+}
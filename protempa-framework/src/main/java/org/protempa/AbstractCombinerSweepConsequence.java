@@ -0,0 +1,346 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.drools.WorkingMemory;
+import org.drools.common.InternalFactHandle;
+import org.drools.spi.Consequence;
+import org.drools.spi.KnowledgeHelper;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.Segment;
+import org.protempa.proposition.Sequence;
+import org.protempa.proposition.TemporalProposition;
+import org.protempa.proposition.interval.Interval;
+
+/**
+ * Combines the propositions in a {@link CombinerSweepBuffer} by sorting and
+ * sweeping. The propositions are grouped by the attributes that must match
+ * for them to be combined, each group is kept sorted by interval, and each
+ * group is swept, extending the current segment for as long as the next
+ * proposition can be combined with it. Each segment of more than one
+ * proposition is replaced by one combined proposition, with the same
+ * derivations that combining its propositions one pair at a time with
+ * {@link AbstractCombinerConsequence} would produce.
+ *
+ * A pass inserts only the propositions added since the previous pass into
+ * the groups, and sweeps only from the proposition before the first
+ * inserted one until the sweep is past the last inserted one, because the
+ * rest of the group was already swept without combining anything. The
+ * combined propositions are inserted and swept the same way within the same
+ * pass, until nothing more combines.
+ *
+ * @author Andrew Post
+ * @param <P> an implementation of the TemporalProposition interface.
+ */
+abstract class AbstractCombinerSweepConsequence<P extends TemporalProposition>
+        implements Consequence {
+
+    private static final long serialVersionUID = 5361937432306547315L;
+    private static final Logger LOGGER = Logger.getLogger(AbstractCombinerSweepConsequence.class.getName());
+
+    AbstractCombinerSweepConsequence() {
+    }
+
+    /**
+     * Creates the combined proposition of a segment and puts it in place of
+     * the segment's propositions.
+     *
+     * @param <P> an implementation of the TemporalProposition interface.
+     */
+    interface SegmentCombiner<P extends TemporalProposition> {
+
+        /**
+         * @param segment a segment of more than one proposition.
+         * @return the combined proposition.
+         */
+        P combine(Segment<P> segment);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void evaluate(final KnowledgeHelper kh, final WorkingMemory wm)
+            throws Exception {
+        InternalFactHandle bufferFact = kh.getTuple().get(0);
+        final CombinerSweepBuffer buffer
+                = (CombinerSweepBuffer) wm.getObject(bufferFact);
+        kh.retract(bufferFact);
+        List<P> added = (List<P>) buffer.drain();
+        List<List<P>> groups = (List<List<P>>) (List<?>) buffer.getGroups();
+        final DerivationsBuilder derivationsBuilder
+                = WorkingMemoryGlobals.getDerivationsBuilder(wm);
+        mergeAll(groups, added, wm, new SegmentCombiner<P>() {
+            @Override
+            public P combine(Segment<P> segment) {
+                P result = newCombinedFact(segment, wm);
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.log(Level.FINEST, "Created {0} from {1}", new Object[]{result, segment});
+                }
+                for (P prop : segment) {
+                    kh.retract(wm.getFactHandle(prop));
+                }
+                buffer.addCombined(result);
+                kh.insertLogical(result);
+                for (P prop : segment) {
+                    Set<Proposition> propBackward
+                            = derivationsBuilder.propositionRetractedBackward(prop);
+                    for (Proposition backward : propBackward) {
+                        derivationsBuilder.propositionReplaceForward(backward, prop, result);
+                        derivationsBuilder.propositionAssertedBackward(backward, result);
+                    }
+                }
+                LOGGER.log(Level.FINER, "Asserted derived proposition {0}", result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Merges propositions into the groups as {@link #merge} does and
+     * combines each segment that should be combined. The combined
+     * propositions are then merged into the groups in turn, because a
+     * combined proposition may combine with a neighbor that none of its
+     * parts could, and so on until no segment combines.
+     *
+     * @param groups the groups of uncombined propositions, each sorted by
+     * interval. Updated in place.
+     * @param added the propositions to merge.
+     * @param wm the {@link WorkingMemory} of the propositions. May be
+     * <code>null</code> if the propositions are not in a working memory.
+     * @param combiner creates the combined propositions.
+     */
+    final void mergeAll(List<List<P>> groups, List<P> added,
+            WorkingMemory wm, SegmentCombiner<P> combiner) {
+        while (!added.isEmpty()) {
+            List<P> combined = new ArrayList<>();
+            for (Segment<P> segment : merge(groups, added, wm)) {
+                combined.add(combiner.combine(segment));
+            }
+            added = combined;
+        }
+    }
+
+    /**
+     * Partitions propositions into maximal segments of propositions that
+     * should be combined.
+     *
+     * @param props the propositions of one abstraction or context
+     * definition.
+     * @return a newly created {@link List} of segments, each backed by its
+     * own {@link Sequence}. Every proposition is in exactly one segment.
+     */
+    final List<Segment<P>> sweep(Collection<P> props) {
+        List<List<P>> groups = new ArrayList<>();
+        for (P prop : props) {
+            List<P> group = findGroup(groups, prop);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(prop);
+        }
+
+        List<Segment<P>> result = new ArrayList<>();
+        for (List<P> group : groups) {
+            Collections.sort(group, ProtempaUtil.TEMP_PROP_COMP);
+            sweep(group, 0, group.size() - 1, null, result, null);
+        }
+        return result;
+    }
+
+    /**
+     * Merges propositions into sorted groups of propositions that previous
+     * passes left uncombined, and returns the segments of more than one
+     * proposition that should be combined. The propositions in those
+     * segments are removed from the groups.
+     *
+     * @param groups the groups of uncombined propositions, each sorted by
+     * interval. Updated in place.
+     * @param added the propositions to merge.
+     * @param wm the {@link WorkingMemory} of the propositions, used to drop
+     * uncombined propositions that have since been retracted. May be
+     * <code>null</code> if the propositions are not in a working memory.
+     * @return a newly created {@link List} of segments, each backed by its
+     * own {@link Sequence}.
+     */
+    final List<Segment<P>> merge(List<List<P>> groups, List<P> added,
+            WorkingMemory wm) {
+        Collections.sort(added, ProtempaUtil.TEMP_PROP_COMP);
+        Map<List<P>, int[]> insertedRanges = new IdentityHashMap<>();
+        for (P prop : added) {
+            List<P> group = findGroup(groups, prop);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            int index = upperBound(group, prop);
+            group.add(index, prop);
+            int[] range = insertedRanges.get(group);
+            if (range == null) {
+                insertedRanges.put(group, new int[]{index, index});
+            } else {
+                range[1] = index;
+            }
+        }
+
+        List<Segment<P>> result = new ArrayList<>();
+        for (Map.Entry<List<P>, int[]> me : insertedRanges.entrySet()) {
+            int[] range = me.getValue();
+            sweep(me.getKey(), Math.max(0, range[0] - 1), range[1], wm,
+                    null, result);
+        }
+        for (Iterator<List<P>> itr = groups.iterator(); itr.hasNext();) {
+            if (itr.next().isEmpty()) {
+                itr.remove();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sweeps a sorted group from the given index until the sweep has passed
+     * the given last index and a segment ends.
+     *
+     * @param group a group of propositions sorted by interval.
+     * @param first the index at which to start.
+     * @param last the index past which the sweep may stop.
+     * @param wm if not <code>null</code>, propositions that are not in this
+     * {@link WorkingMemory} are removed from the group and skipped.
+     * @param segments if not <code>null</code>, every segment is added to
+     * it, and the group is not changed.
+     * @param combinedSegments if not <code>null</code>, segments of more than
+     * one proposition are added to it and their propositions are removed
+     * from the group.
+     */
+    private void sweep(List<P> group, int first, int last, WorkingMemory wm,
+            List<Segment<P>> segments, List<Segment<P>> combinedSegments) {
+        List<P> uncombined = new ArrayList<>();
+        Sequence<P> seq = null;
+        Segment<P> segment = null;
+        int i = first;
+        while (i < group.size()) {
+            P prop = group.get(i);
+            if (wm != null && wm.getFactHandle(prop) == null) {
+                group.remove(i);
+                last--;
+                continue;
+            }
+            if (segment != null && isCombinable(segment.getInterval(),
+                    prop.getInterval())) {
+                seq.add(prop);
+                segment.resetState(seq);
+            } else {
+                if (segment != null) {
+                    addSegment(segment, segments, combinedSegments, uncombined);
+                    segment = null;
+                }
+                if (i > last) {
+                    break;
+                }
+                seq = new Sequence<>(prop.getId());
+                seq.add(prop);
+                segment = new Segment<>(seq);
+            }
+            i++;
+        }
+        if (segment != null) {
+            addSegment(segment, segments, combinedSegments, uncombined);
+        }
+        if (combinedSegments != null) {
+            List<P> swept = group.subList(first, i);
+            swept.clear();
+            swept.addAll(uncombined);
+        }
+    }
+
+    private static <P extends TemporalProposition> void addSegment(
+            Segment<P> segment, List<Segment<P>> segments,
+            List<Segment<P>> combinedSegments, List<P> uncombined) {
+        if (segments != null) {
+            segments.add(segment);
+        }
+        if (combinedSegments != null) {
+            if (segment.size() == 1) {
+                uncombined.add(segment.first());
+            } else {
+                combinedSegments.add(segment);
+            }
+        }
+    }
+
+    private List<P> findGroup(List<List<P>> groups, P prop) {
+        for (List<P> group : groups) {
+            if (!group.isEmpty() && isSameGroup(group.get(0), prop)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index after the last proposition in a sorted group that
+     * does not sort after the given proposition.
+     */
+    private static <P extends TemporalProposition> int upperBound(
+            List<P> group, P prop) {
+        int low = 0;
+        int high = group.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ProtempaUtil.TEMP_PROP_COMP.compare(group.get(mid), prop) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns whether two propositions have the attributes that must match
+     * for them to be combined.
+     *
+     * @param p1 a proposition.
+     * @param p2 another proposition.
+     * @return <code>true</code> or <code>false</code>.
+     */
+    protected abstract boolean isSameGroup(P p1, P p2);
+
+    /**
+     * Returns whether a segment should be extended with a proposition that
+     * starts at the same time or after it.
+     *
+     * @param lhs the segment's {@link Interval}.
+     * @param rhs the proposition's {@link Interval}.
+     * @return <code>true</code> or <code>false</code>.
+     */
+    protected abstract boolean isCombinable(Interval lhs, Interval rhs);
+
+    protected abstract P newCombinedFact(Segment<P> segment, WorkingMemory wm);
+}
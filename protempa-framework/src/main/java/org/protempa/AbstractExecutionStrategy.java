@@ -29,6 +29,7 @@ abstract class AbstractExecutionStrategy implements ExecutionStrategy {
     private PropositionDefinitionCache cache;
     private final Query query;
     private RuleBase ruleBase;
+    private final RuleProfiler ruleProfiler;
 
     /**
      * @param abstractionFinder the {@link AbstractionFinder} using this
@@ -40,6 +41,11 @@ abstract class AbstractExecutionStrategy implements ExecutionStrategy {
         this.algorithmSource = algorithmSource;
         this.derivationsBuilder = new DerivationsBuilder();
         this.query = query;
+        if (Boolean.getBoolean(JBossRuleCreator.SYSTEM_PROPERTY_PROFILER)) {
+            this.ruleProfiler = new RuleProfiler();
+        } else {
+            this.ruleProfiler = null;
+        }
     }
 
     public Query getQuery() {
@@ -60,19 +66,35 @@ abstract class AbstractExecutionStrategy implements ExecutionStrategy {
     }
 
     @Override
-    public void initialize(PropositionDefinitionCache cache)
+    public final void initialize(PropositionDefinitionCache cache)
+            throws ExecutionStrategyInitializationException {
+        initialize(cache, null);
+    }
+
+    @Override
+    public void initialize(PropositionDefinitionCache cache, RuleBase ruleBase)
             throws ExecutionStrategyInitializationException {
         if (cache == null) {
             throw new IllegalArgumentException("cache cannot be null");
         }
         this.cache = cache;
-        createRuleBase();
+        if (ruleBase != null) {
+            this.ruleBase = ruleBase;
+        } else {
+            createRuleBase();
+        }
     }
 
-    protected RuleBase getRuleBase() {
+    @Override
+    public RuleBase getRuleBase() {
         return this.ruleBase;
     }
 
+    @Override
+    public RuleProfiler getRuleProfiler() {
+        return this.ruleProfiler;
+    }
+
     private void createRuleBase() throws ExecutionStrategyInitializationException {
         JBossRuleCreator ruleCreator = newRuleCreator();
         try {
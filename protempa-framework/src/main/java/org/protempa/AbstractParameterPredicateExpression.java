@@ -67,6 +67,20 @@ class AbstractParameterPredicateExpression extends PropositionPredicateExpressio
         
         return true;
     }
-    
-    
+
+    @Override
+    public int hashCode() {
+        int hash = super.hashCode();
+        hash = 37 * hash + (this.contextId != null ? this.contextId.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        final AbstractParameterPredicateExpression other = (AbstractParameterPredicateExpression) obj;
+        return this.contextId == null ? other.contextId == null : this.contextId.equals(other.contextId);
+    }
 }
@@ -44,30 +44,86 @@ final class AbstractionCombiner implements RuleCreator<AbstractionDefinition> {
     private static final Logger LOGGER = Logger.getLogger(AbstractionCombiner.class.getName());
     private static final ClassObjectType ABSTRACT_PARAMETER_OBJECT_TYPE = new ClassObjectType(
             AbstractParameter.class);
+    private static final ClassObjectType BUFFER_OBJECT_TYPE = new ClassObjectType(
+            CombinerSweepBuffer.class);
+    private final boolean sweep;
+    private final PropositionIdConstraints idConstraints;
+    private final RuleInstrumentation instrumentation;
 
-    AbstractionCombiner() {
+    /**
+     * Creates a rule creator.
+     *
+     * @param sweep <code>true</code> to combine abstract parameters in
+     * sort-and-sweep passes over a definition's abstract parameters,
+     * <code>false</code> to combine them one pair at a time.
+     * @param idConstraints adds indexable proposition id constraints.
+     * @param instrumentation wraps the rules' conditions and consequences
+     * for profiling.
+     */
+    AbstractionCombiner(boolean sweep, PropositionIdConstraints idConstraints,
+            RuleInstrumentation instrumentation) {
+        this.sweep = sweep;
+        this.idConstraints = idConstraints;
+        this.instrumentation = instrumentation;
     }
 
     @Override
-    public void toRules(AbstractionDefinition d, List<Rule> rules,
-            DerivationsBuilder derivationsBuilder) {
+    public void toRules(AbstractionDefinition d, List<Rule> rules) {
+        if (this.sweep) {
+            toSweepRules(d, rules);
+        } else {
+            toPairwiseRules(d, rules);
+        }
+    }
+
+    private void toSweepRules(AbstractionDefinition d, List<Rule> rules) {
+        try {
+            Rule collectRule = new Rule("ABSTRACTION_COMBINER_COLLECT_" + d.getId());
+            collectRule.setSalience(new SalienceInteger(4));
+            Pattern p0 = new Pattern(0, ABSTRACT_PARAMETER_OBJECT_TYPE);
+            Constraint c0 = new PredicateConstraint(
+                    this.instrumentation.instrument(d.getId(), new ParameterPredicateExpression(d.getPropositionId(), null)));
+            this.idConstraints.addTo(p0, AbstractParameter.class, d.getPropositionId());
+            p0.addConstraint(c0);
+            collectRule.addPattern(p0);
+            collectRule.setConsequence(this.instrumentation.instrument(d.getId(), new CombinerCollectConsequence()));
+            rules.add(collectRule);
+
+            Rule sweepRule = new Rule("ABSTRACTION_COMBINER_SWEEP_" + d.getId());
+            sweepRule.setSalience(new SalienceInteger(3));
+            Pattern p1 = new Pattern(0, BUFFER_OBJECT_TYPE);
+            this.idConstraints.addTo(p1, CombinerSweepBuffer.class, d.getPropositionId());
+            Constraint c1 = new PredicateConstraint(
+                    this.instrumentation.instrument(d.getId(), new CombinerSweepPredicateExpression(d.getPropositionId())));
+            p1.addConstraint(c1);
+            sweepRule.addPattern(p1);
+            sweepRule.setConsequence(this.instrumentation.instrument(d.getId(), new AbstractionCombinerSweepConsequence(d)));
+            rules.add(sweepRule);
+        } catch (InvalidRuleException e) {
+            LOGGER.log(Level.SEVERE,
+                    "Could not create rules from " + d.toString() + ".", e);
+        }
+    }
+
+    private void toPairwiseRules(AbstractionDefinition d, List<Rule> rules) {
         try {
             Rule rule = new Rule("ABSTRACTION_COMBINER_" + d.getId());
             rule.setSalience(new SalienceInteger(3));
             Pattern p0 = new Pattern(0, ABSTRACT_PARAMETER_OBJECT_TYPE);
             Constraint c0 = new PredicateConstraint(
-                    new ParameterPredicateExpression(d.getPropositionId(), null));
+                    this.instrumentation.instrument(d.getId(), new ParameterPredicateExpression(d.getPropositionId(), null)));
+            this.idConstraints.addTo(p0, AbstractParameter.class, d.getPropositionId());
             p0.addConstraint(c0);
             Pattern p1 = new Pattern(1, ABSTRACT_PARAMETER_OBJECT_TYPE);
             Constraint c1 = new PredicateConstraint(
-                    new ParameterPredicateExpression(d.getPropositionId(), null));
+                    this.instrumentation.instrument(d.getId(), new ParameterPredicateExpression(d.getPropositionId(), null)));
+            this.idConstraints.addTo(p1, AbstractParameter.class, d.getPropositionId());
             p1.addConstraint(c1);
             rule.addPattern(p0);
             rule.addPattern(p1);
             rule.addPattern(new EvalCondition(
-                    new AbstractionCombinerCondition(d), null));
-            rule.setConsequence(new AbstractionCombinerConsequence(
-                    derivationsBuilder));
+                    this.instrumentation.instrument(d.getId(), new AbstractionCombinerCondition(d)), null));
+            rule.setConsequence(this.instrumentation.instrument(d.getId(), new AbstractionCombinerConsequence()));
             rules.add(rule);
         } catch (InvalidRuleException e) {
             LOGGER.log(Level.SEVERE,
@@ -38,8 +38,7 @@ import org.protempa.proposition.UniqueIdFactory;
 class AbstractionCombinerConsequence extends AbstractCombinerConsequence<AbstractParameter> {
     private static final long serialVersionUID = -7984448674528718012L;
     
-    public AbstractionCombinerConsequence(DerivationsBuilder derivationsBuilder) {
-        super(derivationsBuilder);
+    public AbstractionCombinerConsequence() {
     }
 
     @Override
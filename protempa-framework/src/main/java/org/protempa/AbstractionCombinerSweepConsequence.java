@@ -0,0 +1,76 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.Date;
+import org.drools.WorkingMemory;
+import org.protempa.proposition.AbstractParameter;
+import org.protempa.proposition.ProviderBasedUniqueIdFactory;
+import org.protempa.proposition.Segment;
+import org.protempa.proposition.UniqueIdFactory;
+import org.protempa.proposition.interval.Interval;
+
+/**
+ * Combines abstract parameters with the same abstraction definition, value
+ * and context in sort-and-sweep passes. Implements the same conditions as
+ * {@link AbstractionCombinerCondition}.
+ *
+ * @author Andrew Post
+ */
+final class AbstractionCombinerSweepConsequence
+        extends AbstractCombinerSweepConsequence<AbstractParameter> {
+
+    private static final long serialVersionUID = -4870167402291780458L;
+    private static final HorizontalTemporalInference HTI = new HorizontalTemporalInference();
+    private final AbstractionDefinition abstractionDefinition;
+
+    AbstractionCombinerSweepConsequence(
+            AbstractionDefinition abstractionDefinition) {
+        this.abstractionDefinition = abstractionDefinition;
+    }
+
+    @Override
+    protected boolean isSameGroup(AbstractParameter a1, AbstractParameter a2) {
+        return (a1.getValue() == a2.getValue() || (a1.getValue() != null && a1.getValue().equals(a2.getValue()))) &&
+                (a1.getContextId() == a2.getContextId() || (a1.getContextId() != null && a1.getContextId().equals(a2.getContextId())));
+    }
+
+    @Override
+    protected boolean isCombinable(Interval lhs, Interval rhs) {
+        return HTI.execute(this.abstractionDefinition, lhs, rhs)
+                || this.abstractionDefinition.getGapFunction().execute(lhs, rhs);
+    }
+
+    @Override
+    protected AbstractParameter newCombinedFact(
+            Segment<AbstractParameter> segment, WorkingMemory wm) {
+        AbstractParameter a1 = segment.first();
+        String a1Id = a1.getId();
+        JBossRulesDerivedLocalUniqueIdValuesProvider provider = 
+                new JBossRulesDerivedLocalUniqueIdValuesProvider(wm, a1Id);
+        UniqueIdFactory factory = new ProviderBasedUniqueIdFactory(provider);
+        AbstractParameter result = new AbstractParameter(a1Id, factory.getInstance());
+        result.setSourceSystem(SourceSystem.DERIVED);
+        result.setInterval(segment.getInterval());
+        result.setValue(a1.getValue());
+        result.setCreateDate(new Date());
+        return result;
+    }
+}
@@ -38,6 +38,7 @@ final class AbstractionFinder {
     private boolean closed;
     private Executor executor;
     private final List<? extends ProtempaEventListener> eventListeners;
+    private final RuleBaseCache ruleBaseCache;
 
     AbstractionFinder(DataSource dataSource, KnowledgeSource knowledgeSource,
             AlgorithmSource algorithmSource,
@@ -53,6 +54,7 @@ final class AbstractionFinder {
         this.algorithmSource = algorithmSource;
         
         this.eventListeners = eventListeners;
+        this.ruleBaseCache = new RuleBaseCache();
         
         this.dataSource.setEventListeners(eventListeners);
         this.knowledgeSource.setEventListeners(eventListeners);
@@ -115,6 +117,10 @@ final class AbstractionFinder {
         return this.algorithmSource;
     }
 
+    RuleBaseCache getRuleBaseCache() {
+        return this.ruleBaseCache;
+    }
+
     void doFind(Query query, Destination destination)
             throws QueryException {
         assert destination != null : "destination cannot be null";
@@ -0,0 +1,53 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import org.drools.WorkingMemory;
+import org.drools.spi.Consequence;
+import org.drools.spi.KnowledgeHelper;
+import org.protempa.proposition.TemporalProposition;
+
+/**
+ * Adds an abstract parameter or context to its definition's
+ * {@link CombinerSweepBuffer}, and inserts the buffer into working memory to
+ * schedule a sort-and-sweep pass if one is not already pending.
+ *
+ * @author Andrew Post
+ */
+final class CombinerCollectConsequence implements Consequence {
+
+    private static final long serialVersionUID = 3180764913329483170L;
+
+    CombinerCollectConsequence() {
+    }
+
+    @Override
+    public void evaluate(KnowledgeHelper kh, WorkingMemory wm)
+            throws Exception {
+        TemporalProposition prop = (TemporalProposition) wm.getObject(
+                kh.getTuple().get(0));
+        CombinerSweepBuffer buffer
+                = WorkingMemoryGlobals.getCombinerSweepBuffer(wm,
+                        prop.getId());
+        if (buffer.add(prop)) {
+            kh.insert(buffer);
+        }
+    }
+}
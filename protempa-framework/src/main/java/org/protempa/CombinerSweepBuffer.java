@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.drools.WorkingMemory;
+import org.protempa.proposition.TemporalProposition;
+
+/**
+ * Remembers the propositions of one abstraction or context definition that
+ * are in a working memory, so that they can be combined in sort-and-sweep
+ * passes rather than one pair at a time. Propositions that a pass left
+ * uncombined are kept sorted in groups, and each pass merges only the
+ * propositions added since the previous pass into them. While a pass is
+ * pending, the buffer itself is in working memory as the fact that triggers
+ * the pass. The class and {@link #getId()} are public so that Drools can
+ * index the buffer by id like a proposition.
+ *
+ * @author Andrew Post
+ */
+public final class CombinerSweepBuffer {
+
+    private final String propositionId;
+    private final WorkingMemory workingMemory;
+    private List<TemporalProposition> added;
+    private final List<List<TemporalProposition>> groups;
+    private final Set<TemporalProposition> combined;
+    private boolean scheduled;
+
+    CombinerSweepBuffer(String propositionId, WorkingMemory workingMemory) {
+        assert propositionId != null : "propositionId cannot be null";
+        this.propositionId = propositionId;
+        this.workingMemory = workingMemory;
+        this.added = new ArrayList<>();
+        this.groups = new ArrayList<>();
+        this.combined = Collections.newSetFromMap(
+                new IdentityHashMap<TemporalProposition, Boolean>());
+    }
+
+    /**
+     * Gets the id of the abstraction or context definition of the buffer's
+     * propositions.
+     *
+     * @return an id {@link String}.
+     */
+    public String getId() {
+        return this.propositionId;
+    }
+
+    WorkingMemory getWorkingMemory() {
+        return this.workingMemory;
+    }
+
+    /**
+     * Adds a proposition that was inserted into working memory.
+     *
+     * @param proposition a {@link TemporalProposition}.
+     * @return <code>true</code> if a pass is needed to combine the
+     * proposition, <code>false</code> if it is the result of a pass or a pass
+     * is already pending.
+     */
+    boolean add(TemporalProposition proposition) {
+        if (this.combined.remove(proposition)) {
+            return false;
+        }
+        this.added.add(proposition);
+        if (this.scheduled) {
+            return false;
+        } else {
+            this.scheduled = true;
+            return true;
+        }
+    }
+
+    /**
+     * Records a proposition that a pass created and already merged into the
+     * groups, so that its insertion is not added again and does not trigger
+     * another pass.
+     *
+     * @param proposition a {@link TemporalProposition}.
+     */
+    void addCombined(TemporalProposition proposition) {
+        this.combined.add(proposition);
+    }
+
+    /**
+     * Removes and returns the propositions added since the previous pass,
+     * dropping any that have since been retracted from working memory.
+     *
+     * @return a newly created {@link List} of propositions.
+     */
+    List<TemporalProposition> drain() {
+        List<TemporalProposition> result
+                = new ArrayList<>(this.added.size());
+        for (TemporalProposition prop : this.added) {
+            if (this.workingMemory.getFactHandle(prop) != null) {
+                result.add(prop);
+            }
+        }
+        this.added = new ArrayList<>();
+        this.scheduled = false;
+        return result;
+    }
+
+    /**
+     * Gets the propositions that previous passes left uncombined, in groups
+     * of propositions that may be combined with each other. Each group is
+     * sorted by interval. Passes update the groups in place.
+     *
+     * @return the {@link List} of groups.
+     */
+    List<List<TemporalProposition>> getGroups() {
+        return this.groups;
+    }
+}
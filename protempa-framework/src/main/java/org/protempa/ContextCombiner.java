@@ -41,27 +41,86 @@ final class ContextCombiner implements RuleCreator<ContextDefinition> {
     private final static Logger LOGGER = Logger.getLogger(ContextCombiner.class.getName());
     private static final ClassObjectType CONTEXT_OBJECT_TYPE
             = new ClassObjectType(Context.class);
+    private static final ClassObjectType BUFFER_OBJECT_TYPE
+            = new ClassObjectType(CombinerSweepBuffer.class);
+    private final boolean sweep;
+    private final PropositionIdConstraints idConstraints;
+    private final RuleInstrumentation instrumentation;
+
+    /**
+     * Creates a rule creator.
+     *
+     * @param sweep <code>true</code> to combine contexts in sort-and-sweep
+     * passes over a definition's contexts, <code>false</code> to combine
+     * them one pair at a time.
+     * @param idConstraints adds indexable proposition id constraints.
+     * @param instrumentation wraps the rules' conditions and consequences
+     * for profiling.
+     */
+    ContextCombiner(boolean sweep, PropositionIdConstraints idConstraints,
+            RuleInstrumentation instrumentation) {
+        this.sweep = sweep;
+        this.idConstraints = idConstraints;
+        this.instrumentation = instrumentation;
+    }
 
     @Override
-    public void toRules(ContextDefinition d, List<Rule> rules,
-            DerivationsBuilder derivationsBuilder) {
+    public void toRules(ContextDefinition d, List<Rule> rules) {
+        if (this.sweep) {
+            toSweepRules(d, rules);
+        } else {
+            toPairwiseRules(d, rules);
+        }
+    }
+
+    private void toSweepRules(ContextDefinition d, List<Rule> rules) {
+        try {
+            Rule collectRule = new Rule("CONTEXT_COMBINER_COLLECT_" + d.getId());
+            collectRule.setSalience(new SalienceInteger(4));
+            Pattern p0 = new Pattern(0, CONTEXT_OBJECT_TYPE);
+            Constraint c0 = new PredicateConstraint(
+                    this.instrumentation.instrument(d.getId(), new PropositionPredicateExpression(d.getPropositionId())));
+            this.idConstraints.addTo(p0, Context.class, d.getPropositionId());
+            p0.addConstraint(c0);
+            collectRule.addPattern(p0);
+            collectRule.setConsequence(this.instrumentation.instrument(d.getId(), new CombinerCollectConsequence()));
+            rules.add(collectRule);
+
+            Rule sweepRule = new Rule("CONTEXT_COMBINER_SWEEP_" + d.getId());
+            sweepRule.setSalience(new SalienceInteger(3));
+            Pattern p1 = new Pattern(0, BUFFER_OBJECT_TYPE);
+            this.idConstraints.addTo(p1, CombinerSweepBuffer.class, d.getPropositionId());
+            Constraint c1 = new PredicateConstraint(
+                    this.instrumentation.instrument(d.getId(), new CombinerSweepPredicateExpression(d.getPropositionId())));
+            p1.addConstraint(c1);
+            sweepRule.addPattern(p1);
+            sweepRule.setConsequence(this.instrumentation.instrument(d.getId(), new ContextCombinerSweepConsequence(d)));
+            rules.add(sweepRule);
+        } catch (InvalidRuleException e) {
+            LOGGER.log(Level.SEVERE,
+                    "Could not create rules from " + d.toString() + ".", e);
+        }
+    }
+
+    private void toPairwiseRules(ContextDefinition d, List<Rule> rules) {
         try {
             Rule rule = new Rule("CONTEXT_COMBINER_" + d.getId());
             rule.setSalience(new SalienceInteger(3));
             Pattern p0 = new Pattern(0, CONTEXT_OBJECT_TYPE);
             Constraint c0 = new PredicateConstraint(
-                    new PropositionPredicateExpression(d.getPropositionId()));
+                    this.instrumentation.instrument(d.getId(), new PropositionPredicateExpression(d.getPropositionId())));
+            this.idConstraints.addTo(p0, Context.class, d.getPropositionId());
             p0.addConstraint(c0);
             Pattern p1 = new Pattern(1, CONTEXT_OBJECT_TYPE);
             Constraint c1 = new PredicateConstraint(
-                    new PropositionPredicateExpression(d.getPropositionId()));
+                    this.instrumentation.instrument(d.getId(), new PropositionPredicateExpression(d.getPropositionId())));
+            this.idConstraints.addTo(p1, Context.class, d.getPropositionId());
             p1.addConstraint(c1);
             rule.addPattern(p0);
             rule.addPattern(p1);
             rule.addPattern(new EvalCondition(
-                    new ContextCombinerCondition(d), null));
-            rule.setConsequence(new ContextCombinerConsequence(
-                    derivationsBuilder));
+                    this.instrumentation.instrument(d.getId(), new ContextCombinerCondition(d)), null));
+            rule.setConsequence(this.instrumentation.instrument(d.getId(), new ContextCombinerConsequence()));
             rules.add(rule);
         } catch (InvalidRuleException e) {
             LOGGER.log(Level.SEVERE,
@@ -34,8 +34,7 @@ import org.protempa.proposition.UniqueIdFactory;
 class ContextCombinerConsequence extends AbstractCombinerConsequence<Context> {
     private static final long serialVersionUID = -7984448674528718012L;
 
-    public ContextCombinerConsequence(DerivationsBuilder derivationsBuilder) {
-        super(derivationsBuilder);
+    public ContextCombinerConsequence() {
     }
 
     @Override
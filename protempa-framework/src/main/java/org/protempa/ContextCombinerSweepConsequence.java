@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.Date;
+import org.drools.WorkingMemory;
+import org.protempa.proposition.Context;
+import org.protempa.proposition.ProviderBasedUniqueIdFactory;
+import org.protempa.proposition.Segment;
+import org.protempa.proposition.UniqueIdFactory;
+import org.protempa.proposition.interval.Interval;
+
+/**
+ * Combines contexts with the same context definition in sort-and-sweep
+ * passes. Implements the same conditions as {@link ContextCombinerCondition}.
+ *
+ * @author Andrew Post
+ */
+final class ContextCombinerSweepConsequence
+        extends AbstractCombinerSweepConsequence<Context> {
+
+    private static final long serialVersionUID = 2236140947520693386L;
+    private static final HorizontalTemporalInference HTI = new HorizontalTemporalInference();
+    private final ContextDefinition contextDef;
+
+    ContextCombinerSweepConsequence(ContextDefinition contextDef) {
+        this.contextDef = contextDef;
+    }
+
+    @Override
+    protected boolean isSameGroup(Context a1, Context a2) {
+        return true;
+    }
+
+    @Override
+    protected boolean isCombinable(Interval lhs, Interval rhs) {
+        return HTI.execute(this.contextDef, lhs, rhs)
+                || this.contextDef.getGapFunction().execute(lhs, rhs);
+    }
+
+    @Override
+    protected Context newCombinedFact(Segment<Context> segment,
+            WorkingMemory wm) {
+        String a1Id = segment.first().getId();
+        UniqueIdFactory uidFactory = new ProviderBasedUniqueIdFactory(
+                new JBossRulesDerivedLocalUniqueIdValuesProvider(wm, a1Id));
+        Context result = new Context(a1Id, uidFactory.getInstance());
+        result.setCreateDate(new Date());
+        result.setSourceSystem(SourceSystem.DERIVED);
+        result.setInterval(segment.getInterval());
+        return result;
+    }
+}
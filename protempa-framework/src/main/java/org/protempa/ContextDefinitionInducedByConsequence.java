@@ -43,19 +43,14 @@ import org.protempa.proposition.value.Unit;
  */
 class ContextDefinitionInducedByConsequence implements Consequence {
 
-    private final DerivationsBuilder derivationsBuilder;
     private final ContextDefinition def;
     private transient IntervalFactory intervalFactory;
     private final long earliestTime;
     private final long latestTime;
 
-    ContextDefinitionInducedByConsequence(ContextDefinition def,
-            DerivationsBuilder derivationsBuilder) {
+    ContextDefinitionInducedByConsequence(ContextDefinition def) {
         assert def != null : "def cannot be null";
-        assert derivationsBuilder != null :
-                "derivationsBuilder cannot be null";
         this.def = def;
-        this.derivationsBuilder = derivationsBuilder;
         this.intervalFactory = new IntervalFactory();
         Calendar cal = Calendar.getInstance();
         cal.clear();
@@ -150,6 +145,7 @@ class ContextDefinitionInducedByConsequence implements Consequence {
         context.setCreateDate(new Date());
         kh.insertLogical(context);
 
-        this.derivationsBuilder.propositionAsserted(prop, context);
+        WorkingMemoryGlobals.getDerivationsBuilder(wm)
+                .propositionAsserted(prop, context);
     }
 }
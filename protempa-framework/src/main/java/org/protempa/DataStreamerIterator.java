@@ -20,8 +20,8 @@
 package org.protempa;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
 import org.protempa.proposition.Proposition;
 
 /**
@@ -29,17 +29,53 @@ import org.protempa.proposition.Proposition;
  * iterator. While {@link DataStreamer} implements pushing data from a data
  * source to the caller, this iterator supports pulling data from the data 
  * source.
+ * 
+ * The iterators' current elements are kept in a priority queue ordered by
+ * key id, so getting the next element costs time logarithmic in the number
+ * of iterators rather than linear. Elements with the same key id are 
+ * returned one per iterator at a time, in the order of the iterators.
+ * 
  * @author Andrew Post
  */
 final class DataStreamerIterator<E extends Proposition> implements AutoCloseable {
 
+    /**
+     * The most recent element retrieved from an iterator.
+     */
+    private static final class Head<E> implements Comparable<Head<E>> {
+
+        private final DataStreamingEvent<E> event;
+        private final int itrIndex;
+        private final int round;
+
+        Head(DataStreamingEvent<E> event, int itrIndex, int round) {
+            this.event = event;
+            this.itrIndex = itrIndex;
+            this.round = round;
+        }
+
+        /**
+         * Orders by key id, then by the element's position among its 
+         * iterator's elements with the same key id, then by iterator, so 
+         * that elements with the same key id are returned round-robin.
+         */
+        @Override
+        public int compareTo(Head<E> o) {
+            int result = this.event.getKeyId().compareTo(o.event.getKeyId());
+            if (result != 0) {
+                return result;
+            } else if (this.round != o.round) {
+                return this.round < o.round ? -1 : 1;
+            } else {
+                return this.itrIndex < o.itrIndex ? -1 
+                        : (this.itrIndex == o.itrIndex ? 0 : 1);
+            }
+        }
+    }
+
     private final List<DataStreamingEventIterator<E>> itrs;
-    private final List<DataStreamingEvent<E>> currentElt;
-    private boolean hasNext;
+    private final PriorityQueue<Head<E>> heads;
     private DataStreamingEvent<E> result;
-    private boolean hasNextComputed;
-    private int i = 0;
-    private DataStreamingEvent<E> currentMin;
     private String nextKeyId;
 
     /**
@@ -54,33 +90,10 @@ final class DataStreamerIterator<E extends Proposition> implements AutoCloseable
             throws DataSourceReadException {
         assert itrs != null : "itrs cannot be null";
         this.itrs = itrs;
-        this.currentElt = new ArrayList<>(itrs.size());
         int itrsSize = itrs.size();
+        this.heads = new PriorityQueue<>(Math.max(1, itrsSize));
         for (int j = 0; j < itrsSize; j++) {
-            this.currentElt.add(null);
-        }
-        /*
-         * Stores the most recent element retrieved from each iterator.
-         */
-        /*
-         * Stores the most recent element retrieved from each iterator.
-         */
-        for (int j = 0; j < itrsSize; j++) {
-            advance(j);
-        }
-        /*
-         * If the iterators have no elements, cut to the chase and arrange for
-         * {@link #hasNext()} to return immediately.
-         */
-        /*
-         * If the iterators have no elements, cut to the chase and arrange for
-         * {@link #hasNext()} to return immediately.
-         */
-        for (DataStreamingEvent<E> event : this.currentElt) {
-            if (event != null) {
-                this.hasNext = true;
-                break;
-            }
+            advance(j, null);
         }
     }
 
@@ -89,95 +102,46 @@ final class DataStreamerIterator<E extends Proposition> implements AutoCloseable
     }
 
     /**
-     * We loop through the iterators passed into the constructor and return
-     * whether the the next item in at least one iterator is for the right
-     * keyId.
+     * Returns whether at least one iterator has more data. The next element
+     * is the one with the minimum key id across the iterators.
      *
      * @return
      * <code>true</code> or
      * <code>false</code>.
      */
     boolean hasNext() throws DataSourceReadException {
-        if (!hasNextComputed) {
-            boolean stayInLoop;
-            do {
-                stayInLoop = false;
-                /*
-                 * Prior to reading the first iterator, we loop through all of
-                 * the iterators to determine the minimum keyId. The minimum
-                 * keyId, stored in currentMin, is used for data retrieval. The
-                 * value of currentMin will be null if there is no data to
-                 * retrieve.
-                 */
-                if (i == 0) {
-                    this.currentMin = null;
-                    for (DataStreamingEvent<E> elt : this.currentElt) {
-                        currentMin = min(elt);
-                    }
-                }
-                /*
-                 * If there is no data to retrieve, we'll return false. If there
-                 * is data to retrieve, we'll loop through the iterators and
-                 * pull data for the current keyId, which is the keyId field of
-                 * currentMin. If there's no data for the current keyId, this
-                 * should loop through all of the iterators until their ends,
-                 * and set hasNext to false.
-                 */
-                if (currentMin == null) {
-                    this.hasNext = false;
-                } else {
-                    int n = this.currentElt.size();
-                    for (; i < n; i++) {
-                        DataStreamingEvent<E> elt = this.currentElt.get(i);
-                        if (elt != null && elt.getKeyId().equals(
-                                this.currentMin != null 
-                                ? this.currentMin.getKeyId() : null)) {
-                            this.result = elt;
-                            this.nextKeyId = elt.getKeyId();
-                            advance(i);
-                            i++;
-                            break;
-                        }
-                    }
-                    if (this.i == n && this.result == null) {
-                        this.i = 0;
-                        stayInLoop = true;
-                    }
-                }
-            } while (this.hasNext && stayInLoop);
-            this.hasNextComputed = true;
+        if (this.result == null) {
+            Head<E> head = this.heads.poll();
+            if (head != null) {
+                this.result = head.event;
+                this.nextKeyId = head.event.getKeyId();
+                advance(head.itrIndex, head);
+            }
         }
-        return hasNext;
+        return this.result != null;
     }
 
     DataStreamingEvent<E> next() {
         assert this.result != null : "result cannot be null";
-        this.hasNextComputed = false;
         DataStreamingEvent<E> r = this.result;
         this.result = null;
         this.nextKeyId = null;
         return r;
     }
 
-    private void advance(int j) 
+    private void advance(int j, Head<E> prev) 
             throws DataSourceReadException {
         DataStreamingEventIterator<E> itr = this.itrs.get(j);
         if (itr.hasNext()) {
             DataStreamingEvent<E> next = itr.next();
-            this.currentElt.set(j, next);
-        } else {
-            this.currentElt.set(j, null);
-        }
-    }
-
-    private DataStreamingEvent min(DataStreamingEvent elt2) {
-        DataStreamingEvent elt1 = this.currentMin;
-        if (elt1 == null) {
-            return elt2;
-        } else if (elt2 == null) {
-            return elt1;
-        } else {
-            return elt1.getKeyId().compareTo(elt2.getKeyId()) < 0 ? elt1 : elt2;
+            int round;
+            if (prev != null 
+                    && prev.event.getKeyId().equals(next.getKeyId())) {
+                round = prev.round + 1;
+            } else {
+                round = 0;
+            }
+            this.heads.add(new Head<>(next, j, round));
         }
     }
     
@@ -28,6 +28,8 @@ import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.drools.RuleBase;
+import org.protempa.metrics.ExecutorMetrics;
 import org.protempa.proposition.Proposition;
 import org.protempa.proposition.UniqueId;
 import org.protempa.query.Query;
@@ -47,6 +49,9 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
     private final KnowledgeSource knowledgeSource;
     private DerivationsBuilder derivationsBuilder;
     private final AlgorithmSource algorithmSource;
+    private final RuleBase sharedRuleBase;
+    private final ExecutorMetrics metrics;
+    private long stallNanos;
 
     DoProcessThread(
             BlockingQueue<QueueObject> hqrQueue,
@@ -55,6 +60,8 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
             KnowledgeSource knowledgeSource,
             PropositionDefinitionCache propositionDefinitionCache,
             AlgorithmSource algorithmSource,
+            RuleBase sharedRuleBase,
+            ExecutorMetrics metrics,
             Logger logger) throws QueryException {
         super(query, logger, "protempa.executor.DoProcessThread");
         this.hqrQueue = hqrQueue;
@@ -65,6 +72,8 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
         this.propositionDefinitionCache = propositionDefinitionCache;
         assert algorithmSource != null : "algorithmSource cannot be null";
         this.algorithmSource = algorithmSource;
+        this.sharedRuleBase = sharedRuleBase;
+        this.metrics = metrics;
         try {
             initialize();
         } catch (KnowledgeSourceReadException | ExecutionStrategyInitializationException ex) {
@@ -87,6 +96,7 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
         } finally {
             shutdownExecutionStrategy();
         }
+        log(Level.FINE, "Stalled {0} ms on a full query results handler queue", this.stallNanos / 1000000L);
         log(Level.FINER, "End do process thread");
     }
 
@@ -96,6 +106,7 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
 
     final void doProcessData(String keyId, Iterator<Proposition> dataItr, int sizeHint, Query query) throws InterruptedException {
         Iterator<Proposition> resultsItr;
+        long start = System.nanoTime();
         try {
             if (this.executionStrategy != null) {
                 resultsItr = this.executionStrategy.execute(keyId, dataItr);
@@ -117,16 +128,38 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
                 log(Level.FINEST, "Backward derivations: {0}", backwardDerivations);
                 log(Level.FINEST, "References: {0}", refs);
             }
-            this.hqrQueue.put(new QueueObject(keyId, filteredPropositions,
+            this.metrics.recordKeyProcessed(keyId, filteredPropositions.size(),
+                    System.nanoTime() - start);
+            putResult(new QueueObject(keyId, filteredPropositions,
                     forwardDerivations, backwardDerivations, refs));
             log(Level.FINER, "Results put on query result handler queue");
         } catch (ExecutionStrategyExecutionException ex) {
             this.exceptions.add(new QueryException(query.getName(), ex));
+            /*
+             * Tell the query results handler thread that this key is done so
+             * that it does not wait for it when ordering results by key.
+             */
+            putResult(new QueueObject(keyId));
         } finally {
             this.derivationsBuilder.reset();
         }
     }
 
+    /**
+     * Puts a key's results on the query results handler queue, recording how
+     * long this thread is blocked if the queue is full.
+     *
+     * @param qo the key's results.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void putResult(QueueObject qo) throws InterruptedException {
+        long start = System.nanoTime();
+        this.hqrQueue.put(qo);
+        long stall = System.nanoTime() - start;
+        this.stallNanos += stall;
+        this.metrics.getDoProcessStage().recordStall(stall);
+    }
+
     abstract void doProcessDataLoop() throws InterruptedException;
 
     /**
@@ -140,6 +173,35 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
         return this.executionStrategy;
     }
 
+    /**
+     * Gets the rule base of this thread's execution strategy, which other
+     * workers may share.
+     *
+     * @return a {@link RuleBase}, or <code>null</code> if there is nothing
+     * to abstract.
+     */
+    final RuleBase getRuleBase() {
+        if (this.executionStrategy != null) {
+            return this.executionStrategy.getRuleBase();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the rule profiler of this thread's execution strategy.
+     *
+     * @return a {@link RuleProfiler}, or <code>null</code> if rules are not
+     * being profiled or there is nothing to abstract.
+     */
+    final RuleProfiler getRuleProfiler() {
+        if (this.executionStrategy != null) {
+            return this.executionStrategy.getRuleProfiler();
+        } else {
+            return null;
+        }
+    }
+
     final void closeWorkingMemory() {
         if (this.executionStrategy != null) {
             this.executionStrategy.closeCurrentWorkingMemory();
@@ -201,7 +263,8 @@ abstract class DoProcessThread<E extends ExecutionStrategy> extends AbstractThre
         Query query = getQuery();
         if (hasSomethingToAbstract(query) || query.getDatabasePath() != null) {
             this.executionStrategy = selectExecutionStrategy();
-            this.executionStrategy.initialize(this.propositionDefinitionCache);
+            this.executionStrategy.initialize(this.propositionDefinitionCache, 
+                    this.sharedRuleBase);
             this.derivationsBuilder = this.executionStrategy.getDerivationsBuilder();
         } else {
             this.derivationsBuilder = new DerivationsBuilder();
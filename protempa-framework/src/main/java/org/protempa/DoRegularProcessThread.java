@@ -24,6 +24,8 @@ import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.drools.RuleBase;
+import org.protempa.metrics.ExecutorMetrics;
 import org.protempa.proposition.Proposition;
 import org.protempa.query.Query;
 
@@ -43,9 +45,11 @@ public class DoRegularProcessThread extends DoProcessThread<ExecutionStrategy> {
             DataStreamingEvent<Proposition> doProcessPoisonPill, 
             QueueObject hqrPoisonPill, Query query, Thread producer, 
             AlgorithmSource algorithmSource, KnowledgeSource knowledgeSource, 
-            PropositionDefinitionCache propositionDefinitionCache) throws QueryException {
+            PropositionDefinitionCache propositionDefinitionCache,
+            RuleBase sharedRuleBase, ExecutorMetrics metrics) throws QueryException {
         super(hqrQueue, hqrPoisonPill, query, producer, 
-                knowledgeSource, propositionDefinitionCache, algorithmSource, LOGGER);
+                knowledgeSource, propositionDefinitionCache, algorithmSource, 
+                sharedRuleBase, metrics, LOGGER);
         this.doProcessQueue = doProcessQueue;
         this.doProcessPoisonPill = doProcessPoisonPill;
     }
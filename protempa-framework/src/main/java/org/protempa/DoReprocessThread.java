@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.protempa.metrics.ExecutorMetrics;
 import org.protempa.query.Query;
 
 /**
@@ -37,9 +38,11 @@ public class DoReprocessThread extends DoProcessThread<StatefulExecutionStrategy
             BlockingQueue<QueueObject> hqrQueue,
             QueueObject hqrPoisonPill, Query query,
             AlgorithmSource algorithmSource, KnowledgeSource knowledgeSource,
-            PropositionDefinitionCache propositionDefinitionCache) throws QueryException {
+            PropositionDefinitionCache propositionDefinitionCache,
+            ExecutorMetrics metrics) throws QueryException {
         super(hqrQueue, hqrPoisonPill, query, null,
-                knowledgeSource, propositionDefinitionCache, algorithmSource, LOGGER);
+                knowledgeSource, propositionDefinitionCache, algorithmSource, 
+                null, metrics, LOGGER);
     }
 
     @Override
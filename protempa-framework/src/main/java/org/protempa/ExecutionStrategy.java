@@ -21,6 +21,7 @@ package org.protempa;
 
 import java.util.Iterator;
 
+import org.drools.RuleBase;
 import org.protempa.proposition.Proposition;
 
 interface ExecutionStrategy {
@@ -28,6 +29,31 @@ interface ExecutionStrategy {
     void initialize(PropositionDefinitionCache cache) 
             throws ExecutionStrategyInitializationException;
     
+    /**
+     * Initializes this execution strategy with a rule base that was already
+     * created from the given cache, for example by another worker's
+     * execution strategy. Rule bases are immutable once created and may be
+     * shared by execution strategies running on different threads.
+     * 
+     * @param cache the proposition definitions.
+     * @param ruleBase a rule base, or <code>null</code> to create one from
+     * the cache.
+     * @throws ExecutionStrategyInitializationException if an error occurs.
+     */
+    void initialize(PropositionDefinitionCache cache, RuleBase ruleBase) 
+            throws ExecutionStrategyInitializationException;
+    
+    RuleBase getRuleBase();
+
+    /**
+     * Gets the profiler that this execution strategy's sessions report rule
+     * activations and condition evaluations to.
+     *
+     * @return the {@link RuleProfiler}, or <code>null</code> if rules are not
+     * being profiled.
+     */
+    RuleProfiler getRuleProfiler();
+    
     Iterator<Proposition> execute(String keyIds, Iterator<? extends Proposition> objects) throws ExecutionStrategyExecutionException;
     
     DerivationsBuilder getDerivationsBuilder();
@@ -20,22 +20,27 @@ package org.protempa;
  * #L%
  */
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
 import org.arp.javautil.arrays.Arrays;
+import org.drools.RuleBase;
 import org.protempa.backend.dsb.filter.Filter;
 import org.protempa.dest.Destination;
 import org.protempa.dest.QueryResultsHandler;
 import org.protempa.dest.QueryResultsHandlerCloseException;
 import org.protempa.dest.QueryResultsHandlerInitException;
 import org.protempa.dest.QueryResultsHandlerValidationFailedException;
+import org.protempa.metrics.ExecutorMetrics;
+import org.protempa.metrics.ExecutorMetricsRegistry;
 import org.protempa.proposition.Proposition;
 import org.protempa.query.Query;
 import org.protempa.query.QueryMode;
@@ -47,6 +52,72 @@ import org.protempa.query.QueryMode;
 final class Executor implements AutoCloseable {
 
     private static final Logger LOGGER = Logger.getLogger(Executor.class.getName());
+    
+    /**
+     * System property for the number of threads that process data in 
+     * parallel, each with its own execution strategy and all sharing one 
+     * rule base. Only applies to queries without a database path. The 
+     * default is 1.
+     */
+    static final String SYSTEM_PROPERTY_WORKERS = "protempa.executor.workers";
+    
+    /**
+     * System property for whether to pass results to the query results 
+     * handler in the order in which keys were read from the data source when
+     * there are multiple workers. The default is <code>true</code>. Setting 
+     * it to <code>false</code> passes results in the order in which they are 
+     * done.
+     */
+    static final String SYSTEM_PROPERTY_ORDERED_RESULTS = "protempa.executor.orderedresults";
+    
+    /**
+     * System property for how many keys may be read from the data source 
+     * ahead of the key whose results are next in order, when results are 
+     * passed to the query results handler in key order. Reading blocks at
+     * this limit, so that one slow key cannot cause the results of an 
+     * unbounded number of later keys to be held in memory. The default is 
+     * 1,000.
+     */
+    static final String SYSTEM_PROPERTY_ORDERED_RESULTS_MAX_PENDING = "protempa.executor.orderedresults.maxpending";
+    
+    /**
+     * System property for the number of propositions that the queues 
+     * between the retrieve data, do process and handle query result threads
+     * may hold before producers block. The default is 100,000.
+     */
+    static final String SYSTEM_PROPERTY_QUEUE_HIGH_WATERMARK = "protempa.executor.queue.highwatermark";
+    
+    /**
+     * System property for the number of propositions to which a full queue 
+     * must drain before blocked producers resume. The default is half the 
+     * high watermark.
+     */
+    static final String SYSTEM_PROPERTY_QUEUE_LOW_WATERMARK = "protempa.executor.queue.lowwatermark";
+    
+    /**
+     * System property for the number of keys that the queues may hold 
+     * regardless of how few propositions they have. The default is 10,000.
+     */
+    static final String SYSTEM_PROPERTY_QUEUE_MAX_KEYS = "protempa.executor.queue.maxkeys";
+    
+    private static final WeightedBlockingQueue.Weigher<DataStreamingEvent<Proposition>> DATA_STREAMING_EVENT_WEIGHER
+            = new WeightedBlockingQueue.Weigher<DataStreamingEvent<Proposition>>() {
+        @Override
+        public int weigh(DataStreamingEvent<Proposition> element) {
+            return element.getData().size();
+        }
+    };
+    
+    private static final WeightedBlockingQueue.Weigher<QueueObject> QUEUE_OBJECT_WEIGHER
+            = new WeightedBlockingQueue.Weigher<QueueObject>() {
+        @Override
+        public int weigh(QueueObject element) {
+            return element.weight();
+        }
+    };
+    
+    private static final int RULE_PROFILE_REPORT_LIMIT = 50;
+
     private final Set<String> propIds;
     private final Filter filters;
     private final PropositionDefinition[] propDefs;
@@ -60,6 +131,8 @@ final class Executor implements AutoCloseable {
     private HandleQueryResultThread handleQueryResultThread;
     private boolean canceled;
     private QueryException exception;
+    private final ExecutorMetrics metrics;
+    private final ExecutorMetricsRegistry metricsRegistry;
 
     Executor(Query query, Destination resultsHandlerFactory, AbstractionFinder abstractionFinder) throws QueryException {
         this.abstractionFinder = abstractionFinder;
@@ -80,6 +153,17 @@ final class Executor implements AutoCloseable {
         this.query = query;
         this.destination = resultsHandlerFactory;
         this.logMessageFormat = ProtempaUtil.getLogMessageFormat(this.query);
+        this.metrics = new ExecutorMetrics(query.getName());
+        this.metricsRegistry = newMetricsRegistry();
+    }
+
+    /**
+     * Gets the timings and queue depths of this executor's query.
+     *
+     * @return the metrics. Guaranteed not <code>null</code>.
+     */
+    ExecutorMetrics getMetrics() {
+        return this.metrics;
     }
 
     void init() throws QueryException {
@@ -106,48 +190,83 @@ final class Executor implements AutoCloseable {
     }
 
     void execute() throws QueryException {
+        boolean metricsStarted = false;
         try {
             RetrieveDataThread retrieveDataThread;
-            DoProcessThread doProcessThread;
+            List<DoProcessThread> doProcessThreads = new ArrayList<>();
             synchronized (this) {
                 if (this.canceled) {
                     return;
                 }
                 log(Level.INFO, "Processing data");
                 BlockingQueue<DataStreamingEvent<Proposition>> doProcessQueue
-                        = new ArrayBlockingQueue<>(1000);
+                        = newQueue(DATA_STREAMING_EVENT_WEIGHER);
                 QueueObject hqrPoisonPill = new QueueObject();
-                BlockingQueue<QueueObject> hqrQueue = new ArrayBlockingQueue<>(1000);
+                BlockingQueue<QueueObject> hqrQueue = newQueue(QUEUE_OBJECT_WEIGHER);
                 QueryMode queryMode = this.query.getQueryMode();
+                BlockingQueue<String> keyOrder;
                 if (Arrays.contains(QueryMode.etlModes(), queryMode)) {
+                    int workers = workerCount();
+                    if (workers > 1 && Boolean.parseBoolean(
+                            System.getProperty(SYSTEM_PROPERTY_ORDERED_RESULTS, "true"))) {
+                        keyOrder = new LinkedBlockingQueue<>(Math.max(1,
+                                Integer.getInteger(SYSTEM_PROPERTY_ORDERED_RESULTS_MAX_PENDING, 1000)));
+                    } else {
+                        keyOrder = null;
+                    }
                     DataStreamingEvent doProcessPoisonPill
                             = new DataStreamingEvent("poison", Collections.emptyList());
                     retrieveDataThread = new RetrieveDataThread(doProcessQueue,
-                            doProcessPoisonPill, this.query,
+                            doProcessPoisonPill, workers, keyOrder, this.query,
                             this.abstractionFinder.getDataSource(),
                             this.propositionDefinitionCache,
-                            this.filters, this.resultsHandler);
-                    doProcessThread = new DoRegularProcessThread(doProcessQueue, hqrQueue,
-                            doProcessPoisonPill, hqrPoisonPill, this.query,
-                            retrieveDataThread, this.abstractionFinder.getAlgorithmSource(),
-                            this.abstractionFinder.getKnowledgeSource(),
-                            this.propositionDefinitionCache);
+                            this.filters, this.resultsHandler,
+                            this.metrics.getRetrieveDataStage());
+                    RuleBaseCache ruleBaseCache = this.abstractionFinder.getRuleBaseCache();
+                    String ruleBaseFingerprint = ruleBaseCache.fingerprint(
+                            this.query, this.propositionDefinitionCache,
+                            this.abstractionFinder.getAlgorithmSource());
+                    RuleBase ruleBase = ruleBaseCache.get(ruleBaseFingerprint);
+                    for (int i = 0; i < workers; i++) {
+                        DoProcessThread doProcessThread = new DoRegularProcessThread(doProcessQueue, hqrQueue,
+                                doProcessPoisonPill, hqrPoisonPill, this.query,
+                                retrieveDataThread, this.abstractionFinder.getAlgorithmSource(),
+                                this.abstractionFinder.getKnowledgeSource(),
+                                this.propositionDefinitionCache, ruleBase,
+                                this.metrics);
+                        if (workers > 1) {
+                            doProcessThread.setName(doProcessThread.getName() + "-" + i);
+                        }
+                        ruleBase = doProcessThread.getRuleBase();
+                        doProcessThreads.add(doProcessThread);
+                    }
+                    ruleBaseCache.put(ruleBaseFingerprint, ruleBase);
                 } else {
                     retrieveDataThread = null;
-                    doProcessThread = new DoReprocessThread(hqrQueue,
+                    keyOrder = null;
+                    doProcessThreads.add(new DoReprocessThread(hqrQueue,
                             hqrPoisonPill, this.query,
                             this.abstractionFinder.getAlgorithmSource(),
                             this.abstractionFinder.getKnowledgeSource(),
-                            this.propositionDefinitionCache);
+                            this.propositionDefinitionCache, this.metrics));
 
                 }
                 this.handleQueryResultThread
                         = new HandleQueryResultThread(hqrQueue, hqrPoisonPill,
-                                doProcessThread, this.query, this.resultsHandler, this.propositionDefinitionCache);
+                                doProcessThreads, keyOrder, this.query, this.resultsHandler, this.propositionDefinitionCache,
+                                this.metrics.getHandleQueryResultStage());
+                this.metrics.startSampling(
+                        retrieveDataThread != null ? doProcessQueue : null, hqrQueue);
+                if (this.metricsRegistry != null) {
+                    this.metricsRegistry.register(this.metrics);
+                }
+                metricsStarted = true;
                 if (retrieveDataThread != null) {
                     retrieveDataThread.start();
                 }
-                doProcessThread.start();
+                for (DoProcessThread doProcessThread : doProcessThreads) {
+                    doProcessThread.start();
+                }
                 this.handleQueryResultThread.start();
             }
 
@@ -168,16 +287,19 @@ final class Executor implements AutoCloseable {
                 }
             }
             try {
-                doProcessThread.join();
-                for (Iterator<QueryException> itr = doProcessThread.getExceptions().iterator(); itr.hasNext();) {
-                    QueryException e = itr.next();
-                    if (this.exception == null) {
-                        this.exception = e;
-                    } else {
-                        this.exception.addSuppressed(e);
+                for (DoProcessThread doProcessThread : doProcessThreads) {
+                    doProcessThread.join();
+                    for (Iterator<QueryException> itr = doProcessThread.getExceptions().iterator(); itr.hasNext();) {
+                        QueryException e = itr.next();
+                        if (this.exception == null) {
+                            this.exception = e;
+                        } else {
+                            this.exception.addSuppressed(e);
+                        }
                     }
                 }
                 log(Level.INFO, "Done processing data");
+                logRuleProfile(doProcessThreads);
             } catch (InterruptedException ex) {
                 log(Level.FINER, "Protempa consumer thread join interrupted", ex);
             }
@@ -200,6 +322,14 @@ final class Executor implements AutoCloseable {
             }
         } catch (QueryException ex) {
             throw ex;
+        } finally {
+            if (metricsStarted) {
+                this.metrics.stopSampling();
+                if (this.metricsRegistry != null) {
+                    this.metricsRegistry.unregister(this.metrics);
+                }
+                log(Level.INFO, "Metrics: {0}", this.metrics);
+            }
         }
     }
 
@@ -236,6 +366,68 @@ final class Executor implements AutoCloseable {
         }
     }
 
+    /**
+     * Gets the number of threads that will process data. Queries that 
+     * persist working memory to a database use one thread because the 
+     * database may only be opened once.
+     * 
+     * @return the number of threads, at least 1.
+     */
+    private int workerCount() {
+        int workers = Math.max(1, Integer.getInteger(SYSTEM_PROPERTY_WORKERS, 1));
+        if (workers > 1 && this.query.getDatabasePath() != null) {
+            log(Level.FINE, "Using 1 worker instead of {0} because the query has a database path", workers);
+            workers = 1;
+        }
+        log(Level.FINE, "Processing data with {0} worker(s)", workers);
+        return workers;
+    }
+
+    private <E> BlockingQueue<E> newQueue(WeightedBlockingQueue.Weigher<? super E> weigher) {
+        long highWatermark = Math.max(1L, Long.getLong(SYSTEM_PROPERTY_QUEUE_HIGH_WATERMARK, 100000L));
+        long lowWatermark = Math.min(highWatermark, Math.max(0L, 
+                Long.getLong(SYSTEM_PROPERTY_QUEUE_LOW_WATERMARK, highWatermark / 2)));
+        int maxKeys = Math.max(1, Integer.getInteger(SYSTEM_PROPERTY_QUEUE_MAX_KEYS, 10000));
+        return new WeightedBlockingQueue<>(weigher, highWatermark, lowWatermark, maxKeys);
+    }
+
+    private void logRuleProfile(List<DoProcessThread> doProcessThreads) {
+        RuleProfiler merged = null;
+        for (DoProcessThread doProcessThread : doProcessThreads) {
+            RuleProfiler ruleProfiler = doProcessThread.getRuleProfiler();
+            if (ruleProfiler != null) {
+                if (merged == null) {
+                    merged = new RuleProfiler();
+                }
+                merged.merge(ruleProfiler);
+            }
+        }
+        if (merged != null) {
+            log(Level.INFO, "Rule profile:\n{0}", merged.report(RULE_PROFILE_REPORT_LIMIT));
+        }
+    }
+
+    private ExecutorMetricsRegistry newMetricsRegistry() {
+        String className = System.getProperty(ExecutorMetricsRegistry.SYSTEM_PROPERTY_REGISTRY);
+        if (className == null) {
+            return null;
+        }
+        try {
+            Class<?> cls = Class.forName(className, false,
+                    Executor.class.getClassLoader());
+            if (!ExecutorMetricsRegistry.class.isAssignableFrom(cls)) {
+                log(Level.WARNING, "Metrics registry {0} does not implement {1}",
+                        new Object[]{className, ExecutorMetricsRegistry.class.getName()});
+                return null;
+            }
+            return cls.asSubclass(ExecutorMetricsRegistry.class)
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            log(Level.WARNING, "Could not create metrics registry " + className, ex);
+            return null;
+        }
+    }
+
     private void extractPropositionDefinitionCache() throws KnowledgeSourceReadException {
         this.propositionDefinitionCache = new PropositionDefinitionCache(this.ks.collectPropDefDescendantsUsingAllNarrower(false, this.propIds.toArray(new String[this.propIds.size()])));
 
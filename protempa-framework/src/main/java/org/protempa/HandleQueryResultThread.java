@@ -20,13 +20,20 @@ package org.protempa;
  * #L%
  */
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.protempa.dest.BatchQueryResultsHandler;
+import org.protempa.dest.BatchQueryResultsHandlerAdapter;
+import org.protempa.dest.QueryResult;
 import org.protempa.dest.QueryResultsHandler;
 import org.protempa.dest.QueryResultsHandlerCloseException;
 import org.protempa.dest.QueryResultsHandlerProcessingException;
+import org.protempa.metrics.StageMetrics;
 import org.protempa.query.Query;
 
 /**
@@ -37,24 +44,84 @@ class HandleQueryResultThread extends AbstractThread {
 
     private static final Logger LOGGER = Logger.getLogger(HandleQueryResultThread.class.getName());
 
+    /**
+     * System property for the maximum number of keys' results to pass at
+     * once to a {@link BatchQueryResultsHandler}. The default is 100. Other
+     * query results handlers are passed one key at a time.
+     */
+    static final String SYSTEM_PROPERTY_BATCH_SIZE = "protempa.executor.resultbatchsize";
+
+    /**
+     * System property for how long, in milliseconds, to wait for more
+     * results before passing a partial batch to a
+     * {@link BatchQueryResultsHandler}. The default is 50.
+     */
+    static final String SYSTEM_PROPERTY_BATCH_LINGER = "protempa.executor.resultbatchlinger";
+
     private final BlockingQueue<QueueObject> queue;
-    private final Thread producerThread;
+    private final List<? extends Thread> producerThreads;
     private final QueueObject poisonPill;
     private final List<QueryException> exceptions;
     private final QueryResultsHandler queryResultsHandler;
     private final PropositionDefinitionCache cache;
+    private final BlockingQueue<String> keyOrder;
+    private final Map<String, QueueObject> pending;
+    private final StageMetrics metrics;
+    private final BatchQueryResultsHandler batchHandler;
+    private final int batchSize;
+    private final long batchLingerNanos;
+    private final List<QueryResult> batch;
+    private int batchPropositionCount;
+    private long batchStartNanos;
 
+    /**
+     * Creates a thread that passes results from one or more do process 
+     * threads to a query results handler.
+     * 
+     * @param queue the queue of results.
+     * @param poisonPill the object that each producer puts on the queue 
+     * when it is done.
+     * @param producerThreads the do process threads. This thread stops after 
+     * receiving a poison pill from each of them.
+     * @param keyOrder the order in which keys were read from the data source.
+     * If not <code>null</code>, results are passed to the query results 
+     * handler in that order regardless of which producer finished first.
+     * Otherwise, results are passed in the order in which they are received.
+     * Results that arrive ahead of their turn are held until it comes, so
+     * the queue should be bounded, and the data source reader should block
+     * when it is full. Then at most its capacity of keys' results are held.
+     * @param query the query.
+     * @param queryResultsHandler the query results handler.
+     * @param cache the proposition definitions of the query.
+     * @param metrics where to record how long the query results handler
+     * takes.
+     */
     HandleQueryResultThread(BlockingQueue<QueueObject> queue,
-            QueueObject poisonPill, Thread producerThread, Query query,
+            QueueObject poisonPill, List<? extends Thread> producerThreads, 
+            BlockingQueue<String> keyOrder, Query query,
             QueryResultsHandler queryResultsHandler,
-            PropositionDefinitionCache cache) {
+            PropositionDefinitionCache cache, StageMetrics metrics) {
         super(query, LOGGER, "protempa.executor.HandleQueryResultThread");
+        assert producerThreads != null && !producerThreads.isEmpty() : 
+                "producerThreads cannot be null or empty";
         this.queue = queue;
-        this.producerThread = producerThread;
+        this.producerThreads = producerThreads;
         this.poisonPill = poisonPill;
         this.exceptions = new ArrayList<>();
         this.queryResultsHandler = queryResultsHandler;
         this.cache = cache;
+        this.keyOrder = keyOrder;
+        this.pending = keyOrder != null ? new HashMap<>() : null;
+        this.metrics = metrics;
+        this.batchHandler = BatchQueryResultsHandlerAdapter.adapt(queryResultsHandler);
+        if (queryResultsHandler instanceof BatchQueryResultsHandler) {
+            this.batchSize = Math.max(1, Integer.getInteger(SYSTEM_PROPERTY_BATCH_SIZE, 100));
+        } else {
+            this.batchSize = 1;
+        }
+        this.batchLingerNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(0L, Long.getLong(SYSTEM_PROPERTY_BATCH_LINGER, 50L)));
+        this.batch = new ArrayList<>(this.batchSize);
     }
 
     public List<QueryException> getExceptions() {
@@ -71,40 +138,55 @@ class HandleQueryResultThread extends AbstractThread {
             this.queryResultsHandler.start(this.cache);
             log(Level.FINE, "Query results handler started");
             log(Level.FINE, "Query results handler waiting for results...");
-            while ((qo = queue.take()) != poisonPill) {
-                log(Level.FINER, "Handling some results");
-                try {
-                    this.queryResultsHandler.handleQueryResult(qo.keyId,
-                            qo.propositions, qo.forwardDerivations,
-                            qo.backwardDerivations, qo.refs);
-                } catch (QueryResultsHandlerProcessingException ex) {
-                    log(Level.FINER, "Handle query results threw QueryResultsHandlerProcessingException", ex);
-                    exceptions.add(new QueryException(query.getName(), ex));
-                    producerThread.interrupt();
-                    break;
-                } catch (Error | RuntimeException t) {
-                    log(Level.FINER, "Handle query results threw exception", t);
-                    exceptions.add(new QueryException(query.getName(),
-                            new QueryResultsHandlerProcessingException(t)));
-                    producerThread.interrupt();
-                    break;
+            int producersRunning = this.producerThreads.size();
+            boolean failed = false;
+            while (!failed && producersRunning > 0) {
+                qo = nextQueueObject();
+                if (qo == null) {
+                    failed = !flush();
+                } else if (qo == poisonPill) {
+                    producersRunning--;
+                } else if (this.keyOrder == null) {
+                    failed = !handle(qo);
+                } else {
+                    // Key ids are unique in the data stream.
+                    this.pending.put(qo.keyId, qo);
+                    failed = !handleReadyInKeyOrder();
+                }
+            }
+            if (!failed && this.keyOrder != null) {
+                /*
+                 * All producers are done. Anything left over is either ready
+                 * or was never processed because the query failed.
+                 */
+                String keyId;
+                while (!failed && (keyId = this.keyOrder.poll()) != null) {
+                    QueueObject remaining = this.pending.remove(keyId);
+                    if (remaining != null) {
+                        failed = !handle(remaining);
+                    }
                 }
-                log(Level.FINER, "Results passed to query result handler");
+            }
+            if (!failed) {
+                failed = !flush();
             }
             this.queryResultsHandler.finish();
             this.queryResultsHandler.close();
             closed = true;
         } catch (InterruptedException ex) {
             log(Level.FINER, "Handle query results thread interrupted", ex);
-            producerThread.interrupt();
+            interruptProducers();
         } catch (QueryResultsHandlerProcessingException ex) {
             log(Level.FINER, "Query results handler threw exception", ex);
             exceptions.add(new QueryException(query.getName(), ex));
-            producerThread.interrupt();
+            interruptProducers();
         } catch (QueryResultsHandlerCloseException ex) {
             log(Level.FINER, "Query results handler close threw exception", ex);
             exceptions.add(new QueryException(query.getName(), ex));
         } finally {
+            if (this.pending != null) {
+                this.pending.clear();
+            }
             if (!closed) {
                 try {
                     this.queryResultsHandler.close();
@@ -117,4 +199,113 @@ class HandleQueryResultThread extends AbstractThread {
         log(Level.FINER, "End handle query results thread");
     }
 
+    /**
+     * Passes pending results to the query results handler for as long as 
+     * the result for the next key in key order has arrived.
+     * 
+     * @return <code>false</code> if the query results handler failed,
+     * <code>true</code> otherwise.
+     */
+    private boolean handleReadyInKeyOrder() {
+        String keyId;
+        while ((keyId = this.keyOrder.peek()) != null) {
+            QueueObject qo = this.pending.remove(keyId);
+            if (qo == null) {
+                break;
+            }
+            this.keyOrder.poll();
+            if (!handle(qo)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next result from the queue. While a batch is pending, waits
+     * only until the batch's linger time is up.
+     *
+     * @return the next {@link QueueObject}, or <code>null</code> if the
+     * pending batch's linger time is up.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private QueueObject nextQueueObject() throws InterruptedException {
+        if (this.batch.isEmpty()) {
+            return this.queue.take();
+        }
+        long remaining = this.batchLingerNanos
+                - (System.nanoTime() - this.batchStartNanos);
+        if (remaining <= 0L) {
+            return null;
+        }
+        return this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Adds one key's results to the pending batch, and passes the batch to
+     * the query results handler if it is full.
+     * 
+     * @param qo the key's results.
+     * @return <code>false</code> if the query results handler failed,
+     * <code>true</code> otherwise.
+     */
+    private boolean handle(QueueObject qo) {
+        if (qo.propositions == null) {
+            log(Level.FINER, "Skipping key {0}, which failed processing", qo.keyId);
+            return true;
+        }
+        if (this.batch.isEmpty()) {
+            this.batchStartNanos = System.nanoTime();
+        }
+        this.batch.add(new QueryResult(qo.keyId, qo.propositions,
+                qo.forwardDerivations, qo.backwardDerivations, qo.refs));
+        this.batchPropositionCount += qo.propositions.size();
+        if (this.batch.size() >= this.batchSize) {
+            return flush();
+        }
+        return true;
+    }
+
+    /**
+     * Passes the pending batch, if any, to the query results handler.
+     * 
+     * @return <code>false</code> if the query results handler failed,
+     * <code>true</code> otherwise.
+     */
+    private boolean flush() {
+        if (this.batch.isEmpty()) {
+            return true;
+        }
+        Query query = getQuery();
+        log(Level.FINER, "Handling some results");
+        try {
+            long start = System.nanoTime();
+            this.batchHandler.handleQueryResults(this.batch);
+            this.metrics.record(this.batch.size(), this.batchPropositionCount,
+                    System.nanoTime() - start);
+        } catch (QueryResultsHandlerProcessingException ex) {
+            log(Level.FINER, "Handle query results threw QueryResultsHandlerProcessingException", ex);
+            exceptions.add(new QueryException(query.getName(), ex));
+            interruptProducers();
+            return false;
+        } catch (Error | RuntimeException t) {
+            log(Level.FINER, "Handle query results threw exception", t);
+            exceptions.add(new QueryException(query.getName(),
+                    new QueryResultsHandlerProcessingException(t)));
+            interruptProducers();
+            return false;
+        } finally {
+            this.batch.clear();
+            this.batchPropositionCount = 0;
+        }
+        log(Level.FINER, "Results passed to query result handler");
+        return true;
+    }
+
+    private void interruptProducers() {
+        for (Thread producerThread : this.producerThreads) {
+            producerThread.interrupt();
+        }
+    }
+
 }
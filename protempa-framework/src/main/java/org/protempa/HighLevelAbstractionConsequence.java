@@ -46,7 +46,6 @@ class HighLevelAbstractionConsequence implements Consequence {
     private final HighLevelAbstractionDefinition cad;
     private final int columns;
     private final ExtendedPropositionDefinition[] epds;
-    private final DerivationsBuilder derivationsBuilder;
 
     /**
      *
@@ -55,8 +54,7 @@ class HighLevelAbstractionConsequence implements Consequence {
      * @param columns the number of parameters, must be greater than zero.
      */
     HighLevelAbstractionConsequence(HighLevelAbstractionDefinition def,
-            ExtendedPropositionDefinition[] epds,
-            DerivationsBuilder derivationsBuilder) {
+            ExtendedPropositionDefinition[] epds) {
         assert def != null : "def cannot be null";
         assert epds != null : "epds cannot be null";
         int col = epds.length;
@@ -64,7 +62,6 @@ class HighLevelAbstractionConsequence implements Consequence {
         this.cad = def;
         this.columns = col;
         this.epds = epds;
-        this.derivationsBuilder = derivationsBuilder;
     }
 
     @Override
@@ -88,8 +85,10 @@ class HighLevelAbstractionConsequence implements Consequence {
                         factory.getInstance(),
                         segment, tps, null, temporalOffset, tepds, null);
         kh.insertLogical(result);
+        DerivationsBuilder derivationsBuilder
+                = WorkingMemoryGlobals.getDerivationsBuilder(wm);
         for (Proposition proposition : segment) {
-            this.derivationsBuilder.propositionAsserted(proposition, result);
+            derivationsBuilder.propositionAsserted(proposition, result);
         }
         LOGGER.log(Level.FINER, "Asserted derived proposition {0}", result);
     }
@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.drools.WorkingMemory;
+import org.drools.rule.Declaration;
+import org.drools.spi.PredicateExpression;
+import org.drools.spi.Tuple;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.TemporalProposition;
+import org.protempa.proposition.interval.Interval;
+import org.protempa.proposition.interval.Relation;
+
+/**
+ * Join constraint for one pattern of a high level abstraction definition's
+ * rule. It checks the candidate proposition against the propositions already
+ * matched by the rule's earlier patterns, rejecting duplicates and
+ * propositions that do not have the definition's temporal relations with
+ * them. Because the checks happen as each pattern is joined, partial tuples
+ * that cannot satisfy the definition are dropped before the next pattern is
+ * joined, rather than after the full cross product of candidates is formed.
+ *
+ * @author Andrew Post
+ */
+final class HighLevelAbstractionJoinExpression implements PredicateExpression {
+
+    private static final long serialVersionUID = 3372106517470945624L;
+    private final Relation[] relations;
+    /*
+     * The pattern index of the other proposition in each relation, or -1 if
+     * the relation is between a proposition and itself.
+     */
+    private final int[] others;
+    /*
+     * Whether the candidate proposition is the left-hand side of each
+     * relation.
+     */
+    private final boolean[] candidateIsLhs;
+
+    /**
+     * Creates the join constraint for a pattern.
+     *
+     * @param def a {@link HighLevelAbstractionDefinition}.
+     * @param epds the definition's extended proposition definitions in
+     * pattern order.
+     * @param index the index of the pattern in <code>epds</code>.
+     */
+    HighLevelAbstractionJoinExpression(HighLevelAbstractionDefinition def,
+            ExtendedPropositionDefinition[] epds, int index) {
+        List<Relation> rels = new ArrayList<>();
+        List<Integer> otherIndices = new ArrayList<>();
+        List<Boolean> lhs = new ArrayList<>();
+        for (List<TemporalExtendedPropositionDefinition> pair
+                : def.getTemporalExtendedPropositionDefinitionPairs()) {
+            int lhsIndex = indexOf(epds, pair.get(0));
+            int rhsIndex = indexOf(epds, pair.get(1));
+            if (lhsIndex < 0 || rhsIndex < 0) {
+                throw new IllegalArgumentException(
+                        "epds does not contain the relation " + pair);
+            }
+            if (Math.max(lhsIndex, rhsIndex) == index) {
+                rels.add(def.getRelation(pair));
+                if (lhsIndex == rhsIndex) {
+                    otherIndices.add(-1);
+                    lhs.add(Boolean.TRUE);
+                } else if (lhsIndex == index) {
+                    otherIndices.add(rhsIndex);
+                    lhs.add(Boolean.TRUE);
+                } else {
+                    otherIndices.add(lhsIndex);
+                    lhs.add(Boolean.FALSE);
+                }
+            }
+        }
+        this.relations = rels.toArray(new Relation[rels.size()]);
+        this.others = new int[otherIndices.size()];
+        this.candidateIsLhs = new boolean[lhs.size()];
+        for (int i = 0; i < this.others.length; i++) {
+            this.others[i] = otherIndices.get(i);
+            this.candidateIsLhs[i] = lhs.get(i);
+        }
+    }
+
+    /**
+     * Returns whether this constraint checks anything beyond duplicates.
+     *
+     * @return <code>true</code> if one or more temporal relations involve the
+     * pattern, <code>false</code> otherwise.
+     */
+    boolean hasRelations() {
+        return this.relations.length > 0;
+    }
+
+    @Override
+    public boolean evaluate(Object arg0, Tuple arg1, Declaration[] arg2,
+            Declaration[] arg3, WorkingMemory arg4, Object context)
+            throws Exception {
+        Proposition[] previous = new Proposition[arg2.length];
+        for (int i = 0; i < arg2.length; i++) {
+            previous[i] = (Proposition) arg4.getObject(arg1.get(arg2[i]));
+        }
+        return isAllowed((Proposition) arg0, previous);
+    }
+
+    /**
+     * Checks a candidate proposition against the propositions matched by
+     * earlier patterns.
+     *
+     * @param candidate the candidate {@link Proposition}.
+     * @param previous the {@link Proposition}s matched by earlier patterns,
+     * in pattern order.
+     * @return <code>true</code> if the candidate is not a duplicate and has
+     * the definition's temporal relations with the earlier propositions,
+     * <code>false</code> otherwise.
+     */
+    boolean isAllowed(Proposition candidate, Proposition[] previous) {
+        if (this.relations.length > 0) {
+            Interval interval = ((TemporalProposition) candidate).getInterval();
+            for (int i = 0; i < this.relations.length; i++) {
+                Interval other;
+                if (this.others[i] < 0) {
+                    other = interval;
+                } else {
+                    other = ((TemporalProposition) previous[this.others[i]])
+                            .getInterval();
+                }
+                boolean hasRelation;
+                if (this.candidateIsLhs[i]) {
+                    hasRelation = this.relations[i].hasRelation(interval,
+                            other);
+                } else {
+                    hasRelation = this.relations[i].hasRelation(other,
+                            interval);
+                }
+                if (!hasRelation) {
+                    return false;
+                }
+            }
+        }
+        for (Proposition p : previous) {
+            if (candidate.equals(p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Object createContext() {
+        return null;
+    }
+
+    private static int indexOf(ExtendedPropositionDefinition[] epds,
+            TemporalExtendedPropositionDefinition epd) {
+        for (int i = 0; i < epds.length; i++) {
+            if (epds[i].equals(epd)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -94,6 +94,30 @@ final class HorizontalTemporalInference {
         return executeInternal(propDef, tp1.getInterval(), tp2.getInterval());
     }
 
+    /**
+     * Computes whether the union of two intervals of temporal propositions
+     * should be taken.
+     *
+     * We assume that
+     * <code>tp1Ival</code> is before or at the same time as
+     * <code>tp2Ival</code>, and that they are intervals of instances of
+     * <code>propDef</code>.
+     *
+     * @param propDef a {@link PropositionDefinition}.
+     * @param tp1Ival an {@link Interval}.
+     * @param tp2Ival an {@link Interval}.
+     * @return <code>true</code> if they should be combined, <code>false</code>
+     * otherwise.
+     */
+    boolean execute(PropositionDefinition propDef, Interval tp1Ival,
+            Interval tp2Ival) {
+        if (tp1Ival == null || tp2Ival == null) {
+            return false;
+        }
+
+        return executeInternal(propDef, tp1Ival, tp2Ival);
+    }
+
     private boolean executeInternal(PropositionDefinition propDef, 
             Interval tp1Ival, Interval tp2Ival) {
         if (propDef.isConcatenable()) {
@@ -41,34 +41,26 @@ class InverseIsAConsequence implements Consequence {
 
     private static final long serialVersionUID = 6157152982863451759L;
     
-    private final Map<String, List<PropositionCopier>> copiersMap;
+    private final Map<String, List<String>> targetPropIdsMap;
     
     /**
      * Creates an instance with mappings from propositions to derived
-     * propositions with an isA relationship, and a {@link DerivationsBuilder}
-     * to maintain links between propositions and derived propositions.
+     * propositions with an isA relationship. Links between propositions and 
+     * derived propositions are maintained in the working memory's
+     * {@link DerivationsBuilder}.
      * 
      * @param inverseIsAPropIdMap a {@link Map<String, List<String>>} from the 
      * id of a proposition to the ids of propositions that are derived from it.
      * Cannot be <code>null</code>.
-     * @param listener a {@link DerivationsBuilder}. Cannot be 
-     * <code>null</code>.
      */
-    InverseIsAConsequence(Map<String, List<String>> inverseIsAPropIdMap, 
-            DerivationsBuilder listener) {
+    InverseIsAConsequence(Map<String, List<String>> inverseIsAPropIdMap) {
         assert inverseIsAPropIdMap != null : 
                 "inverseIsAPropIdMap cannot be null";
-        assert listener != null : "listener cannot be null";
-        this.copiersMap = new HashMap<>();
+        this.targetPropIdsMap = new HashMap<>();
         for (Map.Entry<String, List<String>> me : 
                 inverseIsAPropIdMap.entrySet()) {
-            List<String> targetPropIds = me.getValue();
-            List<PropositionCopier> pcs = 
-                    new ArrayList<>(targetPropIds.size());
-            for (String targetPropId : targetPropIds) {
-                pcs.add(new PropositionCopier(targetPropId, listener));
-            }
-            Collections.putListMult(this.copiersMap, me.getKey(), pcs);
+            Collections.putListMult(this.targetPropIdsMap, me.getKey(), 
+                    new ArrayList<>(me.getValue()));
         }
     }
 
@@ -84,9 +76,10 @@ class InverseIsAConsequence implements Consequence {
             WorkingMemory workingMemory) {
         Proposition prop = (Proposition) workingMemory.getObject(
                 knowledgeHelper.getTuple().get(0));
-        List<PropositionCopier> copiers = this.copiersMap.get(prop.getId());
-        assert copiers != null : "copiers should never be null";
-        for (PropositionCopier copier : copiers) {
+        List<String> targetPropIds = this.targetPropIdsMap.get(prop.getId());
+        assert targetPropIds != null : "targetPropIds should never be null";
+        for (String targetPropId : targetPropIds) {
+            PropositionCopier copier = new PropositionCopier(targetPropId);
             copier.grab(knowledgeHelper);
             prop.accept(copier);
             copier.release();
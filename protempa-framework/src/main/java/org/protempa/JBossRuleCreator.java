@@ -67,6 +67,39 @@ import org.protempa.proposition.TemporalProposition;
  */
 class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
 
+    /**
+     * Set to <code>false</code> to check the temporal relations of high level
+     * abstraction definitions only after a rule's patterns have all been
+     * joined, as older versions of PROTEMPA did. By default, each pattern's
+     * join checks the relations with the earlier patterns' propositions.
+     */
+    static final String SYSTEM_PROPERTY_HLA_JOIN_PRUNING = "protempa.rules.hlajoinpruning";
+
+    /**
+     * Set to <code>true</code> to combine abstract parameters and contexts by
+     * keeping each definition's uncombined abstract parameters or contexts
+     * sorted and sweeping the new ones into them. By default, they are
+     * combined one pair at a time.
+     */
+    static final String SYSTEM_PROPERTY_COMBINER_SWEEP = "protempa.rules.combinersweep";
+
+    /**
+     * Set to <code>false</code> to match proposition ids only with predicate
+     * constraints, as older versions of PROTEMPA did. By default, patterns
+     * that match a single proposition id also get a literal id constraint,
+     * which Drools can look up in a hash table rather than evaluating each
+     * pattern's predicate for every inserted fact.
+     */
+    static final String SYSTEM_PROPERTY_ID_INDEXING = "protempa.rules.idindexing";
+
+    /**
+     * Set to <code>true</code> to count, per proposition definition, how
+     * many times its rules fire and its conditions are evaluated and how
+     * long they take, and to log a report when each query is done. The
+     * default is <code>false</code>.
+     */
+    static final String SYSTEM_PROPERTY_PROFILER = "protempa.rules.profiler";
+
     private static final ClassObjectType PRIM_PARAM_OT = new ClassObjectType(
             PrimitiveParameter.class);
     private static final ClassObjectType ARRAY_LIST_OT = new ClassObjectType(
@@ -83,24 +116,36 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
     private static final SalienceInteger ONE_SALIENCE = new SalienceInteger(1);
     private static final SalienceInteger MINUS_TWO_SALIENCE = new SalienceInteger(-2);
     private static final SalienceInteger MINUS_THREE_SALIENCE = new SalienceInteger(-3);
-    private static final AbstractionCombiner ABSTRACTION_COMBINER = new AbstractionCombiner();
-    private static final ContextCombiner CONTEXT_COMBINER = new ContextCombiner();
     private static final Logger LOGGER = Logger.getLogger(JBossRuleCreator.class.getName());
     private final Map<LowLevelAbstractionDefinition, Algorithm> algorithms;
     private final List<Rule> rules;
     private final Map<Rule, TemporalPropositionDefinition> ruleToAbstractionDefinition;
-    private final DerivationsBuilder derivationsBuilder;
     private final PropositionDefinitionCache cache;
+    private final boolean hlaJoinPruning;
+    private final AbstractionCombiner abstractionCombiner;
+    private final ContextCombiner contextCombiner;
+    private final PropositionIdConstraints idConstraints;
+    private final RuleInstrumentation instrumentation;
 
     JBossRuleCreator(Map<LowLevelAbstractionDefinition, Algorithm> algorithms,
-            DerivationsBuilder derivationsBuilder, 
             PropositionDefinitionCache cache) {
         assert cache != null : "cache cannot be null";
         this.algorithms = algorithms;
         this.rules = new ArrayList<>();
         this.ruleToAbstractionDefinition = new HashMap<>();
-        this.derivationsBuilder = derivationsBuilder;
         this.cache = cache;
+        this.hlaJoinPruning = Boolean.parseBoolean(
+                System.getProperty(SYSTEM_PROPERTY_HLA_JOIN_PRUNING, "true"));
+        boolean combinerSweep = Boolean.parseBoolean(
+                System.getProperty(SYSTEM_PROPERTY_COMBINER_SWEEP, "false"));
+        this.idConstraints = new PropositionIdConstraints(Boolean.parseBoolean(
+                System.getProperty(SYSTEM_PROPERTY_ID_INDEXING, "true")));
+        this.instrumentation = new RuleInstrumentation(
+                Boolean.getBoolean(SYSTEM_PROPERTY_PROFILER));
+        this.abstractionCombiner = new AbstractionCombiner(combinerSweep,
+                this.idConstraints, this.instrumentation);
+        this.contextCombiner = new ContextCombiner(combinerSweep,
+                this.idConstraints, this.instrumentation);
     }
 
     /**
@@ -127,13 +172,15 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                 Rule inducedByRule = new Rule(def.getId() + "_INDUCED_BY");
                 for (int i = 0; i < tepds.length; i++) {
                     Pattern sourceP = new Pattern(i, TEMP_PROP_OT);
+                    GetMatchesPredicateExpression matchesPredicateExpression = new GetMatchesPredicateExpression(tepds[i], this.cache);
+                    this.idConstraints.addTo(sourceP, TemporalProposition.class,
+                            matchesPredicateExpression.getSubtrees());
                     sourceP.addConstraint(new PredicateConstraint(
-                            new GetMatchesPredicateExpression(tepds[i], this.cache)));
+                            this.instrumentation.instrument(def.getId(), matchesPredicateExpression)));
                     inducedByRule.addPattern(sourceP);
                 }
                 inducedByRule.setConsequence(
-                        new ContextDefinitionInducedByConsequence(def,
-                                this.derivationsBuilder));
+                        this.instrumentation.instrument(def.getId(), new ContextDefinitionInducedByConsequence(def)));
                 inducedByRule.setSalience(MINUS_THREE_SALIENCE);
                 this.rules.add(inducedByRule);
                 this.ruleToAbstractionDefinition.put(inducedByRule, def);
@@ -141,7 +188,7 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
             }
 
             if (ruleCreated) {
-                CONTEXT_COMBINER.toRules(def, rules, this.derivationsBuilder);
+                this.contextCombiner.toRules(def, rules);
             }
         } catch (InvalidRuleException e) {
             throw new AssertionError(e.getClass().getName() + ": "
@@ -173,31 +220,35 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                 String[] abstractedFromArr = 
                         abstractedFrom.toArray(new String[abstractedFrom.size()]);
                 Set<String> subtrees = this.cache.collectPropIdDescendantsUsingInverseIsA(abstractedFromArr);
+                this.idConstraints.addTo(sourceP, PrimitiveParameter.class,
+                        subtrees);
                 sourceP.addConstraint(new PredicateConstraint(
-                        new PropositionPredicateExpression(subtrees)));
+                        this.instrumentation.instrument(def.getId(), new PropositionPredicateExpression(subtrees))));
                 Pattern resultP = new Pattern(1, 1, ARRAY_LIST_OT, "result");
                 resultP.setSource(new Collect(sourceP, new Pattern(1, 1,
                         ARRAY_LIST_OT, "result")));
                 resultP.addConstraint(new PredicateConstraint(
-                        new CollectionSizeExpression(1)));
+                        this.instrumentation.instrument(def.getId(), new CollectionSizeExpression(1))));
                 rule.addPattern(resultP);
 
                 String contextId = def.getContextId();
                 if (contextId != null) {
                     Pattern sourceP2 = new Pattern(4, 1, CONTEXT_OT, "context");
+                    this.idConstraints.addTo(sourceP2, Context.class,
+                            contextId);
                     sourceP2.addConstraint(new PredicateConstraint(
-                            new PropositionPredicateExpression(contextId)));
+                            this.instrumentation.instrument(def.getId(), new PropositionPredicateExpression(contextId))));
                     Pattern resultP2 = new Pattern(3, 1, ARRAY_LIST_OT, "result2");
                     resultP2.setSource(new Collect(sourceP2, new Pattern(3, 1, ARRAY_LIST_OT, "result")));
                     resultP2.addConstraint(new PredicateConstraint(
-                            new CollectionSizeExpression(1)));
+                            this.instrumentation.instrument(def.getId(), new CollectionSizeExpression(1))));
                     rule.addPattern(resultP2);
                 }
 
                 Algorithm algo = this.algorithms.get(def);
 
-                rule.setConsequence(new LowLevelAbstractionConsequence(def,
-                        algo, this.derivationsBuilder));
+                rule.setConsequence(this.instrumentation.instrument(def.getId(), new LowLevelAbstractionConsequence(def,
+                        algo)));
                 rule.setSalience(TWO_SALIENCE);
                 this.ruleToAbstractionDefinition.put(rule, def);
                 rules.add(rule);
@@ -219,22 +270,23 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                 String[] abstractedFromArr = 
                         abstractedFrom.toArray(new String[abstractedFrom.size()]);
                 Set<String> subtrees = this.cache.collectPropIdDescendantsUsingInverseIsA(abstractedFromArr);
+                this.idConstraints.addTo(sourceP, AbstractParameter.class,
+                        subtrees);
                 sourceP.addConstraint(new PredicateConstraint(
-                        new AbstractParameterPredicateExpression(subtrees, def.getContextId())));
+                        this.instrumentation.instrument(def.getId(), new AbstractParameterPredicateExpression(subtrees, def.getContextId()))));
                 Pattern resultP = new Pattern(1, 1, ARRAY_LIST_OT, "result");
                 resultP.setSource(new Collect(sourceP,
                         new Pattern(1, 1, ARRAY_LIST_OT, "result")));
                 resultP.addConstraint(
                         new PredicateConstraint(
-                                new CollectionSizeExpression(1)));
+                                this.instrumentation.instrument(def.getId(), new CollectionSizeExpression(1))));
                 rule.addPattern(resultP);
                 rule.setConsequence(
-                        new CompoundLowLevelAbstractionConsequence(def,
-                                this.derivationsBuilder));
+                        this.instrumentation.instrument(def.getId(), new CompoundLowLevelAbstractionConsequence(def)));
                 rule.setSalience(ONE_SALIENCE);
                 this.ruleToAbstractionDefinition.put(rule, def);
                 rules.add(rule);
-                ABSTRACTION_COMBINER.toRules(def, rules, this.derivationsBuilder);
+                this.abstractionCombiner.toRules(def, rules);
             }
         } catch (InvalidRuleException e) {
             throw new AssertionError(e.getClass().getName() + ": "
@@ -267,21 +319,47 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                 rule.setSalience(TWO_SALIENCE);
                 ExtendedPropositionDefinition[] epds = epdsC
                         .toArray(new ExtendedPropositionDefinition[epdsC.size()]);
-                for (int i = 0; i < epds.length; i++) {
-                    Pattern p = new Pattern(i, PROP_OT);
-                    GetMatchesPredicateExpression matchesPredicateExpression = new GetMatchesPredicateExpression(epds[i], this.cache);
-                    Constraint c = new PredicateConstraint(
-                            matchesPredicateExpression);
-                    p.addConstraint(c);
-                    rule.addPattern(p);
+                if (this.hlaJoinPruning) {
+                    Declaration[] declarations = new Declaration[epds.length];
+                    for (int i = 0; i < epds.length; i++) {
+                        Pattern p = new Pattern(i, PROP_OT, "epd" + i);
+                        declarations[i] = p.getDeclaration();
+                        GetMatchesPredicateExpression matchesPredicateExpression = new GetMatchesPredicateExpression(epds[i], this.cache);
+                        this.idConstraints.addTo(p, Proposition.class,
+                                matchesPredicateExpression.getSubtrees());
+                        p.addConstraint(new PredicateConstraint(
+                                this.instrumentation.instrument(def.getId(), matchesPredicateExpression)));
+                        HighLevelAbstractionJoinExpression joinExpression
+                                = new HighLevelAbstractionJoinExpression(def,
+                                        epds, i);
+                        if (i > 0 || joinExpression.hasRelations()) {
+                            Declaration[] previous = new Declaration[i];
+                            System.arraycopy(declarations, 0, previous, 0, i);
+                            p.addConstraint(new PredicateConstraint(
+                                    this.instrumentation.instrument(def.getId(), joinExpression), previous,
+                                    new Declaration[0], new String[0]));
+                        }
+                        rule.addPattern(p);
+                    }
+                } else {
+                    for (int i = 0; i < epds.length; i++) {
+                        Pattern p = new Pattern(i, PROP_OT);
+                        GetMatchesPredicateExpression matchesPredicateExpression = new GetMatchesPredicateExpression(epds[i], this.cache);
+                        this.idConstraints.addTo(p, Proposition.class,
+                                matchesPredicateExpression.getSubtrees());
+                        Constraint c = new PredicateConstraint(
+                                this.instrumentation.instrument(def.getId(), matchesPredicateExpression));
+                        p.addConstraint(c);
+                        rule.addPattern(p);
+                    }
+                    rule.addPattern(new EvalCondition(
+                            this.instrumentation.instrument(def.getId(), new HighLevelAbstractionCondition(def, epds)), null));
                 }
-                rule.addPattern(new EvalCondition(
-                        new HighLevelAbstractionCondition(def, epds), null));
-                rule.setConsequence(new HighLevelAbstractionConsequence(def,
-                        epds, this.derivationsBuilder));
+                rule.setConsequence(this.instrumentation.instrument(def.getId(), new HighLevelAbstractionConsequence(def,
+                        epds)));
                 this.ruleToAbstractionDefinition.put(rule, def);
                 rules.add(rule);
-                ABSTRACTION_COMBINER.toRules(def, rules, this.derivationsBuilder);
+                this.abstractionCombiner.toRules(def, rules);
             }
         } catch (InvalidRuleException e) {
             throw new AssertionError(e.getClass().getName() + ": "
@@ -310,8 +388,13 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                 Pattern sourceP = new Pattern(2, 1, TEMP_PROP_OT, "");
                 for (int i = 0; i < epds.length; i++) {
                     GetMatchesPredicateExpression matchesPredicateExpression = new GetMatchesPredicateExpression(epds[i], this.cache);
+                    if (i == 0) {
+                        this.idConstraints.addTo(sourceP,
+                                TemporalProposition.class,
+                                matchesPredicateExpression.getSubtrees());
+                    }
                     Constraint c = new PredicateConstraint(
-                            matchesPredicateExpression);
+                            this.instrumentation.instrument(def.getId(), matchesPredicateExpression));
                     sourceP.addConstraint(c);
                 }
 
@@ -327,10 +410,9 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                     len = maxInd;
                 }
                 resultP.addConstraint(new PredicateConstraint(
-                        new CollectionSizeExpression(len)));
+                        this.instrumentation.instrument(def.getId(), new CollectionSizeExpression(len))));
                 rule.addPattern(resultP);
-                rule.setConsequence(new SliceConsequence(def,
-                        this.derivationsBuilder));
+                rule.setConsequence(this.instrumentation.instrument(def.getId(), new SliceConsequence(def)));
                 rule.setSalience(MINUS_TWO_SALIENCE);
                 this.ruleToAbstractionDefinition.put(rule, def);
                 rules.add(rule);
@@ -357,8 +439,10 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                 Rule rule = new Rule("SEQ_TP_" + def.getId());
                 Pattern sourceP = new Pattern(2, TEMP_PROP_OT);
                 GetMatchesPredicateExpression matchesPredicateExpression = new GetMatchesPredicateExpression(lhs, this.cache);
+                this.idConstraints.addTo(sourceP, TemporalProposition.class,
+                        matchesPredicateExpression.getSubtrees());
                 sourceP.addConstraint(new PredicateConstraint(
-                        matchesPredicateExpression));
+                        this.instrumentation.instrument(def.getId(), matchesPredicateExpression)));
                 SubsequentTemporalExtendedPropositionDefinition[] relatedTemporalExtendedPropositionDefinitions = def.getSubsequentTemporalExtendedPropositionDefinitions();
                 for (int i = 0; i < relatedTemporalExtendedPropositionDefinitions.length; i++) {
                     SubsequentTemporalExtendedPropositionDefinition rtepd
@@ -366,7 +450,7 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                     GetMatchesPredicateExpression matchesPredicateExpression1 = new GetMatchesPredicateExpression(
                             rtepd.getRelatedTemporalExtendedPropositionDefinition(), this.cache);
                     Constraint c = new PredicateConstraint(
-                            matchesPredicateExpression1);
+                            this.instrumentation.instrument(def.getId(), matchesPredicateExpression1));
                     sourceP.addConstraint(c);
                 }
 
@@ -374,14 +458,13 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
                 resultP.setSource(new Collect(sourceP, new Pattern(1, 1,
                         ARRAY_LIST_OT, "result")));
                 resultP.addConstraint(new PredicateConstraint(
-                        new CollectionSizeExpression(1)));
+                        this.instrumentation.instrument(def.getId(), new CollectionSizeExpression(1))));
                 rule.addPattern(resultP);
-                rule.setConsequence(new SequentialTemporalPatternConsequence(def,
-                        this.derivationsBuilder));
+                rule.setConsequence(this.instrumentation.instrument(def.getId(), new SequentialTemporalPatternConsequence(def)));
                 rule.setSalience(MINUS_TWO_SALIENCE);
                 this.ruleToAbstractionDefinition.put(rule, def);
                 rules.add(rule);
-                ABSTRACTION_COMBINER.toRules(def, rules, this.derivationsBuilder);
+                this.abstractionCombiner.toRules(def, rules);
             }
         } catch (InvalidRuleException e) {
             throw new AssertionError(e.getClass().getName() + ": "
@@ -467,6 +550,10 @@ class JBossRuleCreator extends AbstractPropositionDefinitionCheckedVisitor {
             this.subtrees = cache.collectPropIdDescendantsUsingInverseIsA(epd.getPropositionId());
         }
 
+        Set<String> getSubtrees() {
+            return this.subtrees;
+        }
+
         @Override
         public boolean evaluate(Object arg0, Tuple arg1, Declaration[] arg2,
                 Declaration[] arg3, WorkingMemory arg4, Object context)
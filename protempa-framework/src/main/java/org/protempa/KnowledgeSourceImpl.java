@@ -23,8 +23,10 @@ import org.protempa.valueset.ValueSet;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -40,6 +42,12 @@ import org.protempa.backend.ksb.KnowledgeSourceBackend;
  * must specify a backend in the constructor from where information about
  * primitive parameters and abstract parameters can be obtained.
  *
+ * Definitions and value sets that are read from the backends are cached (see
+ * {@link #SYSTEM_PROPERTY_CACHE_SIZE}). Every read of the same id returns the
+ * same cached instance until {@link #clear() } is called, so callers share
+ * the returned objects and must not modify them. Copy a definition before
+ * changing it.
+ *
  * @author Andrew Post
  */
 public final class KnowledgeSourceImpl
@@ -47,6 +55,13 @@ public final class KnowledgeSourceImpl
     
     private static final Logger LOGGER = Logger.getLogger(KnowledgeSourceImpl.class.getName());
 
+    /**
+     * The maximum number of ids to cache for each kind of definition that is
+     * read from the backends. Set to 0 to disable caching. The default is
+     * 100000.
+     */
+    public static final String SYSTEM_PROPERTY_CACHE_SIZE = "protempa.knowledgesource.cachesize";
+
     /**
      * PROTEMPA knowledge base.
      */
@@ -54,15 +69,18 @@ public final class KnowledgeSourceImpl
     private final AbstractionDefinitionReader abstractionDefReader;
     private final ContextDefinitionReader contextDefReader;
     private final TemporalPropositionDefinitionReader tempPropDefReader;
+    private final KnowledgeSourceReadCache<ValueSet> valueSetCache;
     private SubtreePropositionDefinitionGetterRegular inDataSourceGetter;
     private SubtreePropositionDefinitionGetterRegular collectSubtreeGetter;
 
     public KnowledgeSourceImpl(KnowledgeSourceBackend... backends) {
         super(backends);
-        this.propDefReader = new PropositionDefinitionReader();
-        this.abstractionDefReader = new AbstractionDefinitionReader();
-        this.contextDefReader = new ContextDefinitionReader();
-        this.tempPropDefReader = new TemporalPropositionDefinitionReader();
+        int cacheSize = Integer.getInteger(SYSTEM_PROPERTY_CACHE_SIZE, 100000);
+        this.valueSetCache = new KnowledgeSourceReadCache<>(cacheSize);
+        this.propDefReader = new PropositionDefinitionReader(cacheSize);
+        this.abstractionDefReader = new AbstractionDefinitionReader(cacheSize);
+        this.contextDefReader = new ContextDefinitionReader(cacheSize);
+        this.tempPropDefReader = new TemporalPropositionDefinitionReader(cacheSize);
     }
 
     /**
@@ -487,32 +505,83 @@ public final class KnowledgeSourceImpl
 
     private abstract class AbstractDefinitionReader<E extends PropositionDefinition> {
 
+        final KnowledgeSourceReadCache<E> cache;
+
+        AbstractDefinitionReader(int cacheSize) {
+            this.cache = new KnowledgeSourceReadCache<>(cacheSize);
+        }
+
         final E read(String id) throws KnowledgeSourceReadException {
             if (id == null) {
                 throw new IllegalArgumentException("id cannot be null");
             }
             initializeIfNeeded("reading the proposition definition {0}", id);
 
-            E result = null;
-            if (result == null) {
+            E result = this.cache.get(id);
+            if (result == null && !this.cache.isNotFound(id)) {
+                long generation = this.cache.getGeneration();
                 for (KnowledgeSourceBackend backend : getBackends()) {
                     result = readFromBackend(id, backend);
                     if (result != null) {
-                        return result;
+                        break;
                     }
                 }
+                this.cache.put(id, result, generation);
             }
             return result;
         }
 
+        /**
+         * Reads the definitions with the given ids. As with
+         * {@link #read(java.lang.String) }, the definition of an id is the
+         * first one that a backend returns.
+         *
+         * @param ids the ids. Cannot be <code>null</code> or contain
+         * <code>null</code>.
+         * @return the definitions that were found, in the order of their ids
+         * in <code>ids</code>.
+         * @throws KnowledgeSourceReadException if an error occurred reading
+         * from a backend.
+         */
         final List<E> read(String[] ids) throws KnowledgeSourceReadException {
             assert ids != null : "ids cannot be null";
+            ProtempaUtil.checkArrayForNullElement(ids, "ids");
             initializeIfNeeded("reading the proposition definitions {0}", ids);
 
-            List<E> result = new ArrayList<>();
+            Map<String, E> defs = new HashMap<>();
+            List<String> misses = new ArrayList<>();
+            for (String id : ids) {
+                E def = this.cache.get(id);
+                if (def != null) {
+                    defs.put(id, def);
+                } else if (!this.cache.isNotFound(id)) {
+                    misses.add(id);
+                }
+            }
 
-            for (KnowledgeSourceBackend backend : getBackends()) {
-                result.addAll(readFromBackend(Arrays.asList(ids), backend));
+            if (!misses.isEmpty()) {
+                long generation = this.cache.getGeneration();
+                for (KnowledgeSourceBackend backend : getBackends()) {
+                    for (E def : readFromBackend(misses, backend)) {
+                        if (!defs.containsKey(def.getId())) {
+                            defs.put(def.getId(), def);
+                            this.cache.put(def.getId(), def, generation);
+                        }
+                    }
+                }
+                for (String id : misses) {
+                    if (!defs.containsKey(id)) {
+                        this.cache.put(id, null, generation);
+                    }
+                }
+            }
+
+            List<E> result = new ArrayList<>(defs.size());
+            for (String id : ids) {
+                E def = defs.get(id);
+                if (def != null) {
+                    result.add(def);
+                }
             }
             return result;
         }
@@ -536,6 +605,10 @@ public final class KnowledgeSourceImpl
 
     private final class PropositionDefinitionReader extends AbstractDefinitionReader<PropositionDefinition> {
 
+        PropositionDefinitionReader(int cacheSize) {
+            super(cacheSize);
+        }
+
         @Override
         protected PropositionDefinition readFromBackend(String id,
                 KnowledgeSourceBackend backend)
@@ -552,6 +625,10 @@ public final class KnowledgeSourceImpl
     private final class AbstractionDefinitionReader
             extends AbstractDefinitionReader<AbstractionDefinition> {
 
+        AbstractionDefinitionReader(int cacheSize) {
+            super(cacheSize);
+        }
+
         @Override
         protected AbstractionDefinition readFromBackend(String id,
                 KnowledgeSourceBackend backend)
@@ -569,6 +646,10 @@ public final class KnowledgeSourceImpl
     private final class ContextDefinitionReader
             extends AbstractDefinitionReader<ContextDefinition> {
 
+        ContextDefinitionReader(int cacheSize) {
+            super(cacheSize);
+        }
+
         @Override
         protected ContextDefinition readFromBackend(String id, KnowledgeSourceBackend backend) throws KnowledgeSourceReadException {
             return backend.readContextDefinition(id);
@@ -584,6 +665,10 @@ public final class KnowledgeSourceImpl
     private final class TemporalPropositionDefinitionReader
             extends AbstractDefinitionReader<TemporalPropositionDefinition> {
 
+        TemporalPropositionDefinitionReader(int cacheSize) {
+            super(cacheSize);
+        }
+
         @Override
         protected TemporalPropositionDefinition readFromBackend(String id, KnowledgeSourceBackend backend) throws KnowledgeSourceReadException {
             return backend.readTemporalPropositionDefinition(id);
@@ -655,32 +740,26 @@ public final class KnowledgeSourceImpl
 
     @Override
     public ValueSet readValueSet(String id) throws KnowledgeSourceReadException {
-        ValueSet result = null;
         initializeIfNeeded("reading the value set {0}", id);
-        if (getBackends() != null) {
-            for (KnowledgeSourceBackend backend : getBackends()) {
-                result = backend.readValueSet(id);
-                if (result != null) {
-                    return result;
+        ValueSet result = this.valueSetCache.get(id);
+        if (result == null && !this.valueSetCache.isNotFound(id)) {
+            long generation = this.valueSetCache.getGeneration();
+            if (getBackends() != null) {
+                for (KnowledgeSourceBackend backend : getBackends()) {
+                    result = backend.readValueSet(id);
+                    if (result != null) {
+                        break;
+                    }
                 }
             }
+            this.valueSetCache.put(id, result, generation);
         }
         return result;
     }
 
     @Override
     public boolean hasValueSet(String id) throws KnowledgeSourceReadException {
-        boolean result = false;
-        if (!result) {
-            initializeIfNeeded("reading the value set {0}", id);
-            for (KnowledgeSourceBackend backend : getBackends()) {
-                result = backend.readValueSet(id) != null;
-                if (result) {
-                    return result;
-                }
-            }
-        }
-        return result;
+        return readValueSet(id) != null;
     }
 
     @Override
@@ -689,8 +768,57 @@ public final class KnowledgeSourceImpl
         super.close();
     }
 
+    /**
+     * Empties the caches of definitions and value sets read from the
+     * backends.
+     */
     @Override
     public void clear() {
+        this.propDefReader.cache.clear();
+        this.abstractionDefReader.cache.clear();
+        this.contextDefReader.cache.clear();
+        this.tempPropDefReader.cache.clear();
+        this.valueSetCache.clear();
+    }
+
+    /**
+     * Gets the number of reads that were answered from the caches.
+     *
+     * @return a count.
+     */
+    public long getCacheHitCount() {
+        return this.propDefReader.cache.getHitCount()
+                + this.abstractionDefReader.cache.getHitCount()
+                + this.contextDefReader.cache.getHitCount()
+                + this.tempPropDefReader.cache.getHitCount()
+                + this.valueSetCache.getHitCount();
+    }
+
+    /**
+     * Gets the number of reads that went to the backends.
+     *
+     * @return a count.
+     */
+    public long getCacheMissCount() {
+        return this.propDefReader.cache.getMissCount()
+                + this.abstractionDefReader.cache.getMissCount()
+                + this.contextDefReader.cache.getMissCount()
+                + this.tempPropDefReader.cache.getMissCount()
+                + this.valueSetCache.getMissCount();
+    }
+
+    /**
+     * Gets the number of cached ids that were evicted to make room for
+     * others.
+     *
+     * @return a count.
+     */
+    public long getCacheEvictionCount() {
+        return this.propDefReader.cache.getEvictionCount()
+                + this.abstractionDefReader.cache.getEvictionCount()
+                + this.contextDefReader.cache.getEvictionCount()
+                + this.tempPropDefReader.cache.getEvictionCount()
+                + this.valueSetCache.getEvictionCount();
     }
 
     @Override
@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of what {@link KnowledgeSourceImpl} read from its backends,
+ * keyed by id. Ids that no backend had are cached too. Lookups do not lock.
+ * When the cache is full, arbitrary entries are evicted to make room.
+ *
+ * Because a backend read may overlap a {@link #clear()}, readers get a
+ * generation number with {@link #getGeneration()} before reading from the
+ * backends and pass it to {@link #put(String, Object, long)}, which does not
+ * keep values read before the most recent clear.
+ *
+ * @author Andrew Post
+ */
+final class KnowledgeSourceReadCache<V> {
+
+    private static final Object NOT_FOUND = new Object();
+    private final ConcurrentMap<String, Object> map;
+    private final int maximumSize;
+    private final AtomicLong generation;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maximumSize the maximum number of ids to cache. If less than 1,
+     * nothing is cached.
+     */
+    KnowledgeSourceReadCache(int maximumSize) {
+        this.map = new ConcurrentHashMap<>();
+        this.maximumSize = maximumSize;
+        this.generation = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Gets the value cached for an id.
+     *
+     * @param id an id.
+     * @return the value, or <code>null</code> if the id is not cached or is
+     * cached as not found.
+     */
+    @SuppressWarnings("unchecked")
+    V get(String id) {
+        Object result = this.map.get(id);
+        if (result == null || result == NOT_FOUND) {
+            return null;
+        } else {
+            this.hits.incrementAndGet();
+            return (V) result;
+        }
+    }
+
+    /**
+     * Returns whether an id is cached as not found. Call after
+     * {@link #get(String)} returns <code>null</code>.
+     *
+     * @param id an id.
+     * @return <code>true</code> if no backend had the id when it was last
+     * read, <code>false</code> if the backends need to be read.
+     */
+    boolean isNotFound(String id) {
+        boolean result = this.map.get(id) == NOT_FOUND;
+        if (result) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+        return result;
+    }
+
+    long getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * Caches a value that was read from the backends.
+     *
+     * @param id an id.
+     * @param value the value, or <code>null</code> if no backend had the id.
+     * @param generation the generation number from before the backends were
+     * read.
+     */
+    void put(String id, V value, long generation) {
+        if (this.maximumSize < 1 || this.generation.get() != generation) {
+            return;
+        }
+        Object o = value != null ? value : NOT_FOUND;
+        if (this.map.put(id, o) == null
+                && this.map.size() > this.maximumSize) {
+            evict();
+        }
+        if (this.generation.get() != generation) {
+            this.map.remove(id, o);
+        }
+    }
+
+    /**
+     * Removes everything from the cache.
+     */
+    void clear() {
+        this.generation.incrementAndGet();
+        this.map.clear();
+    }
+
+    long getHitCount() {
+        return this.hits.get();
+    }
+
+    long getMissCount() {
+        return this.misses.get();
+    }
+
+    long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    int size() {
+        return this.map.size();
+    }
+
+    /**
+     * Evicts about a tenth of the cache, so that evicting is not needed again
+     * for a while.
+     */
+    private void evict() {
+        int target = this.maximumSize - this.maximumSize / 10;
+        for (Iterator<String> itr = this.map.keySet().iterator();
+                itr.hasNext() && this.map.size() > target;) {
+            itr.next();
+            itr.remove();
+            this.evictions.incrementAndGet();
+        }
+    }
+}
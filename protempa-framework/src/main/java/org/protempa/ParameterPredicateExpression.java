@@ -52,4 +52,28 @@ class ParameterPredicateExpression implements PredicateExpression {
     public Object createContext() {
         return null;
     }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 37 * hash + (this.parameterId != null ? this.parameterId.hashCode() : 0);
+        hash = 37 * hash + (this.value != null ? this.value.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ParameterPredicateExpression other = (ParameterPredicateExpression) obj;
+        return (this.parameterId == null ? other.parameterId == null : this.parameterId.equals(other.parameterId))
+                && (this.value == null ? other.value == null : this.value.equals(other.value));
+    }
 }
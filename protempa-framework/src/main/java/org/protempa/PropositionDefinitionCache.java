@@ -37,6 +37,7 @@ import java.util.Set;
 public class PropositionDefinitionCache {
 
     private final Map<String, PropositionDefinition> cache;
+    private int modificationCount;
 
     public PropositionDefinitionCache(Collection<? extends PropositionDefinition> propDefs) {
         this.cache = new HashMap<>();
@@ -54,7 +55,9 @@ public class PropositionDefinitionCache {
     public void merge(PropositionDefinitionCache otherCache) {
         if (otherCache != null) {
             for (Map.Entry<String, PropositionDefinition> me : otherCache.cache.entrySet()) {
-                this.cache.putIfAbsent(me.getKey(), me.getValue());
+                if (this.cache.putIfAbsent(me.getKey(), me.getValue()) == null) {
+                    this.modificationCount++;
+                }
             }
         }
     }
@@ -77,7 +80,26 @@ public class PropositionDefinitionCache {
     }
     
     public PropositionDefinition remove(String id) {
-        return this.cache.remove(id);
+        PropositionDefinition result = this.cache.remove(id);
+        if (result != null) {
+            this.modificationCount++;
+        }
+        return result;
+    }
+
+    /**
+     * Gets a count of the changes to this cache since it was created. The
+     * count changes whenever the proposition definitions in the cache may
+     * have changed, so if it is the same as when it was last read, the cache
+     * holds the same proposition definitions. The converse does not hold: the
+     * count also changes when, for example, a definition is removed and then
+     * added back.
+     *
+     * @return the number of proposition definitions that have been added or
+     * removed.
+     */
+    public int getModificationCount() {
+        return this.modificationCount;
     }
 
     public Set<String> collectPropIdDescendantsUsingInverseIsA(String... propIds) throws QueryException {
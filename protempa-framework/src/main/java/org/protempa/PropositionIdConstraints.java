@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.Set;
+import org.drools.base.ClassFieldExtractorCache;
+import org.drools.base.FieldFactory;
+import org.drools.base.ValueType;
+import org.drools.base.evaluators.Operator;
+import org.drools.rule.LiteralConstraint;
+import org.drools.rule.Pattern;
+import org.drools.spi.Evaluator;
+import org.drools.spi.FieldExtractor;
+
+/**
+ * Adds proposition id constraints to patterns that Drools can index. Drools
+ * tests a fact against every predicate constraint on its object type, but it
+ * puts literal <code>id == "..."</code> constraints on the same object type
+ * in a hash table and tests only the one that matches the fact's id. Patterns
+ * that match a single proposition id get such a constraint ahead of their
+ * predicate constraint, so that most facts are rejected by the hash lookup
+ * before any predicate is evaluated. Patterns that match more than one id
+ * keep only their predicate constraint, because Drools cannot index sets of
+ * literals.
+ *
+ * @author Andrew Post
+ */
+final class PropositionIdConstraints {
+
+    private static final Evaluator EQUAL_EVALUATOR
+            = ValueType.STRING_TYPE.getEvaluator(Operator.EQUAL);
+    private final boolean enabled;
+
+    /**
+     * Creates an instance.
+     *
+     * @param enabled <code>false</code> to add no constraints.
+     */
+    PropositionIdConstraints(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Adds an indexable id constraint to a pattern if it matches a single
+     * proposition id. Must be called before any other constraints are added
+     * to the pattern, because Drools only indexes the first constraint.
+     *
+     * @param pattern the {@link Pattern}.
+     * @param cls the class of the pattern's object type.
+     * @param propIds the proposition ids that the pattern matches.
+     */
+    void addTo(Pattern pattern, Class<?> cls, Set<String> propIds) {
+        if (this.enabled && propIds.size() == 1) {
+            addTo(pattern, cls, propIds.iterator().next());
+        }
+    }
+
+    /**
+     * Adds an indexable id constraint to a pattern. Must be called before any
+     * other constraints are added to the pattern, because Drools only indexes
+     * the first constraint.
+     *
+     * @param pattern the {@link Pattern}.
+     * @param cls the class of the pattern's object type.
+     * @param propId the proposition id that the pattern matches.
+     */
+    void addTo(Pattern pattern, Class<?> cls, String propId) {
+        if (this.enabled) {
+            FieldExtractor extractor = ClassFieldExtractorCache.getInstance()
+                    .getExtractor(cls, "id", cls.getClassLoader());
+            pattern.addConstraint(new LiteralConstraint(extractor,
+                    EQUAL_EVALUATOR, FieldFactory.getFieldValue(propId)));
+        }
+    }
+}
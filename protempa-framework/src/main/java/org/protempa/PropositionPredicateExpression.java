@@ -61,4 +61,29 @@ class PropositionPredicateExpression implements PredicateExpression {
     public Object createContext() {
         return null;
     }
+
+    /*
+     * Drools shares the alpha node of equal constraints between rules, so
+     * patterns of different rules that match the same proposition ids are
+     * evaluated once per fact.
+     */
+    @Override
+    public int hashCode() {
+        return this.propIds.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final PropositionPredicateExpression other = (PropositionPredicateExpression) obj;
+        return this.propIds.equals(other.propIds);
+    }
 }
@@ -47,6 +47,33 @@ final class QueueObject {
         this.refs = refs;
     }
 
+    /**
+     * Creates a queue object for a key whose processing failed. It has no
+     * propositions and is not passed to the query results handler.
+     * 
+     * @param keyId the key id.
+     */
+    QueueObject(String keyId) {
+        this.keyId = keyId;
+    }
+
+    /**
+     * Estimates how much memory this queue object holds, for bounding the
+     * queue of results.
+     * 
+     * @return the number of propositions and references.
+     */
+    int weight() {
+        int result = 0;
+        if (this.propositions != null) {
+            result += this.propositions.size();
+        }
+        if (this.refs != null) {
+            result += this.refs.size();
+        }
+        return result;
+    }
+
     QueueObject() {
     }
     
@@ -30,6 +30,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.arp.javautil.arrays.Arrays;
 import org.protempa.backend.dsb.filter.Filter;
 import org.protempa.dest.QueryResultsHandler;
+import org.protempa.metrics.StageMetrics;
 import org.protempa.proposition.Proposition;
 import org.protempa.query.Query;
 
@@ -43,26 +44,36 @@ class RetrieveDataThread extends AbstractThread {
 
     private final BlockingQueue<DataStreamingEvent<Proposition>> queue;
     private final DataStreamingEvent<Proposition> poisonPill;
+    private final int consumerCount;
+    private final BlockingQueue<String> keyOrder;
     private final List<QueryException> exceptions;
     private final PropositionDefinitionCache propositionDefinitionCache;
     private final DataSource dataSource;
     private final QueryResultsHandler queryResultsHandler;
     private final Filter filters;
+    private final StageMetrics metrics;
+    private long stallNanos;
 
     RetrieveDataThread(BlockingQueue<DataStreamingEvent<Proposition>> queue,
-            DataStreamingEvent<Proposition> poisonPill, Query query,
+            DataStreamingEvent<Proposition> poisonPill, int consumerCount,
+            BlockingQueue<String> keyOrder, Query query,
             DataSource dataSource, 
             PropositionDefinitionCache propositionDefinitionCache,
             Filter filters,
-            QueryResultsHandler queryResultsHandler) throws QueryException {
+            QueryResultsHandler queryResultsHandler,
+            StageMetrics metrics) throws QueryException {
         super(query, LOGGER, "protempa.executor.RetrieveDataThread");
+        assert consumerCount > 0 : "consumerCount must be > 0";
         this.queue = queue;
         this.poisonPill = poisonPill;
+        this.consumerCount = consumerCount;
+        this.keyOrder = keyOrder;
         this.exceptions = new ArrayList<>();
         this.dataSource = dataSource;
         this.propositionDefinitionCache = propositionDefinitionCache;
         this.filters = filters;
         this.queryResultsHandler = queryResultsHandler;
+        this.metrics = metrics;
     }
 
     public List<QueryException> getExceptions() {
@@ -76,22 +87,34 @@ class RetrieveDataThread extends AbstractThread {
         DataStreamingEventIterator<Proposition> itr = null;
         try {
             itr = newDataIterator();
+            long start = System.nanoTime();
             while (!isInterrupted() && itr.hasNext()) {
-                queue.put(itr.next());
+                DataStreamingEvent<Proposition> next = itr.next();
+                this.metrics.record(next.getData().size(), System.nanoTime() - start);
+                start = System.nanoTime();
+                if (this.keyOrder != null) {
+                    this.keyOrder.put(next.getKeyId());
+                }
+                queue.put(next);
+                long now = System.nanoTime();
+                this.metrics.recordStall(now - start);
+                this.stallNanos += now - start;
+                start = now;
             }
             itr.close();
-            queue.put(poisonPill);
+            putPoisonPills();
             itr = null;
         } catch (DataSourceReadException | Error | RuntimeException ex) {
             exceptions.add(new QueryException(query.getName(), ex));
             try {
-                queue.put(poisonPill);
+                putPoisonPills();
             } catch (InterruptedException ignore) {
                 log(Level.SEVERE, "Failed to send stop message to the do process thread; the query may be hung", ignore);
             }
         } catch (InterruptedException ex) {
             // by DoProcessThread
             log(Level.FINER, "Retrieve data thread interrupted", ex);
+            stopRemainingConsumers();
         } finally {
             if (itr != null) {
                 try {
@@ -100,9 +123,33 @@ class RetrieveDataThread extends AbstractThread {
                 }
             }
         }
+        log(Level.FINE, "Stalled {0} ms on a full do process queue", this.stallNanos / 1000000L);
         log(Level.FINER, "End retrieve data thread");
     }
 
+    private void putPoisonPills() throws InterruptedException {
+        for (int i = 0; i < this.consumerCount; i++) {
+            queue.put(poisonPill);
+        }
+    }
+
+    /**
+     * When one of several do process threads fails, it interrupts this
+     * thread. The others would then wait forever for more data, so discard
+     * the data that has not been processed yet and tell them to stop.
+     */
+    private void stopRemainingConsumers() {
+        if (this.consumerCount > 1) {
+            queue.clear();
+            for (int i = 0; i < this.consumerCount; i++) {
+                if (!queue.offer(poisonPill)) {
+                    log(Level.SEVERE, "Failed to send stop message to the do process threads; the query may be hung");
+                    break;
+                }
+            }
+        }
+    }
+
     private DataStreamingEventIterator<Proposition> newDataIterator() throws DataSourceReadException {
         log(Level.INFO, "Retrieving data");
         Query query = getQuery();
@@ -0,0 +1,505 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.codec.binary.Hex;
+import org.drools.RuleBase;
+import org.protempa.query.Query;
+import org.protempa.query.QueryMode;
+
+/**
+ * Caches rule bases by a fingerprint of what they were created from: the
+ * proposition definitions, the algorithms that the low-level abstraction
+ * definitions use, the query mode, and the system properties that change
+ * the generated rules. Rule bases are kept in memory for the lifetime of a
+ * {@link Protempa} instance, and they are also written to the directory in
+ * the {@link #SYSTEM_PROPERTY_DIRECTORY} system property if it is set, so
+ * that a restarted JVM can skip creating and compiling the rules.
+ *
+ * A fingerprint is a digest of the serialized proposition definitions and
+ * algorithms. Equal fingerprints imply equal contents. Equal contents
+ * normally produce equal fingerprints, but may not if they contain hashed
+ * collections whose iteration order differs, which only costs a cache miss.
+ * Fingerprints are remembered by the identity of the proposition definitions
+ * and algorithm source they were computed from, because
+ * {@link KnowledgeSourceImpl} hands out the same definition instances until
+ * it is cleared, and a {@link PropositionDefinitionCache} that is passed
+ * again is not looked at unless its modification count has changed. This
+ * assumes that proposition definitions are not changed in place.
+ *
+ * Persisted rule bases are read with a stream that only resolves JDK
+ * collection and primitive wrapper, Drools and Protempa classes, and the
+ * directory should be writable only by the user that runs Protempa.
+ *
+ * @author Andrew Post
+ */
+final class RuleBaseCache {
+
+    private static final Logger LOGGER = Logger.getLogger(RuleBaseCache.class.getName());
+
+    /**
+     * Set to <code>false</code> to create a new rule base for every query.
+     * The default is <code>true</code>.
+     */
+    static final String SYSTEM_PROPERTY_ENABLED = "protempa.rules.rulebasecache";
+
+    /**
+     * A directory in which to persist rule bases across JVM restarts. By
+     * default, rule bases are cached in memory only.
+     */
+    static final String SYSTEM_PROPERTY_DIRECTORY = "protempa.rules.rulebasecache.dir";
+
+    /**
+     * The system properties that change the rules that
+     * {@link JBossRuleCreator} creates.
+     */
+    private static final String[] RULE_CREATOR_SYSTEM_PROPERTIES = {
+        JBossRuleCreator.SYSTEM_PROPERTY_HLA_JOIN_PRUNING,
+        JBossRuleCreator.SYSTEM_PROPERTY_COMBINER_SWEEP,
+        JBossRuleCreator.SYSTEM_PROPERTY_ID_INDEXING,
+        JBossRuleCreator.SYSTEM_PROPERTY_PROFILER
+    };
+
+    /**
+     * Change when the rules that are created from the same inputs change, so
+     * that persisted rule bases from an earlier version are not used.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int MAX_IN_MEMORY = 4;
+
+    private static final String FILE_SUFFIX = ".rulebase";
+
+    /**
+     * Package prefixes of the classes that may be read from a persisted rule
+     * base. Drools serializes the compiled rules into a nested stream that it
+     * reads with its own class loader.
+     */
+    private static final String[] READABLE_CLASS_PREFIXES = {
+        "java.lang.",
+        "java.util.",
+        "org.drools.",
+        "org.protempa."
+    };
+
+    private static final Comparator<PropositionDefinition> PROP_DEF_ID_COMP
+            = new Comparator<PropositionDefinition>() {
+        @Override
+        public int compare(PropositionDefinition o1, PropositionDefinition o2) {
+            return o1.getId().compareTo(o2.getId());
+        }
+    };
+
+    private static final Comparator<Algorithm> ALGORITHM_ID_COMP
+            = new Comparator<Algorithm>() {
+        @Override
+        public int compare(Algorithm o1, Algorithm o2) {
+            return o1.getId().compareTo(o2.getId());
+        }
+    };
+
+    private final boolean enabled;
+    private final Path directory;
+    private final Map<String, RuleBase> ruleBases;
+    private final Map<FingerprintKey, String> fingerprints;
+    private final Map<PropositionDefinitionCache, CacheState> cacheStates;
+
+    RuleBaseCache() {
+        this(Boolean.parseBoolean(
+                System.getProperty(SYSTEM_PROPERTY_ENABLED, "true")),
+                System.getProperty(SYSTEM_PROPERTY_DIRECTORY) != null
+                ? Paths.get(System.getProperty(SYSTEM_PROPERTY_DIRECTORY))
+                : null);
+    }
+
+    RuleBaseCache(boolean enabled, Path directory) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.ruleBases = new LinkedHashMap<String, RuleBase>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RuleBase> eldest) {
+                return size() > MAX_IN_MEMORY;
+            }
+        };
+        this.fingerprints = new LinkedHashMap<FingerprintKey, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FingerprintKey, String> eldest) {
+                return size() > MAX_IN_MEMORY;
+            }
+        };
+        this.cacheStates = new WeakHashMap<>();
+    }
+
+    /**
+     * Computes the fingerprint of the rule base of a query. Queries that
+     * persist working memory are not cached, because their execution
+     * strategies merge the proposition definitions stored with the working
+     * memory into the cache when they initialize, so the rule base may be
+     * created from more proposition definitions than the fingerprint would
+     * cover.
+     *
+     * @param query the query. Cannot be <code>null</code>.
+     * @param cache the proposition definitions from which the rules will be
+     * created. Cannot be <code>null</code>.
+     * @param algorithmSource the algorithm source. Cannot be
+     * <code>null</code>.
+     * @return the fingerprint, or <code>null</code> if caching is disabled or
+     * the rule base cannot be cached.
+     */
+    String fingerprint(Query query, PropositionDefinitionCache cache,
+            AlgorithmSource algorithmSource) {
+        assert query != null : "query cannot be null";
+        if (query.getDatabasePath() != null) {
+            return null;
+        }
+        return fingerprint(cache, algorithmSource, query.getQueryMode());
+    }
+
+    /**
+     * Computes the fingerprint of a rule base.
+     *
+     * @param cache the proposition definitions from which the rules will be
+     * created. Cannot be <code>null</code>.
+     * @param algorithmSource the algorithm source. Cannot be
+     * <code>null</code>.
+     * @param queryMode the query mode. Cannot be <code>null</code>.
+     * @return the fingerprint, or <code>null</code> if caching is disabled or
+     * the rule base cannot be cached.
+     */
+    String fingerprint(PropositionDefinitionCache cache,
+            AlgorithmSource algorithmSource, QueryMode queryMode) {
+        assert cache != null : "cache cannot be null";
+        assert algorithmSource != null : "algorithmSource cannot be null";
+        assert queryMode != null : "queryMode cannot be null";
+        if (!this.enabled) {
+            return null;
+        }
+        synchronized (this) {
+            CacheState state = this.cacheStates.get(cache);
+            if (state == null
+                    || state.modificationCount != cache.getModificationCount()) {
+                state = new CacheState(cache.getModificationCount(),
+                        Collections.newSetFromMap(
+                                new IdentityHashMap<PropositionDefinition, Boolean>()));
+                state.propDefs.addAll(cache.getAll());
+                this.cacheStates.put(cache, state);
+            }
+            FingerprintKey key = new FingerprintKey(state.propDefs,
+                    algorithmSource, queryMode, ruleCreatorProperties());
+            if (this.fingerprints.containsKey(key)) {
+                return this.fingerprints.get(key);
+            }
+            String fingerprint = computeFingerprint(state.propDefs,
+                    algorithmSource, queryMode, key.properties);
+            this.fingerprints.put(key, fingerprint);
+            return fingerprint;
+        }
+    }
+
+    private static String computeFingerprint(Set<PropositionDefinition> cached,
+            AlgorithmSource algorithmSource, QueryMode queryMode,
+            List<String> properties) {
+        List<PropositionDefinition> propDefs = new ArrayList<>(cached);
+        Collections.sort(propDefs, PROP_DEF_ID_COMP);
+        ValidateAlgorithmCheckedVisitor visitor
+                = new ValidateAlgorithmCheckedVisitor(algorithmSource);
+        try {
+            visitor.visit(propDefs);
+        } catch (ProtempaException ex) {
+            LOGGER.log(Level.FINE, "Not caching the rule base", ex);
+            return null;
+        }
+        List<Algorithm> algorithms = new ArrayList<>(visitor.getAlgorithms().values());
+        Collections.sort(algorithms, ALGORITHM_ID_COMP);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new DigestOutputStream(NullOutputStream.INSTANCE, digest))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(queryMode.name());
+                for (String property : properties) {
+                    out.writeObject(property);
+                }
+                out.writeInt(propDefs.size());
+                for (PropositionDefinition propDef : propDefs) {
+                    out.writeObject(propDef);
+                }
+                out.writeInt(algorithms.size());
+                for (Algorithm algorithm : algorithms) {
+                    out.writeObject(algorithm);
+                }
+            }
+            return Hex.encodeHexString(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            LOGGER.log(Level.FINE, "Not caching the rule base", ex);
+            return null;
+        }
+    }
+
+    private static List<String> ruleCreatorProperties() {
+        List<String> result = new ArrayList<>(RULE_CREATOR_SYSTEM_PROPERTIES.length);
+        for (String property : RULE_CREATOR_SYSTEM_PROPERTIES) {
+            result.add(System.getProperty(property));
+        }
+        return result;
+    }
+
+    /**
+     * Gets a rule base from memory or, if a directory is configured, from
+     * disk.
+     *
+     * @param fingerprint a fingerprint from
+     * {@link #fingerprint(org.protempa.PropositionDefinitionCache, org.protempa.AlgorithmSource, org.protempa.query.QueryMode) }.
+     * May be <code>null</code>.
+     * @return the rule base, or <code>null</code> if none is cached.
+     */
+    synchronized RuleBase get(String fingerprint) {
+        if (fingerprint == null) {
+            return null;
+        }
+        RuleBase ruleBase = this.ruleBases.get(fingerprint);
+        if (ruleBase == null && this.directory != null) {
+            ruleBase = read(fingerprint);
+            if (ruleBase != null) {
+                this.ruleBases.put(fingerprint, ruleBase);
+            }
+        }
+        if (ruleBase != null) {
+            LOGGER.log(Level.FINE, "Reusing cached rule base {0}", fingerprint);
+        }
+        return ruleBase;
+    }
+
+    /**
+     * Caches a rule base in memory and, if a directory is configured, on
+     * disk.
+     *
+     * @param fingerprint a fingerprint. If <code>null</code>, nothing is
+     * cached.
+     * @param ruleBase the rule base. If <code>null</code>, nothing is
+     * cached.
+     */
+    synchronized void put(String fingerprint, RuleBase ruleBase) {
+        if (fingerprint == null || ruleBase == null
+                || this.ruleBases.get(fingerprint) == ruleBase) {
+            return;
+        }
+        this.ruleBases.put(fingerprint, ruleBase);
+        if (this.directory != null) {
+            write(fingerprint, ruleBase);
+        }
+    }
+
+    private RuleBase read(String fingerprint) {
+        Path file = this.directory.resolve(fingerprint + FILE_SUFFIX);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file);
+                ObjectInputStream ois = new RuleBaseInputStream(in)) {
+            return (RuleBase) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            LOGGER.log(Level.WARNING, "Could not read cached rule base " + file, ex);
+            return null;
+        }
+    }
+
+    private void write(String fingerprint, RuleBase ruleBase) {
+        Path file = this.directory.resolve(fingerprint + FILE_SUFFIX);
+        Path tmpFile = null;
+        try {
+            Files.createDirectories(this.directory);
+            tmpFile = Files.createTempFile(this.directory, fingerprint, ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    Files.newOutputStream(tmpFile))) {
+                out.writeObject(ruleBase);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            tmpFile = null;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Could not write cached rule base " + file, ex);
+        } finally {
+            if (tmpFile != null) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a persisted rule base, refusing to resolve classes outside of
+     * {@link #READABLE_CLASS_PREFIXES} and proxy classes, and resolving with
+     * the class loader that loaded Drools rather than the latest user-defined
+     * class loader on the stack.
+     */
+    private static final class RuleBaseInputStream extends ObjectInputStream {
+
+        RuleBaseInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            String className = name;
+            if (className.startsWith("[")) {
+                className = className.substring(className.lastIndexOf('[') + 1);
+                if (className.length() == 1) {
+                    className = null;
+                } else {
+                    className = className.substring(1, className.length() - 1);
+                }
+            }
+            if (className != null && !isReadable(className)) {
+                throw new InvalidClassException(name,
+                        "not allowed in a cached rule base");
+            }
+            try {
+                return Class.forName(name, false, RuleBase.class.getClassLoader());
+            } catch (ClassNotFoundException ex) {
+                return super.resolveClass(desc);
+            }
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces)
+                throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("proxy",
+                    "not allowed in a cached rule base");
+        }
+
+        private static boolean isReadable(String className) {
+            for (String prefix : READABLE_CLASS_PREFIXES) {
+                if (className.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class CacheState {
+
+        final int modificationCount;
+        final Set<PropositionDefinition> propDefs;
+
+        CacheState(int modificationCount, Set<PropositionDefinition> propDefs) {
+            this.modificationCount = modificationCount;
+            this.propDefs = propDefs;
+        }
+    }
+
+    /**
+     * The inputs of a fingerprint, compared by the identity of the
+     * proposition definitions and the algorithm source.
+     */
+    private static final class FingerprintKey {
+
+        final Set<PropositionDefinition> propDefs;
+        final AlgorithmSource algorithmSource;
+        final QueryMode queryMode;
+        final List<String> properties;
+        private final int hashCode;
+
+        FingerprintKey(Set<PropositionDefinition> propDefs,
+                AlgorithmSource algorithmSource, QueryMode queryMode,
+                List<String> properties) {
+            this.propDefs = propDefs;
+            this.algorithmSource = algorithmSource;
+            this.queryMode = queryMode;
+            this.properties = properties;
+            int h = 0;
+            for (PropositionDefinition propDef : propDefs) {
+                h += System.identityHashCode(propDef);
+            }
+            h = 31 * h + System.identityHashCode(algorithmSource);
+            h = 31 * h + queryMode.hashCode();
+            this.hashCode = 31 * h + properties.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FingerprintKey)) {
+                return false;
+            }
+            FingerprintKey other = (FingerprintKey) obj;
+            return this.hashCode == other.hashCode
+                    && this.algorithmSource == other.algorithmSource
+                    && this.queryMode == other.queryMode
+                    && this.properties.equals(other.properties)
+                    && this.propDefs.size() == other.propDefs.size()
+                    && this.propDefs.containsAll(other.propDefs);
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -27,5 +27,5 @@ import org.drools.rule.Rule;
  * @author Andrew Post
  */
 interface RuleCreator<P extends PropositionDefinition> {
-    void toRules(P d, List<Rule> rules, DerivationsBuilder derivationsBuilder);
+    void toRules(P d, List<Rule> rules);
 }
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.Objects;
+import org.drools.WorkingMemory;
+import org.drools.rule.Declaration;
+import org.drools.spi.Consequence;
+import org.drools.spi.EvalExpression;
+import org.drools.spi.KnowledgeHelper;
+import org.drools.spi.PredicateExpression;
+import org.drools.spi.Tuple;
+
+/**
+ * Wraps the consequences and conditions of generated rules so that they
+ * report to the session's {@link RuleProfiler} under the id of the
+ * proposition definition that they were generated from. When profiling is
+ * disabled, the consequences and conditions are returned unwrapped and cost
+ * nothing. A session without a profiler in its
+ * {@link WorkingMemoryGlobals#RULE_PROFILER} global runs wrapped rules
+ * without profiling them.
+ *
+ * The wrappers resolve the index of their proposition definition's counters
+ * when they are created. Condition wrappers decide whether to sample an
+ * evaluation with their own counter, before looking up the session's
+ * profiler, so an evaluation that is not sampled costs only an increment
+ * and a mask. The wrappers are shared by the sessions of a rule base, so the
+ * counter is not synchronized; a lost increment only shifts which
+ * evaluation is sampled.
+ *
+ * @author Andrew Post
+ */
+final class RuleInstrumentation {
+
+    private final boolean enabled;
+
+    /**
+     * Creates an instance.
+     *
+     * @param enabled <code>false</code> to wrap nothing.
+     */
+    RuleInstrumentation(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    Consequence instrument(String propId, Consequence consequence) {
+        if (this.enabled) {
+            return new ProfiledConsequence(propId, consequence);
+        } else {
+            return consequence;
+        }
+    }
+
+    PredicateExpression instrument(String propId,
+            PredicateExpression expression) {
+        if (this.enabled) {
+            return new ProfiledPredicateExpression(propId, expression);
+        } else {
+            return expression;
+        }
+    }
+
+    EvalExpression instrument(String propId, EvalExpression expression) {
+        if (this.enabled) {
+            return new ProfiledEvalExpression(propId, expression);
+        } else {
+            return expression;
+        }
+    }
+
+    /**
+     * Decides whether to sample an evaluation.
+     *
+     * @param evaluation the wrapper's count of evaluations before this one.
+     * @param workingMemory the session.
+     * @return the session's profiler if the evaluation is to be sampled, and
+     * <code>null</code> otherwise.
+     */
+    private static RuleProfiler sample(int evaluation,
+            WorkingMemory workingMemory) {
+        if ((evaluation & RuleProfiler.EVALUATION_SAMPLE_MASK) != 0) {
+            return null;
+        }
+        return WorkingMemoryGlobals.getRuleProfiler(workingMemory);
+    }
+
+    private static final class ProfiledConsequence implements Consequence {
+
+        private static final long serialVersionUID = 1L;
+        private final String propId;
+        private final Consequence consequence;
+        private final transient int index;
+
+        ProfiledConsequence(String propId, Consequence consequence) {
+            this.propId = propId;
+            this.consequence = consequence;
+            this.index = RuleProfiler.indexOf(propId);
+        }
+
+        private Object readResolve() {
+            return new ProfiledConsequence(this.propId, this.consequence);
+        }
+
+        @Override
+        public void evaluate(KnowledgeHelper kh, WorkingMemory wm)
+                throws Exception {
+            RuleProfiler profiler = WorkingMemoryGlobals.getRuleProfiler(wm);
+            if (profiler == null) {
+                this.consequence.evaluate(kh, wm);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                this.consequence.evaluate(kh, wm);
+            } finally {
+                profiler.get(this.index, this.propId).activated(
+                        System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static final class ProfiledPredicateExpression
+            implements PredicateExpression {
+
+        private static final long serialVersionUID = 1L;
+        private final String propId;
+        private final PredicateExpression expression;
+        private final transient int index;
+        private transient int evaluations;
+
+        ProfiledPredicateExpression(String propId,
+                PredicateExpression expression) {
+            this.propId = propId;
+            this.expression = expression;
+            this.index = RuleProfiler.indexOf(propId);
+        }
+
+        private Object readResolve() {
+            return new ProfiledPredicateExpression(this.propId,
+                    this.expression);
+        }
+
+        @Override
+        public Object createContext() {
+            return this.expression.createContext();
+        }
+
+        @Override
+        public boolean evaluate(Object object, Tuple tuple,
+                Declaration[] previousDeclarations,
+                Declaration[] localDeclarations, WorkingMemory workingMemory,
+                Object context) throws Exception {
+            RuleProfiler profiler = sample(this.evaluations++, workingMemory);
+            if (profiler == null) {
+                return this.expression.evaluate(object, tuple,
+                        previousDeclarations, localDeclarations,
+                        workingMemory, context);
+            }
+            long start = System.nanoTime();
+            try {
+                return this.expression.evaluate(object, tuple,
+                        previousDeclarations, localDeclarations,
+                        workingMemory, context);
+            } finally {
+                profiler.get(this.index, this.propId).evaluationSampled(
+                        System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.propId.hashCode() + this.expression.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final ProfiledPredicateExpression other
+                    = (ProfiledPredicateExpression) obj;
+            return Objects.equals(this.propId, other.propId)
+                    && Objects.equals(this.expression, other.expression);
+        }
+    }
+
+    private static final class ProfiledEvalExpression
+            implements EvalExpression {
+
+        private static final long serialVersionUID = 1L;
+        private final String propId;
+        private final EvalExpression expression;
+        private final transient int index;
+        private transient int evaluations;
+
+        ProfiledEvalExpression(String propId, EvalExpression expression) {
+            this.propId = propId;
+            this.expression = expression;
+            this.index = RuleProfiler.indexOf(propId);
+        }
+
+        private Object readResolve() {
+            return new ProfiledEvalExpression(this.propId, this.expression);
+        }
+
+        @Override
+        public Object createContext() {
+            return this.expression.createContext();
+        }
+
+        @Override
+        public boolean evaluate(Tuple tuple, Declaration[] requiredDeclarations,
+                WorkingMemory workingMemory, Object context) throws Exception {
+            RuleProfiler profiler = sample(this.evaluations++, workingMemory);
+            if (profiler == null) {
+                return this.expression.evaluate(tuple, requiredDeclarations,
+                        workingMemory, context);
+            }
+            long start = System.nanoTime();
+            try {
+                return this.expression.evaluate(tuple, requiredDeclarations,
+                        workingMemory, context);
+            } finally {
+                profiler.get(this.index, this.propId).evaluationSampled(
+                        System.nanoTime() - start);
+            }
+        }
+    }
+}
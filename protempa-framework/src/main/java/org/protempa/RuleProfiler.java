@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts rule activations and condition evaluations, and how long they
+ * took, per proposition definition. Each execution strategy has its own
+ * profiler, which its sessions find in the
+ * {@link WorkingMemoryGlobals#RULE_PROFILER} global, so counting needs no
+ * synchronization. The executor merges the profilers of its workers into a
+ * report when the query is done.
+ *
+ * Every activation is timed. Only one in {@link #EVALUATION_SAMPLE_RATE}
+ * condition evaluations is counted and timed, and their number and
+ * cumulative time are estimated from the sample, because even looking up the
+ * profiler for every evaluation would cost as much as many of the conditions
+ * do. Instrumented rules find their counters by an index that is assigned to
+ * each proposition definition id once per JVM with {@link #indexOf(String)}.
+ *
+ * @author Andrew Post
+ */
+final class RuleProfiler {
+
+    static final int EVALUATION_SAMPLE_RATE = 16;
+
+    static final int EVALUATION_SAMPLE_MASK = EVALUATION_SAMPLE_RATE - 1;
+
+    private static final Map<String, Integer> INDICES = new HashMap<>();
+
+    static final class Counters {
+
+        private final String propId;
+        private long activations;
+        private long activationNanos;
+        private long sampledEvaluations;
+        private long sampledEvaluationNanos;
+
+        private Counters(String propId) {
+            this.propId = propId;
+        }
+
+        String getPropId() {
+            return this.propId;
+        }
+
+        long getActivations() {
+            return this.activations;
+        }
+
+        long getActivationNanos() {
+            return this.activationNanos;
+        }
+
+        /**
+         * Estimates the number of this definition's condition evaluations
+         * from the ones that were sampled.
+         *
+         * @return the number of evaluations.
+         */
+        long getEvaluations() {
+            return this.sampledEvaluations * EVALUATION_SAMPLE_RATE;
+        }
+
+        /**
+         * Estimates the cumulative time of this definition's condition
+         * evaluations from the ones that were sampled.
+         *
+         * @return the time in nanoseconds.
+         */
+        long getEvaluationNanos() {
+            return this.sampledEvaluationNanos * EVALUATION_SAMPLE_RATE;
+        }
+
+        long getTotalNanos() {
+            return this.activationNanos + getEvaluationNanos();
+        }
+
+        void evaluationSampled(long nanos) {
+            this.sampledEvaluations++;
+            this.sampledEvaluationNanos += nanos;
+        }
+
+        void activated(long nanos) {
+            this.activations++;
+            this.activationNanos += nanos;
+        }
+
+        private void add(Counters other) {
+            this.activations += other.activations;
+            this.activationNanos += other.activationNanos;
+            this.sampledEvaluations += other.sampledEvaluations;
+            this.sampledEvaluationNanos += other.sampledEvaluationNanos;
+        }
+    }
+
+    private static final Comparator<Counters> TOTAL_NANOS_DESC
+            = new Comparator<Counters>() {
+        @Override
+        public int compare(Counters o1, Counters o2) {
+            return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+        }
+    };
+
+    private final Map<String, Counters> counters;
+    private Counters[] countersByIndex;
+
+    RuleProfiler() {
+        this.counters = new HashMap<>();
+        this.countersByIndex = new Counters[0];
+    }
+
+    /**
+     * Gets the index of a proposition definition id's counters, assigning
+     * one if needed. Call when creating a rule, not when evaluating one.
+     *
+     * @param propId a proposition definition id.
+     * @return the index.
+     */
+    static int indexOf(String propId) {
+        synchronized (INDICES) {
+            Integer result = INDICES.get(propId);
+            if (result == null) {
+                result = INDICES.size();
+                INDICES.put(propId, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Gets the counters of a proposition definition by its index, creating
+     * them if needed.
+     *
+     * @param index the index of the proposition definition id from
+     * {@link #indexOf(String)}.
+     * @param propId the proposition definition id.
+     * @return the {@link Counters}.
+     */
+    Counters get(int index, String propId) {
+        Counters[] byIndex = this.countersByIndex;
+        if (index < byIndex.length) {
+            Counters result = byIndex[index];
+            if (result != null) {
+                return result;
+            }
+        } else {
+            byIndex = Arrays.copyOf(byIndex,
+                    Math.max(index + 1, 2 * byIndex.length));
+            this.countersByIndex = byIndex;
+        }
+        Counters result = get(propId);
+        byIndex[index] = result;
+        return result;
+    }
+
+    /**
+     * Gets the counters of a proposition definition, creating them if
+     * needed.
+     *
+     * @param propId a proposition definition id.
+     * @return the {@link Counters}.
+     */
+    Counters get(String propId) {
+        Counters result = this.counters.get(propId);
+        if (result == null) {
+            result = new Counters(propId);
+            this.counters.put(propId, result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds another profiler's counts to this one's. Call only after the
+     * other profiler's sessions are done.
+     *
+     * @param other another {@link RuleProfiler}.
+     */
+    void merge(RuleProfiler other) {
+        for (Counters c : other.counters.values()) {
+            get(c.getPropId()).add(c);
+        }
+    }
+
+    /**
+     * Gets the counters of every profiled proposition definition, with the
+     * most time-consuming first.
+     *
+     * @return a newly created {@link List} of {@link Counters}.
+     */
+    List<Counters> getCounters() {
+        List<Counters> result = new ArrayList<>(this.counters.values());
+        Collections.sort(result, TOTAL_NANOS_DESC);
+        return result;
+    }
+
+    /**
+     * Formats the most time-consuming proposition definitions' counts.
+     *
+     * @param limit the maximum number of proposition definitions to include.
+     * @return a multi-line report.
+     */
+    String report(int limit) {
+        StringBuilder b = new StringBuilder();
+        b.append(String.format("%-40s %12s %12s %14s %12s",
+                "proposition definition", "activations", "activ. ms",
+                "evaluations", "eval. ms"));
+        List<Counters> sorted = getCounters();
+        for (Counters c : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            b.append('\n').append(String.format("%-40s %12d %12.1f %14d %12.1f",
+                    c.getPropId(), c.getActivations(),
+                    c.getActivationNanos() / 1e6, c.getEvaluations(),
+                    c.getEvaluationNanos() / 1e6));
+        }
+        return b.toString();
+    }
+}
@@ -40,6 +40,8 @@ import java.util.stream.Collectors;
 import org.apache.commons.collections4.iterators.IteratorChain;
 import org.arp.javautil.arrays.Arrays;
 import org.drools.FactException;
+import org.drools.FactHandle;
+import org.drools.RuleBase;
 import org.drools.StatefulSession;
 
 import org.eurekaclinical.datastore.DataStore;
@@ -52,6 +54,22 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
 
     private static final Logger LOGGER = Logger.getLogger(StatefulExecutionStrategy.class.getName());
 
+    /**
+     * Set to <code>true</code> to reuse one Drools session for many keys.
+     * After each key, its facts are retracted and the agenda cleared instead
+     * of disposing the session and creating a new one, which for keys with
+     * few facts is most of the per-key cost. By default, each key gets a new
+     * session.
+     */
+    static final String SYSTEM_PROPERTY_SESSION_REUSE = "protempa.executor.sessionreuse";
+
+    /**
+     * The default number of keys after which a reused session is disposed
+     * anyway, to bound whatever state a session accumulates that retracting
+     * facts does not release.
+     */
+    static final int MAX_SESSION_USES = 10000;
+
     private final Path databasePath;
     private DataStore<String, WorkingMemoryFactStore> dataStore;
     private WorkingMemoryDataStores workingMemoryDataStores;
@@ -60,9 +78,28 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
     private List<Proposition> propsToDelete;
     private final String databaseName;
     private final Path databaseDir;
+    private final boolean sessionReuse;
+    private final int maxSessionUses;
+    private int sessionUses;
+    private boolean sessionReusable;
 
     StatefulExecutionStrategy(AlgorithmSource algorithmSource, Query query) {
+        this(algorithmSource, query, MAX_SESSION_USES);
+    }
+
+    /**
+     * Creates an execution strategy that, if sessions are reused, disposes a
+     * session after the given number of keys.
+     *
+     * @param algorithmSource the {@link AlgorithmSource}.
+     * @param query the {@link Query}. Must have a database path.
+     * @param maxSessionUses the maximum number of keys per session. Must be
+     * positive.
+     */
+    StatefulExecutionStrategy(AlgorithmSource algorithmSource, Query query,
+            int maxSessionUses) {
         super(algorithmSource, query);
+        assert maxSessionUses > 0 : "maxSessionUses must be positive";
         assert query != null : "query cannot be null";
         String dbPath = query.getDatabasePath();
         assert dbPath != null : "query.getDatabasePath() cannot return a null value";
@@ -71,12 +108,14 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
         this.databaseName = this.databasePath.getFileName().toString();
         this.workingMemoryEventListener = new DeletedWorkingMemoryEventListener();
         this.propsToDelete = new ArrayList<>();
+        this.sessionReuse = Boolean.getBoolean(SYSTEM_PROPERTY_SESSION_REUSE);
+        this.maxSessionUses = maxSessionUses;
     }
 
     @Override
-    public void initialize(PropositionDefinitionCache cache) throws ExecutionStrategyInitializationException {
+    public void initialize(PropositionDefinitionCache cache, RuleBase ruleBase) throws ExecutionStrategyInitializationException {
         createDataStoreManager(cache);
-        super.initialize(cache);
+        super.initialize(cache, ruleBase);
         getOrCreateDataStore();
     }
 
@@ -86,17 +125,28 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
         updateWorkingMemory(keyId, objects);
         fireAllRules();
         cleanupAndPersistWorkingMemory(keyId);
+        this.sessionReusable = true;
         return getWorkingMemoryIterator();
     }
 
     @Override
     public void closeCurrentWorkingMemory() {
-        this.workingMemory.dispose();
+        if (this.workingMemory != null) {
+            if (!this.sessionReuse || !this.sessionReusable
+                    || this.sessionUses >= this.maxSessionUses
+                    || !resetWorkingMemory()) {
+                disposeWorkingMemory();
+            }
+        }
+        this.sessionReusable = false;
         this.propsToDelete = new ArrayList<>();
     }
 
     @Override
     public void shutdown() throws ExecutionStrategyShutdownException {
+        if (this.workingMemory != null) {
+            disposeWorkingMemory();
+        }
         ExecutionStrategyShutdownException exception1 = closeDataStore();
         ExecutionStrategyShutdownException exception2 = closeDataStoreManager();
         if (exception1 != null && exception2 != null) {
@@ -187,8 +237,7 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
             throw new ExecutionStrategyInitializationException(ex);
         }
         JBossRuleCreator ruleCreator = new JBossRuleCreator(
-                visitor.getAlgorithms(), getDerivationsBuilder(),
-                cache);
+                visitor.getAlgorithms(), cache);
         try {
             ruleCreator.visit(propDefs);
         } catch (ProtempaException ex) {
@@ -266,8 +315,24 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
     }
 
     private void createWorkingMemory(String keyId) {
-        this.workingMemory = getRuleBase().newStatefulSession(true);
+        if (this.workingMemory == null) {
+            this.workingMemory = getRuleBase().newStatefulSession(true);
+            this.sessionUses = 0;
+        } else {
+            /*
+             * A reused session must not see the previous key's derived
+             * unique id counts or combiner buffers.
+             */
+            this.workingMemory.setGlobal(WorkingMemoryGlobals.DERIVED_UNIQUE_ID_COUNTS, new HashMap<String, Integer>());
+            this.workingMemory.setGlobal(WorkingMemoryGlobals.COMBINER_SWEEP_BUFFERS, new HashMap<String, CombinerSweepBuffer>());
+        }
+        this.sessionUses++;
         this.workingMemory.setGlobal(WorkingMemoryGlobals.KEY_ID, keyId);
+        this.workingMemory.setGlobal(WorkingMemoryGlobals.DERIVATIONS_BUILDER, getDerivationsBuilder());
+        RuleProfiler ruleProfiler = getRuleProfiler();
+        if (ruleProfiler != null) {
+            this.workingMemory.setGlobal(WorkingMemoryGlobals.RULE_PROFILER, ruleProfiler);
+        }
         if (this.dataStore != null) {
             WorkingMemoryFactStore factStore = this.dataStore.get(keyId);
             if (factStore != null) {
@@ -279,6 +344,39 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
         }
     }
 
+    /**
+     * Prepares the current session for the next key by retracting its facts
+     * and clearing its agenda. Logically inserted facts may be retracted
+     * along with the facts that they depend on; Drools ignores retracting
+     * them again.
+     *
+     * @return <code>true</code> if the session was reset,
+     * <code>false</code> if resetting it failed and it should be disposed.
+     */
+    private boolean resetWorkingMemory() {
+        List<FactHandle> factHandles = new ArrayList<>();
+        for (Iterator<?> itr = this.workingMemory.iterateFactHandles();
+                itr.hasNext();) {
+            factHandles.add((FactHandle) itr.next());
+        }
+        try {
+            for (FactHandle factHandle : factHandles) {
+                this.workingMemory.retract(factHandle);
+            }
+        } catch (FactException ex) {
+            LOGGER.log(Level.WARNING,
+                    "Could not reset working memory for reuse", ex);
+            return false;
+        }
+        this.workingMemory.clearAgenda();
+        return true;
+    }
+
+    private void disposeWorkingMemory() {
+        this.workingMemory.dispose();
+        this.workingMemory = null;
+    }
+
     private void updateWorkingMemory(String keyId, Iterator<?> objects)
             throws FactException {
         if (objects != null) {
@@ -326,7 +424,7 @@ class StatefulExecutionStrategy extends AbstractExecutionStrategy {
         this.workingMemoryEventListener.clear();
         LOGGER.log(Level.FINEST,
                 "Persisting working memory for key ID {0}", keyId);
-        WorkingMemoryFactStore factStore = new WorkingMemoryFactStore();
+        WorkingMemoryFactStore factStore = this.workingMemoryDataStores.newFactStore();
         Set<Proposition> realPropsToDelete = new HashSet<>(this.propsToDelete);
         Map<Proposition, Set<Proposition>> forwardDerivationsCopy = new HashMap<>();
         for (Map.Entry<Proposition, Set<Proposition>> me : getDerivationsBuilder().getForwardDerivations().entrySet()) {
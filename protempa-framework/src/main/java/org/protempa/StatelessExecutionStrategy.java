@@ -25,6 +25,7 @@ import java.util.List;
 import org.apache.commons.collections4.iterators.IteratorChain;
 import org.arp.javautil.collections.Iterators;
 
+import org.drools.RuleBase;
 import org.drools.StatelessSession;
 import org.drools.StatelessSessionResult;
 import org.protempa.proposition.Proposition;
@@ -41,9 +42,14 @@ class StatelessExecutionStrategy extends AbstractExecutionStrategy {
     }
 
     @Override
-    public void initialize(PropositionDefinitionCache cache) throws ExecutionStrategyInitializationException {
-        super.initialize(cache);
+    public void initialize(PropositionDefinitionCache cache, RuleBase ruleBase) throws ExecutionStrategyInitializationException {
+        super.initialize(cache, ruleBase);
         this.statelessSession = getRuleBase().newStatelessSession();
+        this.statelessSession.setGlobal(WorkingMemoryGlobals.DERIVATIONS_BUILDER, getDerivationsBuilder());
+        RuleProfiler ruleProfiler = getRuleProfiler();
+        if (ruleProfiler != null) {
+            this.statelessSession.setGlobal(WorkingMemoryGlobals.RULE_PROFILER, ruleProfiler);
+        }
     }
 
     @Override
@@ -79,8 +85,7 @@ class StatelessExecutionStrategy extends AbstractExecutionStrategy {
             throw new ExecutionStrategyInitializationException(ex);
         }
         JBossRuleCreator ruleCreator = new JBossRuleCreator(
-                visitor.getAlgorithms(), getDerivationsBuilder(),
-                cache);
+                visitor.getAlgorithms(), cache);
         try {
             ruleCreator.visit(propDefs);
         } catch (ProtempaException ex) {
@@ -0,0 +1,352 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.protempa.metrics.WeightedQueue;
+
+/**
+ * A blocking queue that is bounded by the total weight of its elements, such
+ * as the number of propositions that they hold, rather than only by how many
+ * elements it holds. Producers block once the total weight reaches the high
+ * watermark, and stay blocked until consumers have brought it down to the
+ * low watermark, so that a full queue is not woken for every element taken.
+ * An element count limit also applies. An empty queue always accepts an
+ * element, however heavy, so that a single element heavier than the high
+ * watermark cannot block the queue forever.
+ *
+ * @author Andrew Post
+ * @param <E> the type of element.
+ */
+final class WeightedBlockingQueue<E> extends AbstractQueue<E>
+        implements BlockingQueue<E>, WeightedQueue {
+
+    /**
+     * Computes the weight of a queue element.
+     *
+     * @param <E> the type of element.
+     */
+    interface Weigher<E> {
+
+        /**
+         * @param element an element. Cannot be <code>null</code>.
+         * @return the element's weight, at least 0.
+         */
+        int weigh(E element);
+    }
+
+    private static final class Entry<E> {
+
+        final E element;
+        final int weight;
+
+        Entry(E element, int weight) {
+            this.element = element;
+            this.weight = weight;
+        }
+    }
+
+    private final Weigher<? super E> weigher;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final int maxElements;
+    private final ArrayDeque<Entry<E>> entries;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private long weight;
+    private boolean full;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param weigher computes the weight of each element.
+     * @param highWatermark the total weight at which producers block.
+     * @param lowWatermark the total weight at which blocked producers
+     * resume. Cannot be greater than <code>highWatermark</code>.
+     * @param maxElements the maximum number of elements.
+     */
+    WeightedBlockingQueue(Weigher<? super E> weigher, long highWatermark,
+            long lowWatermark, int maxElements) {
+        if (weigher == null) {
+            throw new IllegalArgumentException("weigher cannot be null");
+        }
+        if (highWatermark < 1) {
+            throw new IllegalArgumentException("highWatermark must be > 0");
+        }
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException(
+                    "lowWatermark must be between 0 and highWatermark");
+        }
+        if (maxElements < 1) {
+            throw new IllegalArgumentException("maxElements must be > 0");
+        }
+        this.weigher = weigher;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.maxElements = maxElements;
+        this.entries = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = this.lock.newCondition();
+        this.notFull = this.lock.newCondition();
+    }
+
+    @Override
+    public long getWeight() {
+        this.lock.lock();
+        try {
+            return this.weight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public long getHighWatermark() {
+        return this.highWatermark;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        checkNotNull(e);
+        int w = this.weigher.weigh(e);
+        this.lock.lockInterruptibly();
+        try {
+            while (!admits()) {
+                this.notFull.await();
+            }
+            enqueue(e, w);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        checkNotNull(e);
+        int w = this.weigher.weigh(e);
+        this.lock.lock();
+        try {
+            if (!admits()) {
+                return false;
+            }
+            enqueue(e, w);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        checkNotNull(e);
+        int w = this.weigher.weigh(e);
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (!admits()) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+            enqueue(e, w);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.entries.isEmpty()) {
+                this.notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll() {
+        this.lock.lock();
+        try {
+            return this.entries.isEmpty() ? null : dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.entries.isEmpty()) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public E peek() {
+        this.lock.lock();
+        try {
+            Entry<E> entry = this.entries.peekFirst();
+            return entry != null ? entry.element : null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        this.lock.lock();
+        try {
+            return this.maxElements - this.entries.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.entries.clear();
+            this.weight = 0L;
+            this.full = false;
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        this.lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && !this.entries.isEmpty()) {
+                c.add(dequeue());
+                n++;
+            }
+            return n;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queue's elements, which
+     * does not support removal.
+     *
+     * @return an {@link Iterator}.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        this.lock.lock();
+        try {
+            List<E> snapshot = new ArrayList<>(this.entries.size());
+            for (Entry<E> entry : this.entries) {
+                snapshot.add(entry.element);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean admits() {
+        if (this.entries.isEmpty()) {
+            return true;
+        }
+        return !this.full && this.entries.size() < this.maxElements;
+    }
+
+    private void enqueue(E e, int w) {
+        this.entries.addLast(new Entry<>(e, w));
+        this.weight += w;
+        if (this.weight >= this.highWatermark) {
+            this.full = true;
+        }
+        this.notEmpty.signal();
+    }
+
+    private E dequeue() {
+        Entry<E> entry = this.entries.removeFirst();
+        this.weight -= entry.weight;
+        if (this.full && (this.weight <= this.lowWatermark
+                || this.entries.isEmpty())) {
+            this.full = false;
+            this.notFull.signalAll();
+        } else if (!this.full) {
+            this.notFull.signal();
+        }
+        return entry.element;
+    }
+
+    private static void checkNotNull(Object e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+    }
+}
@@ -19,6 +19,9 @@ package org.protempa;
  * limitations under the License.
  * #L%
  */
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -30,10 +33,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.arp.javautil.arrays.Arrays;
+import org.protempa.datastore.WorkingMemoryFactStoreCodec;
 import org.protempa.proposition.Proposition;
 
 /**
+ * The propositions and derivations of a key that are persisted between
+ * stateful executions. A fact store that is created with a
+ * {@link WorkingMemoryFactStoreCodec} is serialized as the codec's encoding
+ * of it rather than with default Java serialization. Fact stores that were
+ * serialized without a codec can still be read.
  *
  * @author Andrew Post
  */
@@ -41,10 +52,31 @@ public class WorkingMemoryFactStore implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final ConcurrentMap<String, WorkingMemoryFactStoreCodec> CODECS =
+            new ConcurrentHashMap<>();
+
     private List<Proposition> propositions;
     private Map<Proposition, Set<Proposition>> forwardDerivations;
     private Map<Proposition, Set<Proposition>> backwardDerivations;
     private Map<String, Integer> instanceNums;
+    private transient WorkingMemoryFactStoreCodec codec;
+
+    /**
+     * Creates a fact store that is serialized with default Java
+     * serialization.
+     */
+    public WorkingMemoryFactStore() {
+    }
+
+    /**
+     * Creates a fact store that is serialized with the given codec.
+     *
+     * @param codec a {@link WorkingMemoryFactStoreCodec}, or
+     * <code>null</code> to use default Java serialization.
+     */
+    public WorkingMemoryFactStore(WorkingMemoryFactStoreCodec codec) {
+        this.codec = codec;
+    }
 
     public List<Proposition> getPropositions() {
         return propositions;
@@ -156,4 +188,65 @@ public class WorkingMemoryFactStore implements Serializable {
         return removedProps;
     }
 
+    private Object writeReplace() throws ObjectStreamException {
+        if (this.codec == null) {
+            return this;
+        }
+        try {
+            return new EncodedFactStore(this.codec.getClass().getName(),
+                    this.codec.encode(this));
+        } catch (IOException ex) {
+            InvalidObjectException ioe = new InvalidObjectException(
+                    "Error encoding fact store");
+            ioe.initCause(ex);
+            throw ioe;
+        }
+    }
+
+    /**
+     * The serialized form of a fact store that has a codec.
+     */
+    private static final class EncodedFactStore implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String codecClassName;
+        private final byte[] bytes;
+
+        EncodedFactStore(String codecClassName, byte[] bytes) {
+            this.codecClassName = codecClassName;
+            this.bytes = bytes;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                WorkingMemoryFactStoreCodec c = CODECS.get(this.codecClassName);
+                if (c == null) {
+                    Class<?> cls = Class.forName(this.codecClassName, false,
+                            WorkingMemoryFactStore.class.getClassLoader());
+                    if (!WorkingMemoryFactStoreCodec.class.isAssignableFrom(cls)) {
+                        throw new InvalidObjectException("Fact store codec "
+                                + this.codecClassName + " does not implement "
+                                + WorkingMemoryFactStoreCodec.class.getName());
+                    }
+                    c = cls.asSubclass(WorkingMemoryFactStoreCodec.class)
+                            .getDeclaredConstructor().newInstance();
+                    WorkingMemoryFactStoreCodec old = CODECS.putIfAbsent(this.codecClassName, c);
+                    if (old != null) {
+                        c = old;
+                    }
+                }
+                WorkingMemoryFactStore result = c.decode(this.bytes);
+                result.codec = c;
+                return result;
+            } catch (InvalidObjectException ex) {
+                throw ex;
+            } catch (IOException | ReflectiveOperationException ex) {
+                InvalidObjectException ioe = new InvalidObjectException(
+                        "Error decoding fact store with codec " + this.codecClassName);
+                ioe.initCause(ex);
+                throw ioe;
+            }
+        }
+    }
 }
@@ -20,7 +20,9 @@ package org.protempa;
  * #L%
  */
 
+import java.util.HashMap;
 import java.util.Map;
+import org.drools.WorkingMemory;
 import org.drools.rule.Package;
 
 /**
@@ -32,11 +34,71 @@ class WorkingMemoryGlobals {
     static void addAll(Package rules) {
         rules.addGlobal(KEY_ID, String.class);
         rules.addGlobal(DERIVED_UNIQUE_ID_COUNTS, Map.class);
+        rules.addGlobal(DERIVATIONS_BUILDER, DerivationsBuilder.class);
+        rules.addGlobal(COMBINER_SWEEP_BUFFERS, Map.class);
+        rules.addGlobal(RULE_PROFILER, RuleProfiler.class);
     }
     private WorkingMemoryGlobals() {}
     
+    /**
+     * Gets the derivations builder of the current session. Consequences look
+     * it up per firing rather than holding a reference so that one rule base
+     * can back sessions running on different threads.
+     * 
+     * @param workingMemory the current {@link WorkingMemory}.
+     * @return the session's {@link DerivationsBuilder}.
+     */
+    static DerivationsBuilder getDerivationsBuilder(WorkingMemory workingMemory) {
+        return (DerivationsBuilder) workingMemory.getGlobal(DERIVATIONS_BUILDER);
+    }
+    
+    /**
+     * Gets the session's buffer of propositions of the given abstraction or
+     * context definition for the sort-and-sweep combiner. Stateless sessions
+     * share globals between executions, so a buffer that belongs to another
+     * working memory is replaced.
+     * 
+     * @param workingMemory the current {@link WorkingMemory}.
+     * @param propId the id of the abstraction or context definition.
+     * @return the {@link CombinerSweepBuffer}.
+     */
+    static CombinerSweepBuffer getCombinerSweepBuffer(
+            WorkingMemory workingMemory, String propId) {
+        @SuppressWarnings("unchecked")
+        Map<String, CombinerSweepBuffer> buffers
+                = (Map<String, CombinerSweepBuffer>) workingMemory.getGlobal(
+                        COMBINER_SWEEP_BUFFERS);
+        if (buffers == null) {
+            buffers = new HashMap<>();
+            workingMemory.setGlobal(COMBINER_SWEEP_BUFFERS, buffers);
+        }
+        CombinerSweepBuffer buffer = buffers.get(propId);
+        if (buffer == null || buffer.getWorkingMemory() != workingMemory) {
+            buffer = new CombinerSweepBuffer(propId, workingMemory);
+            buffers.put(propId, buffer);
+        }
+        return buffer;
+    }
+    
+    /**
+     * Gets the rule profiler of the current session.
+     * 
+     * @param workingMemory the current {@link WorkingMemory}.
+     * @return the session's {@link RuleProfiler}, or <code>null</code> if
+     * rules are not being profiled.
+     */
+    static RuleProfiler getRuleProfiler(WorkingMemory workingMemory) {
+        return (RuleProfiler) workingMemory.getGlobal(RULE_PROFILER);
+    }
+    
     static final String KEY_ID = "keyId";
     
     static final String DERIVED_UNIQUE_ID_COUNTS = "derivedUniqueIdCounts";
     
+    static final String DERIVATIONS_BUILDER = "derivationsBuilder";
+    
+    static final String COMBINER_SWEEP_BUFFERS = "combinerSweepBuffers";
+    
+    static final String RULE_PROFILER = "ruleProfiler";
+    
 }
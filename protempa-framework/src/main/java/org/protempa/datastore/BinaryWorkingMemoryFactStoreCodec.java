@@ -0,0 +1,999 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.datastore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.protempa.DataSourceBackendSourceSystem;
+import org.protempa.SourceSystem;
+import org.protempa.WorkingMemoryFactStore;
+import org.protempa.proposition.AbstractParameter;
+import org.protempa.proposition.AbstractProposition;
+import org.protempa.proposition.Constant;
+import org.protempa.proposition.Context;
+import org.protempa.proposition.DataSourceBackendId;
+import org.protempa.proposition.DerivedSourceId;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.LocalUniqueId;
+import org.protempa.proposition.LocalUniqueIdValuesProvider;
+import org.protempa.proposition.PrimitiveParameter;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.ProviderBasedLocalUniqueId;
+import org.protempa.proposition.SourceId;
+import org.protempa.proposition.TemporalProposition;
+import org.protempa.proposition.UniqueId;
+import org.protempa.proposition.interval.Interval;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.interval.SimpleInterval;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.proposition.value.BooleanValue;
+import org.protempa.proposition.value.DateValue;
+import org.protempa.proposition.value.Granularity;
+import org.protempa.proposition.value.InequalityNumberValue;
+import org.protempa.proposition.value.NominalValue;
+import org.protempa.proposition.value.NumberValue;
+import org.protempa.proposition.value.RelativeDayGranularity;
+import org.protempa.proposition.value.RelativeHourGranularity;
+import org.protempa.proposition.value.Value;
+import org.protempa.proposition.value.ValueComparator;
+import org.protempa.proposition.value.ValueList;
+
+/**
+ * A compact binary {@link WorkingMemoryFactStoreCodec}. An encoded fact
+ * store starts with a format version and a table of the strings that it
+ * uses (proposition ids, property and reference names, source ids, nominal
+ * values and the like), followed by a table of its propositions. The
+ * proposition list and the derivation maps refer to propositions by their
+ * position in that table, and numbers and timestamps are written as
+ * variable-length integers. Propositions, values, local unique ids,
+ * granularities and source systems that this codec does not know about are
+ * written with Java serialization.
+ *
+ * @author Andrew Post
+ */
+public final class BinaryWorkingMemoryFactStoreCodec
+        implements WorkingMemoryFactStoreCodec {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int SERIALIZED = 0;
+
+    private static final int EVENT = 1;
+    private static final int PRIMITIVE_PARAMETER = 2;
+    private static final int ABSTRACT_PARAMETER = 3;
+    private static final int CONSTANT = 4;
+    private static final int CONTEXT = 5;
+
+    private static final int NULL_VALUE = 1;
+    private static final int NOMINAL_VALUE = 2;
+    private static final int NUMBER_VALUE = 3;
+    private static final int INEQUALITY_NUMBER_VALUE = 4;
+    private static final int BOOLEAN_VALUE = 5;
+    private static final int DATE_VALUE = 6;
+    private static final int VALUE_LIST = 7;
+
+    private static final int DERIVED_SOURCE_ID = 1;
+    private static final int DATA_SOURCE_BACKEND_ID = 2;
+
+    private static final int PROVIDER_BASED_LOCAL_UNIQUE_ID = 1;
+
+    private static final int UNKNOWN_SOURCE_SYSTEM = 1;
+    private static final int DERIVED_SOURCE_SYSTEM = 2;
+    private static final int DATA_SOURCE_BACKEND_SOURCE_SYSTEM = 3;
+
+    private static final int POINT_INTERVAL = 0;
+    private static final int SIMPLE_INTERVAL = 1;
+    private static final int INTERVAL = 2;
+
+    /**
+     * Granularities that are written as their position in this array plus
+     * one. Zero is <code>null</code>, and the array length plus one means
+     * the granularity is serialized.
+     */
+    private static final Granularity[] GRANULARITIES = {
+        AbsoluteTimeGranularity.SECOND, AbsoluteTimeGranularity.MINUTE,
+        AbsoluteTimeGranularity.HOUR, AbsoluteTimeGranularity.DAY,
+        AbsoluteTimeGranularity.MONTH, AbsoluteTimeGranularity.YEAR,
+        RelativeDayGranularity.DAY, RelativeHourGranularity.HOUR
+    };
+
+    private static final IntervalFactory INTERVAL_FACTORY =
+            new IntervalFactory();
+
+    @Override
+    public byte[] encode(WorkingMemoryFactStore factStore) throws IOException {
+        if (factStore == null) {
+            throw new IllegalArgumentException("factStore cannot be null");
+        }
+        Encoder encoder = new Encoder();
+        encoder.writeFactStore(factStore);
+        return encoder.toByteArray();
+    }
+
+    @Override
+    public WorkingMemoryFactStore decode(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            throw new IllegalArgumentException("bytes cannot be null");
+        }
+        return new Decoder(bytes).readFactStore();
+    }
+
+    private static final class Encoder {
+
+        private final Map<String, Integer> stringIndices;
+        private final List<String> strings;
+        private final Map<Proposition, Integer> propositionIndices;
+        private final List<Proposition> propositions;
+        private final Output out;
+
+        Encoder() {
+            this.stringIndices = new HashMap<>();
+            this.strings = new ArrayList<>();
+            this.propositionIndices = new IdentityHashMap<>();
+            this.propositions = new ArrayList<>();
+            this.out = new Output();
+        }
+
+        void writeFactStore(WorkingMemoryFactStore factStore)
+                throws IOException {
+            List<Proposition> props = factStore.getPropositions();
+            Map<Proposition, Set<Proposition>> forwardDerivations =
+                    factStore.getForwardDerivations();
+            Map<Proposition, Set<Proposition>> backwardDerivations =
+                    factStore.getBackwardDerivations();
+            if (props != null) {
+                addPropositions(props);
+            }
+            addDerivedPropositions(forwardDerivations);
+            addDerivedPropositions(backwardDerivations);
+
+            this.out.writeVarInt(this.propositions.size());
+            for (Proposition prop : this.propositions) {
+                writeProposition(prop);
+            }
+            if (props == null) {
+                this.out.writeVarInt(0);
+            } else {
+                this.out.writeVarInt(props.size() + 1);
+                for (Proposition prop : props) {
+                    writePropositionReference(prop);
+                }
+            }
+            writeDerivations(forwardDerivations);
+            writeDerivations(backwardDerivations);
+            writeInstanceNums(factStore.getInstanceNums());
+        }
+
+        byte[] toByteArray() {
+            Output result = new Output();
+            result.write(FORMAT_VERSION);
+            result.writeVarInt(this.strings.size());
+            for (String str : this.strings) {
+                result.writeByteArray(str.getBytes(StandardCharsets.UTF_8));
+            }
+            this.out.writeTo(result);
+            return result.toByteArray();
+        }
+
+        private void addPropositions(Iterable<Proposition> props) {
+            for (Proposition prop : props) {
+                addProposition(prop);
+            }
+        }
+
+        private void addProposition(Proposition prop) {
+            if (prop != null && !this.propositionIndices.containsKey(prop)) {
+                this.propositionIndices.put(prop, this.propositions.size());
+                this.propositions.add(prop);
+            }
+        }
+
+        private void addDerivedPropositions(
+                Map<Proposition, Set<Proposition>> derivations) {
+            if (derivations != null) {
+                for (Map.Entry<Proposition, Set<Proposition>> me
+                        : derivations.entrySet()) {
+                    addProposition(me.getKey());
+                    Set<Proposition> values = me.getValue();
+                    if (values != null) {
+                        addPropositions(values);
+                    }
+                }
+            }
+        }
+
+        private void writeDerivations(
+                Map<Proposition, Set<Proposition>> derivations)
+                throws IOException {
+            if (derivations == null) {
+                this.out.writeVarInt(0);
+                return;
+            }
+            this.out.writeVarInt(derivations.size() + 1);
+            for (Map.Entry<Proposition, Set<Proposition>> me
+                    : derivations.entrySet()) {
+                writePropositionReference(me.getKey());
+                Set<Proposition> values = me.getValue();
+                if (values == null) {
+                    this.out.writeVarInt(0);
+                } else {
+                    this.out.writeVarInt(values.size() + 1);
+                    for (Proposition prop : values) {
+                        writePropositionReference(prop);
+                    }
+                }
+            }
+        }
+
+        private void writeInstanceNums(Map<String, Integer> instanceNums) {
+            if (instanceNums == null) {
+                this.out.writeVarInt(0);
+                return;
+            }
+            this.out.writeVarInt(instanceNums.size() + 1);
+            for (Map.Entry<String, Integer> me : instanceNums.entrySet()) {
+                writeString(me.getKey());
+                Integer num = me.getValue();
+                if (num == null) {
+                    this.out.writeVarInt(0);
+                } else {
+                    this.out.writeVarInt(1);
+                    this.out.writeSignedVarLong(num);
+                }
+            }
+        }
+
+        private void writePropositionReference(Proposition prop) {
+            if (prop == null) {
+                this.out.writeVarInt(0);
+            } else {
+                this.out.writeVarInt(this.propositionIndices.get(prop) + 1);
+            }
+        }
+
+        private void writeProposition(Proposition prop) throws IOException {
+            Class<?> cls = prop.getClass();
+            int type;
+            if (cls == Event.class) {
+                type = EVENT;
+            } else if (cls == PrimitiveParameter.class) {
+                type = PRIMITIVE_PARAMETER;
+            } else if (cls == AbstractParameter.class) {
+                type = ABSTRACT_PARAMETER;
+            } else if (cls == Constant.class) {
+                type = CONSTANT;
+            } else if (cls == Context.class) {
+                type = CONTEXT;
+            } else {
+                this.out.writeVarInt(SERIALIZED);
+                writeSerialized(prop);
+                return;
+            }
+            this.out.writeVarInt(type);
+            AbstractProposition abstractProp = (AbstractProposition) prop;
+            writeString(abstractProp.getId());
+            writeUniqueId(abstractProp.getUniqueId());
+            String[] propertyNames = abstractProp.getPropertyNames();
+            this.out.writeVarInt(propertyNames.length);
+            for (String propertyName : propertyNames) {
+                writeString(propertyName);
+                writeValue(abstractProp.getProperty(propertyName));
+            }
+            String[] referenceNames = abstractProp.getReferenceNames();
+            this.out.writeVarInt(referenceNames.length);
+            for (String referenceName : referenceNames) {
+                writeString(referenceName);
+                List<UniqueId> refs = abstractProp.getReferences(referenceName);
+                this.out.writeVarInt(refs.size());
+                for (UniqueId uid : refs) {
+                    writeUniqueId(uid);
+                }
+            }
+            writeSourceSystem(abstractProp.getSourceSystem());
+            writeDates(abstractProp.getCreateDate(),
+                    abstractProp.getUpdateDate(), abstractProp.getDeleteDate(),
+                    abstractProp.getDownloadDate());
+            switch (type) {
+                case EVENT:
+                case CONTEXT:
+                    writeInterval(((TemporalProposition) prop).getInterval());
+                    break;
+                case PRIMITIVE_PARAMETER:
+                    PrimitiveParameter pp = (PrimitiveParameter) prop;
+                    writeNullableLong(pp.getPosition());
+                    writeGranularity(pp.getGranularity());
+                    writeValue(pp.getValue());
+                    break;
+                case ABSTRACT_PARAMETER:
+                    AbstractParameter ap = (AbstractParameter) prop;
+                    writeInterval(ap.getInterval());
+                    writeValue(ap.getValue());
+                    writeString(ap.getContextId());
+                    break;
+                default:
+            }
+        }
+
+        private void writeUniqueId(UniqueId uid) throws IOException {
+            SourceId sourceId = uid.getSourceId();
+            if (sourceId instanceof DerivedSourceId) {
+                this.out.writeVarInt(DERIVED_SOURCE_ID);
+            } else if (sourceId instanceof DataSourceBackendId) {
+                this.out.writeVarInt(DATA_SOURCE_BACKEND_ID);
+                writeString(((DataSourceBackendId) sourceId).getId());
+            } else {
+                this.out.writeVarInt(SERIALIZED);
+                writeSerialized(uid);
+                return;
+            }
+            LocalUniqueId localUniqueId = uid.getLocalUniqueId();
+            if (localUniqueId.getClass() == ProviderBasedLocalUniqueId.class) {
+                this.out.writeVarInt(PROVIDER_BASED_LOCAL_UNIQUE_ID);
+                writeString(localUniqueId.getId());
+                this.out.writeSignedVarLong(localUniqueId.getNumericalId());
+            } else {
+                this.out.writeVarInt(SERIALIZED);
+                writeSerialized(localUniqueId);
+            }
+        }
+
+        private void writeSourceSystem(SourceSystem sourceSystem)
+                throws IOException {
+            if (sourceSystem == SourceSystem.UNKNOWN) {
+                this.out.writeVarInt(UNKNOWN_SOURCE_SYSTEM);
+            } else if (sourceSystem == SourceSystem.DERIVED) {
+                this.out.writeVarInt(DERIVED_SOURCE_SYSTEM);
+            } else if (sourceSystem instanceof DataSourceBackendSourceSystem) {
+                this.out.writeVarInt(DATA_SOURCE_BACKEND_SOURCE_SYSTEM);
+                writeString(
+                        ((DataSourceBackendSourceSystem) sourceSystem).getId());
+            } else {
+                this.out.writeVarInt(SERIALIZED);
+                writeSerialized(sourceSystem);
+            }
+        }
+
+        private void writeDates(Date... dates) {
+            int mask = 0;
+            for (int i = 0; i < dates.length; i++) {
+                if (dates[i] != null) {
+                    mask |= 1 << i;
+                }
+            }
+            this.out.writeVarInt(mask);
+            for (Date date : dates) {
+                if (date != null) {
+                    this.out.writeSignedVarLong(date.getTime());
+                }
+            }
+        }
+
+        private void writeInterval(Interval interval) throws IOException {
+            Long minStart = interval.getMinStart();
+            Long minFinish = interval.getMinFinish();
+            Granularity startGran = interval.getStartGranularity();
+            Granularity finishGran = interval.getFinishGranularity();
+            if (interval instanceof SimpleInterval && minStart != null
+                    && minFinish != null) {
+                long start = minStart;
+                long finish = minFinish;
+                if (start == finish && startGran == finishGran) {
+                    this.out.writeVarInt(POINT_INTERVAL);
+                    this.out.writeSignedVarLong(start);
+                    writeGranularity(startGran);
+                } else {
+                    this.out.writeVarInt(SIMPLE_INTERVAL);
+                    this.out.writeSignedVarLong(start);
+                    writeGranularity(startGran);
+                    this.out.writeSignedVarLong(finish - start);
+                    writeGranularity(finishGran);
+                }
+            } else {
+                this.out.writeVarInt(INTERVAL);
+                writeNullableLong(minStart);
+                writeNullableLong(interval.getMaxStart());
+                writeGranularity(startGran);
+                writeNullableLong(minFinish);
+                writeNullableLong(interval.getMaxFinish());
+                writeGranularity(finishGran);
+            }
+        }
+
+        private void writeGranularity(Granularity gran) throws IOException {
+            if (gran == null) {
+                this.out.writeVarInt(0);
+                return;
+            }
+            for (int i = 0; i < GRANULARITIES.length; i++) {
+                if (GRANULARITIES[i] == gran) {
+                    this.out.writeVarInt(i + 1);
+                    return;
+                }
+            }
+            this.out.writeVarInt(GRANULARITIES.length + 1);
+            writeSerialized(gran);
+        }
+
+        private void writeValue(Value value) throws IOException {
+            if (value == null) {
+                this.out.writeVarInt(NULL_VALUE);
+                return;
+            }
+            Class<?> cls = value.getClass();
+            if (cls == NominalValue.class) {
+                this.out.writeVarInt(NOMINAL_VALUE);
+                writeString(((NominalValue) value).getString());
+            } else if (cls == NumberValue.class) {
+                this.out.writeVarInt(NUMBER_VALUE);
+                writeBigDecimal(((NumberValue) value).getBigDecimal());
+            } else if (cls == InequalityNumberValue.class) {
+                InequalityNumberValue inv = (InequalityNumberValue) value;
+                this.out.writeVarInt(INEQUALITY_NUMBER_VALUE);
+                this.out.writeVarInt(inv.getComparator().ordinal());
+                writeBigDecimal(inv.getBigDecimal());
+            } else if (cls == BooleanValue.class) {
+                this.out.writeVarInt(BOOLEAN_VALUE);
+                this.out.writeVarInt(
+                        ((BooleanValue) value).getBoolean() ? 1 : 0);
+            } else if (cls == DateValue.class
+                    && ((DateValue) value).getDate() != null) {
+                this.out.writeVarInt(DATE_VALUE);
+                this.out.writeSignedVarLong(
+                        ((DateValue) value).getDate().getTime());
+            } else if (cls == ValueList.class) {
+                ValueList<?> valueList = (ValueList<?>) value;
+                this.out.writeVarInt(VALUE_LIST);
+                this.out.writeVarInt(valueList.size());
+                for (Value val : valueList) {
+                    writeValue(val);
+                }
+            } else {
+                this.out.writeVarInt(SERIALIZED);
+                writeSerialized(value);
+            }
+        }
+
+        private void writeBigDecimal(BigDecimal bigDecimal) {
+            this.out.writeSignedVarLong(bigDecimal.scale());
+            BigInteger unscaled = bigDecimal.unscaledValue();
+            if (unscaled.bitLength() < 64) {
+                this.out.writeVarInt(0);
+                this.out.writeSignedVarLong(unscaled.longValue());
+            } else {
+                this.out.writeVarInt(1);
+                this.out.writeByteArray(unscaled.toByteArray());
+            }
+        }
+
+        private void writeNullableLong(Long l) {
+            if (l == null) {
+                this.out.writeVarInt(0);
+            } else {
+                this.out.writeVarInt(1);
+                this.out.writeSignedVarLong(l);
+            }
+        }
+
+        private void writeString(String str) {
+            if (str == null) {
+                this.out.writeVarInt(0);
+                return;
+            }
+            Integer index = this.stringIndices.get(str);
+            if (index == null) {
+                index = this.strings.size();
+                this.stringIndices.put(str, index);
+                this.strings.add(str);
+            }
+            this.out.writeVarInt(index + 1);
+        }
+
+        private void writeSerialized(Object obj) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(obj);
+            }
+            this.out.writeByteArray(bytes.toByteArray());
+        }
+    }
+
+    private static final class Decoder {
+
+        private final Input in;
+        private String[] strings;
+        private Proposition[] propositions;
+
+        Decoder(byte[] bytes) {
+            this.in = new Input(bytes);
+        }
+
+        WorkingMemoryFactStore readFactStore() throws IOException {
+            int version = this.in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new StreamCorruptedException(
+                        "Unsupported working memory fact store format version "
+                        + version);
+            }
+            this.strings = new String[this.in.readVarInt()];
+            for (int i = 0; i < this.strings.length; i++) {
+                this.strings[i] = new String(this.in.readBytes(),
+                        StandardCharsets.UTF_8);
+            }
+            this.propositions = new Proposition[this.in.readVarInt()];
+            for (int i = 0; i < this.propositions.length; i++) {
+                this.propositions[i] = readProposition();
+            }
+            WorkingMemoryFactStore factStore = new WorkingMemoryFactStore();
+            int numProps = this.in.readVarInt();
+            if (numProps > 0) {
+                List<Proposition> props = new ArrayList<>(numProps - 1);
+                for (int i = 1; i < numProps; i++) {
+                    props.add(readPropositionReference());
+                }
+                factStore.setPropositions(props);
+            }
+            factStore.setForwardDerivations(readDerivations());
+            factStore.setBackwardDerivations(readDerivations());
+            factStore.setInstanceNums(readInstanceNums());
+            return factStore;
+        }
+
+        private Map<Proposition, Set<Proposition>> readDerivations()
+                throws IOException {
+            int size = this.in.readVarInt();
+            if (size == 0) {
+                return null;
+            }
+            Map<Proposition, Set<Proposition>> result = new HashMap<>();
+            for (int i = 1; i < size; i++) {
+                Proposition key = readPropositionReference();
+                int numValues = this.in.readVarInt();
+                Set<Proposition> values;
+                if (numValues == 0) {
+                    values = null;
+                } else {
+                    values = new HashSet<>();
+                    for (int j = 1; j < numValues; j++) {
+                        values.add(readPropositionReference());
+                    }
+                }
+                result.put(key, values);
+            }
+            return result;
+        }
+
+        private Map<String, Integer> readInstanceNums() throws IOException {
+            int size = this.in.readVarInt();
+            if (size == 0) {
+                return null;
+            }
+            Map<String, Integer> result = new HashMap<>();
+            for (int i = 1; i < size; i++) {
+                String key = readString();
+                if (this.in.readVarInt() == 0) {
+                    result.put(key, null);
+                } else {
+                    result.put(key, (int) this.in.readSignedVarLong());
+                }
+            }
+            return result;
+        }
+
+        private Proposition readPropositionReference() throws IOException {
+            int index = this.in.readVarInt();
+            if (index == 0) {
+                return null;
+            }
+            if (index > this.propositions.length) {
+                throw new StreamCorruptedException(
+                        "Invalid proposition reference " + index);
+            }
+            return this.propositions[index - 1];
+        }
+
+        private Proposition readProposition() throws IOException {
+            int type = this.in.readVarInt();
+            if (type == SERIALIZED) {
+                return (Proposition) readSerialized();
+            }
+            String id = readString();
+            UniqueId uniqueId = readUniqueId();
+            AbstractProposition prop;
+            switch (type) {
+                case EVENT:
+                    prop = new Event(id, uniqueId);
+                    break;
+                case PRIMITIVE_PARAMETER:
+                    prop = new PrimitiveParameter(id, uniqueId);
+                    break;
+                case ABSTRACT_PARAMETER:
+                    prop = new AbstractParameter(id, uniqueId);
+                    break;
+                case CONSTANT:
+                    prop = new Constant(id, uniqueId);
+                    break;
+                case CONTEXT:
+                    prop = new Context(id, uniqueId);
+                    break;
+                default:
+                    throw new StreamCorruptedException(
+                            "Invalid proposition type " + type);
+            }
+            int numProperties = this.in.readVarInt();
+            for (int i = 0; i < numProperties; i++) {
+                String propertyName = readString();
+                prop.setProperty(propertyName, readValue());
+            }
+            int numReferences = this.in.readVarInt();
+            for (int i = 0; i < numReferences; i++) {
+                String referenceName = readString();
+                int numUids = this.in.readVarInt();
+                List<UniqueId> uids = new ArrayList<>(numUids);
+                for (int j = 0; j < numUids; j++) {
+                    uids.add(readUniqueId());
+                }
+                prop.setReferences(referenceName, uids);
+            }
+            prop.setSourceSystem(readSourceSystem());
+            int dateMask = this.in.readVarInt();
+            prop.setCreateDate(readDate(dateMask, 0));
+            prop.setUpdateDate(readDate(dateMask, 1));
+            prop.setDeleteDate(readDate(dateMask, 2));
+            prop.setDownloadDate(readDate(dateMask, 3));
+            switch (type) {
+                case EVENT:
+                    ((Event) prop).setInterval(readInterval());
+                    break;
+                case CONTEXT:
+                    ((Context) prop).setInterval(readInterval());
+                    break;
+                case PRIMITIVE_PARAMETER:
+                    PrimitiveParameter pp = (PrimitiveParameter) prop;
+                    pp.setPosition(readNullableLong());
+                    pp.setGranularity(readGranularity());
+                    pp.setValue(readValue());
+                    break;
+                case ABSTRACT_PARAMETER:
+                    AbstractParameter ap = (AbstractParameter) prop;
+                    ap.setInterval(readInterval());
+                    ap.setValue(readValue());
+                    ap.setContextId(readString());
+                    break;
+                default:
+            }
+            return prop;
+        }
+
+        private UniqueId readUniqueId() throws IOException {
+            SourceId sourceId;
+            int sourceIdType = this.in.readVarInt();
+            switch (sourceIdType) {
+                case SERIALIZED:
+                    return (UniqueId) readSerialized();
+                case DERIVED_SOURCE_ID:
+                    sourceId = DerivedSourceId.getInstance();
+                    break;
+                case DATA_SOURCE_BACKEND_ID:
+                    sourceId = DataSourceBackendId.getInstance(readString());
+                    break;
+                default:
+                    throw new StreamCorruptedException(
+                            "Invalid source id type " + sourceIdType);
+            }
+            LocalUniqueId localUniqueId;
+            int localUniqueIdType = this.in.readVarInt();
+            switch (localUniqueIdType) {
+                case SERIALIZED:
+                    localUniqueId = (LocalUniqueId) readSerialized();
+                    break;
+                case PROVIDER_BASED_LOCAL_UNIQUE_ID:
+                    final String id = readString();
+                    final int numericalId = (int) this.in.readSignedVarLong();
+                    localUniqueId = new ProviderBasedLocalUniqueId(
+                            new LocalUniqueIdValuesProvider() {
+
+                        @Override
+                        public void incr() {
+                        }
+
+                        @Override
+                        public String getId() {
+                            return id;
+                        }
+
+                        @Override
+                        public int getNumericalId() {
+                            return numericalId;
+                        }
+                    });
+                    break;
+                default:
+                    throw new StreamCorruptedException(
+                            "Invalid local unique id type "
+                            + localUniqueIdType);
+            }
+            return new UniqueId(sourceId, localUniqueId);
+        }
+
+        private SourceSystem readSourceSystem() throws IOException {
+            int type = this.in.readVarInt();
+            switch (type) {
+                case SERIALIZED:
+                    return (SourceSystem) readSerialized();
+                case UNKNOWN_SOURCE_SYSTEM:
+                    return SourceSystem.UNKNOWN;
+                case DERIVED_SOURCE_SYSTEM:
+                    return SourceSystem.DERIVED;
+                case DATA_SOURCE_BACKEND_SOURCE_SYSTEM:
+                    return DataSourceBackendSourceSystem.getInstance(
+                            readString());
+                default:
+                    throw new StreamCorruptedException(
+                            "Invalid source system type " + type);
+            }
+        }
+
+        private Date readDate(int mask, int i) throws IOException {
+            if ((mask & (1 << i)) == 0) {
+                return null;
+            }
+            return new Date(this.in.readSignedVarLong());
+        }
+
+        private Interval readInterval() throws IOException {
+            int type = this.in.readVarInt();
+            switch (type) {
+                case POINT_INTERVAL:
+                    return INTERVAL_FACTORY.getInstance(
+                            this.in.readSignedVarLong(), readGranularity());
+                case SIMPLE_INTERVAL: {
+                    long start = this.in.readSignedVarLong();
+                    Granularity startGran = readGranularity();
+                    long finish = start + this.in.readSignedVarLong();
+                    return INTERVAL_FACTORY.getInstance(start, startGran,
+                            finish, readGranularity());
+                }
+                case INTERVAL: {
+                    Long minStart = readNullableLong();
+                    Long maxStart = readNullableLong();
+                    Granularity startGran = readGranularity();
+                    Long minFinish = readNullableLong();
+                    Long maxFinish = readNullableLong();
+                    return INTERVAL_FACTORY.getInstance(minStart, maxStart,
+                            startGran, minFinish, maxFinish,
+                            readGranularity());
+                }
+                default:
+                    throw new StreamCorruptedException(
+                            "Invalid interval type " + type);
+            }
+        }
+
+        private Granularity readGranularity() throws IOException {
+            int index = this.in.readVarInt();
+            if (index == 0) {
+                return null;
+            } else if (index <= GRANULARITIES.length) {
+                return GRANULARITIES[index - 1];
+            } else if (index == GRANULARITIES.length + 1) {
+                return (Granularity) readSerialized();
+            } else {
+                throw new StreamCorruptedException(
+                        "Invalid granularity " + index);
+            }
+        }
+
+        private Value readValue() throws IOException {
+            Value value = readValueWithoutReplace();
+            if (value != null) {
+                value = value.replace();
+            }
+            return value;
+        }
+
+        private Value readValueWithoutReplace() throws IOException {
+            int type = this.in.readVarInt();
+            switch (type) {
+                case SERIALIZED:
+                    return (Value) readSerialized();
+                case NULL_VALUE:
+                    return null;
+                case NOMINAL_VALUE:
+                    return NominalValue.getInstance(readString());
+                case NUMBER_VALUE:
+                    return NumberValue.getInstance(readBigDecimal());
+                case INEQUALITY_NUMBER_VALUE: {
+                    int comparator = this.in.readVarInt();
+                    ValueComparator[] comparators = ValueComparator.values();
+                    if (comparator >= comparators.length) {
+                        throw new StreamCorruptedException(
+                                "Invalid value comparator " + comparator);
+                    }
+                    return new InequalityNumberValue(comparators[comparator],
+                            readBigDecimal());
+                }
+                case BOOLEAN_VALUE:
+                    return this.in.readVarInt() != 0
+                            ? BooleanValue.TRUE : BooleanValue.FALSE;
+                case DATE_VALUE:
+                    return DateValue.getInstance(
+                            new Date(this.in.readSignedVarLong()));
+                case VALUE_LIST: {
+                    int size = this.in.readVarInt();
+                    ValueList<Value> valueList = new ValueList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        valueList.add(readValueWithoutReplace());
+                    }
+                    return valueList;
+                }
+                default:
+                    throw new StreamCorruptedException(
+                            "Invalid value type " + type);
+            }
+        }
+
+        private BigDecimal readBigDecimal() throws IOException {
+            int scale = (int) this.in.readSignedVarLong();
+            BigInteger unscaled;
+            if (this.in.readVarInt() == 0) {
+                unscaled = BigInteger.valueOf(this.in.readSignedVarLong());
+            } else {
+                unscaled = new BigInteger(this.in.readBytes());
+            }
+            return new BigDecimal(unscaled, scale);
+        }
+
+        private Long readNullableLong() throws IOException {
+            if (this.in.readVarInt() == 0) {
+                return null;
+            }
+            return this.in.readSignedVarLong();
+        }
+
+        private String readString() throws IOException {
+            int index = this.in.readVarInt();
+            if (index == 0) {
+                return null;
+            }
+            if (index > this.strings.length) {
+                throw new StreamCorruptedException(
+                        "Invalid string reference " + index);
+            }
+            return this.strings[index - 1];
+        }
+
+        private Object readSerialized() throws IOException {
+            try (ObjectInputStream ois = new ObjectInputStream(
+                    new ByteArrayInputStream(this.in.readBytes()))) {
+                return ois.readObject();
+            } catch (ClassNotFoundException ex) {
+                throw new IOException("Error deserializing object", ex);
+            }
+        }
+    }
+
+    /**
+     * Writes bytes and unsigned and zigzag-encoded variable-length integers.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(256);
+        }
+
+        void writeVarInt(int i) {
+            writeVarLong(i & 0xFFFFFFFFL);
+        }
+
+        void writeSignedVarLong(long l) {
+            writeVarLong((l << 1) ^ (l >> 63));
+        }
+
+        void writeVarLong(long l) {
+            while ((l & ~0x7FL) != 0) {
+                write((int) ((l & 0x7F) | 0x80));
+                l >>>= 7;
+            }
+            write((int) l);
+        }
+
+        void writeByteArray(byte[] bytes) {
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeTo(Output other) {
+            other.write(this.buf, 0, this.count);
+        }
+    }
+
+    /**
+     * Reads what {@link Output} writes.
+     */
+    private static final class Input {
+
+        private final byte[] bytes;
+        private int pos;
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() throws IOException {
+            if (this.pos >= this.bytes.length) {
+                throw new EOFException();
+            }
+            return this.bytes[this.pos++] & 0xFF;
+        }
+
+        int readVarInt() throws IOException {
+            long l = readVarLong();
+            if (l > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException(
+                        "Invalid unsigned integer " + l);
+            }
+            return (int) l;
+        }
+
+        long readSignedVarLong() throws IOException {
+            long l = readVarLong();
+            return (l >>> 1) ^ -(l & 1);
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable-length integer");
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readVarInt();
+            if (length > this.bytes.length - this.pos) {
+                throw new EOFException();
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(this.bytes, this.pos, result, 0, length);
+            this.pos += length;
+            return result;
+        }
+    }
+}
@@ -22,8 +22,10 @@ package org.protempa.datastore;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -46,11 +48,23 @@ public final class WorkingMemoryDataStores implements DataStores {
 
     public static final String DATABASE_NAME = "WorkingMemoryStore";
 
+    /**
+     * System property for the name of the {@link WorkingMemoryFactStoreCodec}
+     * class with which to encode new fact stores. Set it to
+     * <code>binary</code> to use {@link BinaryWorkingMemoryFactStoreCodec}.
+     * The default, which may also be set explicitly with <code>java</code>,
+     * is default Java serialization. Fact stores are read with whichever
+     * codec they were written with regardless of this property.
+     */
+    public static final String SYSTEM_PROPERTY_CODEC = "protempa.datastore.codec";
+
     private DataStoreFactory storeFactory;
     private Map<String, PropositionDefinitionCache> propositionDefinitionsInStores;
     private PropositionDefinitionCache cache;
     private Path storedPropDefsFile;
     private String databaseName;
+    private int storedModificationCount = -1;
+    private final WorkingMemoryFactStoreCodec codec;
 
     /**
      * Constructs a working memory creator.
@@ -60,6 +74,20 @@ public final class WorkingMemoryDataStores implements DataStores {
      * @param cache the proposition definitions that were queried.
      */
     public WorkingMemoryDataStores(Path directory, String name, PropositionDefinitionCache cache) throws IOException {
+        this(directory, name, cache, codecFromSystemProperty());
+    }
+
+    /**
+     * Constructs a working memory creator that encodes fact stores with the
+     * given codec.
+     *
+     * @param directory the directory in which the working memory data stores
+     * will be stored. Cannot be <code>null</code>.
+     * @param cache the proposition definitions that were queried.
+     * @param codec the {@link WorkingMemoryFactStoreCodec} for new fact
+     * stores, or <code>null</code> to use default Java serialization.
+     */
+    public WorkingMemoryDataStores(Path directory, String name, PropositionDefinitionCache cache, WorkingMemoryFactStoreCodec codec) throws IOException {
         if (directory == null) {
             throw new IllegalArgumentException("directory cannot be null");
         }
@@ -95,6 +123,17 @@ public final class WorkingMemoryDataStores implements DataStores {
 
         this.databaseName = name;
         this.cache = cache;
+        this.codec = codec;
+    }
+
+    /**
+     * Creates an empty fact store that will be encoded with this instance's
+     * codec when it is put into the data store.
+     *
+     * @return a new {@link WorkingMemoryFactStore}.
+     */
+    public WorkingMemoryFactStore newFactStore() {
+        return new WorkingMemoryFactStore(this.codec);
     }
 
     public PropositionDefinitionCache getPropositionDefinitionsInStores() {
@@ -119,13 +158,57 @@ public final class WorkingMemoryDataStores implements DataStores {
         return this.storeFactory.getInstance(this.databaseName);
     }
 
+    /**
+     * Writes the queried proposition definitions to the stored proposition
+     * definitions file if they changed since the last time this method was
+     * called. The definitions are written to a temporary file that then
+     * replaces the stored proposition definitions file, so a crash while
+     * writing will not corrupt it.
+     *
+     * @throws IOException if an error occurred writing the file.
+     */
     @Override
     public void finish() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(this.storedPropDefsFile))) {
-            Collection<PropositionDefinition> all = cache.getAll();
-            oos.writeInt(all.size());
-            for (PropositionDefinition pd : all) {
-                oos.writeObject(pd);
+        int modificationCount = this.cache.getModificationCount();
+        if (modificationCount == this.storedModificationCount) {
+            return;
+        }
+        Collection<PropositionDefinition> all = this.cache.getAll();
+        Path tmpFile = Files.createTempFile(
+                this.storedPropDefsFile.toAbsolutePath().getParent(),
+                this.databaseName, ".stored-propdefs.tmp");
+        try {
+            try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(tmpFile))) {
+                oos.writeInt(all.size());
+                for (PropositionDefinition pd : all) {
+                    oos.writeObject(pd);
+                }
+            }
+            try {
+                Files.move(tmpFile, this.storedPropDefsFile,
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile, this.storedPropDefsFile,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        this.storedModificationCount = modificationCount;
+    }
+
+    private static WorkingMemoryFactStoreCodec codecFromSystemProperty() throws IOException {
+        String codecClassName = System.getProperty(SYSTEM_PROPERTY_CODEC);
+        if (codecClassName == null || codecClassName.equals("java")) {
+            return null;
+        } else if (codecClassName.equals("binary")) {
+            return new BinaryWorkingMemoryFactStoreCodec();
+        } else {
+            try {
+                return (WorkingMemoryFactStoreCodec) Class.forName(codecClassName).newInstance();
+            } catch (ReflectiveOperationException | ClassCastException ex) {
+                throw new IOException("Invalid working memory fact store codec " + codecClassName, ex);
             }
         }
     }
@@ -0,0 +1,54 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.datastore;
+
+import java.io.IOException;
+import org.protempa.WorkingMemoryFactStore;
+
+/**
+ * Converts {@link WorkingMemoryFactStore}s to and from bytes for storage in
+ * the working memory data store. Implementations must be thread-safe and
+ * must have a public no-argument constructor, because the codec's class name
+ * is stored with each encoded fact store and is used to find the codec when
+ * the fact store is read back.
+ *
+ * @author Andrew Post
+ */
+public interface WorkingMemoryFactStoreCodec {
+
+    /**
+     * Encodes a fact store.
+     *
+     * @param factStore a {@link WorkingMemoryFactStore}. Cannot be
+     * <code>null</code>.
+     * @return the encoded fact store.
+     * @throws IOException if the fact store could not be encoded.
+     */
+    byte[] encode(WorkingMemoryFactStore factStore) throws IOException;
+
+    /**
+     * Decodes a fact store that was encoded by this codec.
+     *
+     * @param bytes the encoded fact store. Cannot be <code>null</code>.
+     * @return the decoded {@link WorkingMemoryFactStore}.
+     * @throws IOException if the bytes could not be decoded.
+     */
+    WorkingMemoryFactStore decode(byte[] bytes) throws IOException;
+}
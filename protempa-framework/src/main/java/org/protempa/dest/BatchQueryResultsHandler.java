@@ -0,0 +1,50 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.dest;
+
+import java.util.List;
+
+/**
+ * A query results handler that can handle several keys' results in one
+ * call, for destinations that can amortize work across keys, such as one
+ * database round trip or file flush per batch. Protempa calls
+ * {@link #handleQueryResults(java.util.List) } instead of
+ * {@link #handleQueryResult(java.lang.String, java.util.List, java.util.Map, java.util.Map, java.util.Map) }
+ * on handlers that implement this interface. Handlers that do not are
+ * called one key at a time as before.
+ *
+ * @author Andrew Post
+ */
+public interface BatchQueryResultsHandler extends QueryResultsHandler {
+
+    /**
+     * Handles the results of one or more keys, in the order in which they
+     * would otherwise have been passed to
+     * {@link #handleQueryResult(java.lang.String, java.util.List, java.util.Map, java.util.Map, java.util.Map) }.
+     *
+     * @param results the keys' results. Guaranteed not empty. The list is
+     * reused after this method returns, so implementations must not keep a
+     * reference to it.
+     * @throws QueryResultsHandlerProcessingException if any exceptions occur
+     * at a lower level.
+     */
+    void handleQueryResults(List<QueryResult> results)
+            throws QueryResultsHandlerProcessingException;
+}
@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.dest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.protempa.PropositionDefinitionCache;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * Adapts a query results handler that handles one key at a time to the
+ * {@link BatchQueryResultsHandler} interface by passing each result in a
+ * batch to it in turn.
+ *
+ * @author Andrew Post
+ */
+public final class BatchQueryResultsHandlerAdapter
+        implements BatchQueryResultsHandler {
+
+    private final QueryResultsHandler handler;
+
+    /**
+     * Creates an adapter.
+     *
+     * @param handler the query results handler to adapt. Cannot be
+     * <code>null</code>.
+     */
+    public BatchQueryResultsHandlerAdapter(QueryResultsHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the given handler if it handles batches, or an adapter for it
+     * otherwise.
+     *
+     * @param handler a query results handler. Cannot be <code>null</code>.
+     * @return a {@link BatchQueryResultsHandler}.
+     */
+    public static BatchQueryResultsHandler adapt(QueryResultsHandler handler) {
+        if (handler instanceof BatchQueryResultsHandler) {
+            return (BatchQueryResultsHandler) handler;
+        } else {
+            return new BatchQueryResultsHandlerAdapter(handler);
+        }
+    }
+
+    @Override
+    public void handleQueryResults(List<QueryResult> results)
+            throws QueryResultsHandlerProcessingException {
+        for (QueryResult result : results) {
+            this.handler.handleQueryResult(result.getKeyId(),
+                    result.getPropositions(), result.getForwardDerivations(),
+                    result.getBackwardDerivations(), result.getReferences());
+        }
+    }
+
+    @Override
+    public String getId() {
+        return this.handler.getId();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return this.handler.getDisplayName();
+    }
+
+    @Override
+    public void validate()
+            throws QueryResultsHandlerValidationFailedException {
+        this.handler.validate();
+    }
+
+    @Override
+    public void start(PropositionDefinitionCache cache)
+            throws QueryResultsHandlerProcessingException {
+        this.handler.start(cache);
+    }
+
+    @Override
+    public void handleQueryResult(String keyId,
+            List<Proposition> propositions,
+            Map<Proposition, Set<Proposition>> forwardDerivations,
+            Map<Proposition, Set<Proposition>> backwardDerivations,
+            Map<UniqueId, Proposition> references)
+            throws QueryResultsHandlerProcessingException {
+        this.handler.handleQueryResult(keyId, propositions,
+                forwardDerivations, backwardDerivations, references);
+    }
+
+    @Override
+    public void finish() throws QueryResultsHandlerProcessingException {
+        this.handler.finish();
+    }
+
+    @Override
+    public void close() throws QueryResultsHandlerCloseException {
+        this.handler.close();
+    }
+
+    @Override
+    public void cancel() {
+        this.handler.cancel();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.dest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * One key's results, as passed to
+ * {@link BatchQueryResultsHandler#handleQueryResults(java.util.List) }. The
+ * fields are those of
+ * {@link QueryResultsHandler#handleQueryResult(java.lang.String, java.util.List, java.util.Map, java.util.Map, java.util.Map) }.
+ *
+ * @author Andrew Post
+ */
+public final class QueryResult {
+
+    private final String keyId;
+    private final List<Proposition> propositions;
+    private final Map<Proposition, Set<Proposition>> forwardDerivations;
+    private final Map<Proposition, Set<Proposition>> backwardDerivations;
+    private final Map<UniqueId, Proposition> references;
+
+    public QueryResult(String keyId, List<Proposition> propositions,
+            Map<Proposition, Set<Proposition>> forwardDerivations,
+            Map<Proposition, Set<Proposition>> backwardDerivations,
+            Map<UniqueId, Proposition> references) {
+        this.keyId = keyId;
+        this.propositions = propositions;
+        this.forwardDerivations = forwardDerivations;
+        this.backwardDerivations = backwardDerivations;
+        this.references = references;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public List<Proposition> getPropositions() {
+        return propositions;
+    }
+
+    public Map<Proposition, Set<Proposition>> getForwardDerivations() {
+        return forwardDerivations;
+    }
+
+    public Map<Proposition, Set<Proposition>> getBackwardDerivations() {
+        return backwardDerivations;
+    }
+
+    public Map<UniqueId, Proposition> getReferences() {
+        return references;
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and queue depths of the stages of one query's execution. Data
+ * flows from the retrieve data stage through the do process queue to one or
+ * more do process stages, and from there through the query results handler
+ * queue to the handle query result stage. Comparing how busy each stage was
+ * and how full the queues between them were shows whether a query is bound
+ * by the data source, the rules or the destination.
+ *
+ * @author Andrew Post
+ */
+public final class ExecutorMetrics implements ExecutorMetricsMXBean {
+
+    /**
+     * How often to sample queue sizes, in milliseconds. The default is 1000.
+     */
+    public static final String SYSTEM_PROPERTY_SAMPLE_INTERVAL = "protempa.executor.metrics.sampleinterval";
+
+    /**
+     * How many of the slowest keys to keep. The default is 10.
+     */
+    public static final String SYSTEM_PROPERTY_SLOWEST_KEYS = "protempa.executor.metrics.slowestkeys";
+
+    private static final int QUEUE_SAMPLES = 600;
+
+    private static final Comparator<SlowKey> SLOW_KEY_COMP = new Comparator<SlowKey>() {
+        @Override
+        public int compare(SlowKey o1, SlowKey o2) {
+            return Long.compare(o1.getNanos(), o2.getNanos());
+        }
+    };
+
+    private final String queryName;
+    private final StageMetrics retrieveDataStage;
+    private final StageMetrics doProcessStage;
+    private final StageMetrics handleQueryResultStage;
+    private final QueueOccupancy doProcessQueueOccupancy;
+    private final QueueOccupancy handleQueryResultQueueOccupancy;
+    private final QueueOccupancy doProcessQueueWeight;
+    private final QueueOccupancy handleQueryResultQueueWeight;
+    private volatile long doProcessQueueHighWatermark;
+    private volatile long handleQueryResultQueueHighWatermark;
+    private final LatencyHistogram keyLatencies;
+    private final int slowestKeysCapacity;
+    private final PriorityQueue<SlowKey> slowestKeys;
+    private final long sampleIntervalMillis;
+    private ScheduledExecutorService sampler;
+
+    public ExecutorMetrics(String queryName) {
+        this.queryName = queryName;
+        this.retrieveDataStage = new StageMetrics("retrieve data");
+        this.doProcessStage = new StageMetrics("do process");
+        this.handleQueryResultStage = new StageMetrics("handle query result");
+        this.doProcessQueueOccupancy = new QueueOccupancy("do process queue", QUEUE_SAMPLES);
+        this.handleQueryResultQueueOccupancy = new QueueOccupancy("handle query result queue", QUEUE_SAMPLES);
+        this.doProcessQueueWeight = new QueueOccupancy("do process queue weight", QUEUE_SAMPLES);
+        this.handleQueryResultQueueWeight = new QueueOccupancy("handle query result queue weight", QUEUE_SAMPLES);
+        this.keyLatencies = new LatencyHistogram();
+        this.slowestKeysCapacity = Math.max(1, Integer.getInteger(SYSTEM_PROPERTY_SLOWEST_KEYS, 10));
+        this.slowestKeys = new PriorityQueue<>(this.slowestKeysCapacity, SLOW_KEY_COMP);
+        this.sampleIntervalMillis = Math.max(1L, Long.getLong(SYSTEM_PROPERTY_SAMPLE_INTERVAL, 1000L));
+    }
+
+    @Override
+    public String getQueryName() {
+        return this.queryName;
+    }
+
+    public StageMetrics getRetrieveDataStage() {
+        return this.retrieveDataStage;
+    }
+
+    public StageMetrics getDoProcessStage() {
+        return this.doProcessStage;
+    }
+
+    public StageMetrics getHandleQueryResultStage() {
+        return this.handleQueryResultStage;
+    }
+
+    public QueueOccupancy getDoProcessQueueOccupancy() {
+        return this.doProcessQueueOccupancy;
+    }
+
+    public QueueOccupancy getHandleQueryResultQueueOccupancy() {
+        return this.handleQueryResultQueueOccupancy;
+    }
+
+    /**
+     * Gets the samples of the total weight of the propositions in the do
+     * process queue. There are no samples unless the queue is a
+     * {@link WeightedQueue}.
+     *
+     * @return the weight samples.
+     */
+    public QueueOccupancy getDoProcessQueueWeight() {
+        return this.doProcessQueueWeight;
+    }
+
+    /**
+     * Gets the samples of the total weight of the propositions in the query
+     * results handler queue. There are no samples unless the queue is a
+     * {@link WeightedQueue}.
+     *
+     * @return the weight samples.
+     */
+    public QueueOccupancy getHandleQueryResultQueueWeight() {
+        return this.handleQueryResultQueueWeight;
+    }
+
+    /**
+     * Gets the time from when the do process stage started working on a key
+     * to when the key's results were ready for the query results handler.
+     *
+     * @return the histogram of per-key latencies.
+     */
+    public LatencyHistogram getKeyLatencies() {
+        return this.keyLatencies;
+    }
+
+    /**
+     * Gets the keys that took the do process stage the longest.
+     *
+     * @return the keys, slowest first. Guaranteed not <code>null</code>.
+     */
+    public List<SlowKey> getSlowestKeys() {
+        List<SlowKey> result;
+        synchronized (this.slowestKeys) {
+            result = new ArrayList<>(this.slowestKeys);
+        }
+        Collections.sort(result, Collections.reverseOrder(SLOW_KEY_COMP));
+        return result;
+    }
+
+    /**
+     * Records that the do process stage finished with a key.
+     *
+     * @param keyId the key.
+     * @param propositionCount the number of propositions in the key's
+     * results.
+     * @param nanos how long the key took, in nanoseconds.
+     */
+    public void recordKeyProcessed(String keyId, int propositionCount, long nanos) {
+        this.doProcessStage.record(propositionCount, nanos);
+        this.keyLatencies.record(nanos);
+        synchronized (this.slowestKeys) {
+            if (this.slowestKeys.size() < this.slowestKeysCapacity) {
+                this.slowestKeys.add(new SlowKey(keyId, nanos, propositionCount));
+            } else if (nanos > this.slowestKeys.peek().getNanos()) {
+                this.slowestKeys.poll();
+                this.slowestKeys.add(new SlowKey(keyId, nanos, propositionCount));
+            }
+        }
+    }
+
+    /**
+     * Starts sampling the sizes of the queues between stages in a daemon
+     * thread. For {@link WeightedQueue}s, their weights are sampled too.
+     *
+     * @param doProcessQueue the do process queue, or <code>null</code> if
+     * there is none.
+     * @param handleQueryResultQueue the query results handler queue.
+     */
+    public synchronized void startSampling(final BlockingQueue<?> doProcessQueue,
+            final BlockingQueue<?> handleQueryResultQueue) {
+        if (this.sampler != null) {
+            throw new IllegalStateException("Already sampling");
+        }
+        this.sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "protempa.executor.MetricsSampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final WeightedQueue doProcessWeighted = doProcessQueue instanceof WeightedQueue
+                ? (WeightedQueue) doProcessQueue : null;
+        final WeightedQueue handleQueryResultWeighted = handleQueryResultQueue instanceof WeightedQueue
+                ? (WeightedQueue) handleQueryResultQueue : null;
+        if (doProcessWeighted != null) {
+            this.doProcessQueueHighWatermark = doProcessWeighted.getHighWatermark();
+        }
+        if (handleQueryResultWeighted != null) {
+            this.handleQueryResultQueueHighWatermark = handleQueryResultWeighted.getHighWatermark();
+        }
+        this.sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (doProcessQueue != null) {
+                    doProcessQueueOccupancy.sample(doProcessQueue.size());
+                }
+                if (doProcessWeighted != null) {
+                    doProcessQueueWeight.sample(toSample(doProcessWeighted.getWeight()));
+                }
+                if (handleQueryResultQueue != null) {
+                    handleQueryResultQueueOccupancy.sample(handleQueryResultQueue.size());
+                }
+                if (handleQueryResultWeighted != null) {
+                    handleQueryResultQueueWeight.sample(toSample(handleQueryResultWeighted.getWeight()));
+                }
+            }
+        }, 0L, this.sampleIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static int toSample(long weight) {
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    /**
+     * Stops sampling queue sizes. Does nothing if sampling was not started.
+     */
+    public synchronized void stopSampling() {
+        if (this.sampler != null) {
+            this.sampler.shutdownNow();
+            this.sampler = null;
+        }
+    }
+
+    @Override
+    public double getRetrieveDataKeysPerSecond() {
+        return this.retrieveDataStage.getKeysPerSecond();
+    }
+
+    @Override
+    public double getRetrieveDataPropositionsPerSecond() {
+        return this.retrieveDataStage.getPropositionsPerSecond();
+    }
+
+    @Override
+    public double getRetrieveDataBusySeconds() {
+        return this.retrieveDataStage.getBusySeconds();
+    }
+
+    @Override
+    public double getRetrieveDataStallSeconds() {
+        return this.retrieveDataStage.getStallSeconds();
+    }
+
+    @Override
+    public double getDoProcessKeysPerSecond() {
+        return this.doProcessStage.getKeysPerSecond();
+    }
+
+    @Override
+    public double getDoProcessPropositionsPerSecond() {
+        return this.doProcessStage.getPropositionsPerSecond();
+    }
+
+    @Override
+    public double getDoProcessBusySeconds() {
+        return this.doProcessStage.getBusySeconds();
+    }
+
+    @Override
+    public double getDoProcessStallSeconds() {
+        return this.doProcessStage.getStallSeconds();
+    }
+
+    @Override
+    public double getHandleQueryResultKeysPerSecond() {
+        return this.handleQueryResultStage.getKeysPerSecond();
+    }
+
+    @Override
+    public double getHandleQueryResultPropositionsPerSecond() {
+        return this.handleQueryResultStage.getPropositionsPerSecond();
+    }
+
+    @Override
+    public double getHandleQueryResultBusySeconds() {
+        return this.handleQueryResultStage.getBusySeconds();
+    }
+
+    @Override
+    public int[] getDoProcessQueueSizes() {
+        return this.doProcessQueueOccupancy.getSamples();
+    }
+
+    @Override
+    public double getDoProcessQueueMeanSize() {
+        return this.doProcessQueueOccupancy.getMean();
+    }
+
+    @Override
+    public int[] getHandleQueryResultQueueSizes() {
+        return this.handleQueryResultQueueOccupancy.getSamples();
+    }
+
+    @Override
+    public double getHandleQueryResultQueueMeanSize() {
+        return this.handleQueryResultQueueOccupancy.getMean();
+    }
+
+    @Override
+    public int[] getDoProcessQueueWeights() {
+        return this.doProcessQueueWeight.getSamples();
+    }
+
+    @Override
+    public double getDoProcessQueueMeanWeight() {
+        return this.doProcessQueueWeight.getMean();
+    }
+
+    @Override
+    public long getDoProcessQueueHighWatermark() {
+        return this.doProcessQueueHighWatermark;
+    }
+
+    @Override
+    public int[] getHandleQueryResultQueueWeights() {
+        return this.handleQueryResultQueueWeight.getSamples();
+    }
+
+    @Override
+    public double getHandleQueryResultQueueMeanWeight() {
+        return this.handleQueryResultQueueWeight.getMean();
+    }
+
+    @Override
+    public long getHandleQueryResultQueueHighWatermark() {
+        return this.handleQueryResultQueueHighWatermark;
+    }
+
+    @Override
+    public double getKeyLatencyMedianMillis() {
+        return this.keyLatencies.getPercentileNanos(50.0) / 1e6;
+    }
+
+    @Override
+    public double getKeyLatency95thPercentileMillis() {
+        return this.keyLatencies.getPercentileNanos(95.0) / 1e6;
+    }
+
+    @Override
+    public double getKeyLatency99thPercentileMillis() {
+        return this.keyLatencies.getPercentileNanos(99.0) / 1e6;
+    }
+
+    @Override
+    public double getKeyLatencyMaxMillis() {
+        return this.keyLatencies.getMaxNanos() / 1e6;
+    }
+
+    @Override
+    public List<String> getSlowestKeyDescriptions() {
+        List<String> result = new ArrayList<>();
+        for (SlowKey slowKey : getSlowestKeys()) {
+            result.add(slowKey.toString());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return this.retrieveDataStage + "; " + this.doProcessStage + "; "
+                + this.handleQueryResultStage + "; "
+                + this.doProcessQueueOccupancy + "; "
+                + this.handleQueryResultQueueOccupancy + "; "
+                + weightToString(this.doProcessQueueWeight, this.doProcessQueueHighWatermark)
+                + weightToString(this.handleQueryResultQueueWeight, this.handleQueryResultQueueHighWatermark)
+                + String.format("key latency median %.3f ms, 99th percentile %.3f ms, max %.3f ms",
+                        getKeyLatencyMedianMillis(), getKeyLatency99thPercentileMillis(),
+                        getKeyLatencyMaxMillis());
+    }
+
+    private static String weightToString(QueueOccupancy weight, long highWatermark) {
+        if (highWatermark == 0L) {
+            return "";
+        }
+        return weight + " of " + highWatermark + "; ";
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+import java.util.List;
+
+/**
+ * The management interface of {@link ExecutorMetrics}.
+ *
+ * @author Andrew Post
+ */
+public interface ExecutorMetricsMXBean {
+
+    String getQueryName();
+
+    double getRetrieveDataKeysPerSecond();
+
+    double getRetrieveDataPropositionsPerSecond();
+
+    double getRetrieveDataBusySeconds();
+
+    double getRetrieveDataStallSeconds();
+
+    double getDoProcessKeysPerSecond();
+
+    double getDoProcessPropositionsPerSecond();
+
+    double getDoProcessBusySeconds();
+
+    double getDoProcessStallSeconds();
+
+    double getHandleQueryResultKeysPerSecond();
+
+    double getHandleQueryResultPropositionsPerSecond();
+
+    double getHandleQueryResultBusySeconds();
+
+    int[] getDoProcessQueueSizes();
+
+    double getDoProcessQueueMeanSize();
+
+    int[] getHandleQueryResultQueueSizes();
+
+    double getHandleQueryResultQueueMeanSize();
+
+    int[] getDoProcessQueueWeights();
+
+    double getDoProcessQueueMeanWeight();
+
+    long getDoProcessQueueHighWatermark();
+
+    int[] getHandleQueryResultQueueWeights();
+
+    double getHandleQueryResultQueueMeanWeight();
+
+    long getHandleQueryResultQueueHighWatermark();
+
+    double getKeyLatencyMedianMillis();
+
+    double getKeyLatency95thPercentileMillis();
+
+    double getKeyLatency99thPercentileMillis();
+
+    double getKeyLatencyMaxMillis();
+
+    List<String> getSlowestKeyDescriptions();
+}
@@ -0,0 +1,51 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+/**
+ * Publishes the metrics of running queries somewhere that they can be
+ * watched. Implementations need a public no-argument constructor, and are
+ * selected with the {@link #SYSTEM_PROPERTY_REGISTRY} system property.
+ *
+ * @author Andrew Post
+ */
+public interface ExecutorMetricsRegistry {
+
+    /**
+     * The name of the {@link ExecutorMetricsRegistry} class to use. For
+     * JMX, set it to <code>org.protempa.metrics.JmxExecutorMetricsRegistry</code>.
+     * By default, metrics are only logged when a query finishes.
+     */
+    String SYSTEM_PROPERTY_REGISTRY = "protempa.executor.metricsregistry";
+
+    /**
+     * Called when a query starts.
+     *
+     * @param metrics the query's metrics.
+     */
+    void register(ExecutorMetrics metrics);
+
+    /**
+     * Called when a query is done.
+     *
+     * @param metrics the query's metrics.
+     */
+    void unregister(ExecutorMetrics metrics);
+}
@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers each running query's metrics with the platform MBean server
+ * under <code>org.protempa:type=ExecutorMetrics,query=<i>query name</i></code>.
+ *
+ * @author Andrew Post
+ */
+public final class JmxExecutorMetricsRegistry implements ExecutorMetricsRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(JmxExecutorMetricsRegistry.class.getName());
+
+    private final MBeanServer mBeanServer;
+
+    public JmxExecutorMetricsRegistry() {
+        this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    }
+
+    @Override
+    public void register(ExecutorMetrics metrics) {
+        try {
+            this.mBeanServer.registerMBean(metrics, objectName(metrics));
+        } catch (JMException ex) {
+            LOGGER.log(Level.WARNING, "Could not register metrics of query " + metrics.getQueryName(), ex);
+        }
+    }
+
+    @Override
+    public void unregister(ExecutorMetrics metrics) {
+        try {
+            this.mBeanServer.unregisterMBean(objectName(metrics));
+        } catch (JMException ex) {
+            LOGGER.log(Level.FINE, "Could not unregister metrics of query " + metrics.getQueryName(), ex);
+        }
+    }
+
+    private static ObjectName objectName(ExecutorMetrics metrics) throws JMException {
+        return new ObjectName("org.protempa:type=ExecutorMetrics,query="
+                + ObjectName.quote(String.valueOf(metrics.getQueryName())));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+/**
+ * Samples of how many elements a queue held over time. The most recent
+ * samples are kept in a ring buffer.
+ *
+ * @author Andrew Post
+ */
+public final class QueueOccupancy {
+
+    private final String name;
+    private final int[] samples;
+    private int next;
+    private long sampleCount;
+    private long total;
+    private int max;
+
+    QueueOccupancy(String name, int sampleCapacity) {
+        assert name != null : "name cannot be null";
+        assert sampleCapacity > 0 : "sampleCapacity must be > 0";
+        this.name = name;
+        this.samples = new int[sampleCapacity];
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Records the current size of the queue.
+     *
+     * @param size the number of elements in the queue.
+     */
+    public synchronized void sample(int size) {
+        this.samples[this.next] = size;
+        this.next = (this.next + 1) % this.samples.length;
+        this.sampleCount++;
+        this.total += size;
+        if (size > this.max) {
+            this.max = size;
+        }
+    }
+
+    /**
+     * Gets the most recent samples.
+     *
+     * @return the samples, oldest first. Guaranteed not <code>null</code>.
+     */
+    public synchronized int[] getSamples() {
+        int n = (int) Math.min(this.sampleCount, this.samples.length);
+        int[] result = new int[n];
+        int start = (this.next - n + this.samples.length) % this.samples.length;
+        for (int i = 0; i < n; i++) {
+            result[i] = this.samples[(start + i) % this.samples.length];
+        }
+        return result;
+    }
+
+    public synchronized int getCurrent() {
+        if (this.sampleCount == 0L) {
+            return 0;
+        }
+        return this.samples[(this.next - 1 + this.samples.length) % this.samples.length];
+    }
+
+    public synchronized int getMax() {
+        return this.max;
+    }
+
+    /**
+     * Gets the mean of all samples, including those no longer returned by
+     * {@link #getSamples() }.
+     *
+     * @return the mean, or 0 if there are no samples.
+     */
+    public synchronized double getMean() {
+        return this.sampleCount > 0L ? (double) this.total / this.sampleCount : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: mean %.1f, max %d", this.name, getMean(), getMax());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+/**
+ * A key and how long it took to process.
+ *
+ * @author Andrew Post
+ */
+public final class SlowKey {
+
+    private final String keyId;
+    private final long nanos;
+    private final int propositionCount;
+
+    SlowKey(String keyId, long nanos, int propositionCount) {
+        this.keyId = keyId;
+        this.nanos = nanos;
+        this.propositionCount = propositionCount;
+    }
+
+    public String getKeyId() {
+        return this.keyId;
+    }
+
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    public int getPropositionCount() {
+        return this.propositionCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.3f ms, %d propositions", this.keyId,
+                this.nanos / 1e6, this.propositionCount);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of one stage of query execution: how many keys and
+ * propositions it has passed on, and how much of its time it spent working
+ * rather than waiting on the stages next to it.
+ *
+ * @author Andrew Post
+ */
+public final class StageMetrics {
+
+    private final String name;
+    private final LongAdder keys;
+    private final LongAdder propositions;
+    private final LongAdder busyNanos;
+    private final LongAdder stallNanos;
+    private final AtomicLong startNanos;
+    private final AtomicLong lastNanos;
+
+    StageMetrics(String name) {
+        assert name != null : "name cannot be null";
+        this.name = name;
+        this.keys = new LongAdder();
+        this.propositions = new LongAdder();
+        this.busyNanos = new LongAdder();
+        this.stallNanos = new LongAdder();
+        this.startNanos = new AtomicLong();
+        this.lastNanos = new AtomicLong();
+    }
+
+    /**
+     * Records that this stage finished with a key.
+     *
+     * @param propositionCount the number of propositions for the key.
+     * @param busyNanos the time spent on the key, in nanoseconds.
+     */
+    public void record(int propositionCount, long busyNanos) {
+        record(1, propositionCount, busyNanos);
+    }
+
+    /**
+     * Records that this stage finished with a batch of keys.
+     *
+     * @param keyCount the number of keys.
+     * @param propositionCount the number of propositions for the keys.
+     * @param busyNanos the time spent on the keys, in nanoseconds.
+     */
+    public void record(int keyCount, int propositionCount, long busyNanos) {
+        long now = System.nanoTime();
+        this.startNanos.compareAndSet(0L, now - busyNanos);
+        this.lastNanos.set(now);
+        this.keys.add(keyCount);
+        this.propositions.add(propositionCount);
+        this.busyNanos.add(busyNanos);
+    }
+
+    /**
+     * Records time that this stage spent blocked because the queue to the
+     * next stage was full.
+     *
+     * @param nanos the time in nanoseconds.
+     */
+    public void recordStall(long nanos) {
+        this.stallNanos.add(nanos);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getKeys() {
+        return this.keys.sum();
+    }
+
+    public long getPropositions() {
+        return this.propositions.sum();
+    }
+
+    /**
+     * Gets the time that this stage spent working on keys.
+     *
+     * @return the time in seconds.
+     */
+    public double getBusySeconds() {
+        return this.busyNanos.sum() / 1e9;
+    }
+
+    /**
+     * Gets the time that this stage spent blocked on a full queue to the
+     * next stage.
+     *
+     * @return the time in seconds.
+     */
+    public double getStallSeconds() {
+        return this.stallNanos.sum() / 1e9;
+    }
+
+    /**
+     * Gets the time from when this stage started its first key to when it
+     * finished its most recent key.
+     *
+     * @return the time in seconds.
+     */
+    public double getElapsedSeconds() {
+        long start = this.startNanos.get();
+        if (start == 0L) {
+            return 0.0;
+        }
+        return (this.lastNanos.get() - start) / 1e9;
+    }
+
+    public double getKeysPerSecond() {
+        return perSecond(getKeys());
+    }
+
+    public double getPropositionsPerSecond() {
+        return perSecond(getPropositions());
+    }
+
+    private double perSecond(long count) {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0.0 ? count / elapsed : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d keys (%.1f/s), %d propositions (%.1f/s), busy %.1f s and stalled %.1f s of %.1f s",
+                this.name, getKeys(), getKeysPerSecond(), getPropositions(),
+                getPropositionsPerSecond(), getBusySeconds(), getStallSeconds(),
+                getElapsedSeconds());
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+/**
+ * A queue that is bounded by the total weight of its elements rather than
+ * by their number. {@link ExecutorMetrics} samples the weight of such queues
+ * as well as their size, because the weight shows how close they are to
+ * blocking.
+ *
+ * @author Andrew Post
+ */
+public interface WeightedQueue {
+
+    /**
+     * Gets the total weight of the elements in the queue.
+     *
+     * @return the weight.
+     */
+    long getWeight();
+
+    /**
+     * Gets the total weight at which producers block.
+     *
+     * @return the weight.
+     */
+    long getHighWatermark();
+}
@@ -24,11 +24,13 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
@@ -50,6 +52,16 @@ public abstract class AbstractProposition implements Proposition {
      * <code>String</code> for this proposition.
      */
     private String id;
+    /*
+     * Properties are stored in propertyValues at their index in the
+     * propertySchema of this proposition's id, with bit i of propertyMask set
+     * if slot i has been set. Slots are kept in the order in which they were
+     * set. If a property cannot be stored that way, all properties are moved
+     * to the properties map.
+     */
+    private PropertySchema propertySchema;
+    private Value[] propertyValues;
+    private long propertyMask;
     private Map<String, Value> properties;
     private Map<String, List<UniqueId>> references;
     private UniqueId uniqueId; // not final because of custom deserialization
@@ -106,6 +118,13 @@ public abstract class AbstractProposition implements Proposition {
     protected void initializeProperties() {
         if (this.properties == null) {
             this.properties = new LinkedHashMap<>();
+            for (long m = this.propertyMask; m != 0; m &= m - 1) {
+                int i = Long.numberOfTrailingZeros(m);
+                this.properties.put(this.propertySchema.getName(i),
+                        this.propertyValues[i]);
+            }
+            this.propertyValues = null;
+            this.propertyMask = 0;
         }
     }
 
@@ -124,8 +143,38 @@ public abstract class AbstractProposition implements Proposition {
         if (name == null) {
             throw new IllegalArgumentException("name cannot be null");
         }
-        initializeProperties();
-        this.properties.put(name.intern(), value);
+        name = name.intern();
+        if (this.properties == null) {
+            if (this.propertySchema == null) {
+                this.propertySchema = PropertySchema.getInstance(
+                        this.id != null ? this.id : "");
+            }
+            int index = this.propertySchema.indexOfOrAdd(name);
+            if (index >= 0) {
+                long bit = 1L << index;
+                /*
+                 * Use the slot if it is already set or if it comes after
+                 * every set slot, so that the slot order stays the order in
+                 * which the properties were set.
+                 */
+                if ((this.propertyMask & bit) != 0
+                        || (this.propertyMask & -bit) == 0) {
+                    if (this.propertyValues == null) {
+                        this.propertyValues = new Value[Math.max(index + 1,
+                                this.propertySchema.size())];
+                    } else if (this.propertyValues.length <= index) {
+                        this.propertyValues = Arrays.copyOf(
+                                this.propertyValues, Math.max(index + 1,
+                                        this.propertySchema.size()));
+                    }
+                    this.propertyValues[index] = value;
+                    this.propertyMask |= bit;
+                    return;
+                }
+            }
+            initializeProperties();
+        }
+        this.properties.put(name, value);
     }
 
     @Override
@@ -133,22 +182,60 @@ public abstract class AbstractProposition implements Proposition {
         if (name == null) {
             throw new IllegalArgumentException("name cannot be null");
         } else {
-            if (this.properties == null) {
+            if (this.properties != null) {
+                return this.properties.get(name);
+            } else if (this.propertyMask == 0) {
                 return null;
             } else {
-                return this.properties.get(name);
+                int index = this.propertySchema.indexOf(name);
+                if (index < 0 || (this.propertyMask & (1L << index)) == 0) {
+                    return null;
+                } else {
+                    return this.propertyValues[index];
+                }
             }
         }
     }
 
     @Override
     public final String[] getPropertyNames() {
-        if (this.properties == null) {
-            return ArrayUtils.EMPTY_STRING_ARRAY;
-        } else {
+        if (this.properties != null) {
             Set<String> propNames = this.properties.keySet();
             return propNames.toArray(new String[propNames.size()]);
+        } else if (this.propertyMask == 0) {
+            return ArrayUtils.EMPTY_STRING_ARRAY;
+        } else {
+            String[] propNames = new String[Long.bitCount(this.propertyMask)];
+            int j = 0;
+            for (long m = this.propertyMask; m != 0; m &= m - 1) {
+                propNames[j++] = this.propertySchema.getName(
+                        Long.numberOfTrailingZeros(m));
+            }
+            return propNames;
+        }
+    }
+
+    private boolean hasProperties() {
+        return this.properties != null || this.propertyMask != 0;
+    }
+
+    private boolean propertiesEqual(AbstractProposition p) {
+        String[] propNames = getPropertyNames();
+        if (propNames.length != p.getPropertyNames().length) {
+            return false;
         }
+        for (String propName : propNames) {
+            Value value = getProperty(propName);
+            Value otherValue = p.getProperty(propName);
+            if (!Objects.equals(value, otherValue)) {
+                return false;
+            }
+            if (otherValue == null && !ArrayUtils.contains(
+                    p.getPropertyNames(), propName)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -251,9 +338,8 @@ public abstract class AbstractProposition implements Proposition {
 
         AbstractProposition p = (AbstractProposition) other;
         return (id == p.id || id.equals(p.id))
-                && this.properties == p.properties
-                || (this.properties != null && this.properties
-                .equals(p.properties));
+                && !hasProperties() && !p.hasProperties()
+                || (hasProperties() && propertiesEqual(p));
 
     }
 
@@ -290,9 +376,7 @@ public abstract class AbstractProposition implements Proposition {
         s.writeObject(this.id);
         s.writeObject(this.uniqueId);
 
-        if (this.properties == null) {
-            s.writeInt(0);
-        } else {
+        if (this.properties != null) {
             s.writeInt(this.properties.size());
             for (Map.Entry<String, Value> me : this.properties.entrySet()) {
                 String propertyName = me.getKey();
@@ -300,6 +384,13 @@ public abstract class AbstractProposition implements Proposition {
                 s.writeObject(propertyName);
                 s.writeObject(val);
             }
+        } else {
+            s.writeInt(Long.bitCount(this.propertyMask));
+            for (long m = this.propertyMask; m != 0; m &= m - 1) {
+                int i = Long.numberOfTrailingZeros(m);
+                s.writeObject(this.propertySchema.getName(i));
+                s.writeObject(this.propertyValues[i]);
+            }
         }
 
         if (this.references == null) {
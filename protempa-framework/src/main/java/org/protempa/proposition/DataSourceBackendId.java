@@ -53,7 +53,7 @@ public final class DataSourceBackendId extends SourceId {
     }
 
     @Override
-    String getId() {
+    public String getId() {
         return this.id;
     }
 
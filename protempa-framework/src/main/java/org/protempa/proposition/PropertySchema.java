@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.proposition;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The property names of the propositions with a given proposition id, in the
+ * order in which they were first set. Propositions store the values of these
+ * properties in an array indexed by their position in the schema rather than
+ * in a map of their own. A schema only grows, and it holds at most
+ * {@link #MAX_SIZE} names. Propositions store any further properties in a
+ * map.
+ *
+ * @author Andrew Post
+ */
+final class PropertySchema {
+
+    /**
+     * The maximum number of property names in a schema.
+     */
+    static final int MAX_SIZE = 64;
+
+    private static final ConcurrentMap<String, PropertySchema> SCHEMAS
+            = new ConcurrentHashMap<>();
+
+    private volatile String[] names;
+
+    private PropertySchema() {
+        this.names = new String[0];
+    }
+
+    /**
+     * Gets the schema of a proposition id.
+     *
+     * @param propId a proposition id. Cannot be <code>null</code>.
+     * @return the schema. Guaranteed not <code>null</code>.
+     */
+    static PropertySchema getInstance(String propId) {
+        PropertySchema schema = SCHEMAS.get(propId);
+        if (schema == null) {
+            PropertySchema newSchema = new PropertySchema();
+            schema = SCHEMAS.putIfAbsent(propId, newSchema);
+            if (schema == null) {
+                schema = newSchema;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Gets the property name at an index.
+     *
+     * @param index an index less than {@link #size() }.
+     * @return a property name.
+     */
+    String getName(int index) {
+        return this.names[index];
+    }
+
+    /**
+     * Gets the number of property names in this schema.
+     *
+     * @return the number of property names.
+     */
+    int size() {
+        return this.names.length;
+    }
+
+    /**
+     * Gets the index of a property name.
+     *
+     * @param name a property name. Cannot be <code>null</code>.
+     * @return the index, or <code>-1</code> if the name is not in this
+     * schema.
+     */
+    int indexOf(String name) {
+        String[] n = this.names;
+        for (int i = 0; i < n.length; i++) {
+            if (n[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < n.length; i++) {
+            if (n[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the index of a property name, adding the name to this schema if
+     * it is not already present.
+     *
+     * @param name an interned property name. Cannot be <code>null</code>.
+     * @return the index, or <code>-1</code> if the name is not in this schema
+     * and this schema is full.
+     */
+    int indexOfOrAdd(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            synchronized (this) {
+                index = indexOf(name);
+                if (index < 0 && this.names.length < MAX_SIZE) {
+                    String[] n = Arrays.copyOf(this.names,
+                            this.names.length + 1);
+                    index = this.names.length;
+                    n[index] = name;
+                    this.names = n;
+                }
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.names);
+    }
+}
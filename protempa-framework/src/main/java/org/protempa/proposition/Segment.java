@@ -25,6 +25,8 @@ import java.util.AbstractList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.RandomAccess;
 
 import org.protempa.proposition.value.Granularity;
@@ -51,6 +53,19 @@ public class Segment<T extends TemporalProposition> extends AbstractList<T>
     private boolean intervalStale = true;
     private T maxFinishParam;
     private Interval interval;
+    /*
+     * The extrema of the segment's intervals are tracked over the range
+     * boundsX to boundsY of boundsSeq, and the range is moved to x to y when
+     * they are next needed. Because LowLevelAbstractionFinder mostly slides
+     * and grows segments, that usually only requires looking at the elements
+     * that entered the segment.
+     */
+    private Sequence<T> boundsSeq;
+    private int boundsX;
+    private int boundsY;
+    private WindowExtremum<T> maxFinishes;
+    private WindowExtremum<T> maxStarts;
+    private WindowExtremum<T> minFinishes;
 
     public Segment(Sequence<T> seq, int firstIndex, int lastIndex) {
         if (seq == null) {
@@ -157,8 +172,37 @@ public class Segment<T extends TemporalProposition> extends AbstractList<T>
 
     private void calcMaxFinishParam() {
         if (maxFinishParam == null) {
-            maxFinishParam = Collections.max(this,
-                    PropositionUtil.MAX_FINISH_COMP);
+            updateBounds();
+            maxFinishParam = ts.get(maxFinishes.getIndex());
+        }
+    }
+
+    private void updateBounds() {
+        if (maxFinishes == null) {
+            maxFinishes = new WindowExtremum<>(
+                    PropositionUtil.MAX_FINISH_COMP, true);
+            maxStarts = new WindowExtremum<>(MAX_START_COMP, false);
+            minFinishes = new WindowExtremum<>(MIN_FINISH_COMP, true);
+        }
+        if (boundsSeq != ts || x < boundsX || y < boundsY || x > boundsY) {
+            maxFinishes.clear();
+            maxStarts.clear();
+            minFinishes.clear();
+            boundsSeq = ts;
+            boundsX = x;
+            boundsY = x - 1;
+        }
+        for (int i = boundsY + 1; i <= y; i++) {
+            maxFinishes.add(ts, i);
+            maxStarts.add(ts, i);
+            minFinishes.add(ts, i);
+        }
+        boundsY = y;
+        if (x > boundsX) {
+            maxFinishes.removeBefore(x);
+            maxStarts.removeBefore(x);
+            minFinishes.removeBefore(x);
+            boundsX = x;
         }
     }
 
@@ -225,7 +269,7 @@ public class Segment<T extends TemporalProposition> extends AbstractList<T>
          */
         return segment.first().getInterval().getMinStart();
     }
-    private Comparator<TemporalProposition> MAX_START_COMP
+    private static final Comparator<TemporalProposition> MAX_START_COMP
             = new Comparator<TemporalProposition>() {
 
                 @Override
@@ -246,9 +290,10 @@ public class Segment<T extends TemporalProposition> extends AbstractList<T>
 
     private Long maximumStart(
             Segment<T> segment) {
-        return Collections.min(segment, MAX_START_COMP).getInterval().getMaxStart();
+        updateBounds();
+        return ts.get(maxStarts.getIndex()).getInterval().getMaxStart();
     }
-    private Comparator<TemporalProposition> MIN_FINISH_COMP
+    private static final Comparator<TemporalProposition> MIN_FINISH_COMP
             = new Comparator<TemporalProposition>() {
 
                 @Override
@@ -269,6 +314,72 @@ public class Segment<T extends TemporalProposition> extends AbstractList<T>
 
     private Long minimumFinish(
             Segment<T> segment) {
-        return Collections.max(segment, MIN_FINISH_COMP).getInterval().getMinFinish();
+        updateBounds();
+        return ts.get(minFinishes.getIndex()).getInterval().getMinFinish();
+    }
+
+    /**
+     * The index of the largest or smallest element of a sliding window over a
+     * list, maintained with a deque of indices whose elements are in
+     * decreasing (or increasing) order. Adding an element to the end of the
+     * window and removing elements from its start take amortized constant
+     * time. Ties go to the element closest to the start of the window, like
+     * {@link Collections#max(Collection, Comparator)} and
+     * {@link Collections#min(Collection, Comparator)}.
+     */
+    private static final class WindowExtremum<T> {
+
+        private final Comparator<? super T> comparator;
+        private final boolean max;
+        private int[] indices;
+        private int head;
+        private int tail;
+
+        WindowExtremum(Comparator<? super T> comparator, boolean max) {
+            this.comparator = comparator;
+            this.max = max;
+            this.indices = new int[16];
+        }
+
+        void clear() {
+            this.head = 0;
+            this.tail = 0;
+        }
+
+        void add(List<T> list, int index) {
+            T t = list.get(index);
+            while (this.tail > this.head) {
+                int c = this.comparator.compare(t,
+                        list.get(this.indices[this.tail - 1]));
+                if (this.max ? c > 0 : c < 0) {
+                    this.tail--;
+                } else {
+                    break;
+                }
+            }
+            if (this.tail == this.indices.length) {
+                int size = this.tail - this.head;
+                int[] dest = size > this.indices.length / 2
+                        ? new int[this.indices.length * 2] : this.indices;
+                System.arraycopy(this.indices, this.head, dest, 0, size);
+                this.indices = dest;
+                this.head = 0;
+                this.tail = size;
+            }
+            this.indices[this.tail++] = index;
+        }
+
+        void removeBefore(int index) {
+            while (this.head < this.tail && this.indices[this.head] < index) {
+                this.head++;
+            }
+        }
+
+        int getIndex() {
+            if (this.head == this.tail) {
+                throw new NoSuchElementException();
+            }
+            return this.indices[this.head];
+        }
     }
 }
@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.proposition.interval;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.protempa.proposition.value.Granularity;
+
+/**
+ * Interns {@link Interval}s for {@link IntervalFactory}. Lookups do not lock.
+ * Intervals are softly referenced, so the garbage collector may evict them
+ * when memory is low.
+ *
+ * @author Andrew Post
+ */
+final class IntervalCache {
+
+    /**
+     * The arguments to one of {@link IntervalFactory}'s
+     * <code>getInstance</code> methods. The kind distinguishes methods with
+     * different arguments, and each bit of the null mask records whether the
+     * corresponding position is <code>null</code>.
+     */
+    static final class Key {
+
+        private final int kind;
+        private final int nullMask;
+        private final long a;
+        private final long b;
+        private final long c;
+        private final long d;
+        private final Granularity gran1;
+        private final Granularity gran2;
+        private final int hashCode;
+
+        private Key(int kind, Long a, Long b, Long c, Long d,
+                Granularity gran1, Granularity gran2) {
+            this.kind = kind;
+            int mask = 0;
+            if (a == null) {
+                mask |= 1;
+                this.a = 0L;
+            } else {
+                this.a = a;
+            }
+            if (b == null) {
+                mask |= 2;
+                this.b = 0L;
+            } else {
+                this.b = b;
+            }
+            if (c == null) {
+                mask |= 4;
+                this.c = 0L;
+            } else {
+                this.c = c;
+            }
+            if (d == null) {
+                mask |= 8;
+                this.d = 0L;
+            } else {
+                this.d = d;
+            }
+            this.nullMask = mask;
+            this.gran1 = gran1;
+            this.gran2 = gran2;
+            int h = 31 * kind + mask;
+            h = 31 * h + hash(this.a);
+            h = 31 * h + hash(this.b);
+            h = 31 * h + hash(this.c);
+            h = 31 * h + hash(this.d);
+            h = 31 * h + (gran1 != null ? gran1.hashCode() : 0);
+            h = 31 * h + (gran2 != null ? gran2.hashCode() : 0);
+            this.hashCode = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.hashCode == other.hashCode
+                    && this.kind == other.kind
+                    && this.nullMask == other.nullMask
+                    && this.a == other.a
+                    && this.b == other.b
+                    && this.c == other.c
+                    && this.d == other.d
+                    && (this.gran1 == other.gran1
+                    || (this.gran1 != null && this.gran1.equals(other.gran1)))
+                    && (this.gran2 == other.gran2
+                    || (this.gran2 != null && this.gran2.equals(other.gran2)));
+        }
+
+        private static int hash(long l) {
+            return (int) (l ^ (l >>> 32));
+        }
+    }
+
+    private static final class IntervalReference
+            extends SoftReference<Interval> {
+
+        private final Key key;
+
+        IntervalReference(Key key, Interval interval,
+                ReferenceQueue<Interval> queue) {
+            super(interval, queue);
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentMap<Key, IntervalReference> map;
+    private final ReferenceQueue<Interval> queue;
+    /*
+     * Every lookup counts a hit or a miss, so the counters are striped to
+     * keep threads from contending on them.
+     */
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    IntervalCache() {
+        this.map = new ConcurrentHashMap<>(256, 0.75f,
+                Runtime.getRuntime().availableProcessors() * 4);
+        this.queue = new ReferenceQueue<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    static Key key(Long minStart, Long maxStart, Granularity startGran,
+            Long minFinish, Long maxFinish, Granularity finishGran) {
+        return new Key(0, minStart, maxStart, minFinish, maxFinish,
+                startGran, finishGran);
+    }
+
+    static Key key(Long start, Granularity startGran, Long finish,
+            Granularity finishGran) {
+        return new Key(1, start, null, finish, null, startGran, finishGran);
+    }
+
+    static Key key(Long position, Granularity gran) {
+        return new Key(2, position, null, null, null, gran, null);
+    }
+
+    /**
+     * Gets the interval with the given key.
+     *
+     * @param key a {@link Key}.
+     * @return the {@link Interval}, or <code>null</code> if it is not in the
+     * cache.
+     */
+    Interval get(Key key) {
+        IntervalReference ref = this.map.get(key);
+        Interval result = ref != null ? ref.get() : null;
+        if (result != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Adds an interval to the cache unless another thread added an interval
+     * with the same key first.
+     *
+     * @param key a {@link Key}.
+     * @param interval the {@link Interval} to add.
+     * @return the {@link Interval} in the cache with the given key.
+     */
+    Interval putIfAbsent(Key key, Interval interval) {
+        expungeStaleEntries();
+        IntervalReference ref = new IntervalReference(key, interval,
+                this.queue);
+        while (true) {
+            IntervalReference old = this.map.putIfAbsent(key, ref);
+            if (old == null) {
+                return interval;
+            }
+            Interval oldInterval = old.get();
+            if (oldInterval != null) {
+                return oldInterval;
+            }
+            if (this.map.replace(key, old, ref)) {
+                this.evictions.increment();
+                return interval;
+            }
+        }
+    }
+
+    long getHitCount() {
+        return this.hits.sum();
+    }
+
+    long getMissCount() {
+        return this.misses.sum();
+    }
+
+    long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    int size() {
+        return this.map.size();
+    }
+
+    private void expungeStaleEntries() {
+        IntervalReference ref;
+        while ((ref = (IntervalReference) this.queue.poll()) != null) {
+            if (this.map.remove(ref.key, ref)) {
+                this.evictions.increment();
+            }
+        }
+    }
+}
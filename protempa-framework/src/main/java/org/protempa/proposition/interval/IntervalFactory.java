@@ -19,18 +19,14 @@
  */
 package org.protempa.proposition.interval;
 
-import org.apache.commons.collections4.map.ReferenceMap;
 import org.protempa.proposition.value.AbsoluteTimeGranularity;
 import org.protempa.proposition.value.Granularity;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-
 /**
  * A factory for creating {@link Interval} objects. A subclass of
  * {@link Interval} will be returned that is optimized for the arguments that
- * are provided to this factory's <code>getInstance</code> methods.
+ * are provided to this factory's <code>getInstance</code> methods. Intervals
+ * are cached and shared across threads.
  *
  * @author Andrew Post
  */
@@ -41,7 +37,36 @@ public final class IntervalFactory {
         private static Interval defaultInterval = new DefaultInterval();
     }
 
-    private static final Map<List<Object>, Interval> cache = new ReferenceMap<>();
+    private static final IntervalCache cache = new IntervalCache();
+
+    /**
+     * Returns how many times an interval was found in the cache.
+     *
+     * @return a non-negative number.
+     */
+    public static long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Returns how many times an interval was not found in the cache and had
+     * to be created.
+     *
+     * @return a non-negative number.
+     */
+    public static long getCacheMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Returns how many intervals were removed from the cache after the
+     * garbage collector reclaimed them.
+     *
+     * @return a non-negative number.
+     */
+    public static long getCacheEvictionCount() {
+        return cache.getEvictionCount();
+    }
 
     /**
      * Returns an interval specified by the given minimum start, maximum start,
@@ -71,22 +96,19 @@ public final class IntervalFactory {
     public Interval getInstance(Long minStart, Long maxStart,
             Granularity startGran, Long minFinish, Long maxFinish,
             Granularity finishGran) {
-        List<Object> key = Arrays.asList(new Object[]{minStart, maxStart,
-            startGran, minFinish, maxFinish, finishGran});
-        Interval result;
-        synchronized (cache) {
-            result = cache.get(key);
-            if (result == null) {
-                if (minStart == null || maxStart == null || minFinish == null
-                        || maxFinish == null) {
-                    result = new DefaultInterval(minStart, maxStart, startGran,
-                            minFinish, maxFinish, finishGran, null, null, null);
-                } else {
-                    result = new SimpleInterval(minStart, maxStart,
-                            startGran, minFinish, maxFinish, finishGran);
-                }
-                cache.put(key, result);
+        IntervalCache.Key key = IntervalCache.key(minStart, maxStart,
+                startGran, minFinish, maxFinish, finishGran);
+        Interval result = cache.get(key);
+        if (result == null) {
+            if (minStart == null || maxStart == null || minFinish == null
+                    || maxFinish == null) {
+                result = new DefaultInterval(minStart, maxStart, startGran,
+                        minFinish, maxFinish, finishGran, null, null, null);
+            } else {
+                result = new SimpleInterval(minStart, maxStart,
+                        startGran, minFinish, maxFinish, finishGran);
             }
+            result = cache.putIfAbsent(key, result);
         }
         return result;
     }
@@ -109,19 +131,16 @@ public final class IntervalFactory {
      */
     public Interval getInstance(Long start, Granularity startGran,
             Long finish, Granularity finishGran) {
-        List<Object> key = Arrays.asList(new Object[]{start, startGran,
-            finish, finishGran});
-        Interval result;
-        synchronized (cache) {
-            result = cache.get(key);
-            if (result == null) {
-                if (start == null || finish == null) {
-                    result = new DefaultInterval(start, startGran, finish, finishGran);
-                } else {
-                    result = new SimpleInterval(start, startGran, finish, finishGran);
-                }
-                cache.put(key, result);
+        IntervalCache.Key key = IntervalCache.key(start, startGran, finish,
+                finishGran);
+        Interval result = cache.get(key);
+        if (result == null) {
+            if (start == null || finish == null) {
+                result = new DefaultInterval(start, startGran, finish, finishGran);
+            } else {
+                result = new SimpleInterval(start, startGran, finish, finishGran);
             }
+            result = cache.putIfAbsent(key, result);
         }
         return result;
     }
@@ -141,18 +160,15 @@ public final class IntervalFactory {
      * @return an {@link Interval}.
      */
     public Interval getInstance(Long position, Granularity gran) {
-        List<Object> key = Arrays.asList(new Object[]{position, gran});
-        Interval result;
-        synchronized (cache) {
-            result = cache.get(key);
-            if (result == null) {
-                if (position == null) {
-                    result = new DefaultInterval(position, gran, position, gran);
-                } else {
-                    result = new SimpleInterval(position, gran);
-                }
-                cache.put(key, result);
+        IntervalCache.Key key = IntervalCache.key(position, gran);
+        Interval result = cache.get(key);
+        if (result == null) {
+            if (position == null) {
+                result = new DefaultInterval(position, gran, position, gran);
+            } else {
+                result = new SimpleInterval(position, gran);
             }
+            result = cache.putIfAbsent(key, result);
         }
         return result;
     }
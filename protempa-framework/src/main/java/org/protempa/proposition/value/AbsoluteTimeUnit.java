@@ -161,7 +161,7 @@ public class AbsoluteTimeUnit extends AbstractTimeUnit {
 
         return pos;
     }
-    private transient final Calendar cal;
+    private transient final CalendarArithmetic calendarArithmetic;
     private transient final boolean isUsingFastDurationCalculations;
     private int ordinal = nextOrdinal++;
 
@@ -172,7 +172,7 @@ public class AbsoluteTimeUnit extends AbstractTimeUnit {
         super(name, pluralName, abbreviation, shortFormat,
                 mediumFormat, longFormat, length, calUnits);
 
-        this.cal = Calendar.getInstance();
+        this.calendarArithmetic = new CalendarArithmetic();
 
         if (fastDurationCalcsEnabled) {
             this.isUsingFastDurationCalculations = canUseFastDistanceCalcs;
@@ -210,11 +210,8 @@ public class AbsoluteTimeUnit extends AbstractTimeUnit {
         if (this.isUsingFastDurationCalculations) {
             return position + duration * getLength();
         } else {
-            synchronized (this.cal) {
-                this.cal.setTimeInMillis(position);
-                this.cal.add(getCalendarUnits(), duration);
-                return this.cal.getTimeInMillis();
-            }
+            return this.calendarArithmetic.add(position, getCalendarUnits(),
+                    duration);
         }
     }
 }
@@ -0,0 +1,341 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.proposition.value;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Date/time arithmetic with the same results as the
+ * {@link Calendar#add(int, int)} and {@link Calendar#set(int, int)} methods
+ * of the default {@link Calendar}, but without a {@link Calendar} or locks.
+ * Instances are immutable and may be shared across threads.
+ *
+ * Arithmetic is done on epoch days and milliseconds using the time zone's
+ * {@link ZoneRules}. {@link TimeZone} and {@link ZoneRules} only agree from
+ * 1901 through 2036, so positions and results outside of those years use a
+ * new {@link Calendar} for each call instead, as do default calendars that
+ * are not plain {@link GregorianCalendar}s or that have time zones without
+ * equivalent {@link ZoneRules}.
+ *
+ * @author Andrew Post
+ */
+final class CalendarArithmetic {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * January 1, 1901 UTC.
+     */
+    private static final long MIN_FAST_POSITION = -2177452800000L;
+
+    /**
+     * January 1, 2037 UTC.
+     */
+    private static final long MAX_FAST_POSITION = 2114380800000L;
+
+    private static final int MIN_FAST_YEAR = 1901;
+    private static final int MAX_FAST_YEAR = 2036;
+
+    private final TimeZone timeZone;
+    private final ZoneRules rules;
+    private final ZoneOffset fixedOffset;
+    private final Calendar prototype;
+
+    /**
+     * Creates an instance with the default time zone and locale, like
+     * {@link Calendar#getInstance()}.
+     */
+    CalendarArithmetic() {
+        this(Calendar.getInstance());
+    }
+
+    /**
+     * Creates an instance with the given time zone and a Gregorian calendar.
+     *
+     * @param timeZone a {@link TimeZone}.
+     */
+    CalendarArithmetic(TimeZone timeZone) {
+        this(new GregorianCalendar(timeZone));
+    }
+
+    private CalendarArithmetic(Calendar cal) {
+        this.timeZone = cal.getTimeZone();
+        ZoneRules zoneRules = null;
+        if (cal.getClass() == GregorianCalendar.class
+                && ((GregorianCalendar) cal).getGregorianChange().getTime()
+                == -12219292800000L) {
+            try {
+                ZoneId zoneId = this.timeZone.toZoneId();
+                if (TimeZone.getTimeZone(zoneId).hasSameRules(this.timeZone)) {
+                    zoneRules = zoneId.getRules();
+                }
+            } catch (RuntimeException ex) {
+                zoneRules = null;
+            }
+        }
+        this.rules = zoneRules;
+        if (zoneRules != null && zoneRules.isFixedOffset()) {
+            this.fixedOffset = zoneRules.getOffset(Instant.EPOCH);
+        } else {
+            this.fixedOffset = null;
+        }
+        this.prototype = cal;
+    }
+
+    /**
+     * Adds an amount of time like {@link Calendar#add(int, int)}.
+     *
+     * @param position milliseconds since the epoch.
+     * @param calendarField one of {@link Calendar#MILLISECOND},
+     * {@link Calendar#SECOND}, {@link Calendar#MINUTE},
+     * {@link Calendar#HOUR_OF_DAY}, {@link Calendar#DATE},
+     * {@link Calendar#WEEK_OF_MONTH}, {@link Calendar#MONTH} or
+     * {@link Calendar#YEAR}.
+     * @param amount the amount to add.
+     * @return milliseconds since the epoch.
+     */
+    long add(long position, int calendarField, int amount) {
+        switch (calendarField) {
+            case Calendar.MILLISECOND:
+                return position + amount;
+            case Calendar.SECOND:
+                return position + amount * 1000L;
+            case Calendar.MINUTE:
+                return position + amount * 60000L;
+            case Calendar.HOUR_OF_DAY:
+                return position + amount * 3600000L;
+            default:
+        }
+        if (!isFast(position)) {
+            return addSlow(position, calendarField, amount);
+        }
+        long result;
+        switch (calendarField) {
+            case Calendar.DATE:
+                result = addDays(position, amount);
+                break;
+            case Calendar.WEEK_OF_MONTH:
+                result = addDays(position, 7L * amount);
+                break;
+            case Calendar.MONTH:
+            case Calendar.YEAR:
+                result = addMonthsOrYears(position, calendarField, amount);
+                break;
+            default:
+                return addSlow(position, calendarField, amount);
+        }
+        if (!isFast(result)) {
+            return addSlow(position, calendarField, amount);
+        }
+        return result;
+    }
+
+    /**
+     * Sets the fields smaller than the given one to their minimum values,
+     * like calling {@link Calendar#set(int, int)} with
+     * {@link Calendar#getActualMinimum(int)} for each of them.
+     *
+     * @param position milliseconds since the epoch.
+     * @param calendarField one of {@link Calendar#MILLISECOND},
+     * {@link Calendar#SECOND}, {@link Calendar#MINUTE},
+     * {@link Calendar#HOUR_OF_DAY}, {@link Calendar#DATE},
+     * {@link Calendar#MONTH} or {@link Calendar#YEAR}.
+     * @return milliseconds since the epoch.
+     * @throws IllegalArgumentException if the calendar field is not one of
+     * those.
+     */
+    long truncate(long position, int calendarField) {
+        if (!isFast(position)) {
+            return truncateSlow(position, calendarField);
+        }
+        long local = position + offsetMillis(position);
+        long epochDay = Math.floorDiv(local, MILLIS_PER_DAY);
+        long timeOfDay = Math.floorMod(local, MILLIS_PER_DAY);
+        switch (calendarField) {
+            case Calendar.MILLISECOND:
+                return position;
+            case Calendar.SECOND:
+                timeOfDay -= timeOfDay % 1000L;
+                break;
+            case Calendar.MINUTE:
+                timeOfDay -= timeOfDay % 60000L;
+                break;
+            case Calendar.HOUR_OF_DAY:
+                timeOfDay -= timeOfDay % 3600000L;
+                break;
+            case Calendar.DATE:
+                timeOfDay = 0L;
+                break;
+            case Calendar.MONTH: {
+                LocalDate date = LocalDate.ofEpochDay(epochDay);
+                epochDay -= date.getDayOfMonth() - 1;
+                timeOfDay = 0L;
+                break;
+            }
+            case Calendar.YEAR: {
+                LocalDate date = LocalDate.ofEpochDay(epochDay);
+                epochDay -= date.getDayOfYear() - 1;
+                timeOfDay = 0L;
+                break;
+            }
+            default:
+                return truncateSlow(position, calendarField);
+        }
+        return wallToPosition(epochDay * MILLIS_PER_DAY + timeOfDay);
+    }
+
+    /**
+     * Days and weeks keep the time of day. If the time zone offset changes,
+     * the result is adjusted by the difference unless that changes the
+     * date, as {@link GregorianCalendar} does.
+     */
+    private long addDays(long position, long days) {
+        long oldOffset = offsetMillis(position);
+        long local = position + oldOffset;
+        long epochDay = Math.floorDiv(local, MILLIS_PER_DAY) + days;
+        long timeOfDay = Math.floorMod(local, MILLIS_PER_DAY);
+        long result = epochDay * MILLIS_PER_DAY + timeOfDay - oldOffset;
+        long diff = oldOffset - offsetMillis(result);
+        if (diff != 0) {
+            long adjusted = result + diff;
+            long adjustedEpochDay = Math.floorDiv(
+                    adjusted + offsetMillis(adjusted), MILLIS_PER_DAY);
+            if (adjustedEpochDay == epochDay) {
+                result = adjusted;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Months and years keep the day of month, limited to the length of the
+     * resulting month, and the time of day.
+     */
+    private long addMonthsOrYears(long position, int calendarField,
+            int amount) {
+        long local = position + offsetMillis(position);
+        long epochDay = Math.floorDiv(local, MILLIS_PER_DAY);
+        long timeOfDay = Math.floorMod(local, MILLIS_PER_DAY);
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int year = date.getYear();
+        int month = date.getMonthValue() - 1;
+        if (calendarField == Calendar.YEAR) {
+            year += amount;
+        } else {
+            month += amount;
+            int yearAmount;
+            if (month >= 0) {
+                yearAmount = month / 12;
+            } else {
+                yearAmount = (month + 1) / 12 - 1;
+            }
+            year += yearAmount;
+            month %= 12;
+            if (month < 0) {
+                month += 12;
+            }
+        }
+        if (year < MIN_FAST_YEAR || year > MAX_FAST_YEAR) {
+            return addSlow(position, calendarField, amount);
+        }
+        LocalDate first = LocalDate.of(year, month + 1, 1);
+        int dayOfMonth = Math.min(date.getDayOfMonth(), first.lengthOfMonth());
+        long resultEpochDay = first.toEpochDay() + dayOfMonth - 1;
+        if (resultEpochDay * MILLIS_PER_DAY < MIN_FAST_POSITION) {
+            return addSlow(position, calendarField, amount);
+        }
+        return wallToPosition(resultEpochDay * MILLIS_PER_DAY + timeOfDay);
+    }
+
+    /**
+     * Converts local milliseconds to milliseconds since the epoch. Local
+     * times in a gap use the offset before the gap. Local times in an
+     * overlap use the offset after the overlap.
+     */
+    private long wallToPosition(long local) {
+        if (this.fixedOffset != null) {
+            return local - this.fixedOffset.getTotalSeconds() * 1000L;
+        }
+        LocalDateTime ldt = LocalDateTime.ofEpochSecond(
+                Math.floorDiv(local, 1000L),
+                (int) Math.floorMod(local, 1000L) * 1000000,
+                ZoneOffset.UTC);
+        ZoneOffsetTransition transition = this.rules.getTransition(ldt);
+        ZoneOffset offset;
+        if (transition == null) {
+            offset = this.rules.getOffset(ldt);
+        } else if (transition.isGap()) {
+            offset = transition.getOffsetBefore();
+        } else {
+            offset = transition.getOffsetAfter();
+        }
+        return local - offset.getTotalSeconds() * 1000L;
+    }
+
+    private long offsetMillis(long position) {
+        if (this.fixedOffset != null) {
+            return this.fixedOffset.getTotalSeconds() * 1000L;
+        }
+        return this.rules.getOffset(Instant.ofEpochMilli(position))
+                .getTotalSeconds() * 1000L;
+    }
+
+    private boolean isFast(long position) {
+        return this.rules != null
+                && position >= MIN_FAST_POSITION
+                && position < MAX_FAST_POSITION;
+    }
+
+    private long addSlow(long position, int calendarField, int amount) {
+        Calendar cal = (Calendar) this.prototype.clone();
+        cal.setTimeInMillis(position);
+        cal.add(calendarField, amount);
+        return cal.getTimeInMillis();
+    }
+
+    private long truncateSlow(long position, int calendarField) {
+        Calendar cal = (Calendar) this.prototype.clone();
+        cal.setTimeInMillis(position);
+        int[] fields = {Calendar.MILLISECOND, Calendar.SECOND,
+            Calendar.MINUTE, Calendar.HOUR_OF_DAY, Calendar.DATE,
+            Calendar.MONTH, Calendar.YEAR};
+        int i = 0;
+        while (i < fields.length && fields[i] != calendarField) {
+            i++;
+        }
+        if (i == fields.length) {
+            throw new IllegalArgumentException(
+                    "unsupported calendar field: " + calendarField);
+        }
+        for (i--; i >= 0; i--) {
+            cal.set(fields[i], cal.getActualMinimum(fields[i]));
+        }
+        return cal.getTimeInMillis();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.protempa.proposition.AbstractParameter;
+import org.protempa.proposition.Segment;
+import org.protempa.proposition.Sequence;
+import org.protempa.proposition.interval.Interval;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.proposition.value.AbsoluteTimeUnit;
+import org.protempa.proposition.value.NominalValue;
+
+/**
+ * Checks that {@link AbstractionCombinerSweepConsequence} combines abstract
+ * parameters into the same intervals as repeatedly applying
+ * {@link AbstractionCombinerCondition} to pairs.
+ */
+public class AbstractionCombinerSweepConsequenceTest extends ProtempaTestCase {
+
+    private static final IntervalFactory INTERVAL_FACTORY = new IntervalFactory();
+    private static final HorizontalTemporalInference HTI = new HorizontalTemporalInference();
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private LowLevelAbstractionDefinition def;
+    private AbstractionCombinerSweepConsequence consequence;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.def = new LowLevelAbstractionDefinition("LLA");
+        this.def.setGapFunction(new SimpleGapFunction(1, AbsoluteTimeUnit.DAY));
+        this.consequence = new AbstractionCombinerSweepConsequence(this.def);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.def = null;
+        this.consequence = null;
+    }
+
+    public void testSameIntervalsAsPairwise() {
+        Random random = new Random(7L);
+        for (int trial = 0; trial < 20; trial++) {
+            List<AbstractParameter> params = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                long start = random.nextInt(100) * DAY;
+                params.add(newParameter(
+                        random.nextBoolean() ? "A" : "B",
+                        random.nextBoolean() ? null : "C",
+                        start, start + random.nextInt(4) * DAY));
+            }
+            List<String> expected = pairwise(params);
+            List<String> actual = new ArrayList<>();
+            for (Segment<AbstractParameter> segment
+                    : this.consequence.sweep(params)) {
+                actual.add(describe(segment.first(), segment.getInterval()));
+            }
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    public void testMergeSameIntervalsAsPairwise() {
+        Random random = new Random(11L);
+        for (int trial = 0; trial < 20; trial++) {
+            List<AbstractParameter> params = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                long start = random.nextInt(100) * DAY;
+                params.add(newParameter(
+                        random.nextBoolean() ? "A" : "B",
+                        random.nextBoolean() ? null : "C",
+                        start, start + random.nextInt(4) * DAY));
+            }
+            List<List<AbstractParameter>> groups = new ArrayList<>();
+            List<AbstractParameter> added = new ArrayList<>();
+            int i = 0;
+            while (i < params.size() || !added.isEmpty()) {
+                for (int n = random.nextInt(4); n >= 0 && i < params.size(); n--) {
+                    added.add(params.get(i++));
+                }
+                List<Segment<AbstractParameter>> segments
+                        = this.consequence.merge(groups, added, null);
+                added = new ArrayList<>();
+                for (Segment<AbstractParameter> segment : segments) {
+                    assertTrue(segment.size() > 1);
+                    AbstractParameter first = segment.first();
+                    added.add(newParameter(first.getValue().getFormatted(),
+                            first.getContextId(),
+                            segment.getInterval().getMinStart(),
+                            segment.getInterval().getMaxFinish()));
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            for (List<AbstractParameter> group : groups) {
+                for (AbstractParameter param : group) {
+                    actual.add(describe(param, param.getInterval()));
+                }
+            }
+            Collections.sort(actual);
+            assertEquals(pairwise(params), actual);
+        }
+    }
+
+    public void testMergeSweepsOnlyAroundAddedParameters() {
+        List<List<AbstractParameter>> groups = new ArrayList<>();
+        List<AbstractParameter> added = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            added.add(newParameter("A", null, i * 10 * DAY, i * 10 * DAY));
+        }
+        assertTrue(this.consequence.merge(groups, added, null).isEmpty());
+        assertEquals(1, groups.size());
+        assertEquals(10, groups.get(0).size());
+
+        added = new ArrayList<>();
+        added.add(newParameter("A", null, 41 * DAY, 49 * DAY));
+        List<Segment<AbstractParameter>> segments
+                = this.consequence.merge(groups, added, null);
+        assertEquals(1, segments.size());
+        assertEquals(3, segments.get(0).size());
+        assertEquals(40 * DAY,
+                segments.get(0).getInterval().getMinStart().longValue());
+        assertEquals(50 * DAY,
+                segments.get(0).getInterval().getMaxFinish().longValue());
+        assertEquals(8, groups.get(0).size());
+    }
+
+    public void testMergeAllCombinesUnionWithPredecessor() {
+        LowLevelAbstractionDefinition d = new LowLevelAbstractionDefinition("LLA");
+        d.setGapFunction(new GapFunction() {
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * Allows a gap of 1 day, or of 2 days before a parameter that is
+             * at least 3 days long.
+             */
+            @Override
+            public boolean execute(Interval lhs, Interval rhs) {
+                long gap = rhs.getMinStart() - lhs.getMaxFinish();
+                long length = rhs.getMaxFinish() - rhs.getMinStart();
+                return gap <= DAY || (gap <= 2 * DAY && length >= 3 * DAY);
+            }
+        });
+        AbstractionCombinerSweepConsequence c
+                = new AbstractionCombinerSweepConsequence(d);
+        List<AbstractParameter> params = new ArrayList<>();
+        params.add(newParameter("A", null, 0, DAY));
+        params.add(newParameter("A", null, 3 * DAY, 4 * DAY));
+        params.add(newParameter("A", null, 4 * DAY, 6 * DAY));
+        assertFalse(d.getGapFunction().execute(params.get(0), params.get(1)));
+
+        List<List<AbstractParameter>> groups = new ArrayList<>();
+        c.mergeAll(groups, new ArrayList<>(params), null,
+                new AbstractCombinerSweepConsequence.SegmentCombiner<AbstractParameter>() {
+            @Override
+            public AbstractParameter combine(Segment<AbstractParameter> segment) {
+                AbstractParameter first = segment.first();
+                return newParameter(first.getValue().getFormatted(),
+                        first.getContextId(),
+                        segment.getInterval().getMinStart(),
+                        segment.getInterval().getMaxFinish());
+            }
+        });
+        assertEquals(1, groups.size());
+        assertEquals(1, groups.get(0).size());
+        Interval result = groups.get(0).get(0).getInterval();
+        assertEquals(0L, result.getMinStart().longValue());
+        assertEquals(6 * DAY, result.getMaxFinish().longValue());
+    }
+
+    public void testEveryParameterInOneSegment() {
+        List<AbstractParameter> params = new ArrayList<>();
+        params.add(newParameter("A", null, 0, DAY));
+        params.add(newParameter("A", null, 2 * DAY, 3 * DAY));
+        params.add(newParameter("A", null, 10 * DAY, 11 * DAY));
+        params.add(newParameter("B", null, DAY, 2 * DAY));
+        List<Segment<AbstractParameter>> segments =
+                this.consequence.sweep(params);
+        assertEquals(3, segments.size());
+        int size = 0;
+        for (Segment<AbstractParameter> segment : segments) {
+            size += segment.size();
+        }
+        assertEquals(params.size(), size);
+    }
+
+    private AbstractParameter newParameter(String value, String contextId,
+            long start, long finish) {
+        AbstractParameter param = new AbstractParameter("LLA", getUid());
+        param.setValue(NominalValue.getInstance(value));
+        param.setContextId(contextId);
+        param.setInterval(INTERVAL_FACTORY.getInstance(start,
+                AbsoluteTimeGranularity.DAY, finish,
+                AbsoluteTimeGranularity.DAY));
+        return param;
+    }
+
+    private List<String> pairwise(List<AbstractParameter> params) {
+        List<AbstractParameter> facts = new ArrayList<>(params);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            PAIR_LOOP:
+            for (AbstractParameter a1 : facts) {
+                for (AbstractParameter a2 : facts) {
+                    if (a1 != a2
+                            && a1.getValue().equals(a2.getValue())
+                            && (a1.getContextId() == null ? a2.getContextId() == null : a1.getContextId().equals(a2.getContextId()))
+                            && a1.getInterval().compareTo(a2.getInterval()) <= 0
+                            && (HTI.execute(this.def, a1, a2) || this.def.getGapFunction().execute(a1, a2))) {
+                        Sequence<AbstractParameter> s = new Sequence<>("LLA", 2);
+                        s.add(a1);
+                        s.add(a2);
+                        AbstractParameter result = new AbstractParameter("LLA", getUid());
+                        result.setValue(a1.getValue());
+                        result.setContextId(a1.getContextId());
+                        result.setInterval(new Segment<>(s).getInterval());
+                        facts.remove(a1);
+                        facts.remove(a2);
+                        facts.add(result);
+                        changed = true;
+                        break PAIR_LOOP;
+                    }
+                }
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (AbstractParameter fact : facts) {
+            result.add(describe(fact, fact.getInterval()));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static String describe(AbstractParameter param, Interval interval) {
+        return param.getValue() + "/" + param.getContextId() + "/"
+                + interval.getMinStart() + "-" + interval.getMaxFinish();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.protempa.proposition.Proposition;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class DataStreamerIteratorTest extends TestCase {
+
+    private static class ListDataStreamingEventIterator
+            implements DataStreamingEventIterator<Proposition> {
+
+        private final Iterator<DataStreamingEvent<Proposition>> itr;
+
+        ListDataStreamingEventIterator(
+                List<DataStreamingEvent<Proposition>> events) {
+            this.itr = events.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.itr.hasNext();
+        }
+
+        @Override
+        public DataStreamingEvent<Proposition> next() {
+            return this.itr.next();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public void testNoIterators() throws DataSourceReadException {
+        DataStreamerIterator<Proposition> itr =
+                new DataStreamerIterator<>(
+                new ArrayList<DataStreamingEventIterator<Proposition>>());
+        assertFalse(itr.hasNext());
+    }
+
+    public void testEmptyIterators() throws DataSourceReadException {
+        List<List<DataStreamingEvent<Proposition>>> events = new ArrayList<>();
+        events.add(Collections.<DataStreamingEvent<Proposition>>emptyList());
+        events.add(Collections.<DataStreamingEvent<Proposition>>emptyList());
+        assertFalse(newIterator(events).hasNext());
+    }
+
+    public void testSameKeyIsRoundRobin() throws DataSourceReadException {
+        DataStreamingEvent<Proposition> a1 = event("a");
+        DataStreamingEvent<Proposition> a2 = event("a");
+        DataStreamingEvent<Proposition> a3 = event("a");
+        DataStreamingEvent<Proposition> b1 = event("b");
+        List<List<DataStreamingEvent<Proposition>>> events = new ArrayList<>();
+        List<DataStreamingEvent<Proposition>> first = new ArrayList<>();
+        first.add(a1);
+        first.add(a3);
+        first.add(b1);
+        events.add(first);
+        events.add(Collections.singletonList(a2));
+        List<DataStreamingEvent<Proposition>> expected = new ArrayList<>();
+        expected.add(a1);
+        expected.add(a2);
+        expected.add(a3);
+        expected.add(b1);
+        assertEquals(expected, drain(newIterator(events)));
+    }
+
+    public void testMergeManyIterators() throws DataSourceReadException {
+        Random random = new Random(7L);
+        List<List<DataStreamingEvent<Proposition>>> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            List<DataStreamingEvent<Proposition>> l = new ArrayList<>();
+            for (int j = 0; j < 200; j++) {
+                if (random.nextInt(4) == 0) {
+                    l.add(event(String.format("%05d", j)));
+                }
+            }
+            events.add(l);
+        }
+        assertEquals(linearMerge(events), drain(newIterator(events)));
+    }
+
+    public void testNextKeyId() throws DataSourceReadException {
+        List<List<DataStreamingEvent<Proposition>>> events = new ArrayList<>();
+        events.add(Collections.singletonList(event("b")));
+        events.add(Collections.singletonList(event("a")));
+        DataStreamerIterator<Proposition> itr = newIterator(events);
+        assertTrue(itr.hasNext());
+        assertEquals("a", itr.getNextKeyId());
+        assertEquals("a", itr.next().getKeyId());
+        assertTrue(itr.hasNext());
+        assertEquals("b", itr.getNextKeyId());
+        assertEquals("b", itr.next().getKeyId());
+        assertFalse(itr.hasNext());
+    }
+
+    private static DataStreamingEvent<Proposition> event(String keyId) {
+        return new DataStreamingEvent<>(keyId,
+                new ArrayList<Proposition>());
+    }
+
+    private static DataStreamerIterator<Proposition> newIterator(
+            List<List<DataStreamingEvent<Proposition>>> events)
+            throws DataSourceReadException {
+        List<DataStreamingEventIterator<Proposition>> itrs = new ArrayList<>();
+        for (List<DataStreamingEvent<Proposition>> l : events) {
+            itrs.add(new ListDataStreamingEventIterator(l));
+        }
+        return new DataStreamerIterator<>(itrs);
+    }
+
+    private static List<DataStreamingEvent<Proposition>> drain(
+            DataStreamerIterator<Proposition> itr)
+            throws DataSourceReadException {
+        List<DataStreamingEvent<Proposition>> result = new ArrayList<>();
+        while (itr.hasNext()) {
+            result.add(itr.next());
+        }
+        return result;
+    }
+
+    /**
+     * The expected order: the minimum key id across the iterators, taking
+     * one element per iterator per pass.
+     */
+    private static List<DataStreamingEvent<Proposition>> linearMerge(
+            List<List<DataStreamingEvent<Proposition>>> events) {
+        List<Iterator<DataStreamingEvent<Proposition>>> itrs =
+                new ArrayList<>();
+        List<DataStreamingEvent<Proposition>> current = new ArrayList<>();
+        for (List<DataStreamingEvent<Proposition>> l : events) {
+            Iterator<DataStreamingEvent<Proposition>> itr = l.iterator();
+            itrs.add(itr);
+            current.add(itr.hasNext() ? itr.next() : null);
+        }
+        List<DataStreamingEvent<Proposition>> result = new ArrayList<>();
+        while (true) {
+            String min = null;
+            for (DataStreamingEvent<Proposition> e : current) {
+                if (e != null
+                        && (min == null || e.getKeyId().compareTo(min) < 0)) {
+                    min = e.getKeyId();
+                }
+            }
+            if (min == null) {
+                return result;
+            }
+            for (int i = 0; i < current.size(); i++) {
+                DataStreamingEvent<Proposition> e = current.get(i);
+                if (e != null && e.getKeyId().equals(min)) {
+                    result.add(e);
+                    Iterator<DataStreamingEvent<Proposition>> itr =
+                            itrs.get(i);
+                    current.set(i, itr.hasNext() ? itr.next() : null);
+                }
+            }
+        }
+    }
+}
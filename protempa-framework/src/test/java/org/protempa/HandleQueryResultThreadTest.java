@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.protempa.dest.AbstractQueryResultsHandler;
+import org.protempa.dest.BatchQueryResultsHandler;
+import org.protempa.dest.QueryResult;
+import org.protempa.dest.QueryResultsHandlerProcessingException;
+import org.protempa.metrics.ExecutorMetrics;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+import org.protempa.query.Query;
+import org.protempa.query.QueryMode;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class HandleQueryResultThreadTest extends TestCase {
+
+    private static class KeyRecordingHandler extends AbstractQueryResultsHandler {
+
+        final List<String> keyIds
+                = Collections.synchronizedList(new ArrayList<String>());
+        volatile String failOnKeyId;
+        volatile boolean closed;
+
+        @Override
+        public void handleQueryResult(String keyId,
+                List<Proposition> propositions,
+                Map<Proposition, Set<Proposition>> forwardDerivations,
+                Map<Proposition, Set<Proposition>> backwardDerivations,
+                Map<UniqueId, Proposition> references)
+                throws QueryResultsHandlerProcessingException {
+            if (keyId.equals(this.failOnKeyId)) {
+                throw new QueryResultsHandlerProcessingException("failed");
+            }
+            this.keyIds.add(keyId);
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    /**
+     * Stands in for a do process thread that the query results handler
+     * thread interrupts when it stops early.
+     */
+    private static final class IdleProducer extends Thread {
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        IdleProducer() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException ex) {
+                this.interrupted.countDown();
+            }
+        }
+    }
+
+    private static final class BatchRecordingHandler extends KeyRecordingHandler
+            implements BatchQueryResultsHandler {
+
+        final List<Integer> batchSizes = new ArrayList<>();
+
+        @Override
+        public void handleQueryResults(List<QueryResult> results)
+                throws QueryResultsHandlerProcessingException {
+            this.batchSizes.add(results.size());
+            for (QueryResult result : results) {
+                this.keyIds.add(result.getKeyId());
+            }
+        }
+    }
+
+    public void testBatchHandlerGetsBatches() throws Exception {
+        BatchRecordingHandler handler = new BatchRecordingHandler();
+        String batchSize = System.setProperty(
+                HandleQueryResultThread.SYSTEM_PROPERTY_BATCH_SIZE, "4");
+        try {
+            run(handler, 10);
+        } finally {
+            if (batchSize != null) {
+                System.setProperty(HandleQueryResultThread.SYSTEM_PROPERTY_BATCH_SIZE, batchSize);
+            } else {
+                System.clearProperty(HandleQueryResultThread.SYSTEM_PROPERTY_BATCH_SIZE);
+            }
+        }
+        assertEquals(keyIds(10), handler.keyIds);
+        int total = 0;
+        for (int size : handler.batchSizes) {
+            assertTrue(size <= 4);
+            total += size;
+        }
+        assertEquals(10, total);
+    }
+
+    public void testOtherHandlerGetsOneKeyAtATime() throws Exception {
+        KeyRecordingHandler handler = new KeyRecordingHandler();
+        run(handler, 10);
+        assertEquals(keyIds(10), handler.keyIds);
+    }
+
+    public void testOrderedWithSeveralWorkers() throws Exception {
+        final int keys = 20;
+        final int maxPending = 4;
+        final BlockingQueue<String> keyOrder
+                = new LinkedBlockingQueue<>(maxPending);
+        final BlockingQueue<String> work = new LinkedBlockingQueue<>();
+        final BlockingQueue<QueueObject> queue = new LinkedBlockingQueue<>();
+        final QueueObject poisonPill = new QueueObject();
+        final CountDownLatch releaseFirstKey = new CountDownLatch(1);
+        final String firstKeyId = keyIds(keys).get(0);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (String keyId : keyIds(keys)) {
+                        keyOrder.put(keyId);
+                        work.put(keyId);
+                    }
+                    for (int i = 0; i < 3; i++) {
+                        work.put("");
+                    }
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        String keyId;
+                        while (!(keyId = work.take()).isEmpty()) {
+                            if (keyId.equals(firstKeyId)) {
+                                releaseFirstKey.await();
+                            }
+                            queue.put(queueObject(keyId));
+                        }
+                        queue.put(poisonPill);
+                    } catch (InterruptedException ex) {
+                    }
+                }
+            });
+        }
+        KeyRecordingHandler handler = new KeyRecordingHandler();
+        HandleQueryResultThread thread = newThread(queue, poisonPill, workers,
+                keyOrder, handler);
+        reader.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        thread.start();
+
+        // While the first key is slow, reading stops after maxPending keys.
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (reader.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(100L);
+        assertEquals(Thread.State.WAITING, reader.getState());
+        assertEquals(maxPending, keyOrder.size());
+        assertTrue(handler.keyIds.isEmpty());
+
+        releaseFirstKey.countDown();
+        thread.join(10000L);
+        assertFalse(thread.isAlive());
+        assertTrue(thread.getExceptions().isEmpty());
+        assertEquals(keyIds(keys), handler.keyIds);
+        assertTrue(handler.closed);
+    }
+
+    public void testFailureWhileResultsArePending() throws Exception {
+        BlockingQueue<String> keyOrder = new LinkedBlockingQueue<>(keyIds(4));
+        BlockingQueue<QueueObject> queue = new LinkedBlockingQueue<>();
+        QueueObject poisonPill = new QueueObject();
+        for (int i = 3; i >= 0; i--) {
+            queue.put(queueObject("key" + i));
+        }
+        IdleProducer producer = new IdleProducer();
+        KeyRecordingHandler handler = new KeyRecordingHandler();
+        handler.failOnKeyId = "key0";
+        HandleQueryResultThread thread = newThread(queue, poisonPill,
+                Collections.singletonList(producer), keyOrder, handler);
+        producer.start();
+        thread.start();
+        thread.join(10000L);
+        assertFalse(thread.isAlive());
+        assertEquals(1, thread.getExceptions().size());
+        assertTrue(producer.interrupted.await(10L, TimeUnit.SECONDS));
+        assertTrue(handler.keyIds.isEmpty());
+        assertTrue(handler.closed);
+    }
+
+    public void testShutdownWhileResultsArePending() throws Exception {
+        BlockingQueue<String> keyOrder = new LinkedBlockingQueue<>(keyIds(4));
+        BlockingQueue<QueueObject> queue = new LinkedBlockingQueue<>();
+        QueueObject poisonPill = new QueueObject();
+        for (int i = 1; i < 4; i++) {
+            queue.put(queueObject("key" + i));
+        }
+        IdleProducer producer = new IdleProducer();
+        KeyRecordingHandler handler = new KeyRecordingHandler();
+        HandleQueryResultThread thread = newThread(queue, poisonPill,
+                Collections.singletonList(producer), keyOrder, handler);
+        producer.start();
+        thread.start();
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(queue.isEmpty());
+        thread.interrupt();
+        thread.join(10000L);
+        assertFalse(thread.isAlive());
+        assertTrue(producer.interrupted.await(10L, TimeUnit.SECONDS));
+        assertTrue(handler.keyIds.isEmpty());
+        assertTrue(handler.closed);
+    }
+
+    private static QueueObject queueObject(String keyId) {
+        return new QueueObject(keyId, Collections.<Proposition>emptyList(),
+                new HashMap<Proposition, Set<Proposition>>(),
+                new HashMap<Proposition, Set<Proposition>>(),
+                new HashMap<UniqueId, Proposition>());
+    }
+
+    private static HandleQueryResultThread newThread(
+            BlockingQueue<QueueObject> queue, QueueObject poisonPill,
+            List<? extends Thread> producers, BlockingQueue<String> keyOrder,
+            KeyRecordingHandler handler) {
+        Query query = new Query("test", null, null, null, null, QueryMode.UPDATE);
+        return new HandleQueryResultThread(queue, poisonPill, producers,
+                keyOrder, query, handler, new PropositionDefinitionCache(
+                        Collections.<PropositionDefinition>emptyList()),
+                new ExecutorMetrics("test").getHandleQueryResultStage());
+    }
+
+    private static void run(KeyRecordingHandler handler, int keys)
+            throws InterruptedException {
+        BlockingQueue<QueueObject> queue = new LinkedBlockingQueue<>();
+        QueueObject poisonPill = new QueueObject();
+        for (String keyId : keyIds(keys)) {
+            queue.put(queueObject(keyId));
+        }
+        queue.put(poisonPill);
+        HandleQueryResultThread thread = newThread(queue, poisonPill,
+                Collections.singletonList(new Thread()), null, handler);
+        thread.start();
+        thread.join();
+        assertTrue(thread.getExceptions().isEmpty());
+    }
+
+    private static List<String> keyIds(int n) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            result.add("key" + i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.protempa.proposition.Event;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.TemporalProposition;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.interval.Relation;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.proposition.value.AbsoluteTimeUnit;
+
+/**
+ * Checks that {@link HighLevelAbstractionJoinExpression} accepts the same
+ * tuples as {@link HighLevelAbstractionCondition}.
+ */
+public class HighLevelAbstractionJoinExpressionTest extends ProtempaTestCase {
+
+    private static final IntervalFactory INTERVAL_FACTORY = new IntervalFactory();
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private HighLevelAbstractionDefinition def;
+    private ExtendedPropositionDefinition[] epds;
+    private List<Proposition> candidates;
+
+    @Override
+    protected void setUp() throws Exception {
+        TemporalExtendedPropositionDefinition a = new TemporalExtendedPropositionDefinition("A");
+        TemporalExtendedPropositionDefinition b = new TemporalExtendedPropositionDefinition("B");
+        TemporalExtendedPropositionDefinition c = new TemporalExtendedPropositionDefinition("C");
+        this.def = new HighLevelAbstractionDefinition("HLA");
+        this.def.add(a);
+        this.def.add(b);
+        this.def.add(c);
+        this.def.setRelation(a, b, new Relation(null, null, null, null,
+                null, null, null, null, 0, AbsoluteTimeUnit.DAY, 3,
+                AbsoluteTimeUnit.DAY, null, null, null, null));
+        this.def.setRelation(b, c, Relation.OVERLAPS);
+        this.def.setRelation(c, a, Relation.AFTER);
+        this.epds = this.def.getExtendedPropositionDefinitions().toArray(
+                new ExtendedPropositionDefinition[3]);
+
+        this.candidates = new ArrayList<>();
+        Random random = new Random(3L);
+        for (int i = 0; i < 20; i++) {
+            Event e = new Event("E", getUid());
+            long start = random.nextInt(30) * DAY;
+            e.setInterval(INTERVAL_FACTORY.getInstance(start,
+                    AbsoluteTimeGranularity.DAY,
+                    start + random.nextInt(6) * DAY,
+                    AbsoluteTimeGranularity.DAY));
+            this.candidates.add(e);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.def = null;
+        this.epds = null;
+        this.candidates = null;
+    }
+
+    public void testSameTuplesAsCondition() {
+        HighLevelAbstractionJoinExpression[] joins =
+                new HighLevelAbstractionJoinExpression[this.epds.length];
+        for (int i = 0; i < joins.length; i++) {
+            joins[i] = new HighLevelAbstractionJoinExpression(this.def,
+                    this.epds, i);
+        }
+        int found = 0;
+        for (Proposition p0 : this.candidates) {
+            for (Proposition p1 : this.candidates) {
+                for (Proposition p2 : this.candidates) {
+                    Proposition[] tuple = {p0, p1, p2};
+                    boolean joined = true;
+                    for (int i = 0; i < tuple.length && joined; i++) {
+                        Proposition[] previous = new Proposition[i];
+                        System.arraycopy(tuple, 0, previous, 0, i);
+                        joined = joins[i].isAllowed(tuple[i], previous);
+                    }
+                    assertEquals(condition(tuple), joined);
+                    if (joined) {
+                        found++;
+                    }
+                }
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    public void testLastPatternHasRelations() {
+        assertTrue(new HighLevelAbstractionJoinExpression(this.def,
+                this.epds, 2).hasRelations());
+        assertFalse(new HighLevelAbstractionJoinExpression(this.def,
+                this.epds, 0).hasRelations());
+    }
+
+    private boolean condition(Proposition[] tuple) {
+        List<List<TemporalExtendedPropositionDefinition>> pairs =
+                new ArrayList<>(
+                this.def.getTemporalExtendedPropositionDefinitionPairs());
+        Map<List<TemporalExtendedPropositionDefinition>, Relation> relations =
+                new HashMap<>();
+        for (List<TemporalExtendedPropositionDefinition> pair : pairs) {
+            relations.put(pair, this.def.getRelation(pair));
+        }
+        Map<TemporalExtendedPropositionDefinition, TemporalProposition> propositionMap =
+                new HashMap<>();
+        for (int i = 0; i < tuple.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (tuple[i].equals(tuple[j])) {
+                    return false;
+                }
+            }
+            propositionMap.put(
+                    (TemporalExtendedPropositionDefinition) this.epds[i],
+                    (TemporalProposition) tuple[i]);
+        }
+        return HighLevelAbstractionFinder.find(relations, pairs,
+                propositionMap);
+    }
+}
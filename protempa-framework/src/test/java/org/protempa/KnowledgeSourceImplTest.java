@@ -31,6 +31,7 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.protempa.backend.KnowledgeSourceBackendUpdatedEvent;
 import org.protempa.backend.ksb.SimpleKnowledgeSourceBackend;
 
 /**
@@ -38,6 +39,7 @@ import org.protempa.backend.ksb.SimpleKnowledgeSourceBackend;
  * @author Andrew Post
  */
 public class KnowledgeSourceImplTest {
+    private SimpleKnowledgeSourceBackend backend;
     private KnowledgeSourceImpl knowledgeSource;
     
     @Before
@@ -56,16 +58,16 @@ public class KnowledgeSourceImplTest {
             constantDefinition.setInverseIsA(me.getValue());
             propDefs.add(constantDefinition);
         }
-        this.knowledgeSource = new KnowledgeSourceImpl(
-                new SimpleKnowledgeSourceBackend(
-                        propDefs.toArray(
-                                new PropositionDefinition[propDefs.size()])));
+        this.backend = new SimpleKnowledgeSourceBackend(
+                propDefs.toArray(new PropositionDefinition[propDefs.size()]));
+        this.knowledgeSource = new KnowledgeSourceImpl(this.backend);
     }
     
     @After
     public void tearDown() throws SourceCloseException {
         this.knowledgeSource.close();
         this.knowledgeSource = null;
+        this.backend = null;
     }
     
     @Test
@@ -93,4 +95,60 @@ public class KnowledgeSourceImplTest {
                 expected, 
                 knowledgeSource.collectPropIdDescendantsUsingInverseIsA("bar", "rab"));
     }
+
+    @Test
+    public void testReadPropositionDefinitionCached() throws KnowledgeSourceReadException {
+        long hits = knowledgeSource.getCacheHitCount();
+        long misses = knowledgeSource.getCacheMissCount();
+        PropositionDefinition first = knowledgeSource.readPropositionDefinition("foo");
+        PropositionDefinition second = knowledgeSource.readPropositionDefinition("foo");
+        Assert.assertSame(first, second);
+        Assert.assertEquals(hits + 1, knowledgeSource.getCacheHitCount());
+        Assert.assertEquals(misses + 1, knowledgeSource.getCacheMissCount());
+    }
+
+    @Test
+    public void testReadMissingPropositionDefinitionCached() throws KnowledgeSourceReadException {
+        long hits = knowledgeSource.getCacheHitCount();
+        Assert.assertNull(knowledgeSource.readPropositionDefinition("notthere"));
+        Assert.assertFalse(knowledgeSource.hasPropositionDefinition("notthere"));
+        Assert.assertEquals(hits + 1, knowledgeSource.getCacheHitCount());
+    }
+
+    @Test
+    public void testReadPropositionDefinitionsUsesCache() throws KnowledgeSourceReadException {
+        PropositionDefinition foo = knowledgeSource.readPropositionDefinition("foo");
+        long hits = knowledgeSource.getCacheHitCount();
+        long misses = knowledgeSource.getCacheMissCount();
+        List<PropositionDefinition> propDefs = 
+                knowledgeSource.readPropositionDefinitions("foo", "bar");
+        Assert.assertEquals(2, propDefs.size());
+        Assert.assertTrue(propDefs.contains(foo));
+        Assert.assertEquals(hits + 1, knowledgeSource.getCacheHitCount());
+        Assert.assertEquals(misses + 1, knowledgeSource.getCacheMissCount());
+        Assert.assertSame(propDefs.get(propDefs.indexOf(foo) == 0 ? 1 : 0), 
+                knowledgeSource.readPropositionDefinition("bar"));
+        Assert.assertEquals(hits + 2, knowledgeSource.getCacheHitCount());
+    }
+
+    @Test
+    public void testReadPropositionDefinitionsInRequestedOrder() throws KnowledgeSourceReadException {
+        knowledgeSource.readPropositionDefinition("rab");
+        List<PropositionDefinition> propDefs =
+                knowledgeSource.readPropositionDefinitions("foo", "rab", "bar");
+        Assert.assertEquals(3, propDefs.size());
+        Assert.assertEquals("foo", propDefs.get(0).getId());
+        Assert.assertEquals("rab", propDefs.get(1).getId());
+        Assert.assertEquals("bar", propDefs.get(2).getId());
+    }
+
+    @Test
+    public void testBackendUpdatedClearsCache() throws KnowledgeSourceReadException {
+        knowledgeSource.readPropositionDefinition("foo");
+        knowledgeSource.backendUpdated(
+                new KnowledgeSourceBackendUpdatedEvent(this.backend));
+        long misses = knowledgeSource.getCacheMissCount();
+        Assert.assertNotNull(knowledgeSource.readPropositionDefinition("foo"));
+        Assert.assertEquals(misses + 1, knowledgeSource.getCacheMissCount());
+    }
 }
@@ -0,0 +1,173 @@
+package org.protempa;
+
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2015 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import org.drools.base.ClassObjectType;
+import org.drools.base.evaluators.Operator;
+import org.drools.rule.LiteralConstraint;
+import org.drools.rule.Pattern;
+import org.protempa.backend.asb.AlgorithmSourceBackend;
+import org.protempa.proposition.Context;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.query.Query;
+import org.protempa.query.QueryMode;
+
+/**
+ * Checks that {@link PropositionIdConstraints} adds indexable id constraints,
+ * and that rules derive the same propositions with and without them.
+ *
+ * @author Andrew Post
+ */
+public class PropositionIdConstraintsTest extends ProtempaTestCase {
+
+    private static final IntervalFactory INTERVAL_FACTORY = new IntervalFactory();
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private String oldIdIndexing;
+    private String oldCombinerSweep;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.oldIdIndexing = System.getProperty(
+                JBossRuleCreator.SYSTEM_PROPERTY_ID_INDEXING);
+        this.oldCombinerSweep = System.getProperty(
+                JBossRuleCreator.SYSTEM_PROPERTY_COMBINER_SWEEP);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        restore(JBossRuleCreator.SYSTEM_PROPERTY_ID_INDEXING,
+                this.oldIdIndexing);
+        restore(JBossRuleCreator.SYSTEM_PROPERTY_COMBINER_SWEEP,
+                this.oldCombinerSweep);
+    }
+
+    public void testAddsLiteralConstraintForOneId() {
+        Pattern pattern = new Pattern(0, new ClassObjectType(Event.class));
+        new PropositionIdConstraints(true).addTo(pattern, Event.class,
+                Collections.singleton("E"));
+        assertEquals(1, pattern.getConstraints().size());
+        LiteralConstraint constraint
+                = (LiteralConstraint) pattern.getConstraints().get(0);
+        assertEquals("E", constraint.getField().getValue());
+        assertSame(Operator.EQUAL, constraint.getEvaluator().getOperator());
+    }
+
+    public void testAddsLiteralConstraintForCombinerSweepBuffer() {
+        Pattern pattern = new Pattern(0,
+                new ClassObjectType(CombinerSweepBuffer.class));
+        new PropositionIdConstraints(true).addTo(pattern,
+                CombinerSweepBuffer.class, "C");
+        assertEquals(1, pattern.getConstraints().size());
+        LiteralConstraint constraint
+                = (LiteralConstraint) pattern.getConstraints().get(0);
+        assertEquals("C", constraint.getField().getValue());
+    }
+
+    public void testNoConstraintForSeveralIds() {
+        Pattern pattern = new Pattern(0, new ClassObjectType(Event.class));
+        new PropositionIdConstraints(true).addTo(pattern, Event.class,
+                new HashSet<>(Arrays.asList("E1", "E2")));
+        assertTrue(pattern.getConstraints().isEmpty());
+    }
+
+    public void testNoConstraintWhenDisabled() {
+        Pattern pattern = new Pattern(0, new ClassObjectType(Event.class));
+        PropositionIdConstraints idConstraints
+                = new PropositionIdConstraints(false);
+        idConstraints.addTo(pattern, Event.class, Collections.singleton("E"));
+        idConstraints.addTo(pattern, Event.class, "E");
+        assertTrue(pattern.getConstraints().isEmpty());
+    }
+
+    public void testSameContextsWithAndWithoutIndexing() throws Exception {
+        List<String> expected = deriveContexts(false, false);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, deriveContexts(true, false));
+        assertEquals(expected, deriveContexts(true, true));
+        assertEquals(expected, deriveContexts(false, true));
+    }
+
+    private List<String> deriveContexts(boolean idIndexing,
+            boolean combinerSweep) throws Exception {
+        System.setProperty(JBossRuleCreator.SYSTEM_PROPERTY_ID_INDEXING,
+                Boolean.toString(idIndexing));
+        System.setProperty(JBossRuleCreator.SYSTEM_PROPERTY_COMBINER_SWEEP,
+                Boolean.toString(combinerSweep));
+        ContextDefinition contextDef = new ContextDefinition("C");
+        contextDef.setInducedBy(new TemporalExtendedPropositionDefinition[]{
+            new TemporalExtendedPropositionDefinition("E")
+        });
+        PropositionDefinitionCache cache = new PropositionDefinitionCache(
+                Arrays.<PropositionDefinition>asList(new EventDefinition("E"),
+                        new EventDefinition("F"), contextDef));
+        StatelessExecutionStrategy strategy = new StatelessExecutionStrategy(
+                new AlgorithmSourceImpl(new AlgorithmSourceBackend[0]),
+                new Query(null, null, new String[]{"C"}, null,
+                        QueryMode.REPLACE));
+        strategy.initialize(cache);
+        List<Proposition> props = new ArrayList<>();
+        props.add(newEvent("E", 0, 2));
+        props.add(newEvent("E", 1, 3));
+        props.add(newEvent("F", 1, 3));
+        props.add(newEvent("E", 5, 6));
+        props.add(newEvent("E", 6, 8));
+        props.add(newEvent("E", 20, 21));
+        List<String> result = new ArrayList<>();
+        for (Iterator<Proposition> itr = strategy.execute("key",
+                props.iterator()); itr.hasNext();) {
+            Proposition prop = itr.next();
+            if (prop instanceof Context) {
+                Context context = (Context) prop;
+                result.add(context.getId() + "/"
+                        + context.getInterval().getMinStart() + "-"
+                        + context.getInterval().getMaxFinish());
+            }
+        }
+        strategy.shutdown();
+        Collections.sort(result);
+        return result;
+    }
+
+    private Event newEvent(String id, long start, long finish) {
+        Event event = new Event(id, getUid());
+        event.setInterval(INTERVAL_FACTORY.getInstance(start * DAY,
+                AbsoluteTimeGranularity.DAY, finish * DAY,
+                AbsoluteTimeGranularity.DAY));
+        return event;
+    }
+
+    private static void restore(String name, String value) {
+        if (value != null) {
+            System.setProperty(name, value);
+        } else {
+            System.clearProperty(name);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import junit.framework.TestCase;
+import org.drools.RuleBase;
+import org.protempa.backend.asb.AlgorithmSourceBackend;
+import org.protempa.query.Query;
+import org.protempa.query.QueryMode;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class RuleBaseCacheTest extends TestCase {
+
+    private PropositionDefinitionCache cache;
+    private AlgorithmSource algorithmSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.cache = new PropositionDefinitionCache(Arrays.asList(
+                new EventDefinition("Encounter"), new EventDefinition("Diagnosis")));
+        this.algorithmSource = new AlgorithmSourceImpl(new AlgorithmSourceBackend[0]);
+    }
+
+    public void testSameContentsSameFingerprint() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        String fingerprint = ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE);
+        assertNotNull(fingerprint);
+        PropositionDefinitionCache reordered = new PropositionDefinitionCache(Arrays.asList(
+                this.cache.get("Diagnosis"), this.cache.get("Encounter")));
+        assertEquals(fingerprint, ruleBaseCache.fingerprint(reordered,
+                this.algorithmSource, QueryMode.UPDATE));
+    }
+
+    public void testDifferentQueryModeDifferentFingerprint() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        assertFalse(ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE).equals(
+                        ruleBaseCache.fingerprint(this.cache,
+                                this.algorithmSource, QueryMode.REPLACE)));
+    }
+
+    public void testDifferentContentsDifferentFingerprint() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        PropositionDefinitionCache fewer = new PropositionDefinitionCache(
+                Arrays.asList(this.cache.get("Encounter")));
+        assertFalse(ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE).equals(
+                        ruleBaseCache.fingerprint(fewer,
+                                this.algorithmSource, QueryMode.UPDATE)));
+    }
+
+    public void testFingerprintRememberedForSameDefinitions() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        String fingerprint = ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE);
+        ((EventDefinition) this.cache.get("Encounter")).setDisplayName("Visit");
+        assertEquals(fingerprint, ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE));
+        PropositionDefinitionCache sameDefinitions = new PropositionDefinitionCache(
+                this.cache.getAll());
+        assertEquals(fingerprint, ruleBaseCache.fingerprint(sameDefinitions,
+                this.algorithmSource, QueryMode.UPDATE));
+        assertFalse(fingerprint.equals(new RuleBaseCache().fingerprint(
+                this.cache, this.algorithmSource, QueryMode.UPDATE)));
+    }
+
+    public void testFingerprintRecomputedWhenCacheModified() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        String fingerprint = ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE);
+        this.cache.remove("Diagnosis");
+        assertFalse(fingerprint.equals(ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE)));
+    }
+
+    public void testQueryWithoutDatabasePathFingerprinted() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        Query query = new Query(null, null, null, null,
+                QueryMode.UPDATE);
+        assertEquals(ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE),
+                ruleBaseCache.fingerprint(query, this.cache,
+                        this.algorithmSource));
+    }
+
+    public void testStatefulQueryNotFingerprinted() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        Query query = new Query(null, null, null, null, null, null,
+                QueryMode.UPDATE, "/tmp/protempa-rulebasecache-test");
+        assertNull(ruleBaseCache.fingerprint(query, this.cache,
+                this.algorithmSource));
+    }
+
+    public void testGetReturnsPutRuleBase() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        String fingerprint = ruleBaseCache.fingerprint(this.cache,
+                this.algorithmSource, QueryMode.UPDATE);
+        assertNull(ruleBaseCache.get(fingerprint));
+        RuleBase ruleBase = newRuleBase();
+        ruleBaseCache.put(fingerprint, ruleBase);
+        assertSame(ruleBase, ruleBaseCache.get(fingerprint));
+    }
+
+    public void testNullFingerprintIsNotCached() {
+        RuleBaseCache ruleBaseCache = new RuleBaseCache();
+        ruleBaseCache.put(null, newRuleBase());
+        assertNull(ruleBaseCache.get(null));
+    }
+
+    public void testPersistedRuleBaseWithDisallowedClassNotRead()
+            throws IOException {
+        Path directory = Files.createTempDirectory("rulebasecache");
+        try {
+            RuleBaseCache ruleBaseCache = new RuleBaseCache(true, directory);
+            String fingerprint = ruleBaseCache.fingerprint(this.cache,
+                    this.algorithmSource, QueryMode.UPDATE);
+            Path file = directory.resolve(fingerprint + ".rulebase");
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    Files.newOutputStream(file))) {
+                out.writeObject(new SimpleDateFormat());
+            }
+            assertNull(ruleBaseCache.get(fingerprint));
+            Files.delete(file);
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    private static RuleBase newRuleBase() {
+        return (RuleBase) Proxy.newProxyInstance(
+                RuleBase.class.getClassLoader(),
+                new Class<?>[]{RuleBase.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import junit.framework.TestCase;
+import org.drools.WorkingMemory;
+import org.drools.rule.Declaration;
+import org.drools.spi.Consequence;
+import org.drools.spi.EvalExpression;
+import org.drools.spi.KnowledgeHelper;
+import org.drools.spi.PredicateExpression;
+import org.drools.spi.Tuple;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class RuleProfilerTest extends TestCase {
+
+    public void testEvaluationsCountedButSampled() throws Exception {
+        RuleProfiler profiler = new RuleProfiler();
+        PredicateExpression expr = new RuleInstrumentation(true).instrument(
+                "HLA", new PredicateExpression() {
+            @Override
+            public boolean evaluate(Object o, Tuple t, Declaration[] a,
+                    Declaration[] b, WorkingMemory w, Object ctx) {
+                return true;
+            }
+
+            @Override
+            public Object createContext() {
+                return null;
+            }
+        });
+        WorkingMemory wm = newWorkingMemory(profiler);
+        int n = 10 * RuleProfiler.EVALUATION_SAMPLE_RATE;
+        for (int i = 0; i < n; i++) {
+            assertTrue(expr.evaluate(null, null, null, null, wm, null));
+        }
+        assertEquals(n, profiler.get("HLA").getEvaluations());
+        assertEquals(0L, profiler.get("HLA").getActivations());
+    }
+
+    public void testUnsampledEvaluationsDoNotLookUpProfiler()
+            throws Exception {
+        EvalExpression expr = new RuleInstrumentation(true).instrument(
+                "HLA", new EvalExpression() {
+            @Override
+            public boolean evaluate(Tuple t, Declaration[] a, WorkingMemory w,
+                    Object ctx) {
+                return true;
+            }
+
+            @Override
+            public Object createContext() {
+                return null;
+            }
+        });
+        final RuleProfiler profiler = new RuleProfiler();
+        final int[] lookups = new int[1];
+        WorkingMemory wm = (WorkingMemory) Proxy.newProxyInstance(
+                WorkingMemory.class.getClassLoader(),
+                new Class<?>[]{WorkingMemory.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                lookups[0]++;
+                return profiler;
+            }
+        });
+        int n = 10 * RuleProfiler.EVALUATION_SAMPLE_RATE;
+        for (int i = 0; i < n; i++) {
+            assertTrue(expr.evaluate(null, null, wm, null));
+        }
+        assertEquals(10, lookups[0]);
+        assertEquals(n, profiler.get("HLA").getEvaluations());
+    }
+
+    public void testCountersFoundByIndex() {
+        int index = RuleProfiler.indexOf("A");
+        assertEquals(index, RuleProfiler.indexOf("A"));
+        assertFalse(index == RuleProfiler.indexOf("B"));
+        RuleProfiler profiler = new RuleProfiler();
+        RuleProfiler.Counters counters = profiler.get(index, "A");
+        assertSame(counters, profiler.get("A"));
+        assertSame(counters, profiler.get(index, "A"));
+    }
+
+    public void testActivationsCounted() throws Exception {
+        RuleProfiler profiler = new RuleProfiler();
+        Consequence consequence = new RuleInstrumentation(true).instrument(
+                "SLICE", new Consequence() {
+            @Override
+            public void evaluate(KnowledgeHelper kh, WorkingMemory wm) {
+            }
+        });
+        WorkingMemory wm = newWorkingMemory(profiler);
+        consequence.evaluate(null, wm);
+        consequence.evaluate(null, wm);
+        assertEquals(2L, profiler.get("SLICE").getActivations());
+    }
+
+    public void testDisabledDoesNotWrap() {
+        Consequence consequence = new Consequence() {
+            @Override
+            public void evaluate(KnowledgeHelper kh, WorkingMemory wm) {
+            }
+        };
+        assertSame(consequence,
+                new RuleInstrumentation(false).instrument("A", consequence));
+    }
+
+    public void testNoProfilerInSession() throws Exception {
+        Consequence consequence = new RuleInstrumentation(true).instrument(
+                "A", new Consequence() {
+            @Override
+            public void evaluate(KnowledgeHelper kh, WorkingMemory wm) {
+            }
+        });
+        consequence.evaluate(null, newWorkingMemory(null));
+    }
+
+    public void testMerge() {
+        RuleProfiler p1 = new RuleProfiler();
+        p1.get("A").activated(10L);
+        RuleProfiler p2 = new RuleProfiler();
+        p2.get("A").activated(20L);
+        p2.get("B").activated(100L);
+        RuleProfiler merged = new RuleProfiler();
+        merged.merge(p1);
+        merged.merge(p2);
+        assertEquals(2L, merged.get("A").getActivations());
+        assertEquals(30L, merged.get("A").getActivationNanos());
+        assertEquals("B", merged.getCounters().get(0).getPropId());
+    }
+
+    private static WorkingMemory newWorkingMemory(final RuleProfiler profiler) {
+        return (WorkingMemory) Proxy.newProxyInstance(
+                WorkingMemory.class.getClassLoader(),
+                new Class<?>[]{WorkingMemory.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getGlobal")
+                        && WorkingMemoryGlobals.RULE_PROFILER.equals(args[0])) {
+                    return profiler;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
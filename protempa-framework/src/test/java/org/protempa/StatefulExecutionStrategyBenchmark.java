@@ -0,0 +1,159 @@
+package org.protempa;
+
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2015 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.protempa.backend.asb.AlgorithmSourceBackend;
+import org.protempa.proposition.DefaultUniqueIdFactory;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueIdFactory;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.query.Query;
+import org.protempa.query.QueryMode;
+
+/**
+ * Times processing keys with a reused session against a new session per
+ * key, at 1, 100 and 10,000 facts per key. Not a unit test, so it is not
+ * run by the build. Run its <code>main</code> method with the test class
+ * path; the optional argument is the number of timed rounds.
+ *
+ * @author Andrew Post
+ */
+public final class StatefulExecutionStrategyBenchmark {
+
+    private static final IntervalFactory INTERVAL_FACTORY = new IntervalFactory();
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int[] FACTS_PER_KEY = {1, 100, 10000};
+    private static final int FACTS_PER_RUN = 100000;
+
+    private final UniqueIdFactory uniqueIdFactory;
+    private final Path directory;
+    private int runs;
+
+    private StatefulExecutionStrategyBenchmark(Path directory) {
+        this.uniqueIdFactory = new DefaultUniqueIdFactory();
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path directory = Files.createTempDirectory("protempa-benchmark");
+        try {
+            StatefulExecutionStrategyBenchmark benchmark
+                    = new StatefulExecutionStrategyBenchmark(directory);
+            System.out.println("facts/key\tkeys\tfresh ms/key\treused ms/key");
+            for (int factsPerKey : FACTS_PER_KEY) {
+                int keyCount = Math.max(10, FACTS_PER_RUN / factsPerKey);
+                List<List<Proposition>> keys
+                        = benchmark.newKeys(keyCount, factsPerKey);
+                benchmark.run(false, keys);
+                benchmark.run(true, keys);
+                long fresh = Long.MAX_VALUE;
+                long reused = Long.MAX_VALUE;
+                for (int i = 0; i < rounds; i++) {
+                    fresh = Math.min(fresh, benchmark.run(false, keys));
+                    reused = Math.min(reused, benchmark.run(true, keys));
+                }
+                System.out.printf("%d\t%d\t%.3f\t%.3f%n", factsPerKey,
+                        keyCount, fresh / 1e6 / keyCount,
+                        reused / 1e6 / keyCount);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Runs every key through a new execution strategy.
+     *
+     * @return the elapsed time in nanoseconds.
+     */
+    private long run(boolean sessionReuse, List<List<Proposition>> keys)
+            throws Exception {
+        System.setProperty(
+                StatefulExecutionStrategy.SYSTEM_PROPERTY_SESSION_REUSE,
+                Boolean.toString(sessionReuse));
+        StatefulExecutionStrategy strategy = new StatefulExecutionStrategy(
+                new AlgorithmSourceImpl(new AlgorithmSourceBackend[0]),
+                new Query(null, null, null, null, new String[]{"C"}, null,
+                        QueryMode.REPLACE,
+                        this.directory.resolve("run" + this.runs++).toString()));
+        strategy.initialize(newCache());
+        long start = System.nanoTime();
+        try {
+            int keyId = 0;
+            for (List<Proposition> key : keys) {
+                for (Iterator<Proposition> itr = strategy.execute(
+                        "k" + keyId++, key.iterator()); itr.hasNext();) {
+                    itr.next();
+                }
+                strategy.closeCurrentWorkingMemory();
+            }
+        } finally {
+            strategy.shutdown();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private List<List<Proposition>> newKeys(int keyCount, int factsPerKey) {
+        List<List<Proposition>> result = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            List<Proposition> key = new ArrayList<>(factsPerKey);
+            for (int j = 0; j < factsPerKey; j++) {
+                Event event = new Event("E", this.uniqueIdFactory.getInstance());
+                event.setInterval(INTERVAL_FACTORY.getInstance(3 * j * DAY,
+                        AbsoluteTimeGranularity.DAY, (3 * j + 1) * DAY,
+                        AbsoluteTimeGranularity.DAY));
+                key.add(event);
+            }
+            result.add(key);
+        }
+        return result;
+    }
+
+    private static PropositionDefinitionCache newCache() {
+        ContextDefinition contextDef = new ContextDefinition("C");
+        contextDef.setInducedBy(new TemporalExtendedPropositionDefinition[]{
+            new TemporalExtendedPropositionDefinition("E")
+        });
+        return new PropositionDefinitionCache(Arrays.<PropositionDefinition>asList(
+                new EventDefinition("E"), contextDef));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Iterator<Path> itr = files.sorted(Comparator.reverseOrder())
+                    .iterator(); itr.hasNext();) {
+                Files.delete(itr.next());
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.protempa;
+
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2015 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.drools.StatefulSession;
+import org.protempa.backend.asb.AlgorithmSourceBackend;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.TemporalProposition;
+import org.protempa.proposition.interval.Interval;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.query.Query;
+import org.protempa.query.QueryMode;
+
+/**
+ * Checks that reusing one session for many keys gives the same output as a
+ * new session per key.
+ *
+ * @author Andrew Post
+ */
+public class StatefulExecutionStrategyTest extends ProtempaTestCase {
+
+    private static final IntervalFactory INTERVAL_FACTORY = new IntervalFactory();
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private Path directory;
+    private int runs;
+    private Map<String, List<Proposition>> keys;
+    private String oldSessionReuse;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("protempa-stateful");
+        this.oldSessionReuse = System.getProperty(
+                StatefulExecutionStrategy.SYSTEM_PROPERTY_SESSION_REUSE);
+        this.keys = new LinkedHashMap<>();
+        this.keys.put("k1", Arrays.<Proposition>asList(
+                newEvent(0, 2), newEvent(1, 3), newEvent(10, 11)));
+        this.keys.put("k2", Arrays.<Proposition>asList(newEvent(5, 6)));
+        this.keys.put("k3", Arrays.<Proposition>asList(
+                newEvent(0, 1), newEvent(1, 4), newEvent(3, 5)));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.oldSessionReuse != null) {
+            System.setProperty(
+                    StatefulExecutionStrategy.SYSTEM_PROPERTY_SESSION_REUSE,
+                    this.oldSessionReuse);
+        } else {
+            System.clearProperty(
+                    StatefulExecutionStrategy.SYSTEM_PROPERTY_SESSION_REUSE);
+        }
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (Iterator<Path> itr = files.sorted(Comparator.reverseOrder())
+                    .iterator(); itr.hasNext();) {
+                Files.delete(itr.next());
+            }
+        }
+    }
+
+    public void testReusedSessionSameAsFreshSessions() throws Exception {
+        List<StatefulSession> freshSessions = new ArrayList<>();
+        List<String> expected = execute(false,
+                StatefulExecutionStrategy.MAX_SESSION_USES, freshSessions);
+        List<StatefulSession> reusedSessions = new ArrayList<>();
+        assertEquals(expected, execute(true,
+                StatefulExecutionStrategy.MAX_SESSION_USES, reusedSessions));
+        assertNotSame(freshSessions.get(0), freshSessions.get(1));
+        assertSame(reusedSessions.get(0), reusedSessions.get(1));
+        assertSame(reusedSessions.get(1), reusedSessions.get(2));
+    }
+
+    public void testReusedSessionRecycledAfterMaxUses() throws Exception {
+        List<String> expected = execute(false,
+                StatefulExecutionStrategy.MAX_SESSION_USES,
+                new ArrayList<StatefulSession>());
+        List<StatefulSession> sessions = new ArrayList<>();
+        assertEquals(expected, execute(true, 2, sessions));
+        assertSame(sessions.get(0), sessions.get(1));
+        assertNotSame(sessions.get(1), sessions.get(2));
+    }
+
+    /**
+     * Runs every key through one execution strategy, and checks after each
+     * key that a session kept for reuse has no facts or activations left.
+     *
+     * @return a sorted list of descriptions of the output propositions.
+     */
+    private List<String> execute(boolean sessionReuse, int maxSessionUses,
+            List<StatefulSession> sessions) throws Exception {
+        System.setProperty(
+                StatefulExecutionStrategy.SYSTEM_PROPERTY_SESSION_REUSE,
+                Boolean.toString(sessionReuse));
+        StatefulExecutionStrategy strategy = new StatefulExecutionStrategy(
+                new AlgorithmSourceImpl(new AlgorithmSourceBackend[0]),
+                new Query(null, null, null, null, new String[]{"C"}, null,
+                        QueryMode.REPLACE,
+                        this.directory.resolve("run" + this.runs++).toString()),
+                maxSessionUses);
+        strategy.initialize(newCache());
+        List<String> result = new ArrayList<>();
+        try {
+            for (Map.Entry<String, List<Proposition>> me
+                    : this.keys.entrySet()) {
+                String keyId = me.getKey();
+                for (Iterator<Proposition> itr = strategy.execute(keyId,
+                        me.getValue().iterator()); itr.hasNext();) {
+                    result.add(keyId + "/" + describe(itr.next()));
+                }
+                StatefulSession[] current
+                        = strategy.getRuleBase().getStatefulSessions();
+                assertEquals(1, current.length);
+                sessions.add(current[0]);
+                strategy.closeCurrentWorkingMemory();
+                for (StatefulSession session
+                        : strategy.getRuleBase().getStatefulSessions()) {
+                    assertFalse(session.iterateObjects().hasNext());
+                    assertEquals(0, session.getAgenda().agendaSize());
+                }
+            }
+        } finally {
+            strategy.shutdown();
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static PropositionDefinitionCache newCache() {
+        ContextDefinition contextDef = new ContextDefinition("C");
+        contextDef.setInducedBy(new TemporalExtendedPropositionDefinition[]{
+            new TemporalExtendedPropositionDefinition("E")
+        });
+        return new PropositionDefinitionCache(Arrays.<PropositionDefinition>asList(
+                new EventDefinition("E"), contextDef));
+    }
+
+    private Event newEvent(long start, long finish) {
+        Event event = new Event("E", getUid());
+        event.setInterval(INTERVAL_FACTORY.getInstance(start * DAY,
+                AbsoluteTimeGranularity.DAY, finish * DAY,
+                AbsoluteTimeGranularity.DAY));
+        return event;
+    }
+
+    private static String describe(Proposition prop) {
+        String result = prop.getId() + "/"
+                + prop.getUniqueId().getStringRepresentation();
+        if (prop instanceof TemporalProposition) {
+            Interval interval = ((TemporalProposition) prop).getInterval();
+            result += "/" + interval.getMinStart() + "-"
+                    + interval.getMaxFinish();
+        }
+        return result;
+    }
+}
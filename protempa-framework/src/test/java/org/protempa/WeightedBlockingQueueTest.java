@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa;
+
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class WeightedBlockingQueueTest extends TestCase {
+
+    private static final WeightedBlockingQueue.Weigher<Integer> IDENTITY
+            = new WeightedBlockingQueue.Weigher<Integer>() {
+        @Override
+        public int weigh(Integer element) {
+            return element;
+        }
+    };
+
+    public void testBlocksAtHighWatermark() {
+        WeightedBlockingQueue<Integer> queue
+                = new WeightedBlockingQueue<>(IDENTITY, 10, 5, 100);
+        assertTrue(queue.offer(6));
+        assertTrue(queue.offer(4));
+        assertEquals(10L, queue.getWeight());
+        assertFalse(queue.offer(1));
+    }
+
+    public void testResumesAtLowWatermark() {
+        WeightedBlockingQueue<Integer> queue
+                = new WeightedBlockingQueue<>(IDENTITY, 10, 5, 100);
+        queue.offer(2);
+        queue.offer(3);
+        queue.offer(5);
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertFalse(queue.offer(1));
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertTrue(queue.offer(1));
+    }
+
+    public void testEmptyQueueAcceptsHeavyElement() {
+        WeightedBlockingQueue<Integer> queue
+                = new WeightedBlockingQueue<>(IDENTITY, 10, 5, 100);
+        assertTrue(queue.offer(1000));
+        assertFalse(queue.offer(0));
+        assertEquals(Integer.valueOf(1000), queue.poll());
+        assertTrue(queue.offer(0));
+    }
+
+    public void testMaxElements() {
+        WeightedBlockingQueue<Integer> queue
+                = new WeightedBlockingQueue<>(IDENTITY, 10, 5, 2);
+        assertTrue(queue.offer(0));
+        assertTrue(queue.offer(0));
+        assertFalse(queue.offer(0));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    public void testClearUnblocks() throws InterruptedException {
+        WeightedBlockingQueue<Integer> queue
+                = new WeightedBlockingQueue<>(IDENTITY, 10, 5, 100);
+        queue.offer(10);
+        queue.offer(10);
+        queue.clear();
+        assertEquals(0L, queue.getWeight());
+        assertTrue(queue.offer(3, 1, TimeUnit.MILLISECONDS));
+    }
+
+    public void testPutBlocksUntilTake() throws Exception {
+        final WeightedBlockingQueue<Integer> queue
+                = new WeightedBlockingQueue<>(IDENTITY, 10, 5, 100);
+        queue.put(10);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(1);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        };
+        producer.start();
+        producer.join(50);
+        assertEquals(1, queue.size());
+        assertEquals(Integer.valueOf(10), queue.take());
+        producer.join(5000);
+        assertEquals(Integer.valueOf(1), queue.take());
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.datastore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.protempa.DataSourceBackendSourceSystem;
+import org.protempa.ProtempaTestCase;
+import org.protempa.SourceSystem;
+import org.protempa.WorkingMemoryFactStore;
+import org.protempa.proposition.AbstractParameter;
+import org.protempa.proposition.Constant;
+import org.protempa.proposition.DataSourceBackendId;
+import org.protempa.proposition.DerivedSourceId;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.LocalUniqueIdValuesProvider;
+import org.protempa.proposition.PrimitiveParameter;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.ProviderBasedLocalUniqueId;
+import org.protempa.proposition.TemporalProposition;
+import org.protempa.proposition.UniqueId;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.proposition.value.BooleanValue;
+import org.protempa.proposition.value.DateValue;
+import org.protempa.proposition.value.InequalityNumberValue;
+import org.protempa.proposition.value.NominalValue;
+import org.protempa.proposition.value.NumberValue;
+import org.protempa.proposition.value.ValueComparator;
+import org.protempa.proposition.value.ValueList;
+
+public class BinaryWorkingMemoryFactStoreCodecTest extends ProtempaTestCase {
+
+    private static final IntervalFactory INTERVAL_FACTORY = new IntervalFactory();
+
+    private BinaryWorkingMemoryFactStoreCodec codec;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.codec = new BinaryWorkingMemoryFactStoreCodec();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.codec = null;
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws IOException {
+        WorkingMemoryFactStore factStore = newFactStore(null, 20);
+        WorkingMemoryFactStore decoded = this.codec.decode(this.codec.encode(factStore));
+        assertFactStoresEqual(factStore, decoded);
+    }
+
+    public void testRoundTripEmpty() throws IOException {
+        WorkingMemoryFactStore factStore = new WorkingMemoryFactStore();
+        WorkingMemoryFactStore decoded = this.codec.decode(this.codec.encode(factStore));
+        assertNull(decoded.getPropositions());
+        assertNull(decoded.getForwardDerivations());
+        assertNull(decoded.getBackwardDerivations());
+        assertNull(decoded.getInstanceNums());
+    }
+
+    public void testDerivationsShareInstances() throws IOException {
+        WorkingMemoryFactStore decoded = this.codec.decode(this.codec.encode(newFactStore(null, 5)));
+        for (Map.Entry<Proposition, Set<Proposition>> me : decoded.getForwardDerivations().entrySet()) {
+            assertTrue(containsSame(decoded.getPropositions(), me.getKey()));
+            for (Proposition prop : me.getValue()) {
+                assertTrue(containsSame(decoded.getPropositions(), prop));
+            }
+        }
+    }
+
+    public void testJavaSerializationUsesCodec() throws Exception {
+        WorkingMemoryFactStore factStore = newFactStore(this.codec, 20);
+        WorkingMemoryFactStore deserialized = (WorkingMemoryFactStore) deserialize(serialize(factStore));
+        assertFactStoresEqual(factStore, deserialized);
+        assertTrue(serialize(factStore).length < serialize(newFactStore(null, 20)).length);
+    }
+
+    public void testReadsFactStoresSerializedWithoutCodec() throws Exception {
+        WorkingMemoryFactStore factStore = newFactStore(null, 20);
+        // Java serialization does not round-trip the constant's ValueList.
+        factStore.getPropositions().remove(factStore.getPropositions().size() - 1);
+        WorkingMemoryFactStore deserialized = (WorkingMemoryFactStore) deserialize(serialize(factStore));
+        assertFactStoresEqual(factStore, deserialized);
+    }
+
+    public void testRejectsClassThatIsNotACodec() throws Exception {
+        byte[] bytes = serialize(newFactStore(new TestCodec(), 1));
+        byte[] from = TestCodec.class.getName().getBytes("UTF-8");
+        byte[] to = NotACodec.class.getName().getBytes("UTF-8");
+        assertEquals(from.length, to.length);
+        int i = indexOf(bytes, from);
+        assertTrue(i >= 0);
+        System.arraycopy(to, 0, bytes, i, to.length);
+        try {
+            deserialize(bytes);
+            fail("Expected an InvalidObjectException");
+        } catch (InvalidObjectException ex) {
+        }
+        assertFalse(notACodecInitialized);
+    }
+
+    public void testUnsupportedVersion() {
+        try {
+            this.codec.decode(new byte[]{(byte) 99});
+            fail("Expected an IOException");
+        } catch (IOException ex) {
+        }
+    }
+
+    private WorkingMemoryFactStore newFactStore(WorkingMemoryFactStoreCodec c, int size) {
+        WorkingMemoryFactStore factStore = new WorkingMemoryFactStore(c);
+        List<Proposition> props = new ArrayList<>();
+        Map<Proposition, Set<Proposition>> forward = new HashMap<>();
+        Map<Proposition, Set<Proposition>> backward = new HashMap<>();
+        long time = 1172779860000L;
+        for (int i = 0; i < size; i++) {
+            PrimitiveParameter pp = new PrimitiveParameter("GLUCOSE", dsbUid("glucose" + i, i));
+            pp.setSourceSystem(DataSourceBackendSourceSystem.getInstance("EHR"));
+            pp.setPosition(time + i * 3600000L);
+            pp.setGranularity(AbsoluteTimeGranularity.MINUTE);
+            pp.setValue(i % 2 == 0 ? NumberValue.getInstance(100 + i) : new InequalityNumberValue(ValueComparator.GREATER_THAN, 5.25));
+            pp.setProperty("unit", NominalValue.getInstance("mg/dL"));
+            pp.setCreateDate(new Date(time));
+            props.add(pp);
+
+            Event e = new Event("ENCOUNTER", dsbUid("enc" + i, i));
+            e.setInterval(INTERVAL_FACTORY.getInstance(time, AbsoluteTimeGranularity.DAY, time + 86400000L * i, AbsoluteTimeGranularity.DAY));
+            e.setProperty("flagged", BooleanValue.TRUE);
+            e.setProperty("admitted", DateValue.getInstance(new Date(time)));
+            e.addReference("labs", pp.getUniqueId());
+            e.setDeleteDate(i == 3 ? new Date(time) : null);
+            props.add(e);
+
+            AbstractParameter ap = new AbstractParameter("HIGH_GLUCOSE", derivedUid(i));
+            ap.setSourceSystem(SourceSystem.DERIVED);
+            ap.setInterval(INTERVAL_FACTORY.getInstance(null, time, AbsoluteTimeGranularity.HOUR, time + 1L, null, AbsoluteTimeGranularity.HOUR));
+            ap.setValue(NominalValue.getInstance("High"));
+            ap.setContextId(i % 3 == 0 ? "CTX" : null);
+            props.add(ap);
+            forward.put(pp, new HashSet<Proposition>(Collections.singleton(ap)));
+            backward.put(ap, new HashSet<Proposition>(Collections.singleton(pp)));
+        }
+        Constant c1 = new Constant("PATIENT", dsbUid("patient", 0));
+        ValueList<NominalValue> races = new ValueList<>();
+        races.add(NominalValue.getInstance("a"));
+        races.add(NominalValue.getInstance("b"));
+        c1.setProperty("races", races);
+        props.add(c1);
+        factStore.setPropositions(props);
+        factStore.setForwardDerivations(forward);
+        factStore.setBackwardDerivations(backward);
+        Map<String, Integer> instanceNums = new HashMap<>();
+        instanceNums.put("HIGH_GLUCOSE", size);
+        factStore.setInstanceNums(instanceNums);
+        return factStore;
+    }
+
+    private static UniqueId dsbUid(final String id, final int numericalId) {
+        return new UniqueId(DataSourceBackendId.getInstance("EHR"), new ProviderBasedLocalUniqueId(provider(id, numericalId)));
+    }
+
+    private static UniqueId derivedUid(int numericalId) {
+        return new UniqueId(DerivedSourceId.getInstance(), new ProviderBasedLocalUniqueId(provider("HIGH_GLUCOSE" + numericalId, numericalId)));
+    }
+
+    private static LocalUniqueIdValuesProvider provider(final String id, final int numericalId) {
+        return new LocalUniqueIdValuesProvider() {
+
+            @Override
+            public void incr() {
+            }
+
+            @Override
+            public String getId() {
+                return id;
+            }
+
+            @Override
+            public int getNumericalId() {
+                return numericalId;
+            }
+        };
+    }
+
+    private static void assertFactStoresEqual(WorkingMemoryFactStore expected, WorkingMemoryFactStore actual) {
+        List<Proposition> expectedProps = expected.getPropositions();
+        List<Proposition> actualProps = actual.getPropositions();
+        assertEquals(expectedProps.size(), actualProps.size());
+        for (int i = 0; i < expectedProps.size(); i++) {
+            Proposition e = expectedProps.get(i);
+            Proposition a = actualProps.get(i);
+            assertEquals(e, a);
+            assertTrue(e.isEqual(a));
+            assertEquals(e.getSourceSystem().getStringRepresentation(), a.getSourceSystem().getStringRepresentation());
+            assertEquals(e.getCreateDate(), a.getCreateDate());
+            assertEquals(e.getDeleteDate(), a.getDeleteDate());
+            for (String refName : e.getReferenceNames()) {
+                assertEquals(e.getReferences(refName), a.getReferences(refName));
+            }
+            for (String propName : e.getPropertyNames()) {
+                assertEquals(e.getProperty(propName), a.getProperty(propName));
+            }
+            if (e instanceof TemporalProposition) {
+                assertEquals(((TemporalProposition) e).getInterval(), ((TemporalProposition) a).getInterval());
+            }
+            if (e instanceof AbstractParameter) {
+                assertEquals(((AbstractParameter) e).getContextId(), ((AbstractParameter) a).getContextId());
+            }
+        }
+        assertEquals(expected.getForwardDerivations(), actual.getForwardDerivations());
+        assertEquals(expected.getBackwardDerivations(), actual.getBackwardDerivations());
+        assertEquals(expected.getInstanceNums(), actual.getInstanceNums());
+    }
+
+    private static boolean containsSame(List<Proposition> props, Proposition prop) {
+        for (Proposition p : props) {
+            if (p == prop) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] sub) {
+        for (int i = 0; i <= bytes.length - sub.length; i++) {
+            int j = 0;
+            while (j < sub.length && bytes[i + j] == sub[j]) {
+                j++;
+            }
+            if (j == sub.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static class TestCodec implements WorkingMemoryFactStoreCodec {
+
+        private final BinaryWorkingMemoryFactStoreCodec codec
+                = new BinaryWorkingMemoryFactStoreCodec();
+
+        @Override
+        public byte[] encode(WorkingMemoryFactStore factStore) throws IOException {
+            return this.codec.encode(factStore);
+        }
+
+        @Override
+        public WorkingMemoryFactStore decode(byte[] bytes) throws IOException {
+            return this.codec.decode(bytes);
+        }
+    }
+
+    private static volatile boolean notACodecInitialized;
+
+    public static class NotACodec {
+
+        static {
+            notACodecInitialized = true;
+        }
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ois.readObject();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.datastore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.protempa.EventDefinition;
+import org.protempa.PrimitiveParameterDefinition;
+import org.protempa.PropositionDefinition;
+import org.protempa.PropositionDefinitionCache;
+
+public class WorkingMemoryDataStoresTest extends TestCase {
+
+    private Path directory;
+    private Path storedPropDefsFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("protempa-wmds");
+        this.storedPropDefsFile = this.directory.resolve("test.stored-propdefs");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    public void testFinishWritesOnlyWhenChanged() throws IOException {
+        List<PropositionDefinition> propDefs = new ArrayList<>();
+        propDefs.add(new EventDefinition("EVENT"));
+        PropositionDefinitionCache cache = new PropositionDefinitionCache(propDefs);
+        try (WorkingMemoryDataStores stores = new WorkingMemoryDataStores(this.directory, "test", cache)) {
+            stores.finish();
+            assertTrue(Files.exists(this.storedPropDefsFile));
+            Files.delete(this.storedPropDefsFile);
+            stores.finish();
+            assertFalse(Files.exists(this.storedPropDefsFile));
+            cache.merge(new PropositionDefinitionCache(Collections.singletonList(new PrimitiveParameterDefinition("PARAM"))));
+            stores.finish();
+            assertTrue(Files.exists(this.storedPropDefsFile));
+            Files.delete(this.storedPropDefsFile);
+            cache.merge(new PropositionDefinitionCache(Collections.singletonList(new PrimitiveParameterDefinition("PARAM"))));
+            stores.finish();
+            assertFalse(Files.exists(this.storedPropDefsFile));
+            cache.remove("PARAM");
+            stores.finish();
+            assertTrue(Files.exists(this.storedPropDefsFile));
+        }
+    }
+
+    public void testFinishLeavesNoTemporaryFiles() throws IOException {
+        PropositionDefinitionCache cache = new PropositionDefinitionCache(Collections.singletonList(new EventDefinition("EVENT")));
+        try (WorkingMemoryDataStores stores = new WorkingMemoryDataStores(this.directory, "test", cache)) {
+            stores.finish();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                assertEquals(this.storedPropDefsFile, file);
+            }
+        }
+    }
+
+    public void testJavaSerializationIsTheDefaultCodec() throws IOException {
+        assertFalse(usesBinaryCodec(null));
+        assertFalse(usesBinaryCodec("java"));
+        assertTrue(usesBinaryCodec("binary"));
+    }
+
+    private boolean usesBinaryCodec(String codec) throws IOException {
+        String old = System.getProperty(WorkingMemoryDataStores.SYSTEM_PROPERTY_CODEC);
+        if (codec != null) {
+            System.setProperty(WorkingMemoryDataStores.SYSTEM_PROPERTY_CODEC, codec);
+        } else {
+            System.clearProperty(WorkingMemoryDataStores.SYSTEM_PROPERTY_CODEC);
+        }
+        try (WorkingMemoryDataStores stores = new WorkingMemoryDataStores(this.directory, "test", new PropositionDefinitionCache(Collections.<PropositionDefinition>emptyList()))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(stores.newFactStore());
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1)
+                    .contains(BinaryWorkingMemoryFactStoreCodec.class.getName());
+        } finally {
+            if (old != null) {
+                System.setProperty(WorkingMemoryDataStores.SYSTEM_PROPERTY_CODEC, old);
+            } else {
+                System.clearProperty(WorkingMemoryDataStores.SYSTEM_PROPERTY_CODEC);
+            }
+        }
+    }
+
+    public void testStoredPropDefsAreRead() throws IOException {
+        List<PropositionDefinition> propDefs = new ArrayList<>();
+        propDefs.add(new EventDefinition("EVENT"));
+        propDefs.add(new PrimitiveParameterDefinition("PARAM"));
+        try (WorkingMemoryDataStores stores = new WorkingMemoryDataStores(this.directory, "test", new PropositionDefinitionCache(propDefs))) {
+            stores.finish();
+        }
+        PropositionDefinitionCache cache = new PropositionDefinitionCache(Collections.<PropositionDefinition>emptyList());
+        try (WorkingMemoryDataStores stores = new WorkingMemoryDataStores(this.directory, "test", cache)) {
+            PropositionDefinitionCache inStores = stores.getPropositionDefinitionsInStores();
+            assertTrue(inStores.contains("EVENT"));
+            assertTrue(inStores.contains("PARAM"));
+            assertTrue(cache.contains("EVENT"));
+            assertTrue(cache.contains("PARAM"));
+        }
+    }
+}
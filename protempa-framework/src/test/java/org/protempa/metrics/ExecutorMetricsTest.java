@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.metrics;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Andrew Post
+ */
+public class ExecutorMetricsTest extends TestCase {
+
+    private static class FixedWeightQueue extends LinkedBlockingQueue<String>
+            implements WeightedQueue {
+
+        @Override
+        public long getWeight() {
+            return 42L;
+        }
+
+        @Override
+        public long getHighWatermark() {
+            return 100L;
+        }
+    }
+
+    public void testSlowestKeysSlowestFirst() {
+        ExecutorMetrics metrics = new ExecutorMetrics("test");
+        for (int i = 1; i <= 20; i++) {
+            metrics.recordKeyProcessed("key" + i, i, i * 1000L);
+        }
+        List<SlowKey> slowestKeys = metrics.getSlowestKeys();
+        assertEquals(10, slowestKeys.size());
+        assertEquals("key20", slowestKeys.get(0).getKeyId());
+        assertEquals("key11", slowestKeys.get(9).getKeyId());
+    }
+
+    public void testDoProcessStageCounts() {
+        ExecutorMetrics metrics = new ExecutorMetrics("test");
+        metrics.recordKeyProcessed("key1", 3, 1000L);
+        metrics.recordKeyProcessed("key2", 4, 1000L);
+        assertEquals(2L, metrics.getDoProcessStage().getKeys());
+        assertEquals(7L, metrics.getDoProcessStage().getPropositions());
+        assertEquals(2L, metrics.getKeyLatencies().getCount());
+    }
+
+    public void testLatencyPercentileWithinFactorOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        long median = histogram.getPercentileNanos(50.0);
+        assertTrue(median >= 50000L && median < 100000L);
+        assertEquals(100000L, histogram.getPercentileNanos(100.0));
+    }
+
+    public void testEmptyHistogramPercentileIsZero() {
+        assertEquals(0L, new LatencyHistogram().getPercentileNanos(99.0));
+    }
+
+    public void testQueueOccupancyKeepsMostRecentSamples() {
+        QueueOccupancy occupancy = new QueueOccupancy("test", 3);
+        for (int i = 1; i <= 5; i++) {
+            occupancy.sample(i);
+        }
+        int[] samples = occupancy.getSamples();
+        assertEquals(3, samples.length);
+        assertEquals(3, samples[0]);
+        assertEquals(5, samples[2]);
+        assertEquals(5, occupancy.getMax());
+        assertEquals(3.0, occupancy.getMean(), 0.0);
+    }
+
+    public void testSamplesWeightOfWeightedQueues() throws InterruptedException {
+        ExecutorMetrics metrics = new ExecutorMetrics("test");
+        FixedWeightQueue doProcessQueue = new FixedWeightQueue();
+        doProcessQueue.add("key1");
+        metrics.startSampling(doProcessQueue, new LinkedBlockingQueue<String>());
+        try {
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (metrics.getDoProcessQueueWeights().length == 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+        } finally {
+            metrics.stopSampling();
+        }
+        assertEquals(42, metrics.getDoProcessQueueWeights()[0]);
+        assertEquals(1, metrics.getDoProcessQueueSizes()[0]);
+        assertEquals(100L, metrics.getDoProcessQueueHighWatermark());
+        assertEquals(0, metrics.getHandleQueryResultQueueWeights().length);
+        assertEquals(0L, metrics.getHandleQueryResultQueueHighWatermark());
+    }
+}
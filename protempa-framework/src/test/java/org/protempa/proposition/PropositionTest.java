@@ -19,11 +19,18 @@
  */
 package org.protempa.proposition;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import org.protempa.ProtempaTestCase;
+import org.protempa.proposition.value.NominalValue;
 
 public class PropositionTest extends ProtempaTestCase {
     
@@ -77,6 +84,73 @@ public class PropositionTest extends ProtempaTestCase {
         assertEquals("quux", pmap.put(new Event("quux", quuxUid), "xuup"));
     }
     
+    public void testPropertyNamesInOrderSet() {
+        Event e1 = new Event("PropOrder", getUid());
+        e1.setProperty("a", NominalValue.getInstance("1"));
+        e1.setProperty("b", NominalValue.getInstance("2"));
+        Event e2 = new Event("PropOrder", getUid());
+        e2.setProperty("c", NominalValue.getInstance("3"));
+        e2.setProperty("b", NominalValue.getInstance("4"));
+        e2.setProperty("a", null);
+        e2.setProperty("c", NominalValue.getInstance("5"));
+        assertEquals(Arrays.asList("a", "b"),
+                Arrays.asList(e1.getPropertyNames()));
+        assertEquals(Arrays.asList("c", "b", "a"),
+                Arrays.asList(e2.getPropertyNames()));
+        assertEquals(NominalValue.getInstance("5"), e2.getProperty("c"));
+        assertNull(e2.getProperty("a"));
+        assertNull(e1.getProperty("c"));
+    }
+
+    public void testManyProperties() {
+        Event e = new Event("PropMany", getUid());
+        for (int i = 0; i < 100; i++) {
+            e.setProperty("p" + i, NominalValue.getInstance("v" + i));
+        }
+        String[] propNames = e.getPropertyNames();
+        assertEquals(100, propNames.length);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("p" + i, propNames[i]);
+            assertEquals(NominalValue.getInstance("v" + i),
+                    e.getProperty("p" + i));
+        }
+    }
+
+    public void testIsEqualProperties() {
+        UniqueId uid = getUid();
+        Event e1 = new Event("PropIsEqual", uid);
+        e1.setProperty("a", NominalValue.getInstance("1"));
+        e1.setProperty("b", null);
+        Event e2 = new Event("PropIsEqual", uid);
+        e2.setProperty("b", null);
+        e2.setProperty("a", NominalValue.getInstance("1"));
+        assertTrue(e1.isEqual(e2));
+        Event e3 = new Event("PropIsEqual", uid);
+        e3.setProperty("a", NominalValue.getInstance("1"));
+        e3.setProperty("c", null);
+        assertFalse(e1.isEqual(e3));
+    }
+
+    public void testPropertySerialization() throws IOException,
+            ClassNotFoundException {
+        Event e = new Event("PropSerialization", getUid());
+        e.setProperty("b", NominalValue.getInstance("1"));
+        e.setProperty("a", null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(e);
+        }
+        Event restored;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = (Event) in.readObject();
+        }
+        assertEquals(Arrays.asList("b", "a"),
+                Arrays.asList(restored.getPropertyNames()));
+        assertEquals(NominalValue.getInstance("1"), restored.getProperty("b"));
+        assertNull(restored.getProperty("a"));
+    }
+
     private boolean assertOneOf(Proposition toFind, Proposition... props) {
         for (Proposition p : props) {
             if (toFind.equals(p)) {
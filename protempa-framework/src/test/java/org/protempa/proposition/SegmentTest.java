@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.proposition;
+
+import java.util.Random;
+
+import org.protempa.ProtempaTestCase;
+import org.protempa.proposition.interval.Interval;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import org.protempa.proposition.value.Granularity;
+
+/**
+ * Checks that a {@link Segment}'s interval is right as it is slid, grown,
+ * shrunk and moved over a sequence.
+ */
+public class SegmentTest extends ProtempaTestCase {
+
+    private static final IntervalFactory INTERVAL_FACTORY = new IntervalFactory();
+    private static final long HOUR = 60L * 60 * 1000;
+    private Sequence<AbstractParameter> sequence;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.sequence = new Sequence<>("AP");
+        Random random = new Random(5L);
+        for (int i = 0; i < 300; i++) {
+            AbstractParameter ap = new AbstractParameter("AP", getUid());
+            long start = i * HOUR;
+            Granularity finishGran = random.nextBoolean()
+                    ? AbsoluteTimeGranularity.HOUR
+                    : AbsoluteTimeGranularity.DAY;
+            Long maxStart = random.nextInt(10) == 0 ? null
+                    : start + random.nextInt(3) * HOUR;
+            Long minFinish = random.nextInt(10) == 0 ? null
+                    : start + (3 + random.nextInt(30)) * HOUR;
+            Long maxFinish = random.nextInt(20) == 0 ? null
+                    : start + (40 + random.nextInt(30)) * HOUR;
+            ap.setInterval(INTERVAL_FACTORY.getInstance(start, maxStart,
+                    AbsoluteTimeGranularity.HOUR, minFinish, maxFinish,
+                    finishGran));
+            this.sequence.add(ap);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.sequence = null;
+    }
+
+    public void testSlidingWindow() {
+        Segment<AbstractParameter> segment =
+                new Segment<>(this.sequence, 0, 9);
+        for (int x = 0; x + 9 < this.sequence.size(); x++) {
+            assertNotNull(segment.resetState(this.sequence, x, x + 9));
+            assertBounds(segment);
+        }
+    }
+
+    public void testGrowingWindow() {
+        Segment<AbstractParameter> segment =
+                new Segment<>(this.sequence, 0, 0);
+        for (int y = 0; y < this.sequence.size(); y++) {
+            assertNotNull(segment.resetState(this.sequence, 0, y));
+            assertBounds(segment);
+        }
+    }
+
+    public void testRandomWindows() {
+        Segment<AbstractParameter> segment = new Segment<>(this.sequence);
+        Random random = new Random(9L);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < 2000; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    x = random.nextInt(this.sequence.size());
+                    y = x + random.nextInt(this.sequence.size() - x);
+                    break;
+                case 1:
+                    if (x < y) {
+                        x++;
+                    }
+                    break;
+                default:
+                    if (y < this.sequence.size() - 1) {
+                        y++;
+                    }
+            }
+            assertNotNull(segment.resetState(this.sequence, x, y));
+            assertBounds(segment);
+        }
+    }
+
+    public void testCopy() {
+        Segment<AbstractParameter> segment =
+                new Segment<>(this.sequence, 20, 40);
+        segment.getInterval();
+        Segment<AbstractParameter> copy = new Segment<>(segment);
+        assertNotNull(copy.resetState(this.sequence, 21, 45));
+        assertBounds(copy);
+        assertBounds(segment);
+    }
+
+    private static void assertBounds(Segment<AbstractParameter> segment) {
+        Interval interval = segment.getInterval();
+        if (segment.size() == 1) {
+            assertSame(segment.first().getInterval(), interval);
+            return;
+        }
+        /*
+         * The elements with the extreme values are chosen by their derived
+         * bounds, and the segment's interval is made from their raw ones.
+         */
+        Interval maxStartIval = null;
+        Interval minFinishIval = null;
+        Interval maxFinishIval = null;
+        for (AbstractParameter ap : segment) {
+            Interval ival = ap.getInterval();
+            Long ms = ival.getMaximumStart();
+            if (ms != null && (maxStartIval == null
+                    || maxStartIval.getMaximumStart() == null
+                    || ms < maxStartIval.getMaximumStart())) {
+                maxStartIval = ival;
+            } else if (maxStartIval == null) {
+                maxStartIval = ival;
+            }
+            Long mf = ival.getMinimumFinish();
+            if (minFinishIval == null || (mf != null
+                    && (minFinishIval.getMinimumFinish() == null
+                    || mf > minFinishIval.getMinimumFinish()))) {
+                minFinishIval = ival;
+            }
+            Long xf = ival.getMaximumFinish();
+            if (maxFinishIval == null
+                    || (maxFinishIval.getMaximumFinish() != null
+                    && (xf == null || xf > maxFinishIval.getMaximumFinish()))) {
+                maxFinishIval = ival;
+            }
+        }
+        Granularity finishGran = maxFinishIval.getFinishGranularity();
+        Interval expected = INTERVAL_FACTORY.getInstance(
+                segment.first().getInterval().getMinStart(),
+                maxStartIval.getMaxStart(), segment.getStartGranularity(),
+                minFinishIval.getMinFinish(), maxFinishIval.getMaxFinish(),
+                finishGran);
+        String msg = segment.getFirstIndex() + "-" + segment.getLastIndex();
+        assertEquals(msg, expected.getMinimumStart(),
+                interval.getMinimumStart());
+        assertEquals(msg, expected.getMaximumStart(),
+                interval.getMaximumStart());
+        assertEquals(msg, expected.getMinimumFinish(),
+                interval.getMinimumFinish());
+        assertEquals(msg, expected.getMaximumFinish(),
+                interval.getMaximumFinish());
+        assertEquals(msg, finishGran, segment.getFinishGranularity());
+    }
+}
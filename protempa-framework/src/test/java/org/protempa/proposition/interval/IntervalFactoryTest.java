@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.proposition.interval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+
+import junit.framework.TestCase;
+
+public class IntervalFactoryTest extends TestCase {
+
+    private IntervalFactory intervalFactory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.intervalFactory = new IntervalFactory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.intervalFactory = null;
+    }
+
+    public void testSameArgumentsSameInstance() {
+        Interval i1 = this.intervalFactory.getInstance(1000L,
+                AbsoluteTimeGranularity.DAY, 2000L,
+                AbsoluteTimeGranularity.DAY);
+        Interval i2 = this.intervalFactory.getInstance(1000L,
+                AbsoluteTimeGranularity.DAY, 2000L,
+                AbsoluteTimeGranularity.DAY);
+        assertSame(i1, i2);
+    }
+
+    public void testDifferentGranularitiesDifferentInstances() {
+        Interval i1 = this.intervalFactory.getInstance(1000L,
+                AbsoluteTimeGranularity.DAY, 2000L,
+                AbsoluteTimeGranularity.DAY);
+        Interval i2 = this.intervalFactory.getInstance(1000L,
+                AbsoluteTimeGranularity.DAY, 2000L,
+                AbsoluteTimeGranularity.HOUR);
+        assertNotSame(i1, i2);
+    }
+
+    public void testNullDiffersFromZero() {
+        Interval i1 = this.intervalFactory.getInstance(0L,
+                AbsoluteTimeGranularity.DAY, null,
+                AbsoluteTimeGranularity.DAY);
+        Interval i2 = this.intervalFactory.getInstance(0L,
+                AbsoluteTimeGranularity.DAY, 0L,
+                AbsoluteTimeGranularity.DAY);
+        assertNotSame(i1, i2);
+        assertNull(i1.getMinFinish());
+        assertEquals(Long.valueOf(0L), i2.getMinFinish());
+    }
+
+    public void testPositionDiffersFromStartAndFinish() {
+        Interval i1 = this.intervalFactory.getInstance(3000L,
+                AbsoluteTimeGranularity.DAY);
+        Interval i2 = this.intervalFactory.getInstance(3000L,
+                AbsoluteTimeGranularity.DAY, null,
+                AbsoluteTimeGranularity.DAY);
+        assertNotSame(i1, i2);
+    }
+
+    public void testHitAndMissCounts() {
+        long misses = IntervalFactory.getCacheMissCount();
+        long hits = IntervalFactory.getCacheHitCount();
+        this.intervalFactory.getInstance(-123456789L,
+                AbsoluteTimeGranularity.SECOND);
+        this.intervalFactory.getInstance(-123456789L,
+                AbsoluteTimeGranularity.SECOND);
+        assertTrue(IntervalFactory.getCacheMissCount() >= misses + 1);
+        assertTrue(IntervalFactory.getCacheHitCount() >= hits + 1);
+    }
+
+    public void testConcurrentCallersSameInstance() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Interval>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<List<Interval>>() {
+                    @Override
+                    public List<Interval> call() {
+                        List<Interval> result = new ArrayList<>();
+                        for (long i = 0; i < 1000; i++) {
+                            result.add(intervalFactory.getInstance(
+                                    5000000L + i,
+                                    AbsoluteTimeGranularity.MINUTE,
+                                    6000000L + i,
+                                    AbsoluteTimeGranularity.MINUTE));
+                        }
+                        return result;
+                    }
+                }));
+            }
+            List<Interval> first = futures.get(0).get();
+            for (Future<List<Interval>> future : futures) {
+                List<Interval> intervals = future.get();
+                for (int i = 0; i < intervals.size(); i++) {
+                    assertSame(first.get(i), intervals.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
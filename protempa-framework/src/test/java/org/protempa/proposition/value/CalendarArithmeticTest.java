@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * Protempa Framework
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.proposition.value;
+
+import java.time.zone.ZoneOffsetTransition;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares {@link CalendarArithmetic} and {@link AbsoluteTimeGranularity}
+ * with the {@link Calendar} arithmetic that they replace.
+ */
+public class CalendarArithmeticTest extends TestCase {
+
+    private static final String[] ZONES = {"America/New_York",
+        "Europe/London", "Australia/Lord_Howe", "America/Sao_Paulo",
+        "Asia/Kolkata", "Pacific/Apia", "America/St_Johns", "UTC"};
+    private static final int[] TRUNCATE_FIELDS = {Calendar.MILLISECOND,
+        Calendar.SECOND, Calendar.MINUTE, Calendar.HOUR_OF_DAY, Calendar.DATE,
+        Calendar.MONTH, Calendar.YEAR};
+    private static final int[] ADD_FIELDS = {Calendar.MILLISECOND,
+        Calendar.SECOND, Calendar.MINUTE, Calendar.HOUR_OF_DAY, Calendar.DATE,
+        Calendar.WEEK_OF_MONTH, Calendar.MONTH, Calendar.YEAR};
+    private static final int[] AMOUNTS = {-13, -1, 1, 2, 30, 400};
+    private static final long[] TRANSITION_OFFSETS = {-86400000L, -3600000L,
+        -1800000L, -1L, 0L, 1L, 1800000L, 3600000L, 86400000L};
+    private static final AbsoluteTimeGranularity[] GRANULARITIES = {
+        AbsoluteTimeGranularity.SECOND, AbsoluteTimeGranularity.MINUTE,
+        AbsoluteTimeGranularity.HOUR, AbsoluteTimeGranularity.DAY,
+        AbsoluteTimeGranularity.MONTH, AbsoluteTimeGranularity.YEAR};
+    private static final AbsoluteTimeUnit[] UNITS = {AbsoluteTimeUnit.SECOND,
+        AbsoluteTimeUnit.MINUTE, AbsoluteTimeUnit.HOUR, AbsoluteTimeUnit.DAY,
+        AbsoluteTimeUnit.WEEK, AbsoluteTimeUnit.MONTH, AbsoluteTimeUnit.YEAR};
+    private static final int[] GRANULARITY_FIELDS = {Calendar.SECOND,
+        Calendar.MINUTE, Calendar.HOUR_OF_DAY, Calendar.DATE, Calendar.MONTH,
+        Calendar.YEAR};
+
+    public void testTruncateSameAsCalendar() {
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            CalendarArithmetic arithmetic = new CalendarArithmetic(timeZone);
+            Calendar cal = new GregorianCalendar(timeZone);
+            for (long position : positions(timeZone)) {
+                for (int field : TRUNCATE_FIELDS) {
+                    assertEquals(zone + " " + position + " " + field,
+                            truncate(cal, position, field),
+                            arithmetic.truncate(position, field));
+                }
+            }
+        }
+    }
+
+    public void testTruncateUnsupportedField() {
+        CalendarArithmetic arithmetic = new CalendarArithmetic(
+                TimeZone.getTimeZone("UTC"));
+        try {
+            arithmetic.truncate(0L, Calendar.DAY_OF_WEEK);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(
+                    String.valueOf(Calendar.DAY_OF_WEEK)));
+        }
+    }
+
+    public void testAddSameAsCalendar() {
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            CalendarArithmetic arithmetic = new CalendarArithmetic(timeZone);
+            Calendar cal = new GregorianCalendar(timeZone);
+            for (long position : positions(timeZone)) {
+                for (int field : ADD_FIELDS) {
+                    for (int amount : AMOUNTS) {
+                        assertEquals(zone + " " + position + " " + field
+                                + " " + amount,
+                                add(cal, position, field, amount),
+                                arithmetic.add(position, field, amount));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testGranularitiesSameAsCalendar() {
+        Calendar cal = Calendar.getInstance();
+        Random random = new Random(11L);
+        for (int i = 0; i < 300; i++) {
+            long position = randomPosition(random);
+            long finish = position + (long) (random.nextDouble() * 1e10);
+            for (int g = 0; g < GRANULARITIES.length; g++) {
+                AbsoluteTimeGranularity gran = GRANULARITIES[g];
+                int field = GRANULARITY_FIELDS[g];
+                assertEquals(gran + " " + position,
+                        truncate(cal, position, field),
+                        gran.earliest(position));
+                assertEquals(gran + " " + position,
+                        add(cal, add(cal, position, field, 1),
+                        Calendar.MILLISECOND, -1),
+                        gran.latest(position));
+                for (int u = 0; u < UNITS.length; u++) {
+                    AbsoluteTimeUnit unit = UNITS[u];
+                    int distance = random.nextInt(50);
+                    int calUnits = unit.getCalendarUnits();
+                    long expectedMax = distance == 0 ? 0L
+                            : add(cal, add(cal, add(cal, position, calUnits,
+                            distance), calUnits, 1), Calendar.MILLISECOND, -1)
+                            - position;
+                    assertEquals(gran + " " + unit + " " + position,
+                            expectedMax,
+                            gran.maximumDistance(position, distance, unit));
+                    long expectedMin = distance == 0 ? 0L
+                            : add(cal, add(cal, add(cal, position, calUnits,
+                            distance), calUnits, -1), Calendar.MILLISECOND, 1)
+                            - position;
+                    assertEquals(gran + " " + unit + " " + position,
+                            expectedMin,
+                            gran.minimumDistance(position, distance, unit));
+                    if (g == 0 && u >= 3) {
+                        assertEquals(gran + " " + unit + " " + position,
+                                distance(cal, position, finish, calUnits),
+                                gran.distance(position, finish, gran, unit));
+                    }
+                    assertEquals(unit + " " + position,
+                            add(cal, position, calUnits, distance),
+                            unit.addToPosition(position, distance));
+                }
+            }
+        }
+    }
+
+    private static List<Long> positions(TimeZone timeZone) {
+        List<Long> result = new ArrayList<>();
+        for (ZoneOffsetTransition t
+                : timeZone.toZoneId().getRules().getTransitions()) {
+            long epochMillis = t.toEpochSecond() * 1000L;
+            for (long offset : TRANSITION_OFFSETS) {
+                result.add(epochMillis + offset);
+            }
+        }
+        Random random = new Random(7L);
+        for (int i = 0; i < 2000; i++) {
+            result.add(randomPosition(random));
+        }
+        result.add(-12219292800000L - 1L);
+        result.add(-2177452800000L);
+        result.add(2114380800000L);
+        result.add(4102444800000L);
+        return result;
+    }
+
+    /**
+     * Positions from 1890 through 2060.
+     */
+    private static long randomPosition(Random random) {
+        return -2524521600000L + (long) (random.nextDouble() * 5.36e12);
+    }
+
+    private static long truncate(Calendar cal, long position, int field) {
+        cal.setTimeInMillis(position);
+        int i = 0;
+        while (TRUNCATE_FIELDS[i] != field) {
+            i++;
+        }
+        for (i--; i >= 0; i--) {
+            cal.set(TRUNCATE_FIELDS[i],
+                    cal.getActualMinimum(TRUNCATE_FIELDS[i]));
+        }
+        return cal.getTimeInMillis();
+    }
+
+    private static long add(Calendar cal, long position, int field,
+            int amount) {
+        cal.setTimeInMillis(position);
+        cal.add(field, amount);
+        return cal.getTimeInMillis();
+    }
+
+    private static long distance(Calendar cal, long start, long finish,
+            int field) {
+        cal.setTimeInMillis(start);
+        int result = 0;
+        while (true) {
+            cal.add(field, 1);
+            if (cal.getTimeInMillis() > finish) {
+                return result;
+            }
+            result++;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * Protempa Test Suite
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.protempa.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.protempa.Protempa;
+import org.protempa.ProtempaException;
+import org.protempa.SourceFactory;
+import org.protempa.bconfigs.ini4j.INIConfigurations;
+import org.protempa.dest.Destination;
+
+/**
+ * Runs the end-to-end query of {@link ProtempaTest} with abstract parameters
+ * and contexts combined by the sort-and-sweep rules rather than one pair at a
+ * time.
+ *
+ * @author Andrew Post
+ */
+public class ProtempaCombinerSweepTest {
+
+    private static final String SYSTEM_PROPERTY_COMBINER_SWEEP
+            = "protempa.rules.combinersweep";
+
+    private static final String TRUTH_OUTPUT = "src/test/resources/truth/output.txt";
+
+    private Protempa protempa;
+    private String oldCombinerSweep;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("protempa.dsb.relationaldatabase.sqlgenerator",
+                "org.protempa.backend.dsb.relationaldb.h2.H2SQLGenerator");
+        this.oldCombinerSweep = System.setProperty(
+                SYSTEM_PROPERTY_COMBINER_SWEEP, "true");
+        SourceFactory sf = new SourceFactory(
+                new INIConfigurations(new File("src/test/resources")),
+                "protege-h2-test-config");
+        this.protempa = Protempa.newInstance(sf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            if (this.protempa != null) {
+                this.protempa.close();
+            }
+        } finally {
+            if (this.oldCombinerSweep != null) {
+                System.setProperty(SYSTEM_PROPERTY_COMBINER_SWEEP,
+                        this.oldCombinerSweep);
+            } else {
+                System.clearProperty(SYSTEM_PROPERTY_COMBINER_SWEEP);
+            }
+        }
+    }
+
+    /**
+     * Tests that combining by sorting and sweeping gives the same output as
+     * combining one pair at a time.
+     */
+    @Test
+    public void testCombinerSweepSameAsPairwise() throws IOException, ProtempaException {
+        Path outputFile = Files.createTempFile("protempa-test-sweep", null);
+        try (BufferedWriter fw = Files.newBufferedWriter(outputFile)) {
+            Destination destination = new SingleColumnDestination(fw);
+            this.protempa.execute(this.protempa.buildQuery(
+                    new QueryBuilderFactory().getInstance()), destination);
+        }
+        assertEquals(Files.readAllLines(Paths.get(TRUTH_OUTPUT)),
+                Files.readAllLines(outputFile));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * Protempa Test Suite
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.protempa.DataSourceWriteException;
+import org.protempa.backend.dsb.relationaldb.EntitySpec;
+import org.protempa.backend.dsb.relationaldb.RelationalDbDataSourceBackend;
+
+/**
+ * Writes key ids into a key table in H2 with
+ * {@link RelationalDbDataSourceBackend#writeKeys(java.util.Set) }.
+ *
+ * @author Andrew Post
+ */
+public class RelationalDbWriteKeysTest {
+
+    private static final String DATABASE_ID
+            = "jdbc:h2:mem:WRITEKEYS;DB_CLOSE_DELAY=-1";
+
+    private Connection connection;
+    private KeysDataSourceBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        this.connection = DriverManager.getConnection(DATABASE_ID);
+        try (Statement stmt = this.connection.createStatement()) {
+            stmt.execute("CREATE SCHEMA KEYTEST");
+            stmt.execute("CREATE TABLE KEYTEST.PATIENT (PATIENT_KEY VARCHAR(32) NOT NULL PRIMARY KEY)");
+            stmt.execute("CREATE TABLE KEYTEST.KEYS (KEY_ID VARCHAR(32) NOT NULL CHECK (KEY_ID <> 'P20'), PATIENT_KEY VARCHAR(32) NOT NULL)");
+            for (int i = 0; i < 25; i++) {
+                stmt.execute("INSERT INTO KEYTEST.PATIENT VALUES ('" + patientKey(i) + "')");
+            }
+        }
+        this.backend = new KeysDataSourceBackend();
+        this.backend.setDatabaseId(DATABASE_ID);
+        this.backend.setKeyLoaderKeyIdSchema("KEYTEST");
+        this.backend.setKeyLoaderKeyIdTable("KEYS");
+        this.backend.setKeyLoaderKeyIdColumn("KEY_ID");
+        this.backend.setKeyLoaderKeyIdJoinKey("PATIENT_KEY");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            this.backend.close();
+        } finally {
+            try (Statement stmt = this.connection.createStatement()) {
+                stmt.execute("DROP SCHEMA KEYTEST CASCADE");
+            } finally {
+                this.connection.close();
+            }
+        }
+    }
+
+    /**
+     * Tests that all key ids are written when they span several statements,
+     * JDBC batches and commits, and that key ids that are not in the default
+     * key id table are skipped.
+     */
+    @Test
+    public void testWriteKeys() throws Exception {
+        this.backend.setWriteKeysBatchSize(3);
+        this.backend.setWriteKeysCommitSize(7);
+        Set<String> keyIds = new LinkedHashSet<>();
+        for (int i = 0; i < 20; i++) {
+            keyIds.add(patientKey(i));
+        }
+        keyIds.add("NOT_A_PATIENT");
+        this.backend.writeKeys(keyIds);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(patientKey(i));
+        }
+        assertEquals(expected, readKeys());
+    }
+
+    /**
+     * Tests that a failure after some key ids were committed leaves the key
+     * table as it was.
+     */
+    @Test
+    public void testWriteKeysFailureRemovesCommittedKeys() throws Exception {
+        this.backend.setWriteKeysBatchSize(5);
+        this.backend.setWriteKeysCommitSize(5);
+        Set<String> keyIds = new LinkedHashSet<>();
+        for (int i = 0; i < 25; i++) {
+            keyIds.add(patientKey(i));
+        }
+        try {
+            this.backend.writeKeys(keyIds);
+            fail("Expected the check constraint on the key table to fail");
+        } catch (DataSourceWriteException ex) {
+            // expected
+        }
+        assertEquals(new ArrayList<String>(), readKeys());
+    }
+
+    /**
+     * Tests that a failure after some key ids were committed keeps the key
+     * ids that were in the key table before, and that key ids that span
+     * several transactions are not written again if they are already there.
+     */
+    @Test
+    public void testWriteKeysFailureKeepsExistingKeys() throws Exception {
+        try (Statement stmt = this.connection.createStatement()) {
+            stmt.execute("INSERT INTO KEYTEST.KEYS VALUES ('P02', 'P02')");
+            stmt.execute("INSERT INTO KEYTEST.KEYS VALUES ('P07', 'P07')");
+        }
+        this.backend.setWriteKeysBatchSize(5);
+        this.backend.setWriteKeysCommitSize(5);
+        Set<String> keyIds = new LinkedHashSet<>();
+        for (int i = 0; i < 25; i++) {
+            keyIds.add(patientKey(i));
+        }
+        try {
+            this.backend.writeKeys(keyIds);
+            fail("Expected the check constraint on the key table to fail");
+        } catch (DataSourceWriteException ex) {
+            // expected
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add(patientKey(2));
+        expected.add(patientKey(7));
+        assertEquals(expected, readKeys());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteKeysBatchSizeAboveMaximum() {
+        this.backend.setWriteKeysBatchSize(1001);
+    }
+
+    private List<String> readKeys() throws SQLException {
+        List<String> result = new ArrayList<>();
+        try (Statement stmt = this.connection.createStatement();
+                ResultSet resultSet = stmt.executeQuery(
+                        "SELECT KEY_ID FROM KEYTEST.KEYS ORDER BY KEY_ID")) {
+            while (resultSet.next()) {
+                result.add(resultSet.getString(1));
+            }
+        }
+        return result;
+    }
+
+    private static String patientKey(int i) {
+        return String.format("P%02d", i);
+    }
+
+    /**
+     * A backend with no entity specs, whose default key id table is the test
+     * schema's patient table.
+     */
+    public static final class KeysDataSourceBackend
+            extends RelationalDbDataSourceBackend {
+
+        public KeysDataSourceBackend() {
+            setSchemaName("KEYTEST");
+            setDefaultKeyIdTable("PATIENT");
+            setDefaultKeyIdColumn("PATIENT_KEY");
+            setDefaultKeyIdJoinKey("PATIENT_KEY");
+        }
+
+        @Override
+        public String getKeyType() {
+            return "Patient";
+        }
+
+        @Override
+        public String getKeyTypeDisplayName() {
+            return "patient";
+        }
+
+        @Override
+        protected EntitySpec[] constantSpecs(String keyIdSchema,
+                String keyIdTable, String keyIdColumn, String keyIdJoinKey) {
+            return new EntitySpec[0];
+        }
+
+        @Override
+        protected EntitySpec[] eventSpecs(String keyIdSchema,
+                String keyIdTable, String keyIdColumn, String keyIdJoinKey) {
+            return new EntitySpec[0];
+        }
+
+        @Override
+        protected EntitySpec[] primitiveParameterSpecs(String keyIdSchema,
+                String keyIdTable, String keyIdColumn, String keyIdJoinKey) {
+            return new EntitySpec[0];
+        }
+    }
+}